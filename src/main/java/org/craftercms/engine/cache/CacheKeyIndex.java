@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.commons.lang.RegexUtils;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of the entries of a cache scope that were loaded through the {@link KeyIndexingCacheTemplate}, by the store
+ * paths they were loaded from. Since the actual keys of the entries are created by Core, the entries are identified
+ * by their key elements, and they're invalidated by giving their key a new generation instead of removing them.
+ *
+ * <p>The index is bounded: when it has more than the max number of keys, keys whose value has been garbage collected
+ * (which means it's not in the cache anymore) are pruned first, and then the oldest keys are dropped and invalidated,
+ * since they couldn't be invalidated when their paths change.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class CacheKeyIndex {
+
+    /**
+     * Fraction of the max keys the index is reduced to when it's full, so that the pruning is not done on every
+     * registration
+     */
+    private static final double PRUNE_TARGET = 0.9;
+
+    private final int maxKeys;
+    private final Map<String, IndexEntry> entries;
+    private final Map<String, Set<String>> pathKeys;
+    private final ConcurrentMap<String, Long> generations;
+
+    public CacheKeyIndex(int maxKeys) {
+        this.maxKeys = maxKeys;
+        this.entries = new LinkedHashMap<>();
+        this.pathKeys = new HashMap<>();
+        this.generations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the current generation of the key, 0 if it has never been invalidated.
+     */
+    public long getGeneration(String key) {
+        if (generations.isEmpty()) {
+            return 0;
+        }
+
+        Long generation = generations.get(key);
+        return generation != null? generation : 0;
+    }
+
+    /**
+     * Registers the paths the value of the key was loaded from, replacing any previous ones. The registration is
+     * ignored if the key was invalidated while the value was being loaded.
+     *
+     * @param key           the key
+     * @param paths         the paths the value was loaded from
+     * @param value         the loaded value (only weakly referenced)
+     * @param generation    the generation of the key when the value started loading
+     */
+    public synchronized void register(String key, Collection<String> paths, Object value, long generation) {
+        if (getGeneration(key) != generation) {
+            return;
+        }
+
+        removeEntry(key);
+
+        // Keys without paths are also indexed, so that they can be invalidated by pattern
+        IndexEntry entry = new IndexEntry(new HashSet<>(paths), value);
+        entries.put(key, entry);
+
+        for (String path : entry.paths) {
+            pathKeys.computeIfAbsent(path, p -> new HashSet<>()).add(key);
+        }
+
+        if (entries.size() > maxKeys) {
+            prune(key);
+        }
+    }
+
+    /**
+     * Invalidates the keys whose value was loaded from any of the paths.
+     *
+     * @return the invalidated keys
+     */
+    public synchronized Set<String> invalidate(Collection<String> paths) {
+        Set<String> keys = new HashSet<>();
+        for (String path : paths) {
+            Set<String> keysForPath = pathKeys.get(path);
+            if (keysForPath != null) {
+                keys.addAll(keysForPath);
+            }
+        }
+
+        keys.forEach(this::invalidateKey);
+
+        return keys;
+    }
+
+    /**
+     * Invalidates the keys that match any of the patterns.
+     *
+     * @return the invalidated keys
+     */
+    public synchronized Set<String> invalidateMatching(String[] patterns) {
+        Set<String> keys = new HashSet<>();
+        for (String key : entries.keySet()) {
+            if (RegexUtils.matchesAny(key, patterns)) {
+                keys.add(key);
+            }
+        }
+
+        keys.forEach(this::invalidateKey);
+
+        return keys;
+    }
+
+    /**
+     * Removes all the keys from the index (keeping their generations), like when the cache scope is cleared.
+     *
+     * @return the values of the keys that are still referenced, by key
+     */
+    public synchronized Map<String, Object> drain() {
+        Map<String, Object> values = new HashMap<>(entries.size());
+        entries.forEach((key, entry) -> {
+            Object value = entry.getValue();
+            if (value != null) {
+                values.put(key, value);
+            }
+        });
+
+        entries.clear();
+        pathKeys.clear();
+
+        return values;
+    }
+
+    public synchronized int getKeyCount() {
+        return entries.size();
+    }
+
+    public synchronized int getPathCount() {
+        return pathKeys.size();
+    }
+
+    public int getInvalidatedKeyCount() {
+        return generations.size();
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    protected void invalidateKey(String key) {
+        removeEntry(key);
+        generations.merge(key, 1L, Long::sum);
+    }
+
+    protected void prune(String newKey) {
+        int targetSize = (int) (maxKeys * PRUNE_TARGET);
+
+        // First remove the keys whose value is not in the cache anymore
+        for (Iterator<Map.Entry<String, IndexEntry>> iter = entries.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<String, IndexEntry> entry = iter.next();
+            if (!entry.getKey().equals(newKey) && entry.getValue().isCollected()) {
+                removePaths(entry.getKey(), entry.getValue());
+                iter.remove();
+            }
+        }
+
+        // Then drop (and invalidate) the oldest ones
+        List<String> droppedKeys = new ArrayList<>();
+        for (String key : entries.keySet()) {
+            if (entries.size() - droppedKeys.size() <= targetSize) {
+                break;
+            }
+            if (!key.equals(newKey)) {
+                droppedKeys.add(key);
+            }
+        }
+
+        droppedKeys.forEach(this::invalidateKey);
+    }
+
+    protected void removeEntry(String key) {
+        IndexEntry entry = entries.remove(key);
+        if (entry != null) {
+            removePaths(key, entry);
+        }
+    }
+
+    protected void removePaths(String key, IndexEntry entry) {
+        for (String path : entry.paths) {
+            Set<String> keysForPath = pathKeys.get(path);
+            if (keysForPath != null) {
+                keysForPath.remove(key);
+                if (keysForPath.isEmpty()) {
+                    pathKeys.remove(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * The paths of an indexed key, with a weak reference to its value. Null values are strongly "referenced" since
+     * they can't be told apart from collected ones.
+     */
+    protected static class IndexEntry {
+
+        private final Set<String> paths;
+        private final WeakReference<Object> valueRef;
+
+        public IndexEntry(Set<String> paths, Object value) {
+            this.paths = paths;
+            this.valueRef = value != null? new WeakReference<>(value) : null;
+        }
+
+        public Object getValue() {
+            return valueRef != null? valueRef.get() : null;
+        }
+
+        public boolean isCollected() {
+            return valueRef != null && valueRef.get() == null;
+        }
+
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import freemarker.template.Template;
+import org.craftercms.core.service.Content;
+import org.craftercms.core.service.Item;
+import org.craftercms.engine.scripting.impl.GroovyScript;
+import org.craftercms.engine.store.s3.S3Content;
+import org.craftercms.engine.view.ComponentOutputCache;
+import org.craftercms.engine.view.PageOutputCache;
+import org.dom4j.Attribute;
+import org.dom4j.Branch;
+import org.dom4j.CharacterData;
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Estimates the memory used by the objects stored in the site cache. The estimates are rough (based on the data
+ * the objects hold, plus a fixed overhead), but good enough to compare the cache usage of different sites: parsed
+ * descriptors are estimated by walking the DOM, buffered content by its length, and compiled templates and scripts
+ * with a fixed size (their source is not kept, and rendering their canonical form would be too expensive).
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class CacheObjectSizeEstimator {
+
+    public static final long OBJECT_OVERHEAD = 16;
+    public static final long REFERENCE_SIZE = 8;
+    public static final long DEFAULT_OBJECT_SIZE = 64;
+    public static final long ITEM_OVERHEAD = 200;
+    public static final long CONTENT_OVERHEAD = 200;
+    public static final long ELEMENT_OVERHEAD = 120;
+    public static final long ATTRIBUTE_OVERHEAD = 80;
+    public static final long TEXT_OVERHEAD = 60;
+    public static final long TEMPLATE_SIZE = 32 * 1024;
+    public static final long SCRIPT_SIZE = 32 * 1024;
+
+    private static final int MAX_DEPTH = 4;
+
+    /**
+     * Returns the estimated size in bytes of the object.
+     */
+    public long estimate(Object obj) {
+        return estimate(obj, 0);
+    }
+
+    protected long estimate(Object obj, int depth) {
+        if (obj == null) {
+            return 0;
+        } else if (obj instanceof CharSequence) {
+            return estimateString((CharSequence) obj);
+        } else if (obj instanceof Number || obj instanceof Boolean || obj instanceof Enum) {
+            return OBJECT_OVERHEAD;
+        } else if (obj instanceof byte[]) {
+            return OBJECT_OVERHEAD + ((byte[]) obj).length;
+        } else if (obj instanceof Item) {
+            return estimateItem((Item) obj);
+        } else if (obj instanceof Node) {
+            return estimateNode((Node) obj);
+        } else if (obj instanceof Content) {
+            return estimateContent((Content) obj);
+        } else if (obj instanceof PageOutputCache.CachedOutput) {
+            return CONTENT_OVERHEAD + ((PageOutputCache.CachedOutput) obj).getContent().length;
+        } else if (obj instanceof ComponentOutputCache.CachedFragment) {
+            return CONTENT_OVERHEAD + estimateString(((ComponentOutputCache.CachedFragment) obj).getOutput());
+        } else if (obj instanceof CompressedContentCache) {
+            return CONTENT_OVERHEAD + ((CompressedContentCache) obj).getSize();
+        } else if (obj instanceof Template) {
+            return TEMPLATE_SIZE;
+        } else if (obj instanceof GroovyScript) {
+            return SCRIPT_SIZE;
+        } else if (depth < MAX_DEPTH && obj instanceof Collection) {
+            return estimateCollection((Collection<?>) obj, depth);
+        } else if (depth < MAX_DEPTH && obj instanceof Map) {
+            return estimateMap((Map<?, ?>) obj, depth);
+        } else {
+            return DEFAULT_OBJECT_SIZE;
+        }
+    }
+
+    protected long estimateString(CharSequence str) {
+        return OBJECT_OVERHEAD * 2 + str.length() * 2L;
+    }
+
+    protected long estimateItem(Item item) {
+        long size = ITEM_OVERHEAD;
+        size += estimate(item.getName());
+        size += estimate(item.getUrl());
+        size += estimate(item.getDescriptorUrl());
+        size += estimate(item.getDescriptorDom());
+        size += estimate(item.getProperties(), 1);
+
+        return size;
+    }
+
+    protected long estimateNode(Node node) {
+        long size = 0;
+
+        if (node instanceof Element) {
+            Element element = (Element) node;
+            size += ELEMENT_OVERHEAD + element.getName().length() * 2L;
+
+            for (Attribute attribute : element.attributes()) {
+                size += ATTRIBUTE_OVERHEAD + attribute.getName().length() * 2L + attribute.getValue().length() * 2L;
+            }
+        } else if (node instanceof CharacterData) {
+            size += TEXT_OVERHEAD + node.getText().length() * 2L;
+        } else {
+            size += OBJECT_OVERHEAD;
+        }
+
+        if (node instanceof Branch) {
+            for (Node child : ((Branch) node).content()) {
+                size += estimateNode(child);
+            }
+        }
+
+        return size;
+    }
+
+    protected long estimateContent(Content content) {
+        // Only the content that's buffered in memory counts, the rest is streamed from the store when requested
+        if (content instanceof S3Content && ((S3Content) content).isInMemory()) {
+            return CONTENT_OVERHEAD + content.getLength();
+        } else {
+            return CONTENT_OVERHEAD;
+        }
+    }
+
+    protected long estimateCollection(Collection<?> collection, int depth) {
+        long size = OBJECT_OVERHEAD * 2;
+        for (Object element : collection) {
+            size += REFERENCE_SIZE + estimate(element, depth + 1);
+        }
+
+        return size;
+    }
+
+    protected long estimateMap(Map<?, ?> map, int depth) {
+        long size = OBJECT_OVERHEAD * 2;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            size += OBJECT_OVERHEAD * 2 + estimate(entry.getKey(), depth + 1) + estimate(entry.getValue(), depth + 1);
+        }
+
+        return size;
+    }
+
+}
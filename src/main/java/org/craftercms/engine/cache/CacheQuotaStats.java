@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+/**
+ * Quota statistics of the cache of a site.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class CacheQuotaStats {
+
+    private final long maxSize;
+    private final long usage;
+    private final int entries;
+    private final long evictions;
+    private final long enforcements;
+
+    public CacheQuotaStats(long maxSize, long usage, int entries, long evictions, long enforcements) {
+        this.maxSize = maxSize;
+        this.usage = usage;
+        this.entries = entries;
+        this.evictions = evictions;
+        this.enforcements = enforcements;
+    }
+
+    /**
+     * Returns the max size in bytes of the cache, 0 or less if there's no limit.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the estimated bytes used by the cache (as of the last access or scan).
+     */
+    public long getUsage() {
+        return usage;
+    }
+
+    /**
+     * Returns the number of distinct values being tracked.
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of times the cache has been scanned to enforce the max size.
+     */
+    public long getEnforcements() {
+        return enforcements;
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.apache.commons.collections4.MapUtils;
+import org.craftercms.core.service.Item;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.io.SAXReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshot of a cache warm up: the items (with their descriptors) and folder children listings that were loaded from
+ * the content store, plus the resulting preloaded descriptor folders index. The snapshot is tied to a content
+ * version, so it can be persisted and used by a new context to avoid going to the content store again while the
+ * content hasn't changed.
+ * <p>
+ * Each item is removed once it's handed out to be cached: after that it lives in the regular content cache, so the
+ * snapshot doesn't keep a second copy of it. Existence checks and lookups that aren't cached only peek at the item. Descriptors are kept as XML and parsed for every item returned, so items never share a
+ * {@link Document}.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class CacheWarmUpSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheWarmUpSnapshot.class);
+
+    private final String version;
+    private final Map<String, SnapshotItem> items;
+    private final Map<String, List<String>> children;
+    private volatile List<PreloadedFolder> preloadedFolders;
+
+    public CacheWarmUpSnapshot(String version) {
+        this.version = version;
+        this.items = new ConcurrentHashMap<>();
+        this.children = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the version of the content the snapshot was taken from.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the preloaded descriptor folders index, or null if the warm up that generated the snapshot hasn't
+     * finished.
+     */
+    public List<PreloadedFolder> getPreloadedFolders() {
+        return preloadedFolders;
+    }
+
+    public void setPreloadedFolders(List<PreloadedFolder> preloadedFolders) {
+        this.preloadedFolders = preloadedFolders;
+    }
+
+    /**
+     * Returns true if the snapshot is complete, which means it can be used instead of a warm up.
+     */
+    public boolean isComplete() {
+        return preloadedFolders != null;
+    }
+
+    public int getItemCount() {
+        return items.size();
+    }
+
+    /**
+     * Adds the item (which should have its descriptor loaded) to the snapshot. Items with properties that are not
+     * strings are not added, since they can't be persisted.
+     */
+    public void addItem(Item item) {
+        if (item != null) {
+            SnapshotItem snapshotItem = SnapshotItem.of(item);
+            if (snapshotItem != null) {
+                items.put(item.getUrl(), snapshotItem);
+            }
+        }
+    }
+
+    /**
+     * Adds the children listing of the specified folder to the snapshot.
+     */
+    public void addChildren(String folderPath, List<Item> folderChildren) {
+        List<String> urls = new ArrayList<>(folderChildren.size());
+        for (Item child : folderChildren) {
+            urls.add(child.getUrl());
+        }
+
+        children.put(folderPath, urls);
+    }
+
+    /**
+     * Removes the item at the specified path from the snapshot (because it changed in a deployment).
+     */
+    public void removeItem(String path) {
+        items.remove(path);
+    }
+
+    /**
+     * Removes the children listing of the specified folder from the snapshot (because it changed in a deployment).
+     */
+    public void removeChildren(String folderPath) {
+        children.remove(folderPath);
+    }
+
+    /**
+     * Returns the item at the specified path and removes it from the snapshot, or returns null if it's not in the
+     * snapshot.
+     */
+    public Item getItem(String path) {
+        SnapshotItem item = items.remove(path);
+        return item != null? item.toItem() : null;
+    }
+
+    /**
+     * Returns the item at the specified path without removing it from the snapshot, or returns null if it's not in
+     * the snapshot.
+     */
+    public Item peekItem(String path) {
+        SnapshotItem item = items.get(path);
+        return item != null? item.toItem() : null;
+    }
+
+    /**
+     * Returns true if the item at the specified path is in the snapshot. The item is not removed.
+     */
+    public boolean containsItem(String path) {
+        return items.containsKey(path);
+    }
+
+    /**
+     * Returns the children of the folder at the specified path and removes the listing from the snapshot, or returns
+     * null if the listing of the folder (or any of the children) is not in the snapshot. The children items are
+     * kept, so they can still be returned by {@link #getItem(String)}.
+     */
+    public List<Item> getChildren(String folderPath) {
+        List<String> urls = children.remove(folderPath);
+        if (urls == null) {
+            return null;
+        }
+
+        List<Item> folderChildren = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            SnapshotItem child = items.get(url);
+            Item childItem = child != null? child.toItem() : null;
+            if (childItem == null) {
+                return null;
+            }
+
+            folderChildren.add(childItem);
+        }
+
+        return folderChildren;
+    }
+
+    /**
+     * Returns the items of the snapshot, used when persisting it.
+     */
+    Collection<SnapshotItem> getSnapshotItems() {
+        return Collections.unmodifiableCollection(items.values());
+    }
+
+    /**
+     * Returns the children listings (the URLs of the children by folder path) of the snapshot, used when persisting
+     * it.
+     */
+    Map<String, List<String>> getChildrenUrls() {
+        return Collections.unmodifiableMap(children);
+    }
+
+    void addSnapshotItem(SnapshotItem item) {
+        items.put(item.url, item);
+    }
+
+    void addChildrenUrls(String folderPath, List<String> urls) {
+        children.put(folderPath, urls);
+    }
+
+    /**
+     * Persistable copy of an {@link Item}, with the descriptor as XML.
+     */
+    public static class SnapshotItem {
+
+        public String key;
+        public String name;
+        public String url;
+        public String descriptorUrl;
+        public String descriptorXml;
+        public Map<String, String> properties;
+        public boolean folder;
+
+        static SnapshotItem of(Item item) {
+            SnapshotItem snapshotItem = new SnapshotItem();
+            snapshotItem.key = item.getKey();
+            snapshotItem.name = item.getName();
+            snapshotItem.url = item.getUrl();
+            snapshotItem.descriptorUrl = item.getDescriptorUrl();
+            snapshotItem.descriptorXml = item.getDescriptorDom() != null? item.getDescriptorDom().asXML() : null;
+            snapshotItem.folder = item.isFolder();
+
+            if (MapUtils.isNotEmpty(item.getProperties())) {
+                snapshotItem.properties = new HashMap<>(item.getProperties().size());
+
+                for (Map.Entry<String, Object> entry : item.getProperties().entrySet()) {
+                    if (!(entry.getValue() instanceof String)) {
+                        return null;
+                    }
+
+                    snapshotItem.properties.put(entry.getKey(), (String) entry.getValue());
+                }
+            }
+
+            return snapshotItem;
+        }
+
+        Item toItem() {
+            Item item = new Item();
+            item.setKey(key);
+            item.setName(name);
+            item.setUrl(url);
+            item.setDescriptorUrl(descriptorUrl);
+            item.setFolder(folder);
+
+            if (descriptorXml != null) {
+                try {
+                    item.setDescriptorDom(parseDescriptor(descriptorXml));
+                } catch (DocumentException | SAXException e) {
+                    logger.warn("Unable to parse snapshot descriptor of item {}", url, e);
+                    return null;
+                }
+            }
+
+            if (properties != null) {
+                item.setProperties(new HashMap<>(properties));
+            }
+
+            return item;
+        }
+
+        private static Document parseDescriptor(String xml) throws DocumentException, SAXException {
+            SAXReader reader = new SAXReader();
+            reader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+
+            return reader.read(new StringReader(xml));
+        }
+
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.core.service.CachingOptions;
+import org.craftercms.core.service.Content;
+import org.craftercms.engine.service.context.SiteContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.util.DigestUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists {@link CacheWarmUpSnapshot}s as gzipped JSON in a local folder, one file per site, so that new contexts
+ * can skip the content store traversal of the warm up. The version of the content is the digest of a file that the
+ * Deployer updates on every deployment (by default {@code deployment-events.properties}), and a snapshot is only
+ * used if its version matches the current one. Snapshots are also deleted on every cache clear.
+ * <p>
+ * The folder should be private to Engine: it's created with owner only permissions, and snapshots are not read from
+ * a folder that other users can write to.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class CacheWarmUpSnapshotStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheWarmUpSnapshotStore.class);
+
+    public static final String SNAPSHOT_FILE_EXTENSION = ".snapshot.json.gz";
+    public static final int FORMAT_VERSION = 1;
+
+    private static final Set<PosixFilePermission> FOLDER_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> SHARED_WRITE_PERMISSIONS =
+        EnumSet.of(PosixFilePermission.GROUP_WRITE, PosixFilePermission.OTHERS_WRITE);
+
+    protected boolean enabled;
+    protected String snapshotFolderPath;
+    protected String versionFileUrl;
+    protected ObjectMapper objectMapper;
+
+    public CacheWarmUpSnapshotStore() {
+        objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    @Required
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the folder where the snapshots are stored. If blank, snapshots are disabled.
+     */
+    public void setSnapshotFolderPath(String snapshotFolderPath) {
+        this.snapshotFolderPath = snapshotFolderPath;
+    }
+
+    @Required
+    public void setVersionFileUrl(String versionFileUrl) {
+        this.versionFileUrl = versionFileUrl;
+    }
+
+    public boolean isEnabled() {
+        return enabled && StringUtils.isNotBlank(snapshotFolderPath);
+    }
+
+    /**
+     * Returns the current version of the content of the site, or null if it can't be determined (in which case
+     * snapshots shouldn't be used).
+     */
+    public String getContentVersion(SiteContext siteContext) {
+        try {
+            Content content = siteContext.getStoreService().findContent(siteContext.getContext(),
+                                                                        CachingOptions.CACHE_OFF_CACHING_OPTIONS,
+                                                                        versionFileUrl);
+            if (content != null) {
+                try (InputStream in = content.getInputStream()) {
+                    return DigestUtils.md5DigestAsHex(in);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to resolve content version of site '{}'", siteContext.getSiteName(), e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Loads the snapshot of the site, if it exists and its version matches the specified version.
+     *
+     * @return the snapshot, or null if there's no valid snapshot for the version
+     */
+    public CacheWarmUpSnapshot load(String siteName, String version) {
+        Path file = getSnapshotFile(siteName);
+        if (!Files.exists(file)) {
+            logger.debug("No cache warm up snapshot found for site '{}'", siteName);
+            return null;
+        }
+
+        try {
+            if (isSharedWritable(file.getParent()) || isSharedWritable(file)) {
+                logger.warn("Ignoring cache warm up snapshot {}: it can be written by other users", file);
+                return null;
+            }
+
+            SnapshotData data;
+            try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                data = objectMapper.readValue(in, SnapshotData.class);
+            }
+
+            if (data.formatVersion != FORMAT_VERSION) {
+                logger.info("Cache warm up snapshot of site '{}' has an unsupported format", siteName);
+                return null;
+            }
+            if (!version.equals(data.version)) {
+                logger.info("Cache warm up snapshot of site '{}' is outdated (snapshot version {}, content " +
+                            "version {})", siteName, data.version, version);
+                return null;
+            }
+            if (data.preloadedFolders == null) {
+                logger.warn("Cache warm up snapshot of site '{}' is incomplete", siteName);
+                return null;
+            }
+
+            CacheWarmUpSnapshot snapshot = toSnapshot(data);
+
+            logger.info("Cache warm up snapshot of site '{}' loaded with {} items", siteName,
+                        snapshot.getItemCount());
+
+            return snapshot;
+        } catch (Exception e) {
+            logger.warn("Unable to load cache warm up snapshot {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves the snapshot of the site, replacing any previous one.
+     */
+    public void save(String siteName, CacheWarmUpSnapshot snapshot) {
+        Path file = getSnapshotFile(siteName);
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            createFolder(file.getParent());
+
+            // Write to a temp file first so that a reader never sees a partial file
+            try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                objectMapper.writeValue(out, toData(snapshot));
+            }
+
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            logger.info("Cache warm up snapshot of site '{}' saved with {} items", siteName,
+                        snapshot.getItemCount());
+        } catch (Exception e) {
+            logger.warn("Unable to save cache warm up snapshot {}", file, e);
+
+            try {
+                Files.deleteIfExists(tmpFile);
+            } catch (IOException ioe) {
+                logger.debug("Unable to delete temp snapshot file {}", tmpFile, ioe);
+            }
+        }
+    }
+
+    /**
+     * Deletes the snapshot of the site (if it exists), so that it's not used after the cache is cleared.
+     */
+    public void delete(String siteName) {
+        Path file = getSnapshotFile(siteName);
+        try {
+            if (Files.deleteIfExists(file)) {
+                logger.info("Cache warm up snapshot of site '{}' deleted", siteName);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to delete cache warm up snapshot {}", file, e);
+        }
+    }
+
+    protected Path getSnapshotFile(String siteName) {
+        return Paths.get(snapshotFolderPath, siteName + SNAPSHOT_FILE_EXTENSION);
+    }
+
+    protected void createFolder(Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            Files.createDirectories(folder);
+
+            PosixFileAttributeView attributeView = Files.getFileAttributeView(folder, PosixFileAttributeView.class);
+            if (attributeView != null) {
+                attributeView.setPermissions(FOLDER_PERMISSIONS);
+            }
+        }
+    }
+
+    protected boolean isSharedWritable(Path path) throws IOException {
+        PosixFileAttributeView attributeView = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+        if (attributeView != null) {
+            Set<PosixFilePermission> permissions = attributeView.readAttributes().permissions();
+            return permissions.stream().anyMatch(SHARED_WRITE_PERMISSIONS::contains);
+        } else {
+            return false;
+        }
+    }
+
+    protected SnapshotData toData(CacheWarmUpSnapshot snapshot) {
+        SnapshotData data = new SnapshotData();
+        data.formatVersion = FORMAT_VERSION;
+        data.version = snapshot.getVersion();
+        data.items = new ArrayList<>(snapshot.getSnapshotItems());
+        data.children = snapshot.getChildrenUrls();
+
+        if (snapshot.getPreloadedFolders() != null) {
+            data.preloadedFolders = new ArrayList<>(snapshot.getPreloadedFolders().size());
+            for (PreloadedFolder folder : snapshot.getPreloadedFolders()) {
+                FolderData folderData = new FolderData();
+                folderData.path = folder.getPath();
+                folderData.depth = folder.getDepth();
+                folderData.descendants = new ArrayList<>(folder.getDescendants());
+
+                data.preloadedFolders.add(folderData);
+            }
+        }
+
+        return data;
+    }
+
+    protected CacheWarmUpSnapshot toSnapshot(SnapshotData data) {
+        CacheWarmUpSnapshot snapshot = new CacheWarmUpSnapshot(data.version);
+
+        if (data.items != null) {
+            data.items.forEach(snapshot::addSnapshotItem);
+        }
+        if (data.children != null) {
+            data.children.forEach(snapshot::addChildrenUrls);
+        }
+
+        List<PreloadedFolder> preloadedFolders = new ArrayList<>(data.preloadedFolders.size());
+        for (FolderData folderData : data.preloadedFolders) {
+            preloadedFolders.add(new PreloadedFolder(folderData.path, folderData.depth,
+                                                     new TreeSet<>(folderData.descendants)));
+        }
+
+        snapshot.setPreloadedFolders(preloadedFolders);
+
+        return snapshot;
+    }
+
+    /**
+     * Persisted form of a {@link CacheWarmUpSnapshot}.
+     */
+    public static class SnapshotData {
+
+        public int formatVersion;
+        public String version;
+        public List<FolderData> preloadedFolders;
+        public List<CacheWarmUpSnapshot.SnapshotItem> items;
+        public Map<String, List<String>> children;
+
+    }
+
+    /**
+     * Persisted form of a {@link PreloadedFolder}.
+     */
+    public static class FolderData {
+
+        public String path;
+        public int depth;
+        public List<String> descendants;
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of a site cache warm up: number of items and bytes warmed, errors and elapsed time. Updated concurrently
+ * by the {@link ContextCacheWarmer}s while the warm up is running.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class CacheWarmUpStats {
+
+    private final long startTime;
+    private final LongAdder items;
+    private final LongAdder bytes;
+    private final LongAdder errors;
+    private volatile long endTime;
+    private volatile boolean fromSnapshot;
+
+    public CacheWarmUpStats() {
+        startTime = System.currentTimeMillis();
+        items = new LongAdder();
+        bytes = new LongAdder();
+        errors = new LongAdder();
+        endTime = -1;
+    }
+
+    public void addItem() {
+        items.increment();
+    }
+
+    public void addItems(long count) {
+        items.add(count);
+    }
+
+    public void addBytes(long count) {
+        if (count > 0) {
+            bytes.add(count);
+        }
+    }
+
+    public void addError() {
+        errors.increment();
+    }
+
+    public void setFromSnapshot(boolean fromSnapshot) {
+        this.fromSnapshot = fromSnapshot;
+    }
+
+    /**
+     * Marks the warm up as finished.
+     */
+    public void finish() {
+        endTime = System.currentTimeMillis();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the time the warm up finished, or -1 if it's still running.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public boolean isRunning() {
+        return endTime < 0;
+    }
+
+    /**
+     * Returns true if the items were restored from a {@link CacheWarmUpSnapshot} instead of the content store.
+     */
+    public boolean isFromSnapshot() {
+        return fromSnapshot;
+    }
+
+    public long getItems() {
+        return items.sum();
+    }
+
+    /**
+     * Returns the bytes of content warmed (descriptors are counted as items only, since their size is not known).
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Returns the elapsed time of the warm up in milliseconds (so far, if it's still running).
+     */
+    public long getElapsedTime() {
+        return (isRunning()? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+}
@@ -28,8 +28,11 @@ import java.util.List;
 import java.util.function.Supplier;
 
 /**
- * {@link ContentStoreAdapterDecorator} that is aware of cache warming and uses the preloaded folders to check
- * if items exist before even going to the actual content store adapter, enhancing thus performance.
+ * {@link ContentStoreAdapterDecorator} that is aware of cache warming and uses the index of the preloaded paths to
+ * check if items exist before even going to the actual content store adapter, enhancing thus performance. Lookups of
+ * missing paths under the preloaded folders (like optional controller scripts, targeted or localized variants of a
+ * page) are answered by the index and never reach the actual adapter, and so are existence checks of preloaded
+ * paths.
  *
  * @author avasquez
  * @since 3.1.3
@@ -91,7 +94,25 @@ public class CacheWarmingAwareContentStoreAdapterDecorator implements ContentSto
     @Override
     public boolean exists(Context context, CachingOptions cachingOptions, String path)
             throws InvalidContextException, StoreException {
-        return findItem(context, cachingOptions, path, false) != null;
+        if (warmUpEnabled) {
+            String normalizedPath = ContentStoreUtils.normalizePath(path);
+
+            PreloadedFoldersAwareContext contextWrapper = (PreloadedFoldersAwareContext) context;
+            Context actualContext = contextWrapper.getActualContext();
+
+            // The index knows both the preloaded paths that exist and the ones that don't, so the store is only
+            // checked for paths that were not preloaded
+            PreloadedPathIndex pathIndex = contextWrapper.getPathIndex();
+            Boolean preloaded = pathIndex != null? pathIndex.exists(normalizedPath) : null;
+            if (preloaded != null) {
+                return preloaded;
+            }
+
+            return existsSnapshotItem(contextWrapper, normalizedPath) ||
+                   actualStoreAdapter.exists(actualContext, cachingOptions, normalizedPath);
+        } else {
+            return actualStoreAdapter.exists(context, cachingOptions, path);
+        }
     }
 
     @Override
@@ -119,8 +140,17 @@ public class CacheWarmingAwareContentStoreAdapterDecorator implements ContentSto
             PreloadedFoldersAwareContext contextWrapper = (PreloadedFoldersAwareContext) context;
             Context actualContext = contextWrapper.getActualContext();
 
-            return executeIfNotPreloadedOrIfExistsInPreloadedPaths(contextWrapper, normalizedPath, () ->
-                    actualStoreAdapter.findItem(actualContext, cachingOptions, normalizedPath, withDescriptor));
+            return executeIfNotPreloadedOrIfExistsInPreloadedPaths(contextWrapper, normalizedPath, () -> {
+                // Only the item with descriptor is the one that ends up in the content cache, so that's the only
+                // lookup that can drop the snapshot copy
+                boolean remove = withDescriptor && context.isCacheOn();
+                Item item = findSnapshotItem(contextWrapper, normalizedPath, remove);
+                if (item != null) {
+                    return item;
+                } else {
+                    return actualStoreAdapter.findItem(actualContext, cachingOptions, normalizedPath, withDescriptor);
+                }
+            });
         } else {
             return actualStoreAdapter.findItem(context, cachingOptions, path, withDescriptor);
         }
@@ -135,8 +165,14 @@ public class CacheWarmingAwareContentStoreAdapterDecorator implements ContentSto
             PreloadedFoldersAwareContext contextWrapper = (PreloadedFoldersAwareContext) context;
             Context actualContext = contextWrapper.getActualContext();
 
-            return executeIfNotPreloadedOrIfExistsInPreloadedPaths(contextWrapper, normalizedPath, () ->
-                    actualStoreAdapter.findItems(actualContext, cachingOptions, normalizedPath));
+            return executeIfNotPreloadedOrIfExistsInPreloadedPaths(contextWrapper, normalizedPath, () -> {
+                List<Item> children = findSnapshotChildren(contextWrapper, normalizedPath);
+                if (children != null) {
+                    return children;
+                } else {
+                    return actualStoreAdapter.findItems(actualContext, cachingOptions, normalizedPath);
+                }
+            });
         } else {
             return actualStoreAdapter.findItems(context, cachingOptions, path);
         }
@@ -144,12 +180,12 @@ public class CacheWarmingAwareContentStoreAdapterDecorator implements ContentSto
 
     protected <T> T executeIfNotPreloadedOrIfExistsInPreloadedPaths(PreloadedFoldersAwareContext contextWrapper,
                                                                     String path, Supplier<T> actualCall) {
-        PreloadedFolder preloadedAncestor = findPreloadedAncestor(contextWrapper.getPreloadedFolders(), path);
-        if (preloadedAncestor != null) {
-            Boolean exists = preloadedAncestor.exists(path);
+        PreloadedPathIndex pathIndex = contextWrapper.getPathIndex();
+        if (pathIndex != null) {
+            Boolean exists = pathIndex.exists(path);
             // Don't proceed if path is preloaded and doesn't exist (null means the path's level wasn't preloaded)
             if (exists != null && !exists) {
-                logger.debug("Path {} not found in preloaded descendants of {}", path, preloadedAncestor);
+                logger.debug("Path {} not found in preloaded paths", path);
 
                 return null;
             }
@@ -158,11 +194,37 @@ public class CacheWarmingAwareContentStoreAdapterDecorator implements ContentSto
         return actualCall.get();
     }
 
-    protected PreloadedFolder findPreloadedAncestor(List<PreloadedFolder> preloadedFolders, String path) {
-        return preloadedFolders.stream()
-                               .filter(folder -> path.startsWith(folder.getPath()))
-                               .findFirst()
-                               .orElse(null);
+    /**
+     * Returns true if the item is in the warm up snapshot of the context (if there's one), without removing it
+     */
+    protected boolean existsSnapshotItem(PreloadedFoldersAwareContext contextWrapper, String path) {
+        CacheWarmUpSnapshot snapshot = contextWrapper.getSnapshot();
+        return snapshot != null && snapshot.containsItem(path);
+    }
+
+    /**
+     * Returns the item from the warm up snapshot of the context (if there's one), to avoid going to the store. The
+     * item is removed from the snapshot only if {@code remove} is true, which should be when the returned item is
+     * going to be cached.
+     */
+    protected Item findSnapshotItem(PreloadedFoldersAwareContext contextWrapper, String path, boolean remove) {
+        CacheWarmUpSnapshot snapshot = contextWrapper.getSnapshot();
+        if (snapshot == null) {
+            return null;
+        } else if (remove) {
+            return snapshot.getItem(path);
+        } else {
+            return snapshot.peekItem(path);
+        }
+    }
+
+    /**
+     * Returns the folder children from the warm up snapshot of the context (if there's one), to avoid going to the
+     * store
+     */
+    protected List<Item> findSnapshotChildren(PreloadedFoldersAwareContext contextWrapper, String path) {
+        CacheWarmUpSnapshot snapshot = contextWrapper.getSnapshot();
+        return snapshot != null? snapshot.getChildren(path) : null;
     }
 
 }
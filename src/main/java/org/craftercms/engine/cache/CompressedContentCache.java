@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Simple LRU cache of compressed content, bounded by the total size in bytes of the entries. When a new entry
+ * exceeds the max size, the least recently used entries are evicted.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class CompressedContentCache {
+
+    private final long maxSize;
+    private final LinkedHashMap<String, byte[]> entries;
+    private long size;
+
+    public CompressedContentCache(long maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public synchronized byte[] get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Puts the compressed content in the cache, evicting the least recently used entries if needed. Content bigger
+     * than the max size of the cache is ignored.
+     */
+    public synchronized void put(String key, byte[] content) {
+        if (content.length > maxSize) {
+            return;
+        }
+
+        byte[] previous = entries.put(key, content);
+        if (previous != null) {
+            size -= previous.length;
+        }
+
+        size += content.length;
+
+        Iterator<Map.Entry<String, byte[]>> iter = entries.entrySet().iterator();
+        while (size > maxSize && iter.hasNext()) {
+            Map.Entry<String, byte[]> eldest = iter.next();
+            size -= eldest.getValue().length;
+
+            iter.remove();
+        }
+    }
+
+}
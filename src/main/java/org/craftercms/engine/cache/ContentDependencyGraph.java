@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.commons.lang.RegexUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Dependency graph of a site, between the keys of cached rendered output (pages and component fragments) and the
+ * store paths they were rendered from (as recorded by the {@link ContentDependencyTracker}). It's used to evict
+ * exactly the outputs affected by a change. The graph is bounded: when it has more than the max number of keys,
+ * keys whose entry is no longer in the cache are pruned first, and then the oldest keys are dropped (and their
+ * entries need to be evicted from the cache too, since they wouldn't be invalidated anymore).
+ *
+ * <p>It also keeps the store path of each template name resolved by the template loader, since FreeMarker only
+ * calls the loader when the template is not in its own cache.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class ContentDependencyGraph {
+
+    /**
+     * Fraction of the max keys the graph is reduced to when it's full, so that the pruning is not done on every
+     * registration
+     */
+    private static final double PRUNE_TARGET = 0.9;
+
+    private final int maxKeys;
+    private final Map<String, Set<String>> dependencies;
+    private final Map<String, Set<String>> dependents;
+    private final Map<String, String> templatePaths;
+
+    /**
+     * @param maxKeys the max number of keys in the graph, or 0 or less to disable the graph
+     */
+    public ContentDependencyGraph(int maxKeys) {
+        this.maxKeys = maxKeys;
+        this.dependencies = new LinkedHashMap<>();
+        this.dependents = new HashMap<>();
+        this.templatePaths = new ConcurrentHashMap<>();
+    }
+
+    public boolean isEnabled() {
+        return maxKeys > 0;
+    }
+
+    /**
+     * Registers the dependency paths of the key, replacing any previous ones.
+     *
+     * @param key       the cache key of the output
+     * @param paths     the paths the output was rendered from
+     * @param liveKey   predicate to check if a key still has an entry in the cache
+     *
+     * @return the keys that were dropped from the graph because it was full and that still have an entry in the
+     * cache (which should be evicted)
+     */
+    public synchronized List<String> register(String key, Collection<String> paths, Predicate<String> liveKey) {
+        if (!isEnabled()) {
+            return Collections.emptyList();
+        }
+
+        removeKey(key);
+
+        Set<String> keyPaths = new HashSet<>(paths);
+        dependencies.put(key, keyPaths);
+
+        for (String path : keyPaths) {
+            dependents.computeIfAbsent(path, p -> new HashSet<>()).add(key);
+        }
+
+        if (dependencies.size() > maxKeys) {
+            return prune(key, liveKey);
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns the keys of the outputs that depend on any of the paths.
+     */
+    public synchronized Set<String> getDependentKeys(Collection<String> paths) {
+        Set<String> keys = new HashSet<>();
+        for (String path : paths) {
+            Set<String> pathDependents = dependents.get(path);
+            if (pathDependents != null) {
+                keys.addAll(pathDependents);
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * Returns the keys of the outputs that match any of the patterns.
+     */
+    public synchronized Set<String> getKeysMatching(String[] patterns) {
+        Set<String> keys = new HashSet<>();
+        for (String key : dependencies.keySet()) {
+            if (RegexUtils.matchesAny(key, patterns)) {
+                keys.add(key);
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * Returns the paths the output with the specified key depends on.
+     */
+    public synchronized Set<String> getDependencies(String key) {
+        Set<String> paths = dependencies.get(key);
+        return paths != null? new HashSet<>(paths) : Collections.emptySet();
+    }
+
+    /**
+     * Removes the keys (because their entries were evicted) from the graph.
+     */
+    public synchronized void removeKeys(Collection<?> keys) {
+        for (Object key : keys) {
+            if (key instanceof String) {
+                removeKey((String) key);
+            }
+        }
+    }
+
+    /**
+     * Removes all the keys from the graph (the template paths are kept, since they don't depend on content).
+     */
+    public synchronized void clear() {
+        dependencies.clear();
+        dependents.clear();
+    }
+
+    public synchronized int getKeyCount() {
+        return dependencies.size();
+    }
+
+    public synchronized int getPathCount() {
+        return dependents.size();
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    /**
+     * Sets the store path of the template with the specified name.
+     */
+    public void putTemplatePath(String templateName, String path) {
+        templatePaths.put(templateName, path);
+    }
+
+    /**
+     * Returns the store path of the template with the specified name, or null if the template hasn't been loaded.
+     */
+    public String getTemplatePath(String templateName) {
+        return templatePaths.get(templateName);
+    }
+
+    protected List<String> prune(String newKey, Predicate<String> liveKey) {
+        int targetSize = (int) (maxKeys * PRUNE_TARGET);
+        List<String> droppedKeys = new ArrayList<>();
+
+        // First remove the keys that are not in the cache anymore
+        for (String key : new ArrayList<>(dependencies.keySet())) {
+            if (!key.equals(newKey) && !liveKey.test(key)) {
+                removeKey(key);
+            }
+        }
+
+        // Then drop the oldest ones
+        for (String key : new ArrayList<>(dependencies.keySet())) {
+            if (dependencies.size() <= targetSize) {
+                break;
+            }
+            if (!key.equals(newKey)) {
+                removeKey(key);
+                droppedKeys.add(key);
+            }
+        }
+
+        return droppedKeys;
+    }
+
+    protected void removeKey(String key) {
+        Set<String> paths = dependencies.remove(key);
+        if (paths != null) {
+            for (String path : paths) {
+                Set<String> pathDependents = dependents.get(path);
+                if (pathDependents != null) {
+                    pathDependents.remove(key);
+                    if (pathDependents.isEmpty()) {
+                        dependents.remove(path);
+                    }
+                }
+            }
+        }
+    }
+
+}
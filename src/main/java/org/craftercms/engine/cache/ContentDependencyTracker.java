@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records the store paths (items, components, templates and scripts) used by the current thread while rendering
+ * output that's going to be cached, like a page or a component fragment. Captures can be nested: a path recorded
+ * while a fragment is rendered inside a page is a dependency of both. Recording is a no-op when there are no active
+ * captures.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public abstract class ContentDependencyTracker {
+
+    /**
+     * Dependency paths of the outputs being rendered by the current thread (one set per nesting level)
+     */
+    private static final ThreadLocal<Deque<Set<String>>> captures = new ThreadLocal<>();
+
+    private ContentDependencyTracker() {
+    }
+
+    /**
+     * Starts capturing the dependency paths of an output that's about to be rendered by the current thread.
+     */
+    public static void beginCapture() {
+        Deque<Set<String>> currentCaptures = captures.get();
+        if (currentCaptures == null) {
+            currentCaptures = new ArrayDeque<>();
+            captures.set(currentCaptures);
+        }
+
+        currentCaptures.push(new HashSet<>());
+    }
+
+    /**
+     * Finishes the capture started by the last call to {@link #beginCapture()}, returning the dependency paths
+     * recorded while the output was rendered.
+     */
+    public static Set<String> endCapture() {
+        Deque<Set<String>> currentCaptures = captures.get();
+        if (currentCaptures == null || currentCaptures.isEmpty()) {
+            throw new IllegalStateException("No active dependency capture");
+        }
+
+        Set<String> dependencyPaths = currentCaptures.pop();
+        if (currentCaptures.isEmpty()) {
+            captures.remove();
+        }
+
+        return dependencyPaths;
+    }
+
+    /**
+     * Returns true if the current thread is capturing dependencies.
+     */
+    public static boolean isCapturing() {
+        return captures.get() != null;
+    }
+
+    /**
+     * Records the path as a dependency of all the outputs currently being captured.
+     */
+    public static void addDependency(String path) {
+        Deque<Set<String>> currentCaptures = captures.get();
+        if (currentCaptures != null && StringUtils.isNotEmpty(path)) {
+            for (Set<String> capture : currentCaptures) {
+                capture.add(path);
+            }
+        }
+    }
+
+    /**
+     * Records the paths as dependencies of all the outputs currently being captured.
+     */
+    public static void addDependencies(Collection<String> paths) {
+        Deque<Set<String>> currentCaptures = captures.get();
+        if (currentCaptures != null && paths != null) {
+            for (String path : paths) {
+                addDependency(path);
+            }
+        }
+    }
+
+}
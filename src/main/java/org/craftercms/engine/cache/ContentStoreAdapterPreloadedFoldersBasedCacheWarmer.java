@@ -18,23 +18,32 @@ package org.craftercms.engine.cache;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.time.StopWatch;
+import org.craftercms.core.service.Content;
 import org.craftercms.core.service.ContentStoreService;
 import org.craftercms.core.service.Context;
 import org.craftercms.core.service.Item;
 import org.craftercms.core.util.ContentStoreUtils;
 import org.craftercms.engine.properties.SiteProperties;
+import org.craftercms.engine.service.context.SiteContext;
 import org.craftercms.engine.util.CacheUtils;
-import org.craftercms.engine.util.store.decorators.DecoratedStoreAdapterContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /**
  * {@link ContextCacheWarmer} that performs warm up of a list of descriptor and content folders at the
- * {@link org.craftercms.core.store.ContentStoreAdapter} level.
+ * {@link org.craftercms.core.store.ContentStoreAdapter} level. The folders are traversed in parallel by a
+ * {@link ForkJoinPool} (with a parallelism that can be overwritten per site), and the number of pending traversal
+ * tasks is bounded: when the limit is reached, children are preloaded by the current thread instead of being forked.
+ * The tasks run with the {@link SiteContext} of the thread that started the warm up.
  *
  * @author avasquez
  * @since 3.1.4
@@ -46,6 +55,8 @@ public class ContentStoreAdapterPreloadedFoldersBasedCacheWarmer implements Cont
     protected boolean warmUpEnabled;
     protected Map<String, Integer> descriptorPreloadFolders;
     protected Map<String, Integer> contentPreloadFolders;
+    protected int parallelism;
+    protected int maxPendingTasks;
 
     /**
      * Sets if warm up is enabled
@@ -73,41 +84,93 @@ public class ContentStoreAdapterPreloadedFoldersBasedCacheWarmer implements Cont
         this.contentPreloadFolders = CacheUtils.parsePreloadFoldersList(contentPreloadFolders);
     }
 
+    /**
+     * Sets the default number of threads used to traverse the folders of a site (can be overwritten per site)
+     */
+    @Required
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the max number of traversal tasks that can be pending per site, so that the queues of the pool don't
+     * grow without bounds for very big folders
+     */
+    @Required
+    public void setMaxPendingTasks(int maxPendingTasks) {
+        this.maxPendingTasks = maxPendingTasks;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void warmUpCache(Context context) {
-        List<PreloadedFolder> preloadedFolders = new ArrayList<>();
+        warmUpCache(context, new CacheWarmUpStats());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void warmUpCache(Context context, CacheWarmUpStats stats) {
+        List<PreloadedFolder> contentFolders = new ArrayList<>();
+        List<PreloadedFolder> descriptorFolders = new ArrayList<>();
         PreloadedFoldersAwareContext contextWrapper = findPreloadedFoldersAwareContext(context);
 
         if (contextWrapper == null) {
             throw new IllegalStateException("PreloadedFoldersAwareContext expected but not found");
         }
 
-        for (Map.Entry<String, Integer> entry : getContentPreloadFolders().entrySet()) {
-            preloadFolder(contextWrapper, entry.getKey(), entry.getValue(), true, preloadedFolders);
-        }
+        // If a complete snapshot was loaded, the descriptors will be served from it, so only their index needs to be
+        // restored. Content is not part of the snapshot, so the content folders are always preloaded
+        CacheWarmUpSnapshot snapshot = contextWrapper.getSnapshot();
+        boolean fromSnapshot = snapshot != null && snapshot.isComplete();
+
+        int poolParallelism = getParallelism();
+        ForkJoinPool pool = new ForkJoinPool(poolParallelism);
+        Traversal traversal = new Traversal(pool, SiteContext.getCurrent(), fromSnapshot? null : snapshot, stats);
+
+        logger.info("Preloading folders with parallelism {}", poolParallelism);
 
-        for (Map.Entry<String, Integer> entry : getDescriptorPreloadFolders().entrySet()) {
-            preloadFolder(contextWrapper, entry.getKey(), entry.getValue(), false, preloadedFolders);
+        try {
+            for (Map.Entry<String, Integer> entry : getContentPreloadFolders().entrySet()) {
+                preloadFolder(contextWrapper, entry.getKey(), entry.getValue(), true, contentFolders, traversal);
+            }
+
+            if (fromSnapshot) {
+                logger.info("Restoring preloaded descriptor folders from cache warm up snapshot");
+
+                descriptorFolders.addAll(snapshot.getPreloadedFolders());
+
+                stats.setFromSnapshot(true);
+                stats.addItems(snapshot.getItemCount());
+            } else {
+                for (Map.Entry<String, Integer> entry : getDescriptorPreloadFolders().entrySet()) {
+                    preloadFolder(contextWrapper, entry.getKey(), entry.getValue(), false, descriptorFolders,
+                                  traversal);
+                }
+            }
+        } finally {
+            pool.shutdown();
         }
 
+        List<PreloadedFolder> preloadedFolders = new ArrayList<>(contentFolders);
+        preloadedFolders.addAll(descriptorFolders);
+
         contextWrapper.setPreloadedFolders(preloadedFolders);
+
+        if (snapshot != null && !fromSnapshot) {
+            snapshot.setPreloadedFolders(descriptorFolders);
+        }
     }
 
     protected PreloadedFoldersAwareContext findPreloadedFoldersAwareContext(Context context) {
-        if (context instanceof PreloadedFoldersAwareContext) {
-            return (PreloadedFoldersAwareContext) context;
-        } else if (context instanceof DecoratedStoreAdapterContext) {
-            return findPreloadedFoldersAwareContext(((DecoratedStoreAdapterContext)context).getActualContext());
-        } else {
-            return null;
-        }
+        return PreloadedFoldersAwareContext.find(context);
     }
 
     protected void preloadFolder(PreloadedFoldersAwareContext contextWrapper, String path, int depth,
-                                 boolean contentOnly, List<PreloadedFolder> preloadedFolders) {
+                                 boolean contentOnly, List<PreloadedFolder> preloadedFolders, Traversal traversal) {
         path = ContentStoreUtils.normalizePath(path);
 
         Context actualContext = contextWrapper.getActualContext();
@@ -121,11 +184,16 @@ public class ContentStoreAdapterPreloadedFoldersBasedCacheWarmer implements Cont
         if (rootFolder == null || !rootFolder.isFolder()) {
             throw new IllegalStateException("Can't preload folder " + path + ": it doesn't exist or is not a folder");
         }
+        if (traversal.snapshot != null && !contentOnly) {
+            traversal.snapshot.addItem(rootFolder);
+        }
 
-        Set<String> preloadedDescendants = new TreeSet<>();
+        // Sorted and thread safe, since the descendants are added concurrently
+        Set<String> preloadedDescendants = new ConcurrentSkipListSet<>();
 
         try {
-            preloadFolderChildren(actualContext, path, depth, contentOnly, preloadedDescendants);
+            traversal.pool.invoke(new PreloadFolderChildrenTask(actualContext, path, depth, contentOnly,
+                                                                preloadedDescendants, traversal));
             preloadedFolders.add(new PreloadedFolder(path, depth, preloadedDescendants));
         } catch (Exception e) {
             logger.error("Error while preloading folder [{}]", path, e);
@@ -138,16 +206,32 @@ public class ContentStoreAdapterPreloadedFoldersBasedCacheWarmer implements Cont
     }
 
     protected void preloadFolderChildren(Context context, String path, int depth, boolean contentOnly,
-                                         Set<String> preloadedPaths) {
+                                         Set<String> preloadedPaths, Traversal traversal) {
         if (depth == ContentStoreService.UNLIMITED_TREE_DEPTH || depth >= 1) {
             if (depth >= 1) {
                 depth--;
             }
 
             List<Item> children = context.getStoreAdapter().findItems(context, null, path);
+            if (traversal.snapshot != null && !contentOnly && children != null) {
+                traversal.snapshot.addChildren(path, children);
+            }
+
             if (CollectionUtils.isNotEmpty(children)) {
+                List<ForkJoinTask<?>> forkedTasks = new ArrayList<>();
+
                 for (Item item : children) {
-                    preloadFolderChild(item, context, depth, contentOnly, preloadedPaths);
+                    if (traversal.pendingTasks.tryAcquire()) {
+                        forkedTasks.add(new PreloadFolderChildTask(item, context, depth, contentOnly, preloadedPaths,
+                                                                   traversal).fork());
+                    } else {
+                        // Backpressure: too many pending tasks, so preload the child in the current thread
+                        preloadFolderChild(item, context, depth, contentOnly, preloadedPaths, traversal);
+                    }
+                }
+
+                for (ForkJoinTask<?> task : forkedTasks) {
+                    task.join();
                 }
             }
         }
@@ -161,35 +245,64 @@ public class ContentStoreAdapterPreloadedFoldersBasedCacheWarmer implements Cont
      * @param depth perform preload a folder with depth
      * @param contentOnly true if only content, false otherwise
      * @param preloadedPaths collection of preloaded paths
+     * @param traversal the state of the current traversal
      */
-    private void preloadFolderChild(Item child, Context context, int depth, boolean contentOnly, Set<String> preloadedPaths) {
+    private void preloadFolderChild(Item child, Context context, int depth, boolean contentOnly, Set<String> preloadedPaths,
+                                    Traversal traversal) {
         String childPath = child.getUrl();
+        CacheWarmUpSnapshot snapshot = traversal.snapshot;
         try {
             if (child.isFolder()) {
                 logger.debug("Preloading folder [{}]", childPath);
                 if (!contentOnly) {
-                    context.getStoreAdapter().findItem(context, null, childPath, true);
+                    Item folder = context.getStoreAdapter().findItem(context, null, childPath, true);
+                    if (snapshot != null) {
+                        snapshot.addItem(folder);
+                    }
                 }
 
                 preloadedPaths.add(childPath);
+                traversal.stats.addItem();
 
-                preloadFolderChildren(context, childPath, depth, contentOnly, preloadedPaths);
+                preloadFolderChildren(context, childPath, depth, contentOnly, preloadedPaths, traversal);
             } else if (contentOnly) {
                 logger.debug("Preloading content [{}]", childPath);
-                context.getStoreAdapter().findContent(context, null, childPath);
+                Content content = context.getStoreAdapter().findContent(context, null, childPath);
 
                 preloadedPaths.add(childPath);
+                traversal.stats.addItem();
+                if (content != null) {
+                    traversal.stats.addBytes(content.getLength());
+                }
             } else {
                 logger.debug("Preloading item [{}]", childPath);
-                context.getStoreAdapter().findItem(context, null, childPath, true);
+                Item item = context.getStoreAdapter().findItem(context, null, childPath, true);
+                if (snapshot != null) {
+                    snapshot.addItem(item);
+                }
 
                 preloadedPaths.add(childPath);
+                traversal.stats.addItem();
             }
         } catch (Exception e) {
+            traversal.stats.addError();
+
             logger.error("Error while preload path '{}'", childPath, e);
         }
     }
 
+    /**
+     * Returns the parallelism for the current site: the one in the site configuration, or the default one.
+     */
+    protected int getParallelism() {
+        int siteParallelism = SiteProperties.getCacheWarmUpParallelism();
+        if (siteParallelism > 0) {
+            return siteParallelism;
+        } else {
+            return Math.max(1, parallelism);
+        }
+    }
+
     protected Map<String, Integer> getDescriptorPreloadFolders() {
         Map<String, Integer> preloadFolders = SiteProperties.getDescriptorPreloadFolders();
         if (MapUtils.isNotEmpty(preloadFolders)) {
@@ -208,4 +321,107 @@ public class ContentStoreAdapterPreloadedFoldersBasedCacheWarmer implements Cont
         }
     }
 
+    /**
+     * State shared by all the tasks of a warm up.
+     */
+    protected class Traversal {
+
+        protected final ForkJoinPool pool;
+        protected final SiteContext siteContext;
+        protected final CacheWarmUpSnapshot snapshot;
+        protected final CacheWarmUpStats stats;
+        protected final Semaphore pendingTasks;
+
+        protected Traversal(ForkJoinPool pool, SiteContext siteContext, CacheWarmUpSnapshot snapshot,
+                            CacheWarmUpStats stats) {
+            this.pool = pool;
+            this.siteContext = siteContext;
+            this.snapshot = snapshot;
+            this.stats = stats;
+            this.pendingTasks = new Semaphore(Math.max(1, maxPendingTasks));
+        }
+
+        /**
+         * Runs the task with the site context of the warm up. A worker can run a task while it waits for another
+         * one of the same traversal, so the site context is only set (and cleared) if it's not already the current one.
+         */
+        protected void runInSiteContext(Runnable task) {
+            if (siteContext == null || SiteContext.getCurrent() == siteContext) {
+                task.run();
+            } else {
+                SiteContext.setCurrent(siteContext);
+                try {
+                    task.run();
+                } finally {
+                    SiteContext.clear();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Task that preloads the children of a folder.
+     */
+    protected class PreloadFolderChildrenTask extends RecursiveAction {
+
+        protected final Context context;
+        protected final String path;
+        protected final int depth;
+        protected final boolean contentOnly;
+        protected final Set<String> preloadedPaths;
+        protected final Traversal traversal;
+
+        protected PreloadFolderChildrenTask(Context context, String path, int depth, boolean contentOnly,
+                                            Set<String> preloadedPaths, Traversal traversal) {
+            this.context = context;
+            this.path = path;
+            this.depth = depth;
+            this.contentOnly = contentOnly;
+            this.preloadedPaths = preloadedPaths;
+            this.traversal = traversal;
+        }
+
+        @Override
+        protected void compute() {
+            traversal.runInSiteContext(
+                () -> preloadFolderChildren(context, path, depth, contentOnly, preloadedPaths, traversal));
+        }
+
+    }
+
+    /**
+     * Forked task that preloads a single child of a folder (and its descendants, if it's a folder).
+     */
+    protected class PreloadFolderChildTask extends RecursiveAction {
+
+        protected final Item child;
+        protected final Context context;
+        protected final int depth;
+        protected final boolean contentOnly;
+        protected final Set<String> preloadedPaths;
+        protected final Traversal traversal;
+
+        protected PreloadFolderChildTask(Item child, Context context, int depth, boolean contentOnly,
+                                         Set<String> preloadedPaths, Traversal traversal) {
+            this.child = child;
+            this.context = context;
+            this.depth = depth;
+            this.contentOnly = contentOnly;
+            this.preloadedPaths = preloadedPaths;
+            this.traversal = traversal;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                traversal.runInSiteContext(
+                    () -> preloadFolderChild(child, context, depth, contentOnly, preloadedPaths, traversal));
+            } finally {
+                traversal.pendingTasks.release();
+            }
+        }
+
+    }
+
 }
@@ -33,4 +33,15 @@ public interface ContextCacheWarmer {
      */
     void warmUpCache(Context context);
 
+    /**
+     * Warm ups the cache associate to the context, reporting the progress in the specified stats. By default the
+     * stats are ignored.
+     *
+     * @param context the context
+     * @param stats   the stats of the current warm up
+     */
+    default void warmUpCache(Context context, CacheWarmUpStats stats) {
+        warmUpCache(context);
+    }
+
 }
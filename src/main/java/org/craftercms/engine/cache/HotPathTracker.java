@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a sampled and bounded count of the store paths most requested per site, so that they can be warmed up first
+ * by the {@link HotPathsContextCacheWarmer}. Only a fraction of the requests (the sample rate) is recorded, and when
+ * the number of tracked paths of a site goes over twice the max, all counts are halved and only the top paths are
+ * kept, so paths that stop being requested fade out and emerging paths can take their place. If a folder is
+ * configured, the hot paths are persisted in it (one file per site) so they survive restarts, and previous counts are
+ * halved when loaded so that recent traffic weighs more. Persisted counts are loaded when the hot paths of the site
+ * are first needed (during the warm up), never while recording a request.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class HotPathTracker implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotPathTracker.class);
+
+    public static final String HOT_PATHS_FILE_EXTENSION = ".hotpaths";
+
+    private static final String ITEM_PREFIX = "item:";
+    private static final String CONTENT_PREFIX = "content:";
+
+    protected boolean warmUpEnabled;
+    protected boolean enabled;
+    protected double sampleRate;
+    protected int maxPaths;
+    protected String storeFolderPath;
+
+    protected Map<String, Map<String, LongAdder>> siteCounts;
+    protected Set<String> loadedSites;
+
+    public HotPathTracker() {
+        siteCounts = new ConcurrentHashMap<>();
+        loadedSites = ConcurrentHashMap.newKeySet();
+    }
+
+    @Required
+    public void setWarmUpEnabled(boolean warmUpEnabled) {
+        this.warmUpEnabled = warmUpEnabled;
+    }
+
+    @Required
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the fraction (between 0 and 1) of the requests that are recorded
+     */
+    @Required
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Sets the max number of hot paths per site
+     */
+    @Required
+    public void setMaxPaths(int maxPaths) {
+        this.maxPaths = maxPaths;
+    }
+
+    /**
+     * Sets the folder where the hot paths are persisted. If blank, the hot paths are not persisted
+     */
+    public void setStoreFolderPath(String storeFolderPath) {
+        this.storeFolderPath = storeFolderPath;
+    }
+
+    /**
+     * Returns true if hot paths are being tracked (cache warm up needs to be enabled too)
+     */
+    public boolean isEnabled() {
+        return warmUpEnabled && enabled;
+    }
+
+    @Override
+    public void destroy() {
+        if (isEnabled()) {
+            siteCounts.keySet().forEach(this::save);
+        }
+    }
+
+    /**
+     * Records a request for the item (descriptor) at the specified path.
+     */
+    public void recordItem(String siteName, String path) {
+        record(siteName, ITEM_PREFIX + path);
+    }
+
+    /**
+     * Records a request for the content at the specified path.
+     */
+    public void recordContent(String siteName, String path) {
+        record(siteName, CONTENT_PREFIX + path);
+    }
+
+    /**
+     * Returns the hot paths of the site, from most to least requested.
+     */
+    public List<HotPath> getHotPaths(String siteName) {
+        if (!isEnabled()) {
+            return new ArrayList<>();
+        }
+
+        loadIfNeeded(siteName);
+
+        return getCounts(siteName).entrySet().stream()
+                                  .map(entry -> toHotPath(entry.getKey(), entry.getValue().sum()))
+                                  .sorted(Comparator.comparingLong(HotPath::getCount).reversed())
+                                  .limit(maxPaths)
+                                  .collect(Collectors.toList());
+    }
+
+    /**
+     * Persists the hot paths of the site.
+     */
+    public void save(String siteName) {
+        if (StringUtils.isBlank(storeFolderPath)) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        for (HotPath hotPath : getHotPaths(siteName)) {
+            String key = (hotPath.isContent()? CONTENT_PREFIX : ITEM_PREFIX) + hotPath.getPath();
+            properties.setProperty(key, Long.toString(hotPath.getCount()));
+        }
+
+        Path file = getHotPathsFile(siteName);
+        try {
+            Files.createDirectories(file.getParent());
+
+            // Write to a temp file first so that a crash while saving doesn't leave a corrupt file
+            Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmpFile)) {
+                properties.store(out, null);
+            }
+
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Unable to save hot paths of site '{}' to {}", siteName, file, e);
+        }
+    }
+
+    protected void record(String siteName, String key) {
+        if (isEnabled() && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            Map<String, LongAdder> counts = getCounts(siteName);
+            counts.computeIfAbsent(key, k -> new LongAdder()).increment();
+
+            if (counts.size() > maxPaths * 2) {
+                trim(counts);
+            }
+        }
+    }
+
+    protected Map<String, LongAdder> getCounts(String siteName) {
+        Map<String, LongAdder> counts = siteCounts.get(siteName);
+        if (counts == null) {
+            counts = siteCounts.computeIfAbsent(siteName, key -> new ConcurrentHashMap<>());
+        }
+
+        return counts;
+    }
+
+    /**
+     * Adds the persisted counts of the site to the current ones, the first time it's called for the site. The file is
+     * read outside of any map operation, so recordings of other sites are never blocked by it.
+     */
+    protected void loadIfNeeded(String siteName) {
+        if (loadedSites.add(siteName)) {
+            Map<String, LongAdder> counts = getCounts(siteName);
+            load(siteName).forEach((key, count) -> counts.computeIfAbsent(key, k -> new LongAdder()).add(count.sum()));
+        }
+    }
+
+    /**
+     * Halves all counts (dropping the paths that get to zero) and then keeps only the top {@code maxPaths} paths, so
+     * that the memory used per site is bounded and old counts don't keep newly popular paths out forever.
+     */
+    protected void trim(Map<String, LongAdder> counts) {
+        synchronized (counts) {
+            if (counts.size() > maxPaths * 2) {
+                List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.size());
+                for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+                    long count = entry.getValue().sum();
+                    // Subtract instead of reset, so increments that happen meanwhile are not lost
+                    entry.getValue().add(-(count - count / 2));
+
+                    if (count / 2 > 0) {
+                        entries.add(Map.entry(entry.getKey(), count / 2));
+                    } else {
+                        counts.remove(entry.getKey());
+                    }
+                }
+
+                entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+                for (int i = maxPaths; i < entries.size(); i++) {
+                    counts.remove(entries.get(i).getKey());
+                }
+            }
+        }
+    }
+
+    protected Map<String, LongAdder> load(String siteName) {
+        Map<String, LongAdder> counts = new HashMap<>();
+        if (StringUtils.isBlank(storeFolderPath)) {
+            return counts;
+        }
+
+        Path file = getHotPathsFile(siteName);
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                logger.warn("Unable to load hot paths of site '{}' from {}", siteName, file, e);
+                return counts;
+            }
+
+            for (String key : properties.stringPropertyNames()) {
+                long count = NumberUtils.toLong(properties.getProperty(key)) / 2;
+                if (count > 0) {
+                    LongAdder adder = new LongAdder();
+                    adder.add(count);
+
+                    counts.put(key, adder);
+                }
+            }
+
+            logger.debug("{} hot paths of site '{}' loaded from {}", counts.size(), siteName, file);
+        }
+
+        return counts;
+    }
+
+    protected Path getHotPathsFile(String siteName) {
+        return Paths.get(storeFolderPath, siteName + HOT_PATHS_FILE_EXTENSION);
+    }
+
+    protected HotPath toHotPath(String key, long count) {
+        if (key.startsWith(CONTENT_PREFIX)) {
+            return new HotPath(StringUtils.removeStart(key, CONTENT_PREFIX), true, count);
+        } else {
+            return new HotPath(StringUtils.removeStart(key, ITEM_PREFIX), false, count);
+        }
+    }
+
+    /**
+     * A store path and the number of times it has been requested (sampled).
+     */
+    public static class HotPath {
+
+        private final String path;
+        private final boolean content;
+        private final long count;
+
+        public HotPath(String path, boolean content, long count) {
+            this.path = path;
+            this.content = content;
+            this.count = count;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns true if the path was requested as raw content, false if it was requested as an item.
+         */
+        public boolean isContent() {
+            return content;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.time.StopWatch;
+import org.craftercms.core.service.Content;
+import org.craftercms.core.service.Context;
+import org.craftercms.engine.service.context.SiteContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ContextCacheWarmer} that preloads the hot paths of the current site (as recorded by the
+ * {@link HotPathTracker}) at the {@link org.craftercms.core.store.ContentStoreAdapter} level. It should be the first
+ * warmer, so that the paths users actually request are in the cache before the configured preload folders.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class HotPathsContextCacheWarmer implements ContextCacheWarmer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotPathsContextCacheWarmer.class);
+
+    protected HotPathTracker hotPathTracker;
+
+    @Required
+    public void setHotPathTracker(HotPathTracker hotPathTracker) {
+        this.hotPathTracker = hotPathTracker;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void warmUpCache(Context context) {
+        warmUpCache(context, new CacheWarmUpStats());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void warmUpCache(Context context, CacheWarmUpStats stats) {
+        SiteContext siteContext = SiteContext.getCurrent();
+        if (siteContext == null || !hotPathTracker.isEnabled()) {
+            return;
+        }
+
+        String siteName = siteContext.getSiteName();
+        List<HotPathTracker.HotPath> hotPaths = hotPathTracker.getHotPaths(siteName);
+
+        if (CollectionUtils.isNotEmpty(hotPaths)) {
+            // Go directly to the actual store adapter, like the preloaded folders warmer
+            PreloadedFoldersAwareContext contextWrapper = PreloadedFoldersAwareContext.find(context);
+            Context actualContext = contextWrapper != null? contextWrapper.getActualContext() : context;
+            StopWatch stopWatch = new StopWatch();
+
+            logger.info("Starting preload of {} hot paths of site '{}'", hotPaths.size(), siteName);
+
+            stopWatch.start();
+
+            for (HotPathTracker.HotPath hotPath : hotPaths) {
+                preloadPath(actualContext, hotPath, stats);
+            }
+
+            stopWatch.stop();
+
+            logger.info("Preload of hot paths of site '{}' completed in {} secs", siteName,
+                        stopWatch.getTime(TimeUnit.SECONDS));
+
+            // Persist the current hot paths, so that they survive restarts even if the node is not shutdown cleanly
+            hotPathTracker.save(siteName);
+        }
+    }
+
+    protected void preloadPath(Context context, HotPathTracker.HotPath hotPath, CacheWarmUpStats stats) {
+        String path = hotPath.getPath();
+        try {
+            if (hotPath.isContent()) {
+                logger.debug("Preloading hot content [{}]", path);
+
+                Content content = context.getStoreAdapter().findContent(context, null, path);
+                if (content != null) {
+                    stats.addItem();
+                    stats.addBytes(content.getLength());
+                }
+            } else {
+                logger.debug("Preloading hot item [{}]", path);
+
+                if (context.getStoreAdapter().findItem(context, null, path, true) != null) {
+                    stats.addItem();
+                }
+            }
+        } catch (Exception e) {
+            stats.addError();
+
+            logger.error("Error while preloading hot path '{}'", path, e);
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.commons.lang.Callback;
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.CachingOptions;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.event.SiteContextDestroyedEvent;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.context.ApplicationListener;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link CacheTemplate} decorator that keeps a {@link CacheKeyIndex} of the entries loaded through the actual
+ * template for each context, so that the entries affected by a content change can be invalidated without scanning
+ * the cache.
+ *
+ * <p>The paths of an entry are the store paths among its key elements, plus the ones recorded by the
+ * {@link ContentDependencyTracker} while the entry was loaded (like the store path of a compiled template, or the
+ * page a view was resolved for). Invalidated keys get a new generation, which is added as an extra key element from
+ * then on, so that the next lookup loads a fresh entry. The previous entries are not reachable anymore, and are
+ * eventually evicted by the cache.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class KeyIndexingCacheTemplate implements CacheTemplate, ApplicationListener<SiteContextDestroyedEvent> {
+
+    protected CacheTemplate actualCacheTemplate;
+    protected int maxKeys;
+
+    protected final ConcurrentMap<String, CacheKeyIndex> indexes;
+
+    public KeyIndexingCacheTemplate() {
+        indexes = new ConcurrentHashMap<>();
+    }
+
+    @Required
+    public void setActualCacheTemplate(CacheTemplate actualCacheTemplate) {
+        this.actualCacheTemplate = actualCacheTemplate;
+    }
+
+    /**
+     * Sets the max number of keys indexed for each context
+     */
+    @Required
+    public void setMaxKeys(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Returns the index of the entries of the context, or null if no entry has been loaded for the context yet.
+     */
+    public CacheKeyIndex getIndex(Context context) {
+        return indexes.get(context.getId());
+    }
+
+    @Override
+    public CacheService getCacheService() {
+        return actualCacheTemplate.getCacheService();
+    }
+
+    @Override
+    public <T> T getObject(Context context, Callback<T> callback, Object... keyElements) {
+        return getObject(context, null, callback, keyElements);
+    }
+
+    @Override
+    public <T> T getObject(Context context, CachingOptions cachingOptions, Callback<T> callback,
+                           Object... keyElements) {
+        if (context == null) {
+            return actualCacheTemplate.getObject(context, cachingOptions, callback, keyElements);
+        }
+
+        CacheKeyIndex index = indexes.computeIfAbsent(context.getId(), id -> new CacheKeyIndex(maxKeys));
+        String key = Arrays.deepToString(keyElements);
+        long generation = index.getGeneration(key);
+        Object[] actualKeyElements = generation > 0? ArrayUtils.add(keyElements, new KeyGeneration(generation)) :
+                                     keyElements;
+
+        return actualCacheTemplate.getObject(context, cachingOptions, () -> {
+            T value;
+            Set<String> paths;
+
+            ContentDependencyTracker.beginCapture();
+            try {
+                value = callback.execute();
+            } finally {
+                paths = ContentDependencyTracker.endCapture();
+            }
+
+            for (Object keyElement : keyElements) {
+                if (keyElement instanceof String && StringUtils.startsWith((String) keyElement, "/")) {
+                    paths.add((String) keyElement);
+                }
+            }
+
+            index.register(key, paths, value, generation);
+
+            return value;
+        }, actualKeyElements);
+    }
+
+    @Override
+    public void onApplicationEvent(SiteContextDestroyedEvent event) {
+        indexes.remove(event.getSiteContext().getContext().getId());
+    }
+
+    /**
+     * Key element added to the keys that have been invalidated.
+     */
+    protected static final class KeyGeneration implements Serializable {
+
+        private final long generation;
+
+        public KeyGeneration(long generation) {
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof KeyGeneration && generation == ((KeyGeneration) o).generation);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(generation);
+        }
+
+        @Override
+        public String toString() {
+            return "generation=" + generation;
+        }
+
+    }
+
+}
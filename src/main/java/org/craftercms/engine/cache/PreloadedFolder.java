@@ -18,8 +18,11 @@ package org.craftercms.engine.cache;
 import org.apache.commons.lang3.StringUtils;
 import org.craftercms.core.service.ContentStoreService;
 
+import java.io.Serializable;
+import java.util.Collection;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Represents a folder in the content store that has been preloaded in the cache.
@@ -27,7 +30,9 @@ import java.util.Set;
  * @author avasquez
  * @since 3.1.4
  */
-public class PreloadedFolder {
+public class PreloadedFolder implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private String path;
     private int depth;
@@ -46,6 +51,20 @@ public class PreloadedFolder {
         return path;
     }
 
+    /**
+     * Returns the preload depth of the folder.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the paths of the preloaded descendants of the folder.
+     */
+    public Set<String> getDescendants() {
+        return descendants;
+    }
+
     /**
      * Returns:
      *
@@ -68,6 +87,36 @@ public class PreloadedFolder {
         }
     }
 
+    /**
+     * Returns a copy of this folder with the specified created paths (and their parent folders) added to the
+     * descendants, and the deleted paths (and their descendants) removed. Paths not under this folder, or deeper than
+     * the preload depth, are ignored.
+     */
+    public PreloadedFolder withChanges(Collection<String> createdPaths, Collection<String> deletedPaths) {
+        Set<String> newDescendants = new TreeSet<>(descendants);
+
+        for (String deletedPath : deletedPaths) {
+            if (deletedPath.startsWith(path)) {
+                String deletedFolderPath = StringUtils.appendIfMissing(deletedPath, "/");
+
+                newDescendants.remove(deletedPath);
+                newDescendants.removeIf(descendant -> descendant.startsWith(deletedFolderPath));
+            }
+        }
+
+        for (String createdPath : createdPaths) {
+            // Add the path and its parent folders, since the folders could have been created too
+            for (String current = createdPath; current.startsWith(path) && current.length() > path.length();
+                 current = StringUtils.substringBeforeLast(current, "/")) {
+                if (depth == ContentStoreService.UNLIMITED_TREE_DEPTH || getDepth(current) <= depth) {
+                    newDescendants.add(current);
+                }
+            }
+        }
+
+        return new PreloadedFolder(path, depth, newDescendants);
+    }
+
     private int getDepth(String child) {
         String afterParentPath = StringUtils.substringAfter(child, path);
         String[] pathComponents = afterParentPath.split("/");
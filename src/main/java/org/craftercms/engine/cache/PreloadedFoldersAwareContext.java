@@ -24,8 +24,8 @@ import java.util.Collections;
 import java.util.List;
 
 /**
- * Extension of {@link DecoratedStoreAdapterContext} that keeps up a list of the preloaded folders in the cache
- * of the context.
+ * Extension of {@link DecoratedStoreAdapterContext} that keeps up a list of the preloaded folders (and the
+ * {@link PreloadedPathIndex} built from them) in the cache of the context.
  *
  * @author avasquez
  * @since 3.1.4
@@ -33,6 +33,8 @@ import java.util.List;
 class PreloadedFoldersAwareContext extends DecoratedStoreAdapterContext {
 
     public static final String PRELOADED_FOLDERS_CACHE_KEY = "cache.warmUp.preloadedFolders";
+    public static final String PATH_INDEX_CACHE_KEY = "cache.warmUp.pathIndex";
+    public static final String SNAPSHOT_CACHE_KEY = "cache.warmUp.snapshot";
 
     protected CacheService cacheService;
 
@@ -54,6 +56,42 @@ class PreloadedFoldersAwareContext extends DecoratedStoreAdapterContext {
 
     public void setPreloadedFolders(List<PreloadedFolder> preloadedFolders) {
         cacheService.put(this, PRELOADED_FOLDERS_CACHE_KEY, preloadedFolders);
+        cacheService.put(this, PATH_INDEX_CACHE_KEY, new PreloadedPathIndex(preloadedFolders));
+    }
+
+    /**
+     * Returns the index of the preloaded paths, or null if the folders haven't been preloaded yet.
+     */
+    public PreloadedPathIndex getPathIndex() {
+        return (PreloadedPathIndex) cacheService.get(this, PATH_INDEX_CACHE_KEY);
+    }
+
+    /**
+     * Returns the warm up snapshot associated to the cache of the context, or null if there's none.
+     */
+    public CacheWarmUpSnapshot getSnapshot() {
+        return (CacheWarmUpSnapshot) cacheService.get(this, SNAPSHOT_CACHE_KEY);
+    }
+
+    public void setSnapshot(CacheWarmUpSnapshot snapshot) {
+        cacheService.put(this, SNAPSHOT_CACHE_KEY, snapshot);
+    }
+
+    public void removeSnapshot() {
+        cacheService.remove(this, SNAPSHOT_CACHE_KEY);
+    }
+
+    /**
+     * Finds the {@code PreloadedFoldersAwareContext} in the specified context chain, or returns null if not found.
+     */
+    public static PreloadedFoldersAwareContext find(Context context) {
+        if (context instanceof PreloadedFoldersAwareContext) {
+            return (PreloadedFoldersAwareContext) context;
+        } else if (context instanceof DecoratedStoreAdapterContext) {
+            return find(((DecoratedStoreAdapterContext) context).getActualContext());
+        } else {
+            return null;
+        }
     }
 
     @Override
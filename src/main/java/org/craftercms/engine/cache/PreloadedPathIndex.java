@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.core.service.ContentStoreService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Path trie built from the {@link PreloadedFolder}s of a site, that answers if a path exists without going to the
+ * content store. Each node knows if its children were completely listed during the warm up (which depends on the
+ * preload depth), so the index is authoritative for both existing and missing paths under the preloaded folders.
+ * Lookups are proportional to the number of components of the path, instead of the number of preloaded folders and
+ * descendants. The index is immutable once built, so it's safe to use it from several threads.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class PreloadedPathIndex {
+
+    private final Node root;
+    private final int size;
+
+    public PreloadedPathIndex(List<PreloadedFolder> preloadedFolders) {
+        root = new Node();
+
+        int count = 0;
+        for (PreloadedFolder folder : preloadedFolders) {
+            count += addFolder(folder);
+        }
+
+        size = count;
+    }
+
+    /**
+     * Returns the number of preloaded paths in the index.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns:
+     *
+     * <ul>
+     *     <li>True if the path was preloaded (or is an ancestor of a preloaded path)</li>
+     *     <li>False if the path doesn't exist, because the children of one of its ancestors were preloaded and the
+     *     path is not one of them</li>
+     *     <li>Null if the path is not under a preloaded folder, or it's deeper than the preload depth, so the
+     *     content store should be checked</li>
+     * </ul>
+     */
+    public Boolean exists(String path) {
+        Node node = root;
+        for (String name : StringUtils.split(path, '/')) {
+            Node child = node.getChild(name);
+            if (child == null) {
+                return node.listed? Boolean.FALSE : null;
+            }
+
+            node = child;
+        }
+
+        return Boolean.TRUE;
+    }
+
+    private int addFolder(PreloadedFolder folder) {
+        int depth = folder.getDepth();
+        boolean unlimited = depth == ContentStoreService.UNLIMITED_TREE_DEPTH;
+
+        Node folderNode = addPath(folder.getPath());
+        if (unlimited || depth >= 1) {
+            folderNode.listed = true;
+        }
+
+        String[] folderNames = StringUtils.split(folder.getPath(), '/');
+        int count = 0;
+
+        for (String descendant : folder.getDescendants()) {
+            Node node = addPath(descendant);
+            // The children of a descendant were listed only if the descendant is above the preload depth
+            int relativeDepth = StringUtils.split(descendant, '/').length - folderNames.length;
+            if (unlimited || relativeDepth < depth) {
+                node.listed = true;
+            }
+
+            count++;
+        }
+
+        return count;
+    }
+
+    private Node addPath(String path) {
+        Node node = root;
+        for (String name : StringUtils.split(path, '/')) {
+            node = node.addChild(name);
+        }
+
+        return node;
+    }
+
+    /**
+     * Node of the trie. The children map is only created for nodes that have children, to keep the index compact.
+     */
+    private static class Node {
+
+        private Map<String, Node> children;
+        private boolean listed;
+
+        Node getChild(String name) {
+            return children != null? children.get(name) : null;
+        }
+
+        Node addChild(String name) {
+            if (children == null) {
+                children = new HashMap<>(4);
+            }
+
+            return children.computeIfAbsent(name, n -> new Node());
+        }
+
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.commons.lang.Callback;
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.CachingOptions;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.springframework.beans.factory.annotation.Required;
+
+/**
+ * {@link CacheTemplate} decorator that records every value returned by the actual template in the
+ * {@link SiteCacheQuotaManager}, so that the memory used by the cache of each site can be kept under its max size.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class QuotaAwareCacheTemplate implements CacheTemplate {
+
+    protected CacheTemplate actualCacheTemplate;
+    protected SiteCacheQuotaManager quotaManager;
+
+    @Required
+    public void setActualCacheTemplate(CacheTemplate actualCacheTemplate) {
+        this.actualCacheTemplate = actualCacheTemplate;
+    }
+
+    @Required
+    public void setQuotaManager(SiteCacheQuotaManager quotaManager) {
+        this.quotaManager = quotaManager;
+    }
+
+    @Override
+    public CacheService getCacheService() {
+        return actualCacheTemplate.getCacheService();
+    }
+
+    @Override
+    public <T> T getObject(Context context, Callback<T> callback, Object... keyElements) {
+        return getObject(context, null, callback, keyElements);
+    }
+
+    @Override
+    public <T> T getObject(Context context, CachingOptions cachingOptions, Callback<T> callback,
+                           Object... keyElements) {
+        T value = actualCacheTemplate.getObject(context, cachingOptions, callback, keyElements);
+        quotaManager.recordAccess(context, value);
+
+        return value;
+    }
+
+}
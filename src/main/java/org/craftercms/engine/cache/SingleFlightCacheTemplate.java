@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.commons.lang.Callback;
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.CachingOptions;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.exception.CacheLoadTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link CacheTemplate} decorator that makes sure only one thread loads a missing cache entry, while the other
+ * threads that miss the same entry wait (up to a timeout) and get the same result, instead of loading the entry in
+ * parallel after every cache clear (single-flight). Cache hits go directly through the actual template, since the
+ * coordination only happens when the actual template calls the loader.
+ *
+ * <p>When the waiting times out, the waiting thread either loads the entry itself or fails with a
+ * {@link CacheLoadTimeoutException}. When the loading thread fails, the waiting threads either get the same error or
+ * try to load the entry themselves.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class SingleFlightCacheTemplate implements CacheTemplate {
+
+    private static final Logger logger = LoggerFactory.getLogger(SingleFlightCacheTemplate.class);
+
+    /**
+     * Keys being loaded by the current thread, so that loaders that request their own key don't wait for themselves
+     */
+    private static final ThreadLocal<Set<String>> loadingKeys = ThreadLocal.withInitial(HashSet::new);
+
+    protected CacheTemplate actualCacheTemplate;
+    protected boolean enabled;
+    protected long waitTimeout;
+    protected boolean loadOnTimeout;
+    protected boolean propagateFailures;
+
+    protected final ConcurrentMap<String, CompletableFuture<Object>> inFlightLoads;
+    protected final LongAdder loads;
+    protected final LongAdder deduplicatedLoads;
+    protected final LongAdder timeouts;
+    protected final LongAdder failures;
+
+    public SingleFlightCacheTemplate() {
+        inFlightLoads = new ConcurrentHashMap<>();
+        loads = new LongAdder();
+        deduplicatedLoads = new LongAdder();
+        timeouts = new LongAdder();
+        failures = new LongAdder();
+    }
+
+    @Required
+    public void setActualCacheTemplate(CacheTemplate actualCacheTemplate) {
+        this.actualCacheTemplate = actualCacheTemplate;
+    }
+
+    @Required
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the max time in milliseconds a thread waits for another thread to load an entry
+     */
+    @Required
+    public void setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Sets if a thread that times out waiting should load the entry itself (true) or fail (false)
+     */
+    @Required
+    public void setLoadOnTimeout(boolean loadOnTimeout) {
+        this.loadOnTimeout = loadOnTimeout;
+    }
+
+    /**
+     * Sets if the error of a failed load should be thrown to the waiting threads (true), or if they should try to
+     * load the entry themselves (false)
+     */
+    @Required
+    public void setPropagateFailures(boolean propagateFailures) {
+        this.propagateFailures = propagateFailures;
+    }
+
+    /**
+     * Returns the number of entries loaded through this template.
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * Returns the number of loads that were avoided because the thread got the result of another thread's load.
+     */
+    public long getDeduplicatedLoads() {
+        return deduplicatedLoads.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public CacheService getCacheService() {
+        return actualCacheTemplate.getCacheService();
+    }
+
+    @Override
+    public <T> T getObject(Context context, Callback<T> callback, Object... keyElements) {
+        return getObject(context, null, callback, keyElements);
+    }
+
+    @Override
+    public <T> T getObject(Context context, CachingOptions cachingOptions, Callback<T> callback,
+                           Object... keyElements) {
+        if (!enabled || context == null) {
+            return actualCacheTemplate.getObject(context, cachingOptions, callback, keyElements);
+        }
+
+        String key = context.getId() + ":" + Arrays.deepToString(keyElements);
+
+        return actualCacheTemplate.getObject(context, cachingOptions, () -> load(key, callback), keyElements);
+    }
+
+    /**
+     * Called when the entry is not in the cache. Loads it, or waits for the thread that's already loading it.
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> T load(String key, Callback<T> callback) {
+        if (loadingKeys.get().contains(key)) {
+            return callback.execute();
+        }
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+
+        if (inFlight != null) {
+            return (T) waitForLoad(key, inFlight, callback);
+        }
+
+        loadingKeys.get().add(key);
+        try {
+            T result = callback.execute();
+            future.complete(result);
+
+            return result;
+        } catch (RuntimeException | Error e) {
+            failures.increment();
+            future.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            loads.increment();
+            loadingKeys.get().remove(key);
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    protected Object waitForLoad(String key, CompletableFuture<Object> inFlight, Callback<?> callback) {
+        try {
+            Object result = inFlight.get(waitTimeout, TimeUnit.MILLISECONDS);
+            deduplicatedLoads.increment();
+
+            return result;
+        } catch (TimeoutException e) {
+            timeouts.increment();
+
+            if (loadOnTimeout) {
+                logger.debug("Timeout while waiting for cache entry {} to be loaded, loading it", key);
+
+                return callback.execute();
+            } else {
+                throw new CacheLoadTimeoutException("Timeout while waiting for cache entry " + key + " to be loaded");
+            }
+        } catch (ExecutionException e) {
+            if (propagateFailures) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+            }
+
+            logger.debug("Load of cache entry {} failed in another thread, loading it", key, e.getCause());
+
+            return callback.execute();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new CacheLoadTimeoutException("Interrupted while waiting for cache entry " + key + " to be loaded");
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.util.deployment.DeploymentChanges;
+
+/**
+ * Helper class that's used to invalidate only the entries of the cache of a site context that are affected by the
+ * changes of a deployment, instead of clearing the whole cache.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public interface SiteCacheInvalidator {
+
+    /**
+     * Evicts the cache entries of the specified site context affected by the specified changes.
+     *
+     * @param siteContext the site context
+     * @param changes     the paths changed by the deployment
+     *
+     * @return true if the cache was invalidated, false if the changes can't be invalidated incrementally (like when
+     * there are too many of them) and the whole cache should be cleared instead
+     */
+    boolean invalidateCache(SiteContext siteContext, DeploymentChanges changes);
+
+}
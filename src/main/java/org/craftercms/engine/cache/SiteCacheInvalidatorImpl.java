@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import freemarker.template.Configuration;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.StopWatch;
+import org.craftercms.commons.lang.RegexUtils;
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.Context;
+import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.util.deployment.DeploymentChanges;
+import org.craftercms.engine.util.freemarker.CrafterCacheAwareConfiguration;
+import org.craftercms.engine.view.ComponentOutputCache;
+import org.craftercms.engine.view.PageOutputCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Default implementation of {@link SiteCacheInvalidator}. The affected entries are found through indexes instead of
+ * scanning the cache:
+ *
+ * <ul>
+ *     <li>Entries loaded through the cache template (items, descriptors, contents, folder listings and trees,
+ *     compiled templates and scripts, views) that were loaded from one of the changed paths or one of their parent
+ *     folders, according to the {@link CacheKeyIndex} of the context. These entries are invalidated by giving their
+ *     keys a new generation.</li>
+ *     <li>Page outputs and component fragments that depend, according to the {@link ContentDependencyGraph} of the
+ *     site, on one of the changed paths or one of their parent folders.</li>
+ *     <li>Entries whose key matches one of the configured patterns, for entries that depend on content but don't
+ *     keep track of it.</li>
+ *     <li>The templates loaded from the changed paths, which are removed from Freemarker's own cache.</li>
+ * </ul>
+ *
+ * If the dependency graph is disabled, the page outputs and component fragments (and the entries that match the
+ * configured patterns) can only be found by scanning the keys of the cache. The changes are not invalidated (and the
+ * whole cache needs to be cleared) if there are too many of them, or if any of them matches one of the full clear
+ * patterns.
+ *
+ * The cache warm up state of the context (the preloaded paths index and the snapshot) is updated too, so that created
+ * paths are not reported as missing and changed items are not served from the snapshot.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class SiteCacheInvalidatorImpl implements SiteCacheInvalidator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SiteCacheInvalidatorImpl.class);
+
+    private static final String TEMPLATE_EXTENSION = ".ftl";
+
+    protected KeyIndexingCacheTemplate keyIndexingCacheTemplate;
+    protected String[] alwaysEvictKeyPatterns;
+    protected int maxChangedPaths;
+    protected String[] fullClearPathPatterns;
+
+    /**
+     * Sets the cache template that keeps the {@link CacheKeyIndex} of each context
+     */
+    @Required
+    public void setKeyIndexingCacheTemplate(KeyIndexingCacheTemplate keyIndexingCacheTemplate) {
+        this.keyIndexingCacheTemplate = keyIndexingCacheTemplate;
+    }
+
+    /**
+     * Sets the patterns of the keys that are always evicted on invalidation (sites can override them through the
+     * {@code cache.invalidation.alwaysEvictKeyPatterns} property of their configuration)
+     */
+    @Required
+    public void setAlwaysEvictKeyPatterns(String[] alwaysEvictKeyPatterns) {
+        this.alwaysEvictKeyPatterns = alwaysEvictKeyPatterns;
+    }
+
+    /**
+     * Sets the max number of changed paths for an incremental invalidation (above it the whole cache is cleared)
+     */
+    @Required
+    public void setMaxChangedPaths(int maxChangedPaths) {
+        this.maxChangedPaths = maxChangedPaths;
+    }
+
+    /**
+     * Sets the patterns of the paths that always require clearing the whole cache when changed (like configuration)
+     */
+    public void setFullClearPathPatterns(String[] fullClearPathPatterns) {
+        this.fullClearPathPatterns = fullClearPathPatterns;
+    }
+
+    @Override
+    public boolean invalidateCache(SiteContext siteContext, DeploymentChanges changes) {
+        String siteName = siteContext.getSiteName();
+        Set<String> changedPaths = changes.getAllPaths();
+
+        if (changedPaths.size() > maxChangedPaths) {
+            logger.info("Too many changed paths for site '{}' ({} > {}), the whole cache needs to be cleared",
+                        siteName, changedPaths.size(), maxChangedPaths);
+            return false;
+        }
+        if (ArrayUtils.isNotEmpty(fullClearPathPatterns) &&
+            changedPaths.stream().anyMatch(path -> RegexUtils.matchesAny(path, fullClearPathPatterns))) {
+            logger.info("Changed paths of site '{}' require clearing the whole cache", siteName);
+            return false;
+        }
+
+        Context context = siteContext.getContext();
+        String[] evictKeyPatterns = getAlwaysEvictKeyPatterns(siteContext);
+        CacheService cacheService = siteContext.getCacheTemplate().getCacheService();
+        Set<String> parentPaths = getParentPaths(changedPaths);
+        StopWatch stopWatch = StopWatch.createStarted();
+
+        logger.info("Invalidating cache of site '{}' for {}", siteName, changes);
+
+        Set<String> keyPaths = new HashSet<>(changedPaths);
+        keyPaths.addAll(parentPaths);
+
+        // Entries loaded through the cache template
+        int invalidatedEntries = 0;
+        CacheKeyIndex keyIndex = keyIndexingCacheTemplate.getIndex(context);
+        if (keyIndex != null) {
+            invalidatedEntries += keyIndex.invalidate(keyPaths).size();
+            if (ArrayUtils.isNotEmpty(evictKeyPatterns)) {
+                invalidatedEntries += keyIndex.invalidateMatching(evictKeyPatterns).size();
+            }
+        }
+
+        // Rendered outputs (pages and component fragments), stored directly in the cache
+        Set<Object> evictedKeys = findOutputKeysToEvict(siteContext, cacheService, keyPaths, evictKeyPatterns);
+        for (Object key : evictedKeys) {
+            cacheService.remove(context, key);
+        }
+
+        ContentDependencyGraph dependencyGraph = siteContext.getDependencyGraph();
+        if (dependencyGraph != null && dependencyGraph.isEnabled()) {
+            dependencyGraph.removeKeys(evictedKeys);
+        }
+
+        // Templates are also cached by Freemarker itself
+        removeTemplatesFromCache(siteContext, changedPaths);
+
+        updateWarmUpState(context, changes, parentPaths);
+
+        stopWatch.stop();
+
+        logger.info("Cache of site '{}' invalidated in {} ms ({} entries invalidated, {} outputs evicted)", siteName,
+                    stopWatch.getTime(), invalidatedEntries, evictedKeys.size());
+
+        return true;
+    }
+
+    protected String[] getAlwaysEvictKeyPatterns(SiteContext siteContext) {
+        String[] sitePatterns = siteContext.getSettings().getCacheAlwaysEvictKeyPatterns();
+
+        return sitePatterns != null ? sitePatterns : alwaysEvictKeyPatterns;
+    }
+
+    protected Set<Object> findOutputKeysToEvict(SiteContext siteContext, CacheService cacheService,
+                                                Set<String> keyPaths, String[] evictKeyPatterns) {
+        Set<Object> evictedKeys = new HashSet<>();
+        ContentDependencyGraph dependencyGraph = siteContext.getDependencyGraph();
+
+        if (dependencyGraph != null && dependencyGraph.isEnabled()) {
+            evictedKeys.addAll(dependencyGraph.getDependentKeys(keyPaths));
+            if (ArrayUtils.isNotEmpty(evictKeyPatterns)) {
+                evictedKeys.addAll(dependencyGraph.getKeysMatching(evictKeyPatterns));
+            }
+        } else {
+            // Without the graph the outputs are not tracked, so all of them need to be evicted
+            logger.debug("Dependency graph of site '{}' disabled, scanning the cache for rendered outputs",
+                         siteContext.getSiteName());
+
+            // Copy the keys, so that the cache is not modified while iterating
+            List<Object> keys = new ArrayList<>(cacheService.getKeys(siteContext.getContext()));
+            for (Object key : keys) {
+                if (key instanceof String && isOutputOrAlwaysEvictedKey((String) key, evictKeyPatterns)) {
+                    evictedKeys.add(key);
+                }
+            }
+        }
+
+        return evictedKeys;
+    }
+
+    protected boolean isOutputOrAlwaysEvictedKey(String key, String[] evictKeyPatterns) {
+        return key.startsWith(PageOutputCache.CACHE_KEY_PREFIX) ||
+               key.startsWith(ComponentOutputCache.CACHE_KEY_PREFIX) ||
+               (ArrayUtils.isNotEmpty(evictKeyPatterns) && RegexUtils.matchesAny(key, evictKeyPatterns));
+    }
+
+    protected void removeTemplatesFromCache(SiteContext siteContext, Set<String> changedPaths) {
+        Set<String> templatePaths = changedPaths.stream()
+                                                .filter(path -> path.endsWith(TEMPLATE_EXTENSION))
+                                                .collect(Collectors.toSet());
+        if (templatePaths.isEmpty() || siteContext.getFreeMarkerConfig() == null) {
+            return;
+        }
+
+        Configuration configuration = siteContext.getFreeMarkerConfig().getConfiguration();
+        if (configuration instanceof CrafterCacheAwareConfiguration) {
+            try {
+                ((CrafterCacheAwareConfiguration) configuration).removeTemplatesFromCache(templatePaths);
+                return;
+            } catch (IOException e) {
+                logger.warn("Unable to remove the changed templates of site '{}' from the Freemarker cache, " +
+                            "clearing the whole Freemarker cache", siteContext.getSiteName(), e);
+            }
+        }
+
+        configuration.clearTemplateCache();
+    }
+
+    protected void updateWarmUpState(Context context, DeploymentChanges changes, Set<String> parentPaths) {
+        PreloadedFoldersAwareContext contextWrapper = PreloadedFoldersAwareContext.find(context);
+        if (contextWrapper != null) {
+            CacheWarmUpSnapshot snapshot = contextWrapper.getSnapshot();
+            if (snapshot != null) {
+                changes.getAllPaths().forEach(snapshot::removeItem);
+                parentPaths.forEach(snapshot::removeChildren);
+            }
+
+            List<PreloadedFolder> preloadedFolders = contextWrapper.getPreloadedFolders();
+            if (changes.hasStructuralChanges() && !preloadedFolders.isEmpty()) {
+                contextWrapper.setPreloadedFolders(
+                    preloadedFolders.stream()
+                                    .map(folder -> folder.withChanges(changes.getCreatedPaths(),
+                                                                      changes.getDeletedPaths()))
+                                    .collect(Collectors.toList()));
+            }
+        }
+    }
+
+    /**
+     * Returns all the parent folders of the paths (up to the root folder).
+     */
+    protected Set<String> getParentPaths(Set<String> paths) {
+        Set<String> parentPaths = new LinkedHashSet<>();
+        for (String path : paths) {
+            String parentPath = StringUtils.substringBeforeLast(path, "/");
+            while (StringUtils.isNotEmpty(parentPath) && parentPaths.add(parentPath)) {
+                parentPath = StringUtils.substringBeforeLast(parentPath, "/");
+            }
+        }
+
+        parentPaths.add("/");
+
+        return parentPaths;
+    }
+
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.Context;
+import org.craftercms.engine.event.SiteContextCreatedEvent;
+import org.craftercms.engine.event.SiteContextDestroyedEvent;
+import org.craftercms.engine.event.SiteEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enforces a max memory size (estimated by a {@link CacheObjectSizeEstimator}) for the cache of each site, so that a
+ * site with large objects can't push the entries of the other sites out of the cache.
+ *
+ * <p>The values returned by the cache template are recorded (by identity, without keeping them from being garbage
+ * collected) with their estimated size and last access time. When the estimated usage of a site goes over its max
+ * size, the cache scope is scanned in the background to calculate the actual usage, and the least recently used
+ * entries are evicted until the usage is under the low watermark. Between scans, the size of the values that have
+ * been garbage collected is subtracted from the usage (when new values are recorded and when the quota is enforced,
+ * never on cache hits). Only entries that have been accessed through the
+ * cache template are evicted, entries stored directly by other components count towards the usage but are left
+ * alone.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class SiteCacheQuotaManager implements InitializingBean, DisposableBean, ApplicationListener<SiteEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SiteCacheQuotaManager.class);
+
+    private static final ThreadLocal<LookupKey> LOOKUP_KEY = ThreadLocal.withInitial(LookupKey::new);
+
+    protected CacheService cacheService;
+    protected CacheObjectSizeEstimator sizeEstimator;
+    protected long defaultMaxSize;
+    protected double lowWatermark;
+
+    protected ThreadPoolExecutor enforcementExecutor;
+    protected final ConcurrentMap<String, QuotaState> states;
+
+    public SiteCacheQuotaManager() {
+        states = new ConcurrentHashMap<>();
+    }
+
+    @Required
+    public void setCacheService(CacheService cacheService) {
+        this.cacheService = cacheService;
+    }
+
+    @Required
+    public void setSizeEstimator(CacheObjectSizeEstimator sizeEstimator) {
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    /**
+     * Sets the max size in bytes of the cache of each site (sites can override it), 0 or less for no limit
+     */
+    @Required
+    public void setDefaultMaxSize(long defaultMaxSize) {
+        this.defaultMaxSize = defaultMaxSize;
+    }
+
+    /**
+     * Sets the fraction (between 0 and 1) of the max size that the usage should go down to when entries are evicted
+     */
+    @Required
+    public void setLowWatermark(double lowWatermark) {
+        this.lowWatermark = lowWatermark;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cache-quota-");
+        threadFactory.setDaemon(true);
+
+        // A single thread is enough since there's at most one pending enforcement per site
+        enforcementExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                     new ArrayBlockingQueue<>(1000), threadFactory);
+    }
+
+    @Override
+    public void destroy() {
+        if (enforcementExecutor != null) {
+            enforcementExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Resolves the max size of the cache of a site when its context is created, and discards the state when the
+     * context is destroyed.
+     */
+    @Override
+    public void onApplicationEvent(SiteEvent event) {
+        Context context = event.getSiteContext().getContext();
+        if (event instanceof SiteContextCreatedEvent) {
+            long siteMaxSize = event.getSiteContext().getCacheMaxSize();
+            getState(context).maxSize = siteMaxSize > 0? siteMaxSize : defaultMaxSize;
+        } else if (event instanceof SiteContextDestroyedEvent) {
+            states.remove(context.getId());
+        }
+    }
+
+    /**
+     * Records an access to a value of the cache of the context, triggering an eviction in the background if the
+     * cache is over its max size.
+     */
+    public void recordAccess(Context context, Object value) {
+        if (context == null || value == null) {
+            return;
+        }
+
+        QuotaState state = getState(context);
+        long maxSize = state.maxSize;
+        if (maxSize <= 0) {
+            return;
+        }
+
+        // Hits only do a lookup with the reusable key of the thread, so they don't allocate anything
+        LookupKey lookupKey = LOOKUP_KEY.get();
+        lookupKey.set(value);
+        EntryInfo info;
+        try {
+            info = state.entries.get(lookupKey);
+        } finally {
+            lookupKey.set(null);
+        }
+
+        if (info == null) {
+            // New values usually replace collected ones, so this is a good time to drain the queue too
+            purgeCollectedValues(state);
+
+            EntryInfo newInfo = new EntryInfo(sizeEstimator.estimate(value));
+            info = state.entries.putIfAbsent(new IdentityKey(value, state.collectedValues), newInfo);
+            if (info == null) {
+                info = newInfo;
+                state.usage.addAndGet(newInfo.size);
+            }
+        }
+
+        info.tracked = true;
+        info.lastAccess = System.nanoTime();
+
+        if (state.usage.get() > maxSize && state.enforcing.compareAndSet(false, true)) {
+            try {
+                enforcementExecutor.execute(() -> {
+                    try {
+                        enforceQuota(context, state);
+                    } finally {
+                        state.enforcing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                state.enforcing.set(false);
+
+                logger.debug("Unable to schedule the cache quota enforcement of context {}", context, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the quota statistics of the cache of the context.
+     */
+    public CacheQuotaStats getStatistics(Context context) {
+        QuotaState state = getState(context);
+        purgeCollectedValues(state);
+
+        return new CacheQuotaStats(state.maxSize, state.usage.get(), state.entries.size(), state.evictions.sum(),
+                                   state.enforcements.sum());
+    }
+
+    /**
+     * Scans the cache of the context to calculate its actual usage, and evicts the least recently used entries if
+     * it's over the max size.
+     */
+    protected void enforceQuota(Context context, QuotaState state) {
+        purgeCollectedValues(state);
+
+        long maxSize = state.maxSize;
+        Map<IdentityKey, List<Object>> keysByValue = new HashMap<>();
+        Map<IdentityKey, EntryInfo> liveEntries = new HashMap<>();
+        long usage = 0;
+
+        // Copy the keys, so that the cache is not modified while iterating
+        for (Object key : new ArrayList<>(cacheService.getKeys(context))) {
+            Object value = cacheService.get(context, key);
+            if (value != null) {
+                IdentityKey valueKey = new IdentityKey(value, state.collectedValues);
+                EntryInfo info = state.entries.computeIfAbsent(valueKey,
+                                                               k -> new EntryInfo(sizeEstimator.estimate(value)));
+                if (liveEntries.put(valueKey, info) == null) {
+                    usage += info.size;
+                }
+
+                keysByValue.computeIfAbsent(valueKey, k -> new ArrayList<>(1)).add(key);
+            }
+        }
+
+        // Forget about the values that are not in the cache anymore
+        state.entries.keySet().retainAll(liveEntries.keySet());
+
+        if (usage > maxSize) {
+            long targetUsage = (long) (maxSize * lowWatermark);
+            int evicted = 0;
+
+            List<Map.Entry<IdentityKey, EntryInfo>> candidates = new ArrayList<>(liveEntries.entrySet());
+            candidates.removeIf(entry -> !entry.getValue().tracked);
+            candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+
+            for (Map.Entry<IdentityKey, EntryInfo> candidate : candidates) {
+                if (usage <= targetUsage) {
+                    break;
+                }
+
+                for (Object key : keysByValue.get(candidate.getKey())) {
+                    cacheService.remove(context, key);
+                    evicted++;
+                }
+
+                state.entries.remove(candidate.getKey());
+                usage -= candidate.getValue().size;
+            }
+
+            state.evictions.add(evicted);
+
+            logger.info("{} entries evicted from the cache of context {} to keep it under its max size of {} " +
+                        "bytes (estimated usage is now {} bytes)", evicted, context, maxSize, usage);
+        }
+
+        state.usage.set(usage);
+        state.enforcements.increment();
+    }
+
+    /**
+     * Subtracts from the usage the size of the recorded values that have been garbage collected since the last
+     * time, which means they're not in the cache anymore.
+     */
+    protected void purgeCollectedValues(QuotaState state) {
+        Reference<?> ref;
+        while ((ref = state.collectedValues.poll()) != null) {
+            EntryInfo info = state.entries.remove(ref);
+            if (info != null) {
+                state.usage.addAndGet(-info.size);
+            }
+        }
+    }
+
+    protected QuotaState getState(Context context) {
+        QuotaState state = states.get(context.getId());
+        if (state == null) {
+            state = states.computeIfAbsent(context.getId(), id -> new QuotaState(defaultMaxSize));
+        }
+
+        return state;
+    }
+
+    /**
+     * The recorded values of the cache of a context.
+     */
+    protected static class QuotaState {
+
+        protected final ConcurrentMap<IdentityKey, EntryInfo> entries = new ConcurrentHashMap<>();
+        protected final ReferenceQueue<Object> collectedValues = new ReferenceQueue<>();
+        protected final AtomicLong usage = new AtomicLong();
+        protected final AtomicBoolean enforcing = new AtomicBoolean();
+        protected final LongAdder evictions = new LongAdder();
+        protected final LongAdder enforcements = new LongAdder();
+        protected volatile long maxSize;
+
+        public QuotaState(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+    }
+
+    protected static class EntryInfo {
+
+        protected final long size;
+        protected volatile long lastAccess;
+        protected volatile boolean tracked;
+
+        public EntryInfo(long size) {
+            this.size = size;
+        }
+
+    }
+
+    /**
+     * Weak reference to a value that's compared by identity, so that equal values of different entries are counted
+     * separately.
+     */
+    protected static class IdentityKey extends WeakReference<Object> {
+
+        private final int hash;
+
+        public IdentityKey(Object value, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            this.hash = System.identityHashCode(value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof IdentityKey)) {
+                return false;
+            }
+
+            Object value = get();
+            return value != null && value == ((IdentityKey) obj).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    /**
+     * Mutable key used only to look up the {@link IdentityKey} of a value, so that a lookup doesn't need to create a
+     * new reference. Each thread reuses its own instance.
+     */
+    protected static class LookupKey {
+
+        private Object value;
+        private int hash;
+
+        public void set(Object value) {
+            this.value = value;
+            this.hash = value != null? System.identityHashCode(value) : 0;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return value != null && obj instanceof IdentityKey && value == ((IdentityKey) obj).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -39,6 +39,7 @@ public class SiteCacheWarmerImpl implements SiteCacheWarmer {
 
     protected CacheService cacheService;
     protected List<ContextCacheWarmer> contextCacheWarmers;
+    protected CacheWarmUpSnapshotStore snapshotStore;
 
     /**
      * Sets the {@link CacheService}
@@ -56,6 +57,14 @@ public class SiteCacheWarmerImpl implements SiteCacheWarmer {
         this.contextCacheWarmers = contextCacheWarmers;
     }
 
+    /**
+     * Sets the {@link CacheWarmUpSnapshotStore} used to persist the warm ups, so that they can be reused by new
+     * contexts while the content doesn't change (optional)
+     */
+    public void setSnapshotStore(CacheWarmUpSnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -80,7 +89,7 @@ public class SiteCacheWarmerImpl implements SiteCacheWarmer {
 
                 stopWatch.start();
 
-                doCacheWarmUp(tmpContext);
+                doCacheWarmUp(siteContext, tmpContext, true);
                 if (siteContext.isValid()) {
                     // Switch cache versions
                     currentContext.setCacheVersion(newCacheVersion);
@@ -106,7 +115,7 @@ public class SiteCacheWarmerImpl implements SiteCacheWarmer {
 
             stopWatch.start();
 
-            doCacheWarmUp(siteContext.getContext());
+            doCacheWarmUp(siteContext, siteContext.getContext(), false);
 
             stopWatch.stop();
 
@@ -115,9 +124,55 @@ public class SiteCacheWarmerImpl implements SiteCacheWarmer {
         }
     }
 
-    private void doCacheWarmUp(Context cacheContext) {
+    private void doCacheWarmUp(SiteContext siteContext, Context cacheContext, boolean cacheCleared) {
+        CacheWarmUpStats stats = new CacheWarmUpStats();
+        siteContext.setCacheWarmUpStats(stats);
+
+        try {
+            doCacheWarmUp(siteContext, cacheContext, cacheCleared, stats);
+        } finally {
+            stats.finish();
+        }
+    }
+
+    private void doCacheWarmUp(SiteContext siteContext, Context cacheContext, boolean cacheCleared,
+                               CacheWarmUpStats stats) {
+        CacheWarmUpSnapshot snapshot = null;
+        boolean snapshotLoaded = false;
+
+        PreloadedFoldersAwareContext contextWrapper = PreloadedFoldersAwareContext.find(cacheContext);
+        if (snapshotStore != null && snapshotStore.isEnabled() && contextWrapper != null) {
+            if (cacheCleared) {
+                // The cache can be cleared without a new deployment (and so without a new content version), so the
+                // snapshot can't be trusted anymore
+                snapshotStore.delete(siteContext.getSiteName());
+            }
+
+            String version = snapshotStore.getContentVersion(siteContext);
+            if (version != null) {
+                snapshot = !cacheCleared? snapshotStore.load(siteContext.getSiteName(), version) : null;
+                if (snapshot != null) {
+                    snapshotLoaded = true;
+                } else {
+                    // No valid snapshot, so record a new one during the warm up
+                    snapshot = new CacheWarmUpSnapshot(version);
+                }
+
+                contextWrapper.setSnapshot(snapshot);
+            }
+        }
+
         for (ContextCacheWarmer cacheWarmer : contextCacheWarmers) {
-            cacheWarmer.warmUpCache(cacheContext);
+            cacheWarmer.warmUpCache(cacheContext, stats);
+        }
+
+        if (snapshot != null && !snapshotLoaded) {
+            if (snapshot.isComplete()) {
+                snapshotStore.save(siteContext.getSiteName(), snapshot);
+            }
+
+            // The recorded items are already in the content cache, so don't keep a second copy of them
+            contextWrapper.removeSnapshot();
         }
     }
 
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.craftercms.commons.lang.Callback;
+import org.craftercms.commons.lang.RegexUtils;
+import org.craftercms.core.service.CachingOptions;
+import org.craftercms.core.service.Context;
+import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.util.concurrent.SiteAwareRunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link SingleFlightCacheTemplate} that can serve the entries of a cache scope for a bounded time after it has been
+ * cleared, while they are reloaded in the background (similar to HTTP stale-while-revalidate).
+ *
+ * <p>{@link #markStale(Context, long, String[])} takes the values of the entries that were loaded through the
+ * {@link KeyIndexingCacheTemplate} (by their key elements, without scanning the cache) and then clears the scope. The
+ * first time one of those entries is requested, its stale value is returned and the entry is reloaded in the
+ * background, and until then the stale value keeps being served. Loaders never get stale values though: if a loader
+ * requests a stale entry, it's reloaded synchronously, so that a fresh entry is never built from stale ones. When the
+ * max staleness is reached, the stale values that haven't been reloaded yet are discarded.</p>
+ *
+ * <p>Entries stored directly in the cache (like rendered outputs) are cleared like in a normal clear, and entries
+ * with a key element that matches one of the excluded path patterns are always reloaded synchronously.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class StaleWhileRevalidateCacheTemplate extends SingleFlightCacheTemplate
+    implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(StaleWhileRevalidateCacheTemplate.class);
+
+    /**
+     * Number of loaders currently running in the thread, which should never get stale values
+     */
+    private static final ThreadLocal<Integer> loaderDepth = ThreadLocal.withInitial(() -> 0);
+
+    protected KeyIndexingCacheTemplate keyIndexingCacheTemplate;
+    protected long maxStaleness;
+    protected int refreshPoolSize;
+
+    protected ScheduledThreadPoolExecutor refreshExecutor;
+    protected final ConcurrentMap<String, StaleScope> staleScopes;
+    protected final LongAdder staleHits;
+    protected final LongAdder refreshes;
+    protected final LongAdder refreshFailures;
+    protected final LongAdder expiredEntries;
+
+    public StaleWhileRevalidateCacheTemplate() {
+        staleScopes = new ConcurrentHashMap<>();
+        staleHits = new LongAdder();
+        refreshes = new LongAdder();
+        refreshFailures = new LongAdder();
+        expiredEntries = new LongAdder();
+    }
+
+    /**
+     * Sets the template (in the actual template chain) that indexes the entries, used to get the values that can be
+     * served stale
+     */
+    @Required
+    public void setKeyIndexingCacheTemplate(KeyIndexingCacheTemplate keyIndexingCacheTemplate) {
+        this.keyIndexingCacheTemplate = keyIndexingCacheTemplate;
+    }
+
+    /**
+     * Sets the max time in seconds that the entries of any site can be stale (sites can configure a lower value)
+     */
+    @Required
+    public void setMaxStaleness(long maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    /**
+     * Sets the number of threads used to reload the stale entries
+     */
+    @Required
+    public void setRefreshPoolSize(int refreshPoolSize) {
+        this.refreshPoolSize = refreshPoolSize;
+    }
+
+    /**
+     * Returns the number of stale values that were served and scheduled for reload.
+     */
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getRefreshFailures() {
+        return refreshFailures.sum();
+    }
+
+    /**
+     * Returns the number of stale values that were discarded because they weren't reloaded before the max staleness.
+     */
+    public long getExpiredEntries() {
+        return expiredEntries.sum();
+    }
+
+    /**
+     * Returns the number of stale values of the scope that haven't been reloaded yet.
+     */
+    public int getStaleValueCount(Context context) {
+        StaleScope scope = staleScopes.get(context.getId());
+        return scope != null? scope.size() : 0;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("stale-cache-refresh-");
+        threadFactory.setDaemon(true);
+
+        refreshExecutor = new ScheduledThreadPoolExecutor(refreshPoolSize, threadFactory);
+        refreshExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void destroy() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Clears the scope of the context, keeping the values of the indexed entries so that they can be served stale.
+     *
+     * @param context               the context of the scope
+     * @param siteMaxStaleness      the max time in seconds the entries can be stale (capped by the global max), 0 to
+     *                              use the global max
+     * @param excludedPathPatterns  regexes of the paths whose entries can't be stale
+     */
+    public void markStale(Context context, long siteMaxStaleness, String[] excludedPathPatterns) {
+        long staleness = siteMaxStaleness > 0? Math.min(siteMaxStaleness, maxStaleness) : maxStaleness;
+
+        // Entries still stale from a previous clear can't be served anymore
+        StaleScope previousScope = staleScopes.get(context.getId());
+        if (previousScope != null) {
+            expire(previousScope);
+        }
+
+        if (staleness <= 0) {
+            getCacheService().clearScope(context);
+            return;
+        }
+
+        CacheKeyIndex index = keyIndexingCacheTemplate.getIndex(context);
+        Map<String, Object> staleValues = index != null? index.drain() : null;
+
+        getCacheService().clearScope(context);
+
+        if (staleValues == null || staleValues.isEmpty()) {
+            return;
+        }
+
+        StaleScope scope = new StaleScope(context, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(staleness),
+                                          staleValues, excludedPathPatterns);
+        staleScopes.put(context.getId(), scope);
+
+        try {
+            refreshExecutor.schedule(() -> expire(scope), staleness, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Unable to schedule the expiration of the stale cache values of context {}, the values " +
+                        "will expire on the next access", context, e);
+        }
+
+        logger.info("{} cache values of context {} marked as stale for up to {} secs", scope.size(), context,
+                    staleness);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getObject(Context context, CachingOptions cachingOptions, Callback<T> callback,
+                           Object... keyElements) {
+        StaleScope scope = context != null? staleScopes.get(context.getId()) : null;
+        if (scope == null) {
+            return super.getObject(context, cachingOptions, callback, keyElements);
+        }
+        if (scope.isExpired()) {
+            expire(scope);
+
+            return super.getObject(context, cachingOptions, callback, keyElements);
+        }
+
+        Callback<T> trackedCallback = () -> executeLoader(callback);
+        String key = Arrays.deepToString(keyElements);
+
+        if (loaderDepth.get() == 0 && !scope.isExcluded(keyElements)) {
+            Object staleValue = scope.get(key);
+            if (staleValue != null) {
+                if (scope.claim(key)) {
+                    staleHits.increment();
+                    scheduleRefresh(context, scope, key, cachingOptions, trackedCallback, keyElements);
+                }
+
+                return (T) staleValue;
+            }
+        }
+
+        T value = super.getObject(context, cachingOptions, trackedCallback, keyElements);
+
+        // The entry is fresh now, so the stale value shouldn't be served anymore
+        scope.remove(key);
+
+        return value;
+    }
+
+    protected <T> T executeLoader(Callback<T> callback) {
+        loaderDepth.set(loaderDepth.get() + 1);
+        try {
+            return callback.execute();
+        } finally {
+            loaderDepth.set(loaderDepth.get() - 1);
+        }
+    }
+
+    protected void scheduleRefresh(Context context, StaleScope scope, String key, CachingOptions cachingOptions,
+                                   Callback<?> callback, Object... keyElements) {
+        Runnable refresh = () -> {
+            try {
+                super.getObject(context, cachingOptions, callback, keyElements);
+                scope.remove(key);
+
+                refreshes.increment();
+            } catch (Exception e) {
+                scope.remove(key);
+                refreshFailures.increment();
+
+                logger.warn("Error while reloading stale cache entry {} of context {}", key, context, e);
+            }
+        };
+
+        SiteContext siteContext = SiteContext.getCurrent();
+        try {
+            refreshExecutor.execute(siteContext != null? new SiteAwareRunnable(siteContext, refresh) : refresh);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Unable to schedule the reload of stale cache entry {}, discarding it", key, e);
+
+            scope.remove(key);
+        }
+    }
+
+    /**
+     * Discards the stale values of the scope that haven't been reloaded yet.
+     */
+    protected void expire(StaleScope scope) {
+        Context context = scope.getContext();
+        if (staleScopes.remove(context.getId(), scope)) {
+            int count = scope.clear();
+            expiredEntries.add(count);
+
+            logger.debug("{} stale cache values of context {} expired", count, context);
+        }
+    }
+
+    /**
+     * The stale values of a cache scope (by the string representation of their key elements), and the ones being
+     * reloaded.
+     */
+    protected static class StaleScope {
+
+        private final Context context;
+        private final long expiresAt;
+        private final Map<String, Object> staleValues;
+        private final Set<String> reloadingKeys;
+        private final String[] excludedPathPatterns;
+
+        public StaleScope(Context context, long expiresAt, Map<String, Object> staleValues,
+                          String[] excludedPathPatterns) {
+            this.context = context;
+            this.expiresAt = expiresAt;
+            this.staleValues = new ConcurrentHashMap<>(staleValues);
+            this.reloadingKeys = ConcurrentHashMap.newKeySet();
+            this.excludedPathPatterns = excludedPathPatterns;
+        }
+
+        public Context getContext() {
+            return context;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+        /**
+         * Returns true if any of the string key elements matches one of the excluded path patterns.
+         */
+        public boolean isExcluded(Object[] keyElements) {
+            if (ArrayUtils.isNotEmpty(excludedPathPatterns)) {
+                for (Object keyElement : keyElements) {
+                    if (keyElement instanceof String &&
+                        RegexUtils.matchesAny((String) keyElement, excludedPathPatterns)) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        public int size() {
+            return staleValues.size();
+        }
+
+        public Object get(String key) {
+            return staleValues.get(key);
+        }
+
+        /**
+         * Claims the reload of the stale value, returning false if it's already being reloaded.
+         */
+        public boolean claim(String key) {
+            return reloadingKeys.add(key);
+        }
+
+        public void remove(String key) {
+            if (staleValues.remove(key) != null) {
+                reloadingKeys.remove(key);
+            }
+        }
+
+        /**
+         * Discards all the stale values, returning how many there were.
+         */
+        public int clear() {
+            int count = staleValues.size();
+            staleValues.clear();
+            reloadingKeys.clear();
+
+            return count;
+        }
+
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Generates the surrogate keys (also known as cache tags) used to tag the responses of a site in a CDN, so that they
+ * can be purged when the content they were built from changes. Each key identifies a store path of a site (an item,
+ * a folder, a template or a script) and a site key is used to tag all the responses of the site.
+ *
+ * <p>Keys can be hashed so that they're short enough to fit in the header limits of most CDNs (and don't include
+ * characters that some CDNs reject).</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class SurrogateKeyGenerator {
+
+    /**
+     * Number of hex chars of the MD5 kept for hashed keys
+     */
+    private static final int HASHED_KEY_LENGTH = 16;
+
+    protected boolean hashKeys;
+
+    @Required
+    public void setHashKeys(boolean hashKeys) {
+        this.hashKeys = hashKeys;
+    }
+
+    /**
+     * Returns the key that tags all the responses of the site.
+     */
+    public String getSiteKey(String siteName) {
+        return siteName;
+    }
+
+    /**
+     * Returns the key of the path of the site.
+     */
+    public String getKey(String siteName, String path) {
+        String key = siteName + ":" + path;
+        if (hashKeys) {
+            return DigestUtils.md5DigestAsHex(key.getBytes(StandardCharsets.UTF_8)).substring(0, HASHED_KEY_LENGTH);
+        } else {
+            return key;
+        }
+    }
+
+    /**
+     * Returns the keys for a response built from the specified paths, starting with the site key.
+     */
+    public Set<String> getKeys(String siteName, Collection<String> paths) {
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add(getSiteKey(siteName));
+
+        for (String path : new TreeSet<>(paths)) {
+            keys.add(getKey(siteName, path));
+        }
+
+        return keys;
+    }
+
+    /**
+     * Returns the keys that need to be purged when the specified paths change: the keys of the paths and of their
+     * parent folders (since responses that list a folder depend on the folder path).
+     */
+    public Set<String> getPurgeKeys(String siteName, Collection<String> changedPaths) {
+        Set<String> paths = new TreeSet<>();
+        for (String path : changedPaths) {
+            String currentPath = StringUtils.removeEnd(path, "/");
+            while (StringUtils.isNotEmpty(currentPath) && paths.add(currentPath)) {
+                currentPath = StringUtils.substringBeforeLast(currentPath, "/");
+            }
+        }
+
+        Set<String> keys = new LinkedHashSet<>();
+        for (String path : paths) {
+            keys.add(getKey(siteName, path));
+        }
+
+        return keys;
+    }
+
+}
@@ -15,25 +15,52 @@
  */
 package org.craftercms.engine.controller;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.craftercms.commons.lang.UrlUtils;
+import org.craftercms.commons.spring.resources.RangeAwareResource;
 import org.craftercms.core.service.Content;
 import org.craftercms.core.service.ContentStoreService;
+import org.craftercms.core.store.impl.filesystem.FileSystemFile;
+import org.craftercms.engine.cache.CompressedContentCache;
 import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.store.RangeAwareContent;
+import org.craftercms.engine.store.s3.S3Content;
+import org.craftercms.engine.util.spring.resources.FileChannelResourceHttpMessageConverter;
+import org.craftercms.engine.util.spring.resources.FileTransferUtils;
+import org.craftercms.engine.util.spring.resources.RangeAwareResourceRegionHttpMessageConverter;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
 import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.resource.HttpResource;
 import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
 
 /**
@@ -46,14 +73,42 @@ public class StaticAssetsRequestHandler extends ResourceHttpRequestHandler {
 
     private static final Log logger = LogFactory.getLog(StaticAssetsRequestHandler.class);
 
+    public static final String CONTENT_ATTRIBUTE_NAME = StaticAssetsRequestHandler.class.getName() + ".content";
+    public static final String GZIP_ATTRIBUTE_NAME = StaticAssetsRequestHandler.class.getName() + ".gzip";
+
+    public static final String GZIP_ENCODING = "gzip";
+    public static final String GZIP_EXTENSION = ".gz";
+    public static final String X_GZIP_ENCODING = "x-gzip";
+
+    private static final MediaType TEXT_MEDIA_TYPE = MediaType.parseMediaType("text/*");
+
+    private static final String COMPRESSED_CONTENT_CACHE_CONST_KEY_ELEM = "staticAssetsCompressedContentCache";
+    private static final String PRECOMPRESSED_CONST_KEY_ELEM = "staticAssetPrecompressed";
+
     private ContentStoreService contentStoreService;
     private String staticAssetsPath;
     private boolean disableCaching;
+    private boolean compressionEnabled;
+    private List<MediaType> compressibleMediaTypes;
+    private long maxCompressibleSize;
+    private long compressedContentCacheMaxSize;
+    private boolean sendfileEnabled;
+
+    public StaticAssetsRequestHandler() {
+        compressibleMediaTypes = Collections.emptyList();
+    }
 
     protected void init() {
         // Don't require a session for static-assets
         setRequireSession(false);
 
+        // Conditional requests are handled in handleRequest, using both the cached ETag and the last modified date
+        setUseLastModified(false);
+
+        // Use FileChannel.transferTo/sendfile for assets in the filesystem
+        setResourceHttpMessageConverter(new FileChannelResourceHttpMessageConverter());
+        setResourceRegionHttpMessageConverter(new RangeAwareResourceRegionHttpMessageConverter());
+
         // If cache-control is set explicitly, don't change it
         if (getCacheControl() != null) {
             return;
@@ -78,16 +133,123 @@ public class StaticAssetsRequestHandler extends ResourceHttpRequestHandler {
         this.disableCaching = disableCaching;
     }
 
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public void setCompressibleMediaTypes(String[] compressibleMediaTypes) {
+        this.compressibleMediaTypes = MediaType.parseMediaTypes(String.join(",", compressibleMediaTypes));
+    }
+
+    public void setMaxCompressibleSize(long maxCompressibleSize) {
+        this.maxCompressibleSize = maxCompressibleSize;
+    }
+
+    public void setCompressedContentCacheMaxSize(long compressedContentCacheMaxSize) {
+        this.compressedContentCacheMaxSize = compressedContentCacheMaxSize;
+    }
+
+    public void setSendfileEnabled(boolean sendfileEnabled) {
+        this.sendfileEnabled = sendfileEnabled;
+    }
+
+    @Override
+    public void handleRequest(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        SiteContext siteContext = SiteContext.getCurrent();
+
+        if (!disableCaching && siteContext != null) {
+            String path = getPath(request, siteContext);
+            Content content = getContent(siteContext, path);
+
+            if (content != null) {
+                // Keep the content so that it's not looked up again in getResource
+                request.setAttribute(CONTENT_ATTRIBUTE_NAME, content);
+
+                // The supported methods and required session are checked before any 304 is sent
+                checkRequest(request);
+
+                if (checkNotModified(request, response, siteContext, path, content)) {
+                    return;
+                }
+            }
+        }
+
+        super.handleRequest(request, response);
+    }
+
+    /**
+     * Checks the If-None-Match and If-Modified-Since headers of the request against the validators of the asset,
+     * which are taken from the store metadata, so the asset content is never read. The ETag and Last-Modified
+     * headers are also added to the response.
+     *
+     * @return true if the asset hasn't been modified and a 304 has been sent
+     */
+    protected boolean checkNotModified(HttpServletRequest request, HttpServletResponse response,
+                                       SiteContext siteContext, String path, Content content) {
+        String etag = getEtag(content);
+
+        // The ETag is already calculated so the response doesn't need to be buffered by the ETag filter
+        ShallowEtagHeaderFilter.disableContentCaching(request);
+
+        // Since the response is not buffered, the container can write the file directly
+        if (sendfileEnabled) {
+            request.setAttribute(FileTransferUtils.SENDFILE_ALLOWED_ATTRIBUTE, true);
+        }
+
+        long lastModified = content.getLastModified();
+
+        if (isCompressible(path)) {
+            // Make sure caches keep the different encodings of the asset
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+            // Decide the encoding before the ETag, so that the ETag always matches the body that is sent
+            boolean gzip = shouldCompress(request, path) && isCompressedAvailable(siteContext, path, content);
+            request.setAttribute(GZIP_ATTRIBUTE_NAME, gzip);
+
+            if (gzip) {
+                Content precompressed = getPrecompressed(siteContext, path, content);
+                if (precompressed != null) {
+                    // The .gz sibling is a file of its own, so it has its own validators
+                    etag = getEtag(precompressed);
+                    lastModified = precompressed.getLastModified();
+                } else {
+                    // Each representation needs its own strong ETag
+                    etag = etag.substring(0, etag.length() - 1) + "-" + GZIP_ENCODING + "\"";
+                }
+            }
+        }
+
+        lastModified = lastModified > 0? lastModified : -1;
+        boolean notModified = new ServletWebRequest(request, response).checkNotModified(etag, lastModified);
+
+        if (notModified && logger.isDebugEnabled()) {
+            logger.debug("Static asset at [context=" + siteContext + ", path='" + path + "'] not modified");
+        }
+
+        return notModified;
+    }
+
+    /**
+     * Returns the strong ETag of the asset, built from the version the store already has for it: the ETag of the
+     * object for S3 content, or else the last modified date and length of the content.
+     */
+    protected String getEtag(Content content) {
+        if (content instanceof S3Content) {
+            String eTag = StringUtils.strip(((S3Content) content).getETag(), "\"");
+            if (StringUtils.isNotEmpty(eTag)) {
+                return "\"" + eTag + "\"";
+            }
+        }
+
+        return "\"" + Long.toHexString(content.getLastModified()) + "-" + Long.toHexString(content.getLength()) + "\"";
+    }
+
     @Override
     protected MediaType getMediaType(HttpServletRequest request, Resource resource) {
         MediaType mediaType = super.getMediaType(request, resource);
-        MediaType textType = MediaType.parseMediaType("text/*");
-        if (textType.includes(mediaType)) {
-            return MediaType.parseMediaType(new StringBuilder()
-                    .append(mediaType)
-                    .append("; charset=")
-                    .append(StandardCharsets.UTF_8.name())
-                    .toString());
+        if (mediaType != null && TEXT_MEDIA_TYPE.includes(mediaType)) {
+            return new MediaType(mediaType, StandardCharsets.UTF_8);
         }
 
         return mediaType;
@@ -107,7 +269,7 @@ public class StaticAssetsRequestHandler extends ResourceHttpRequestHandler {
             logger.debug("Trying to get content for static asset at [context=" + siteContext + ", path='" + path + "']");
         }
 
-        final Content content = getContent(siteContext, path);
+        final Content content = getContent(request, siteContext, path);
         if (content == null) {
             if (logger.isDebugEnabled()) {
                 logger.debug("No static asset found at [context=" + siteContext + ", path='" + path +
@@ -116,39 +278,179 @@ public class StaticAssetsRequestHandler extends ResourceHttpRequestHandler {
             return null;
         }
 
+        if (isCompressible(path)) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+            Boolean gzip = (Boolean) request.getAttribute(GZIP_ATTRIBUTE_NAME);
+            if (gzip == null) {
+                gzip = shouldCompress(request, path) && isCompressedAvailable(siteContext, path, content);
+            } else if (gzip) {
+                // If the compression fails, the ETag already set for the compressed body needs to be replaced
+                headers.setETag(getEtag(content));
+            }
+
+            if (gzip) {
+                Resource compressed = getCompressedResource(siteContext, path, content);
+                if (compressed != null) {
+                    return compressed;
+                }
+            }
+
+            return new ContentResource(path, content, getFile(content), headers);
+        }
+
         return toResource(content, path);
     }
 
     protected Resource toResource(Content content, String path) {
-        return new AbstractResource() {
+        return new ContentResource(path, content, getFile(content), HttpHeaders.EMPTY);
+    }
 
-            @Override
-            public String getFilename() {
-                return FilenameUtils.getName(path);
-            }
+    /**
+     * Returns the file of the content if it comes from the filesystem, so that it can be written without going
+     * through an {@code InputStream}. Returns null for any other store (like S3 or remote stores).
+     */
+    protected File getFile(Content content) {
+        if (content instanceof FileSystemFile) {
+            return ((FileSystemFile) content).getFile();
+        } else {
+            return null;
+        }
+    }
 
-            @Override
-            public long lastModified() {
-                // don't provide timestamp to rely on etag comparison instead
-                return -1;
+    /**
+     * Returns the gzip compressed version of the asset: the {@code .gz} sibling file if it exists in the store, or
+     * else the content compressed on first access and kept in a size-bounded site cache.
+     */
+    protected Resource getCompressedResource(SiteContext siteContext, String path, Content content) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+        headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        Content precompressed = getPrecompressed(siteContext, path, content);
+        if (precompressed != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Serving precompressed static asset at [context=" + siteContext + ", path='" + path +
+                             GZIP_EXTENSION + "']");
             }
 
-            @Override
-            public long contentLength() {
-                return content.getLength();
-            }
+            return new ContentResource(path, precompressed.getLastModified(), precompressed.getLength(),
+                                       precompressed::getInputStream, getFile(precompressed), headers);
+        }
+
+        if (content.getLength() > maxCompressibleSize) {
+            return null;
+        }
+
+        CompressedContentCache cache = siteContext.getFromCache(
+            () -> new CompressedContentCache(compressedContentCacheMaxSize), COMPRESSED_CONTENT_CACHE_CONST_KEY_ELEM);
+        String key = path + ":" + content.getLastModified() + ":" + content.getLength();
+
+        byte[] compressed = cache.get(key);
+        if (compressed == null) {
+            try (InputStream in = content.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                    IOUtils.copy(in, gzipOut);
+                }
+
+                compressed = out.toByteArray();
+            } catch (IOException e) {
+                logger.warn("Unable to compress static asset at [context=" + siteContext + ", path='" + path +
+                            "']", e);
 
-            @Override
-            public String getDescription() {
                 return null;
             }
 
-            @Override
-            public InputStream getInputStream() throws IOException {
-                return content.getInputStream();
+            cache.put(key, compressed);
+        }
+
+        byte[] finalCompressed = compressed;
+
+        return new ContentResource(path, content.getLastModified(), finalCompressed.length,
+                                   () -> new ByteArrayInputStream(finalCompressed), null, headers);
+    }
+
+    /**
+     * Returns true if a gzip compressed version of the asset can be served: the asset has a {@code .gz} sibling or
+     * it's small enough to be compressed on the fly.
+     */
+    protected boolean isCompressedAvailable(SiteContext siteContext, String path, Content content) {
+        return content.getLength() <= maxCompressibleSize || hasPrecompressed(siteContext, path, content);
+    }
+
+    /**
+     * Returns true if the asset has a {@code .gz} sibling in the store that is at least as new as the asset (an older
+     * sibling was generated from a previous version of the asset). The result (including a negative one) is kept in
+     * the site cache, so the store is not hit on every request for assets without a sibling.
+     */
+    protected boolean hasPrecompressed(SiteContext siteContext, String path, Content content) {
+        return siteContext.getFromCache(() -> {
+            Content precompressed = getContent(siteContext, path + GZIP_EXTENSION);
+            return precompressed != null && precompressed.getLastModified() >= content.getLastModified();
+        }, path, content.getLastModified(), content.getLength(), PRECOMPRESSED_CONST_KEY_ELEM);
+    }
+
+    /**
+     * Returns the {@code .gz} sibling of the asset, or null if there's none or it's older than the asset.
+     */
+    protected Content getPrecompressed(SiteContext siteContext, String path, Content content) {
+        return hasPrecompressed(siteContext, path, content)? getContent(siteContext, path + GZIP_EXTENSION) : null;
+    }
+
+    protected boolean isCompressible(String path) {
+        if (!compressionEnabled) {
+            return false;
+        }
+
+        Optional<MediaType> mediaType = MediaTypeFactory.getMediaType(path);
+
+        return mediaType.isPresent() && compressibleMediaTypes.stream().anyMatch(
+            compressibleType -> compressibleType.includes(mediaType.get()));
+    }
+
+    protected boolean shouldCompress(HttpServletRequest request, String path) {
+        // Ranges are always served from the uncompressed content
+        if (request.getHeader(HttpHeaders.RANGE) != null) {
+            return false;
+        }
+
+        return acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING)) && isCompressible(path);
+    }
+
+    /**
+     * Returns true if the specified {@code Accept-Encoding} header value accepts gzip, taking into account the
+     * quality values (so {@code gzip;q=0} is a rejection) and the {@code *} wildcard.
+     */
+    protected static boolean acceptsGzip(String acceptEncoding) {
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return false;
+        }
+
+        float gzipQuality = -1;
+        float anyQuality = -1;
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim().toLowerCase();
+            float quality = 1;
+
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.toLowerCase().startsWith("q=")) {
+                    quality = NumberUtils.toFloat(param.substring(2).trim(), 0);
+                }
+            }
+
+            if (name.equals(GZIP_ENCODING) || name.equals(X_GZIP_ENCODING)) {
+                gzipQuality = Math.max(gzipQuality, quality);
+            } else if (name.equals("*")) {
+                anyQuality = quality;
             }
+        }
 
-        };
+        return gzipQuality >= 0? gzipQuality > 0 : anyQuality > 0;
     }
 
     protected String getPath(HttpServletRequest request, SiteContext siteContext) {
@@ -165,10 +467,118 @@ public class StaticAssetsRequestHandler extends ResourceHttpRequestHandler {
         }
     }
 
+    protected Content getContent(HttpServletRequest request, SiteContext siteContext, String path) {
+        Content content = (Content) request.getAttribute(CONTENT_ATTRIBUTE_NAME);
+        if (content != null) {
+            return content;
+        } else {
+            return getContent(siteContext, path);
+        }
+    }
+
     protected Content getContent(SiteContext siteContext, String path) {
         return contentStoreService.findContent(siteContext.getContext(), path);
     }
 
+    /**
+     * {@link Resource} for content coming from the store, that can also provide additional response headers. If the
+     * content is backed by a file in the filesystem, the file is also exposed. If the content is a
+     * {@link RangeAwareContent} (like S3 content), ranges are read directly from the store instead of reading the
+     * whole content.
+     */
+    protected static class ContentResource extends AbstractResource implements HttpResource, RangeAwareResource {
+
+        private final String path;
+        private final long lastModified;
+        private final long contentLength;
+        private final InputStreamSource inputStreamSource;
+        private final RangeAwareContent rangeAwareContent;
+        private final File file;
+        private final HttpHeaders headers;
+
+        public ContentResource(String path, long lastModified, long contentLength,
+                               InputStreamSource inputStreamSource, File file, HttpHeaders headers) {
+            this(path, lastModified, contentLength, inputStreamSource, null, file, headers);
+        }
+
+        public ContentResource(String path, Content content, File file, HttpHeaders headers) {
+            this(path, content.getLastModified(), content.getLength(), content::getInputStream,
+                 content instanceof RangeAwareContent? (RangeAwareContent) content : null, file, headers);
+        }
+
+        protected ContentResource(String path, long lastModified, long contentLength,
+                                  InputStreamSource inputStreamSource, RangeAwareContent rangeAwareContent, File file,
+                                  HttpHeaders headers) {
+            this.path = path;
+            this.lastModified = lastModified > 0? lastModified : -1;
+            this.contentLength = contentLength;
+            this.inputStreamSource = inputStreamSource;
+            this.rangeAwareContent = rangeAwareContent;
+            this.file = file;
+            this.headers = headers;
+        }
+
+        @Override
+        public boolean isFile() {
+            return file != null;
+        }
+
+        @Override
+        public File getFile() throws IOException {
+            if (file != null) {
+                return file;
+            } else {
+                throw new FileNotFoundException(path + " is not backed by a file in the filesystem");
+            }
+        }
+
+        @Override
+        public String getFilename() {
+            return FilenameUtils.getName(path);
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
 
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public String getDescription() {
+            return null;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return inputStreamSource.getInputStream();
+        }
+
+        @Override
+        public InputStream getInputStream(long start, long end) throws IOException {
+            if (rangeAwareContent != null) {
+                return rangeAwareContent.getInputStream(start, end);
+            }
+
+            InputStream in = getInputStream();
+            try {
+                IOUtils.skipFully(in, start);
+            } catch (IOException e) {
+                IOUtils.closeQuietly(in);
+                throw e;
+            }
+
+            return new BoundedInputStream(in, end - start + 1);
+        }
+
+        @Override
+        public HttpHeaders getResponseHeaders() {
+            return headers;
+        }
+
+    }
 
 }
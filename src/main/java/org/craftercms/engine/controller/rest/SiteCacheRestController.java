@@ -16,15 +16,26 @@
 
 package org.craftercms.engine.controller.rest;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.craftercms.commons.exceptions.InvalidManagementTokenException;
 import org.craftercms.core.cache.CacheStatistics;
 import org.craftercms.core.controller.rest.RestControllerBase;
+import org.craftercms.core.store.ContentStoreAdapter;
+import org.craftercms.engine.cache.ContentDependencyGraph;
+import org.craftercms.engine.cache.SingleFlightCacheTemplate;
+import org.craftercms.engine.cache.SiteCacheQuotaManager;
+import org.craftercms.engine.cache.StaleWhileRevalidateCacheTemplate;
+import org.craftercms.engine.cache.SurrogateKeyGenerator;
 import org.craftercms.engine.event.SiteContextCreatedEvent;
 import org.craftercms.engine.event.SiteEvent;
 import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.store.MonitoredContentStoreAdapter;
+import org.craftercms.engine.util.deployment.DeploymentChanges;
+import org.craftercms.engine.util.store.decorators.DecoratedStoreAdapterContext;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -32,7 +43,11 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
 import java.beans.ConstructorProperties;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 import static java.lang.String.format;
 
@@ -49,17 +64,47 @@ public class SiteCacheRestController extends RestControllerBase {
 
     public static final String URL_ROOT = "/site/cache";
     public static final String URL_CLEAR = "/clear";
+    public static final String URL_INVALIDATE = "/invalidate";
     public static final String URL_STATS = "/statistics";
+    public static final String URL_STATS_DETAILS = "/statistics/details";
+    public static final String URL_DEPENDENCIES = "/dependencies";
+    public static final String URL_PURGE_KEYS = "/purge-keys";
+
+    public static final String WARM_UP_STATS_KEY = "warmUp";
+    public static final String STORE_STATS_KEY = "store";
+    public static final String SINGLE_FLIGHT_STATS_KEY = "singleFlight";
+    public static final String STALE_WHILE_REVALIDATE_STATS_KEY = "staleWhileRevalidate";
+    public static final String QUOTA_STATS_KEY = "quota";
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() {};
 
     private final String configuredToken;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private SiteCacheQuotaManager cacheQuotaManager;
+    private SurrogateKeyGenerator surrogateKeyGenerator;
 
     @ConstructorProperties({"configuredToken"})
     public SiteCacheRestController(final String configuredToken) {
         this.configuredToken = configuredToken;
     }
 
+    /**
+     * Sets the {@link SiteCacheQuotaManager} used to report the memory usage of the site cache (optional)
+     */
+    public void setCacheQuotaManager(SiteCacheQuotaManager cacheQuotaManager) {
+        this.cacheQuotaManager = cacheQuotaManager;
+    }
+
+    /**
+     * Sets the {@link SurrogateKeyGenerator} used to map changed paths to the CDN keys to purge (optional)
+     */
+    public void setSurrogateKeyGenerator(SurrogateKeyGenerator surrogateKeyGenerator) {
+        this.surrogateKeyGenerator = surrogateKeyGenerator;
+    }
+
     @RequestMapping(value = URL_CLEAR, method = RequestMethod.GET)
-    public Map<String, Object> clear(HttpServletRequest request, @RequestParam String token) throws InvalidManagementTokenException {
+    public Map<String, Object> clear(HttpServletRequest request, @RequestParam String token)
+            throws InvalidManagementTokenException {
         validateToken(token);
         SiteContext siteContext = SiteContext.getCurrent();
         String siteName = siteContext.getSiteName();
@@ -67,7 +112,8 @@ public class SiteCacheRestController extends RestControllerBase {
 
         // Don't clear cache if the context was just created in this request
         if (SiteEvent.getLatestRequestEvent(SiteContextCreatedEvent.class, request) != null) {
-            return createResponseMessage(format("Site context for '%s' created during the request. Cache clear not necessary", siteName));
+            return createResponseMessage(format("Site context for '%s' created during the request. Cache clear " +
+                                                "not necessary", siteName));
         } else {
             siteContext.startCacheClear();
             msg = format("Cache clear for site '%s' started", siteName);
@@ -78,6 +124,38 @@ public class SiteCacheRestController extends RestControllerBase {
         return createResponseMessage(msg);
     }
 
+    /**
+     * Starts an invalidation of only the cache entries affected by the specified changed paths, for deployments that
+     * don't write a changed paths manifest. The whole cache is cleared instead if the site has no cache invalidator,
+     * or if the changes can't be invalidated incrementally.
+     */
+    @RequestMapping(value = URL_INVALIDATE, method = RequestMethod.POST)
+    public Map<String, Object> invalidate(HttpServletRequest request, @RequestParam String token,
+                                          @RequestParam(value = "created", required = false) List<String> createdPaths,
+                                          @RequestParam(value = "updated", required = false) List<String> updatedPaths,
+                                          @RequestParam(value = "deleted", required = false) List<String> deletedPaths)
+        throws InvalidManagementTokenException {
+        validateToken(token);
+        SiteContext siteContext = SiteContext.getCurrent();
+        String siteName = siteContext.getSiteName();
+
+        // Don't invalidate the cache if the context was just created in this request
+        if (SiteEvent.getLatestRequestEvent(SiteContextCreatedEvent.class, request) != null) {
+            return createResponseMessage(format("Site context for '%s' created during the request. Cache " +
+                                                "invalidation not necessary", siteName));
+        }
+
+        DeploymentChanges changes = DeploymentChanges.fromPaths(createdPaths, updatedPaths, deletedPaths);
+        siteContext.startCacheInvalidation(changes, null);
+
+        String msg = format("Cache invalidation for site '%s' started (%d changed paths)", siteName,
+                            changes.getAllPaths().size());
+
+        logger.debug(msg);
+
+        return createResponseMessage(msg);
+    }
+
     @RequestMapping(value = URL_STATS, method = RequestMethod.GET)
     public CacheStatistics getStatistics(@RequestParam String token) throws InvalidManagementTokenException {
         validateToken(token);
@@ -86,6 +164,112 @@ public class SiteCacheRestController extends RestControllerBase {
         return siteContext.getCacheTemplate().getCacheService().getStatistics(siteContext.getContext());
     }
 
+    /**
+     * Returns the cache statistics of the site plus the warm up progress, the single-flight loading and
+     * stale-while-revalidate counters, the memory quota usage and the store statistics (when available).
+     */
+    @RequestMapping(value = URL_STATS_DETAILS, method = RequestMethod.GET)
+    public Map<String, Object> getDetailedStatistics(@RequestParam String token)
+        throws InvalidManagementTokenException {
+        validateToken(token);
+
+        SiteContext siteContext = SiteContext.getCurrent();
+        CacheStatistics cacheStats = siteContext.getCacheTemplate().getCacheService().getStatistics(
+            siteContext.getContext());
+
+        // Keep the cache statistics as top level properties, and add the warm up progress (if any), the single-flight
+        // loading and stale-while-revalidate counters, the memory quota usage and the store statistics (if available)
+        Map<String, Object> stats = new LinkedHashMap<>(objectMapper.convertValue(cacheStats, MAP_TYPE));
+        stats.put(WARM_UP_STATS_KEY, siteContext.getCacheWarmUpStats());
+
+        if (siteContext.getCacheTemplate() instanceof SingleFlightCacheTemplate) {
+            SingleFlightCacheTemplate cacheTemplate = (SingleFlightCacheTemplate) siteContext.getCacheTemplate();
+            Map<String, Object> singleFlightStats = new LinkedHashMap<>();
+            singleFlightStats.put("loads", cacheTemplate.getLoads());
+            singleFlightStats.put("deduplicatedLoads", cacheTemplate.getDeduplicatedLoads());
+            singleFlightStats.put("timeouts", cacheTemplate.getTimeouts());
+            singleFlightStats.put("failures", cacheTemplate.getFailures());
+
+            stats.put(SINGLE_FLIGHT_STATS_KEY, singleFlightStats);
+        }
+        if (siteContext.getCacheTemplate() instanceof StaleWhileRevalidateCacheTemplate) {
+            StaleWhileRevalidateCacheTemplate cacheTemplate =
+                (StaleWhileRevalidateCacheTemplate) siteContext.getCacheTemplate();
+            Map<String, Object> staleStats = new LinkedHashMap<>();
+            staleStats.put("enabled", siteContext.isStaleWhileRevalidateEnabled());
+            staleStats.put("staleValues", cacheTemplate.getStaleValueCount(siteContext.getContext()));
+            staleStats.put("staleHits", cacheTemplate.getStaleHits());
+            staleStats.put("refreshes", cacheTemplate.getRefreshes());
+            staleStats.put("refreshFailures", cacheTemplate.getRefreshFailures());
+            staleStats.put("expiredEntries", cacheTemplate.getExpiredEntries());
+
+            stats.put(STALE_WHILE_REVALIDATE_STATS_KEY, staleStats);
+        }
+
+        if (cacheQuotaManager != null) {
+            stats.put(QUOTA_STATS_KEY, cacheQuotaManager.getStatistics(siteContext.getContext()));
+        }
+
+        ContentStoreAdapter storeAdapter = DecoratedStoreAdapterContext.unwrap(siteContext.getContext())
+                                                                       .getStoreAdapter();
+        if (storeAdapter instanceof MonitoredContentStoreAdapter) {
+            stats.put(STORE_STATS_KEY, ((MonitoredContentStoreAdapter) storeAdapter).getStoreStatistics());
+        }
+
+        return stats;
+    }
+
+    /**
+     * Returns diagnostics of the content dependency graph of the site: the keys of the cached outputs that depend on
+     * the specified path, the paths the output with the specified key depends on, or the size of the graph if no path
+     * or key is specified.
+     */
+    @RequestMapping(value = URL_DEPENDENCIES, method = RequestMethod.GET)
+    public Map<String, Object> getDependencies(@RequestParam String token,
+                                               @RequestParam(required = false) String path,
+                                               @RequestParam(required = false) String key)
+        throws InvalidManagementTokenException {
+        validateToken(token);
+
+        ContentDependencyGraph dependencyGraph = SiteContext.getCurrent().getDependencyGraph();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", dependencyGraph.isEnabled());
+
+        if (StringUtils.isNotEmpty(path)) {
+            result.put("path", path);
+            result.put("dependentKeys", new TreeSet<>(dependencyGraph.getDependentKeys(Collections.singleton(path))));
+        } else if (StringUtils.isNotEmpty(key)) {
+            result.put("key", key);
+            result.put("dependencies", new TreeSet<>(dependencyGraph.getDependencies(key)));
+        } else {
+            result.put("maxKeys", dependencyGraph.getMaxKeys());
+            result.put("keys", dependencyGraph.getKeyCount());
+            result.put("paths", dependencyGraph.getPathCount());
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the surrogate keys (CDN cache tags) that should be purged when the specified paths change.
+     */
+    @RequestMapping(value = URL_PURGE_KEYS, method = { RequestMethod.GET, RequestMethod.POST })
+    public Map<String, Object> getPurgeKeys(@RequestParam String token, @RequestParam("path") List<String> paths)
+        throws InvalidManagementTokenException {
+        validateToken(token);
+
+        if (surrogateKeyGenerator == null) {
+            throw new IllegalStateException("No surrogate key generator has been configured");
+        }
+
+        String siteName = SiteContext.getCurrent().getSiteName();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("siteKey", surrogateKeyGenerator.getSiteKey(siteName));
+        result.put("keys", surrogateKeyGenerator.getPurgeKeys(siteName, paths));
+
+        return result;
+    }
+
     protected final void validateToken(final String requestToken) throws InvalidManagementTokenException {
         if (!StringUtils.equals(requestToken, configuredToken)) {
             throw new InvalidManagementTokenException("Management authorization failed, invalid token.");
@@ -27,14 +27,16 @@ import org.craftercms.commons.lang.UrlUtils;
 import org.craftercms.core.service.Content;
 import org.craftercms.core.service.ContentStoreService;
 import org.craftercms.core.service.Context;
+import org.craftercms.engine.cache.ContentDependencyTracker;
 import org.craftercms.engine.service.context.SiteContext;
 import org.springframework.beans.factory.annotation.Required;
 
 import static org.craftercms.commons.lang.RegexUtils.matchesAny;
 
 /**
- * Freemarker {@link freemarker.cache.TemplateLoader} similar to {@link org.springframework.ui.freemarker.SpringTemplateLoader} but instead of using
- * Spring Resources, it uses the {@link ContentStoreService#getContent(Context, String)}.
+ * Freemarker {@link freemarker.cache.TemplateLoader} similar to
+ * {@link org.springframework.ui.freemarker.SpringTemplateLoader} but instead of using Spring Resources, it uses the
+ * {@link ContentStoreService#getContent(Context, String)}.
  *
  * @author Alfonso Vásquez
  */
@@ -67,11 +69,21 @@ public class CrafterFreeMarkerTemplateLoader implements TemplateLoader {
             }
 
             Content content = contentStoreService.findContent(siteContext.getContext(), path);
+            String dependencyPath = StringUtils.prependIfMissing(path, "/");
+
             if (content == null) {
                 if (logger.isDebugEnabled()) {
                     logger.debug("Unable to find FreeMarker template at [context=" + siteContext + ", path='" + path +
                                  "']");
                 }
+
+                // The lookup is affected too if the template (like a localized variant) is created later
+                ContentDependencyTracker.addDependency(dependencyPath);
+            } else {
+                // Remember the store path of the template, since FreeMarker won't call the loader again while the
+                // template is in its cache
+                siteContext.getDependencyGraph().putTemplatePath(name, dependencyPath);
+                ContentDependencyTracker.addDependency(dependencyPath);
             }
 
             return content;
@@ -16,11 +16,14 @@
 package org.craftercms.engine.freemarker;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.servlet.ServletContext;
 
 import freemarker.core.Environment;
@@ -38,6 +41,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.craftercms.commons.http.RequestContext;
+import org.craftercms.engine.cache.ContentDependencyTracker;
 import org.craftercms.engine.model.SiteItem;
 import org.craftercms.engine.scripting.Script;
 import org.craftercms.engine.scripting.ScriptFactory;
@@ -45,10 +49,12 @@ import org.craftercms.engine.scripting.SiteItemScriptResolver;
 import org.craftercms.engine.service.SiteItemService;
 import org.craftercms.engine.service.context.SiteContext;
 import org.craftercms.engine.util.GroovyScriptUtils;
+import org.craftercms.engine.view.ComponentOutputCache;
 import org.craftercms.engine.view.CrafterPageView;
 import org.dom4j.Element;
 import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.context.i18n.LocaleContextHolder;
 
 /**
  * Custom directive to render a component by processing the template defined in the component element's template name
@@ -60,6 +66,12 @@ public class RenderComponentDirective implements TemplateDirectiveModel {
 
     private static final Log logger = LogFactory.getLog(RenderComponentDirective.class);
 
+    /**
+     * Set while rendering a component to be cached, to know if any nested component executed scripts (in which case
+     * the output can't be cached, since the side effects of the scripts would be skipped on cache hits).
+     */
+    private static final ThreadLocal<Boolean> nestedScriptsExecuted = new ThreadLocal<>();
+
     @Deprecated
     public static final String KEY_MODEL = "model";
     public static final String KEY_CONTENT_MODEL = "contentModel";
@@ -78,6 +90,7 @@ public class RenderComponentDirective implements TemplateDirectiveModel {
     protected String includeElementName;
     protected String componentElementName;
     protected SiteItemScriptResolver scriptResolver;
+    protected ComponentOutputCache componentOutputCache;
 
     @Required
     public void setServletContext(ServletContext servletContext) {
@@ -124,8 +137,13 @@ public class RenderComponentDirective implements TemplateDirectiveModel {
         this.scriptResolver = scriptResolver;
     }
 
+    public void setComponentOutputCache(ComponentOutputCache componentOutputCache) {
+        this.componentOutputCache = componentOutputCache;
+    }
+
     @SuppressWarnings("unchecked")
-    public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body) throws TemplateException {
+    public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body)
+            throws TemplateException {
         TemplateModel componentParentParam = (TemplateModel) params.get(COMPONENT_PARENT_PARAM_NAME);
         TemplateModel componentParam = (TemplateModel) params.get(COMPONENT_PARAM_NAME);
         TemplateModel componentPathParam = (TemplateModel) params.get(COMPONENT_PATH_PARAM_NAME);
@@ -146,14 +164,106 @@ public class RenderComponentDirective implements TemplateDirectiveModel {
             additionalModel = unwrap(ADDITIONAL_MODEL_PARAM_NAME, additionalModelParam, Map.class, env);
         }
 
-        Map<String, Object> templateModel = executeScripts(component, additionalModel, env);
+        if (componentOutputCache != null && componentOutputCache.isCacheable(component, additionalModel) &&
+            CollectionUtils.isEmpty(scriptResolver.getScriptUrls(component))) {
+            renderCachedComponent(component, additionalModel, env);
+        } else {
+            renderComponent(component, additionalModel, env.getOut(), env);
+        }
+    }
+
+    protected void renderComponent(SiteItem component, Map<String, Object> additionalModel, Writer output,
+                                   Environment env) throws TemplateException {
+        List<String> scriptUrls = scriptResolver.getScriptUrls(component);
+        if (CollectionUtils.isNotEmpty(scriptUrls) && nestedScriptsExecuted.get() != null) {
+            nestedScriptsExecuted.set(Boolean.TRUE);
+        }
+
+        Map<String, Object> templateModel = executeScripts(component, scriptUrls, additionalModel, env);
         SimpleHash model = getFullModel(component, templateModel, additionalModel);
-        Template template = getTemplate(component, env);
-        Writer output = env.getOut();
+        String templateName = getComponentTemplateName(component, env);
+        Template template = getTemplate(templateName, env);
+
+        // Let any page or fragment being cached know that it depends on this component
+        ContentDependencyTracker.addDependencies(getDependencyPaths(component, templateName, scriptUrls));
 
         processComponentTemplate(template, model, output, env);
     }
 
+    protected void renderCachedComponent(SiteItem component, Map<String, Object> additionalModel, Environment env)
+        throws TemplateException {
+        SiteItem currentPage = unwrap(KEY_CONTENT_MODEL, env.getVariable(CrafterPageView.KEY_CONTENT_MODEL),
+                                      SiteItem.class, env);
+        RequestContext requestContext = RequestContext.getCurrent();
+        String key = componentOutputCache.createKey(component, getComponentTemplateName(component, env),
+                                                    LocaleContextHolder.getLocale(), additionalModel,
+                                                    currentPage != null ? currentPage.getStoreUrl() : null,
+                                                    requestContext != null ?
+                                                        requestContext.getRequest().getParameterMap() : null);
+        ComponentOutputCache.CachedFragment fragment = componentOutputCache.get(key);
+        String output;
+
+        if (fragment != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Serving cached output of component " + component.getStoreUrl());
+            }
+
+            ContentDependencyTracker.addDependencies(fragment.getDependencyPaths());
+
+            output = fragment.getOutput();
+        } else {
+            StringWriter writer = new StringWriter();
+            Boolean outerScriptsExecuted = nestedScriptsExecuted.get();
+            boolean scriptsExecuted;
+            Set<String> dependencyPaths;
+
+            nestedScriptsExecuted.set(Boolean.FALSE);
+            ContentDependencyTracker.beginCapture();
+            try {
+                renderComponent(component, additionalModel, writer, env);
+            } finally {
+                dependencyPaths = ContentDependencyTracker.endCapture();
+                scriptsExecuted = nestedScriptsExecuted.get();
+
+                if (outerScriptsExecuted != null) {
+                    nestedScriptsExecuted.set(outerScriptsExecuted || scriptsExecuted);
+                } else {
+                    nestedScriptsExecuted.remove();
+                }
+            }
+
+            output = writer.toString();
+
+            if (!scriptsExecuted) {
+                componentOutputCache.put(key, component, output, dependencyPaths);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("Output of component " + component.getStoreUrl() + " not cached since nested " +
+                             "components executed scripts");
+            }
+
+            // The dependencies of the fragment are also dependencies of any enclosing page or fragment
+            ContentDependencyTracker.addDependencies(dependencyPaths);
+        }
+
+        try {
+            env.getOut().write(output);
+        } catch (IOException e) {
+            throw new TemplateException("I/O exception while writing the cached component output", e, env);
+        }
+    }
+
+    protected List<String> getDependencyPaths(SiteItem component, String templateName, List<String> scriptUrls) {
+        List<String> paths = new ArrayList<>();
+        paths.add(component.getStoreUrl());
+        paths.add(templateName);
+
+        if (CollectionUtils.isNotEmpty(scriptUrls)) {
+            paths.addAll(scriptUrls);
+        }
+
+        return paths;
+    }
+
     protected SiteItem getComponentFromNode(TemplateModel parentParam, TemplateModel componentParam, Environment env)
         throws TemplateException {
         SiteItem parentItem = unwrap(COMPONENT_PARENT_PARAM_NAME, parentParam, SiteItem.class, env);
@@ -215,7 +325,12 @@ public class RenderComponentDirective implements TemplateDirectiveModel {
 
     protected Map<String, Object> executeScripts(SiteItem component, Map<String, Object> additionalModel,
                                                  Environment env) throws TemplateException {
-        List<String> scriptUrls = scriptResolver.getScriptUrls(component);
+        return executeScripts(component, scriptResolver.getScriptUrls(component), additionalModel, env);
+    }
+
+    protected Map<String, Object> executeScripts(SiteItem component, List<String> scriptUrls,
+                                                 Map<String, Object> additionalModel, Environment env)
+        throws TemplateException {
         if (CollectionUtils.isNotEmpty(scriptUrls)) {
             if (logger.isDebugEnabled()) {
                 logger.debug("Scripts associated to component " + component.getStoreUrl() + ": " + scriptUrls);
@@ -286,8 +401,12 @@ public class RenderComponentDirective implements TemplateDirectiveModel {
     }
 
     protected Template getTemplate(SiteItem component, Environment env) throws TemplateException {
+        return getTemplate(getComponentTemplateName(component, env), env);
+    }
+
+    protected Template getTemplate(String templateName, Environment env) throws TemplateException {
         try {
-            return env.getTemplateForInclusion(getComponentTemplateName(component, env), null, true);
+            return env.getTemplateForInclusion(templateName, null, true);
         } catch (IOException e) {
             throw new TemplateException("Unable to retrieve component template", e, env);
         }
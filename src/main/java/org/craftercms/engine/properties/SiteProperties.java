@@ -15,16 +15,13 @@
  */
 package org.craftercms.engine.properties;
 
-import org.apache.commons.configuration2.Configuration;
-import org.apache.commons.lang3.ArrayUtils;
-import org.craftercms.engine.util.CacheUtils;
-import org.craftercms.engine.util.ConfigUtils;
+import org.craftercms.engine.service.context.SiteContext;
 
-import java.util.Collections;
 import java.util.Map;
 
 /**
- * Properties specific of the current site.
+ * Properties specific of the current site. The properties are served from the {@link SiteSettings} compiled by the
+ * current {@link SiteContext}, instead of being looked up in the site configuration on every call.
  *
  * @author avasquez
  */
@@ -56,35 +53,47 @@ public class SiteProperties {
      */
     public static final String CACHE_WARMUP_DESCRIPTOR_FOLDERS_CONFIG_KEY = "cache.warmUp.descriptorFolders";
     public static final String CACHE_WARMUP_CONTENT_FOLDERS_CONFIG_KEY = "cache.warmUp.contentFolders";
+    public static final String CACHE_WARMUP_PARALLELISM_CONFIG_KEY = "cache.warmUp.parallelism";
+
+    /*
+     * Page output cache properties
+     */
+    public static final String PAGE_CACHE_ENABLED_CONFIG_KEY = "pageCache.enabled";
+    public static final String PAGE_CACHE_CONTENT_TYPES_CONFIG_KEY = "pageCache.contentTypes";
+    public static final String PAGE_CACHE_DEFAULT_TTL_CONFIG_KEY = "pageCache.defaultTtl";
+
+    /*
+     * Component output cache properties
+     */
+    public static final String COMPONENT_CACHE_ENABLED_CONFIG_KEY = "componentCache.enabled";
+    public static final String COMPONENT_CACHE_CONTENT_TYPES_CONFIG_KEY = "componentCache.contentTypes";
+    public static final String COMPONENT_CACHE_DEFAULT_TTL_CONFIG_KEY = "componentCache.defaultTtl";
+
+    /*
+     * Cache invalidation properties
+     */
+    public static final String CACHE_ALWAYS_EVICT_KEY_PATTERNS_CONFIG_KEY = "cache.invalidation.alwaysEvictKeyPatterns";
 
     /*
      * Defaults
      */
     public static final String DEFAULT_INDEX_FILE_NAME = "index.xml";
     public static final String DEFAULT_SPA_VIEW_NAME = "/";
+    public static final long DEFAULT_PAGE_CACHE_TTL = -1;
+    public static final long DEFAULT_COMPONENT_CACHE_TTL = -1;
 
     /**
      * Returns trues if targeting is enabled.
      */
     public static boolean isTargetingEnabled() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getBoolean(TARGETING_ENABLED_CONFIG_KEY, false);
-        } else {
-            return false;
-        }
+        return getCurrentSettings().isTargetingEnabled();
     }
 
     /**
      * Returns the list of available target IDs.
      */
     public static String[] getAvailableTargetIds() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getStringArray(AVAILABLE_TARGET_IDS_CONFIG_KEY);
-        } else {
-            return null;
-        }
+        return getCurrentSettings().getAvailableTargetIds();
     }
 
     /**
@@ -92,36 +101,21 @@ public class SiteProperties {
      * URLs map to existing content.
      */
     public static String getFallbackTargetId() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getString(FALLBACK_ID_CONFIG_KEY);
-        } else {
-            return null;
-        }
+        return getCurrentSettings().getFallbackTargetId();
     }
 
     /**
      * Returns the folders that will be handled for targeted content.
      */
     public static String[] getRootFolders() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getStringArray(ROOT_FOLDERS_CONFIG_KEY);
-        } else {
-            return null;
-        }
+        return getCurrentSettings().getRootFolders();
     }
 
     /**
      * Returns the patterns that a path might match if it should be excluded
      */
     public static String[] getExcludePatterns() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getStringArray(EXCLUDE_PATTERNS_CONFIG_KEY);
-        } else {
-            return null;
-        }
+        return getCurrentSettings().getExcludePatterns();
     }
 
     /**
@@ -129,36 +123,21 @@ public class SiteProperties {
      * "en" are of the same family).
      */
     public static boolean isMergeFolders() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getBoolean(MERGE_FOLDERS_CONFIG_KEY, false);
-        } else {
-            return false;
-        }
+        return getCurrentSettings().isMergeFolders();
     }
 
     /**
      * Returns true if the request should be redirected when the targeted URL is different from the current URL.
      */
     public static boolean isRedirectToTargetedUrl() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getBoolean(REDIRECT_TO_TARGETED_URL_CONFIG_KEY, false);
-        } else {
-            return false;
-        }
+        return getCurrentSettings().isRedirectToTargetedUrl();
     }
 
     /**
      * Returns the name of a page's index file, or {@link #DEFAULT_INDEX_FILE_NAME} if not in configuration.
      */
     public static final String getIndexFileName() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getString(INDEX_FILE_NAME_CONFIG_KEY, DEFAULT_INDEX_FILE_NAME);
-        } else {
-            return DEFAULT_INDEX_FILE_NAME;
-        }
+        return getCurrentSettings().getIndexFileName();
     }
 
     /**
@@ -173,36 +152,21 @@ public class SiteProperties {
      * model and for both Freemarker and Groovy hosts.
      */
     public static boolean isDisableFullModelTypeConversion() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getBoolean(DISABLE_FULL_MODEL_TYPE_CONVERSION_CONFIG_KEY, false);
-        } else {
-            return false;
-        }
+        return getCurrentSettings().isDisableFullModelTypeConversion();
     }
 
     /**
      * Returns the list of additional fields that navigation items should extract from the item descriptor.
      */
     public static String[] getNavigationAdditionalFields() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if(config != null && config.containsKey(NAVIGATION_ADDITIONAL_FIELDS_CONFIG_KEY)) {
-            return config.getStringArray(NAVIGATION_ADDITIONAL_FIELDS_CONFIG_KEY);
-        } else {
-            return new String[] {};
-        }
+        return getCurrentSettings().getNavigationAdditionalFields();
     }
 
     /**
      * Returns true if SPA (Single Page App) mode is enabled.
      */
     public static boolean isSpaEnabled() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getBoolean(SPA_ENABLED_CONFIG_KEY, false);
-        } else {
-            return false;
-        }
+        return getCurrentSettings().isSpaEnabled();
     }
 
     /**
@@ -211,12 +175,7 @@ public class SiteProperties {
      * is found, / is returned.
      */
     public static String getSpaViewName() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            return config.getString(SPA_VIEW_NAME, DEFAULT_SPA_VIEW_NAME);
-        } else {
-            return DEFAULT_SPA_VIEW_NAME;
-        }
+        return getCurrentSettings().getSpaViewName();
     }
 
     /**
@@ -224,15 +183,7 @@ public class SiteProperties {
      * after a colon, like {@code PATH:DEPTH}
      */
     public static final Map<String, Integer> getDescriptorPreloadFolders() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            String[] folders = config.getStringArray(CACHE_WARMUP_DESCRIPTOR_FOLDERS_CONFIG_KEY);
-            if (ArrayUtils.isNotEmpty(folders)) {
-                return CacheUtils.parsePreloadFoldersList(folders);
-            }
-        }
-
-        return Collections.emptyMap();
+        return getCurrentSettings().getDescriptorPreloadFolders();
     }
 
     /**
@@ -240,15 +191,78 @@ public class SiteProperties {
      * after a colon, like {@code PATH:DEPTH}
      */
     public static final Map<String, Integer> getContentPreloadFolders() {
-        Configuration config = ConfigUtils.getCurrentConfig();
-        if (config != null) {
-            String[] folders = config.getStringArray(CACHE_WARMUP_CONTENT_FOLDERS_CONFIG_KEY);
-            if (ArrayUtils.isNotEmpty(folders)) {
-                return CacheUtils.parsePreloadFoldersList(folders);
-            }
-        }
+        return getCurrentSettings().getContentPreloadFolders();
+    }
 
-        return Collections.emptyMap();
+    /**
+     * Returns the number of threads used to warm up the cache of the site, or 0 if the default should be used.
+     */
+    public static int getCacheWarmUpParallelism() {
+        return getCurrentSettings().getCacheWarmUpParallelism();
+    }
+
+    /**
+     * Returns true if the rendered output of pages can be cached for the site.
+     */
+    public static boolean isPageCacheEnabled() {
+        return getCurrentSettings().isPageCacheEnabled();
+    }
+
+    /**
+     * Returns the regex patterns of the page content types whose rendered output can be cached.
+     */
+    public static String[] getPageCacheContentTypes() {
+        return getCurrentSettings().getPageCacheContentTypes();
+    }
+
+    /**
+     * Returns the default TTL in seconds of the cached page output, used when a page doesn't specify its own TTL. A
+     * negative value means the output is cached until the next cache clear.
+     */
+    public static long getPageCacheDefaultTtl() {
+        return getCurrentSettings().getPageCacheDefaultTtl();
+    }
+
+    /**
+     * Returns true if the rendered output of components can be cached for the site.
+     */
+    public static boolean isComponentCacheEnabled() {
+        return getCurrentSettings().isComponentCacheEnabled();
+    }
+
+    /**
+     * Returns the regex patterns of the component content types whose rendered output can be cached.
+     */
+    public static String[] getComponentCacheContentTypes() {
+        return getCurrentSettings().getComponentCacheContentTypes();
+    }
+
+    /**
+     * Returns the default TTL in seconds of the cached component output, used when a component doesn't specify its
+     * own TTL. A negative value means the output is cached until the next cache clear or until the component changes.
+     */
+    public static long getComponentCacheDefaultTtl() {
+        return getCurrentSettings().getComponentCacheDefaultTtl();
+    }
+
+    /**
+     * Returns the regex patterns of the cache keys that are always evicted on incremental invalidation, or null if
+     * the site doesn't override the global ones.
+     */
+    public static String[] getCacheAlwaysEvictKeyPatterns() {
+        return getCurrentSettings().getCacheAlwaysEvictKeyPatterns();
+    }
+
+    /**
+     * Returns the settings of the current site, or {@link SiteSettings#DEFAULTS} if there's no current site.
+     */
+    public static SiteSettings getCurrentSettings() {
+        SiteContext siteContext = SiteContext.getCurrent();
+        if (siteContext != null) {
+            return siteContext.getSettings();
+        } else {
+            return SiteSettings.DEFAULTS;
+        }
     }
 
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.properties;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.lang3.ArrayUtils;
+import org.craftercms.engine.util.CacheUtils;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.craftercms.engine.properties.SiteProperties.*;
+
+/**
+ * Immutable snapshot of the site properties, compiled once from the site configuration so that the hot path lookups
+ * of {@link SiteProperties} don't need to walk the configuration tree on every call. The snapshot keeps a reference
+ * to the configuration it was compiled from, so that the site context can tell when it needs to be compiled again.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public final class SiteSettings {
+
+    /**
+     * Settings used when there's no site configuration.
+     */
+    public static final SiteSettings DEFAULTS = compile(null, 0);
+
+    private final Configuration config;
+    private final long configVersion;
+
+    private final boolean targetingEnabled;
+    private final String[] availableTargetIds;
+    private final String fallbackTargetId;
+    private final String[] rootFolders;
+    private final String[] excludePatterns;
+    private final boolean mergeFolders;
+    private final boolean redirectToTargetedUrl;
+    private final String indexFileName;
+    private final boolean disableFullModelTypeConversion;
+    private final String[] navigationAdditionalFields;
+    private final boolean spaEnabled;
+    private final String spaViewName;
+    private final Map<String, Integer> descriptorPreloadFolders;
+    private final Map<String, Integer> contentPreloadFolders;
+    private final int cacheWarmUpParallelism;
+    private final boolean pageCacheEnabled;
+    private final String[] pageCacheContentTypes;
+    private final long pageCacheDefaultTtl;
+    private final boolean componentCacheEnabled;
+    private final String[] componentCacheContentTypes;
+    private final long componentCacheDefaultTtl;
+    private final String[] cacheAlwaysEvictKeyPatterns;
+
+    /**
+     * Compiles the settings from the specified configuration.
+     *
+     * @param config        the site configuration (can be null)
+     * @param configVersion the number of changes of the configuration at the moment of the compilation
+     */
+    public static SiteSettings compile(Configuration config, long configVersion) {
+        return new SiteSettings(config, configVersion);
+    }
+
+    private SiteSettings(Configuration config, long configVersion) {
+        this.config = config;
+        this.configVersion = configVersion;
+
+        // Same lookups (and defaults) that were done by SiteProperties on every call
+        if (config != null) {
+            targetingEnabled = config.getBoolean(TARGETING_ENABLED_CONFIG_KEY, false);
+            availableTargetIds = config.getStringArray(AVAILABLE_TARGET_IDS_CONFIG_KEY);
+            fallbackTargetId = config.getString(FALLBACK_ID_CONFIG_KEY);
+            rootFolders = config.getStringArray(ROOT_FOLDERS_CONFIG_KEY);
+            excludePatterns = config.getStringArray(EXCLUDE_PATTERNS_CONFIG_KEY);
+            mergeFolders = config.getBoolean(MERGE_FOLDERS_CONFIG_KEY, false);
+            redirectToTargetedUrl = config.getBoolean(REDIRECT_TO_TARGETED_URL_CONFIG_KEY, false);
+            indexFileName = config.getString(INDEX_FILE_NAME_CONFIG_KEY, DEFAULT_INDEX_FILE_NAME);
+            disableFullModelTypeConversion = config.getBoolean(DISABLE_FULL_MODEL_TYPE_CONVERSION_CONFIG_KEY, false);
+            navigationAdditionalFields = getOptionalStringArray(config, NAVIGATION_ADDITIONAL_FIELDS_CONFIG_KEY);
+            spaEnabled = config.getBoolean(SPA_ENABLED_CONFIG_KEY, false);
+            spaViewName = config.getString(SPA_VIEW_NAME, DEFAULT_SPA_VIEW_NAME);
+            descriptorPreloadFolders = getPreloadFolders(config, CACHE_WARMUP_DESCRIPTOR_FOLDERS_CONFIG_KEY);
+            contentPreloadFolders = getPreloadFolders(config, CACHE_WARMUP_CONTENT_FOLDERS_CONFIG_KEY);
+            cacheWarmUpParallelism = config.getInt(CACHE_WARMUP_PARALLELISM_CONFIG_KEY, 0);
+            pageCacheEnabled = config.getBoolean(PAGE_CACHE_ENABLED_CONFIG_KEY, false);
+            pageCacheContentTypes = getOptionalStringArray(config, PAGE_CACHE_CONTENT_TYPES_CONFIG_KEY);
+            pageCacheDefaultTtl = config.getLong(PAGE_CACHE_DEFAULT_TTL_CONFIG_KEY, DEFAULT_PAGE_CACHE_TTL);
+            componentCacheEnabled = config.getBoolean(COMPONENT_CACHE_ENABLED_CONFIG_KEY, false);
+            componentCacheContentTypes = getOptionalStringArray(config, COMPONENT_CACHE_CONTENT_TYPES_CONFIG_KEY);
+            componentCacheDefaultTtl = config.getLong(COMPONENT_CACHE_DEFAULT_TTL_CONFIG_KEY,
+                                                      DEFAULT_COMPONENT_CACHE_TTL);
+            // Null when not configured, so that the global patterns are used (an empty value removes all of them)
+            cacheAlwaysEvictKeyPatterns = config.containsKey(CACHE_ALWAYS_EVICT_KEY_PATTERNS_CONFIG_KEY) ?
+                                          config.getStringArray(CACHE_ALWAYS_EVICT_KEY_PATTERNS_CONFIG_KEY) : null;
+        } else {
+            targetingEnabled = false;
+            availableTargetIds = null;
+            fallbackTargetId = null;
+            rootFolders = null;
+            excludePatterns = null;
+            mergeFolders = false;
+            redirectToTargetedUrl = false;
+            indexFileName = DEFAULT_INDEX_FILE_NAME;
+            disableFullModelTypeConversion = false;
+            navigationAdditionalFields = ArrayUtils.EMPTY_STRING_ARRAY;
+            spaEnabled = false;
+            spaViewName = DEFAULT_SPA_VIEW_NAME;
+            descriptorPreloadFolders = Collections.emptyMap();
+            contentPreloadFolders = Collections.emptyMap();
+            cacheWarmUpParallelism = 0;
+            pageCacheEnabled = false;
+            pageCacheContentTypes = ArrayUtils.EMPTY_STRING_ARRAY;
+            pageCacheDefaultTtl = DEFAULT_PAGE_CACHE_TTL;
+            componentCacheEnabled = false;
+            componentCacheContentTypes = ArrayUtils.EMPTY_STRING_ARRAY;
+            componentCacheDefaultTtl = DEFAULT_COMPONENT_CACHE_TTL;
+            cacheAlwaysEvictKeyPatterns = null;
+        }
+    }
+
+    /**
+     * Returns true if the settings were compiled from the specified configuration, at the specified version.
+     */
+    public boolean isCompiledFrom(Configuration config, long configVersion) {
+        return this.config == config && this.configVersion == configVersion;
+    }
+
+    public boolean isTargetingEnabled() {
+        return targetingEnabled;
+    }
+
+    public String[] getAvailableTargetIds() {
+        return ArrayUtils.clone(availableTargetIds);
+    }
+
+    public String getFallbackTargetId() {
+        return fallbackTargetId;
+    }
+
+    public String[] getRootFolders() {
+        return ArrayUtils.clone(rootFolders);
+    }
+
+    public String[] getExcludePatterns() {
+        return ArrayUtils.clone(excludePatterns);
+    }
+
+    public boolean isMergeFolders() {
+        return mergeFolders;
+    }
+
+    public boolean isRedirectToTargetedUrl() {
+        return redirectToTargetedUrl;
+    }
+
+    public String getIndexFileName() {
+        return indexFileName;
+    }
+
+    public boolean isDisableFullModelTypeConversion() {
+        return disableFullModelTypeConversion;
+    }
+
+    public String[] getNavigationAdditionalFields() {
+        return ArrayUtils.clone(navigationAdditionalFields);
+    }
+
+    public boolean isSpaEnabled() {
+        return spaEnabled;
+    }
+
+    public String getSpaViewName() {
+        return spaViewName;
+    }
+
+    public Map<String, Integer> getDescriptorPreloadFolders() {
+        return descriptorPreloadFolders;
+    }
+
+    public Map<String, Integer> getContentPreloadFolders() {
+        return contentPreloadFolders;
+    }
+
+    public int getCacheWarmUpParallelism() {
+        return cacheWarmUpParallelism;
+    }
+
+    public boolean isPageCacheEnabled() {
+        return pageCacheEnabled;
+    }
+
+    public String[] getPageCacheContentTypes() {
+        return ArrayUtils.clone(pageCacheContentTypes);
+    }
+
+    public long getPageCacheDefaultTtl() {
+        return pageCacheDefaultTtl;
+    }
+
+    public boolean isComponentCacheEnabled() {
+        return componentCacheEnabled;
+    }
+
+    public String[] getComponentCacheContentTypes() {
+        return ArrayUtils.clone(componentCacheContentTypes);
+    }
+
+    public long getComponentCacheDefaultTtl() {
+        return componentCacheDefaultTtl;
+    }
+
+    public String[] getCacheAlwaysEvictKeyPatterns() {
+        return ArrayUtils.clone(cacheAlwaysEvictKeyPatterns);
+    }
+
+    private static String[] getOptionalStringArray(Configuration config, String key) {
+        if (config.containsKey(key)) {
+            return config.getStringArray(key);
+        } else {
+            return ArrayUtils.EMPTY_STRING_ARRAY;
+        }
+    }
+
+    private static Map<String, Integer> getPreloadFolders(Configuration config, String key) {
+        String[] folders = config.getStringArray(key);
+        if (ArrayUtils.isNotEmpty(folders)) {
+            return Collections.unmodifiableMap(CacheUtils.parsePreloadFoldersList(folders));
+        } else {
+            return Collections.emptyMap();
+        }
+    }
+
+}
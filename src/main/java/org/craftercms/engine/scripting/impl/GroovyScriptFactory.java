@@ -19,6 +19,7 @@ package org.craftercms.engine.scripting.impl;
 import groovy.util.GroovyScriptEngine;
 import groovy.util.ResourceConnector;
 import groovy.util.ResourceException;
+import org.craftercms.engine.cache.ContentDependencyTracker;
 import org.craftercms.engine.exception.ScriptException;
 import org.craftercms.engine.exception.ScriptNotFoundException;
 import org.craftercms.engine.scripting.Script;
@@ -70,6 +71,8 @@ public class GroovyScriptFactory implements ScriptFactory {
 
     @Override
     public Script getScript(String url) throws ScriptException {
+        ContentDependencyTracker.addDependency(url);
+
         return siteContext.getCacheTemplate().getObject(siteContext.getContext(), () -> {
             try {
                 return new GroovyScript(url,scriptEngine.loadScriptByName(url), globalVariables);
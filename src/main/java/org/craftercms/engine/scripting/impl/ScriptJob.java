@@ -28,6 +28,8 @@ import org.quartz.Job;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of a Quartz Job that executes a script.
@@ -36,6 +38,8 @@ import org.quartz.JobExecutionException;
  */
 public class ScriptJob implements Job {
 
+    private static final Logger logger = LoggerFactory.getLogger(ScriptJob.class);
+
     public static final String SITE_CONTEXT_DATA_KEY = "siteContext";
     public static final String SCRIPT_URL_DATA_KEY = "scriptUrl";
     public static final String SERVLET_CONTEXT_DATA_KEY = "servletContext";
@@ -53,6 +57,13 @@ public class ScriptJob implements Job {
                 "No script factory associate to site context '" + siteContext.getSiteName() + "'");
         }
 
+        // Count the job as a request, so that the context is not unloaded while it's running
+        if (!siteContext.requestStarted()) {
+            logger.debug("Site context '{}' is being unloaded, skipping script job at {}", siteContext.getSiteName(),
+                         scriptUrl);
+            return;
+        }
+
         SiteContext.setCurrent(siteContext);
         try {
             Map<String, Object> variables = new HashMap<>();
@@ -63,6 +74,7 @@ public class ScriptJob implements Job {
             throw new JobExecutionException("Error executing script job at " + scriptUrl, e);
         } finally {
             SiteContext.clear();
+            siteContext.requestFinished();
         }
     }
 
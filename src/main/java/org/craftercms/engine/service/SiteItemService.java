@@ -15,6 +15,8 @@
  */
 package org.craftercms.engine.service;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.collections4.Predicate;
@@ -72,6 +74,26 @@ public interface SiteItemService {
      */
     SiteItem getSiteItem(String url, ItemProcessor processor, Predicate<Item> predicate);
 
+    /**
+     * Returns the site items for the given URLs, in the same order (duplicated URLs are loaded once, and items that
+     * don't exist or are filtered out are omitted). Cache misses are loaded concurrently.
+     *
+     * @since 4.2.0
+     * @param urls the URLs of the items
+     */
+    List<SiteItem> getSiteItems(Collection<String> urls);
+
+    /**
+     * Returns the site items for the given URLs, in the same order (duplicated URLs are loaded once, and items that
+     * don't exist or are filtered out are omitted). Cache misses are loaded concurrently.
+     *
+     * @since 4.2.0
+     * @param urls      the URLs of the items
+     * @param processor a processor for the items
+     * @param predicate a predicate used to check if each item should be returned or not
+     */
+    List<SiteItem> getSiteItems(Collection<String> urls, ItemProcessor processor, Predicate<Item> predicate);
+
     /**
      * Returns the site tree for the given URL. The item is expected to be a folder.
      *
@@ -17,21 +17,32 @@ package org.craftercms.engine.service.context;
 
 import graphql.GraphQL;
 import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.event.ConfigurationEvent;
+import org.apache.commons.configuration2.event.EventSource;
 import org.apache.commons.lang3.time.StopWatch;
 import org.craftercms.commons.http.RequestContext;
 import org.craftercms.commons.lang.Callback;
 import org.craftercms.core.exception.CrafterException;
+import org.craftercms.core.service.CacheService;
 import org.craftercms.core.service.ContentStoreService;
 import org.craftercms.core.service.Context;
 import org.craftercms.core.url.UrlTransformationEngine;
 import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.cache.CacheWarmUpStats;
+import org.craftercms.engine.cache.ContentDependencyGraph;
+import org.craftercms.engine.cache.SiteCacheInvalidator;
 import org.craftercms.engine.cache.SiteCacheWarmer;
+import org.craftercms.engine.cache.StaleWhileRevalidateCacheTemplate;
 import org.craftercms.engine.event.*;
 import org.craftercms.engine.exception.GraphQLBuildException;
 import org.craftercms.engine.exception.SiteContextInitializationException;
 import org.craftercms.engine.graphql.GraphQLFactory;
+import org.craftercms.engine.properties.SiteSettings;
 import org.craftercms.engine.scripting.ScriptFactory;
+import org.craftercms.engine.store.IndexedContentStoreAdapter;
 import org.craftercms.engine.util.GroovyScriptUtils;
+import org.craftercms.engine.util.deployment.DeploymentChanges;
+import org.craftercms.engine.util.store.decorators.DecoratedStoreAdapterContext;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.groovy.SandboxInterceptor;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
@@ -46,10 +57,15 @@ import org.tuckey.web.filters.urlrewrite.UrlRewriter;
 
 import javax.servlet.ServletContext;
 import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -69,6 +85,7 @@ public class SiteContext {
     private static final Logger logger = LoggerFactory.getLogger(SiteContext.class);
 
     private static final String SITE_NAME_MDC_KEY = "siteName";
+    private static final int UNLOADING = -1;
 
     private static ThreadLocal<SiteContext> threadLocal = new ThreadLocal<>();
 
@@ -93,6 +110,9 @@ public class SiteContext {
     protected UrlTransformationEngine urlTransformationEngine;
     protected ScriptFactory scriptFactory;
     protected HierarchicalConfiguration config;
+    protected volatile SiteSettings settings;
+    protected final AtomicLong configVersion = new AtomicLong();
+    protected volatile Object listenedConfig;
     protected ApplicationContext globalApplicationContext;
     protected ConfigurableApplicationContext applicationContext;
     protected URLClassLoader classLoader;
@@ -100,6 +120,18 @@ public class SiteContext {
     protected Scheduler scheduler;
     protected GraphQLFactory graphQLFactory;
     protected SiteCacheWarmer cacheWarmer;
+    protected SiteCacheInvalidator cacheInvalidator;
+    protected ContentDependencyGraph dependencyGraph;
+    protected volatile CacheWarmUpStats cacheWarmUpStats;
+    protected volatile long lastAccessTime;
+    /**
+     * Number of requests being served, or {@link #UNLOADING} once the context is being unloaded
+     */
+    protected final AtomicInteger activeRequests = new AtomicInteger();
+    protected long cacheMaxSize;
+    protected boolean staleWhileRevalidateEnabled;
+    protected long staleWhileRevalidateMaxStaleness;
+    protected String[] staleWhileRevalidateExcludedPaths;
     protected HierarchicalConfiguration proxyConfig;
     protected HierarchicalConfiguration translationConfig;
     protected LocaleResolver localeResolver;
@@ -205,6 +237,8 @@ public class SiteContext {
         maintenanceTaskExecutor = Executors.newSingleThreadExecutor();
         state = State.INITIALIZING;
         initializationLatch = new CountDownLatch(1);
+        lastAccessTime = System.currentTimeMillis();
+        dependencyGraph = new ContentDependencyGraph(0);
     }
 
     public ContentStoreService getStoreService() {
@@ -271,6 +305,99 @@ public class SiteContext {
         this.allowedTemplatePaths = allowedTemplatePaths;
     }
 
+    /**
+     * Returns the last time (in milliseconds) the context was used to serve a request.
+     */
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * Records that the context started serving a request, so that it's not unloaded while the request is active.
+     *
+     * @return false if the context is being unloaded, in which case it shouldn't be used to serve the request
+     */
+    public boolean requestStarted() {
+        lastAccessTime = System.currentTimeMillis();
+
+        int count;
+        do {
+            count = activeRequests.get();
+            if (count == UNLOADING) {
+                return false;
+            }
+        } while (!activeRequests.compareAndSet(count, count + 1));
+
+        return true;
+    }
+
+    /**
+     * Records that the context finished serving a request started with {@link #requestStarted()}.
+     */
+    public void requestFinished() {
+        lastAccessTime = System.currentTimeMillis();
+        activeRequests.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of requests the context is currently serving.
+     */
+    public int getActiveRequests() {
+        return Math.max(0, activeRequests.get());
+    }
+
+    /**
+     * Marks the context as being unloaded, so that no new requests are served by it. Only possible when it's not
+     * serving any request.
+     *
+     * @return true if the context was marked, false if it's serving requests
+     */
+    public boolean markUnloading() {
+        return activeRequests.compareAndSet(0, UNLOADING);
+    }
+
+    /**
+     * Returns the max size in bytes of the cache of the site, 0 or less to use the default max size.
+     */
+    public long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public void setCacheMaxSize(long cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    public boolean isStaleWhileRevalidateEnabled() {
+        return staleWhileRevalidateEnabled;
+    }
+
+    public void setStaleWhileRevalidateEnabled(boolean staleWhileRevalidateEnabled) {
+        this.staleWhileRevalidateEnabled = staleWhileRevalidateEnabled;
+    }
+
+    /**
+     * Returns the max time in seconds that cache entries can be served stale after a cache clear (0 to use the global
+     * max).
+     */
+    public long getStaleWhileRevalidateMaxStaleness() {
+        return staleWhileRevalidateMaxStaleness;
+    }
+
+    public void setStaleWhileRevalidateMaxStaleness(long staleWhileRevalidateMaxStaleness) {
+        this.staleWhileRevalidateMaxStaleness = staleWhileRevalidateMaxStaleness;
+    }
+
+    /**
+     * Returns the regexes of the paths whose cache entries should never be served stale.
+     */
+    public String[] getStaleWhileRevalidateExcludedPaths() {
+        return staleWhileRevalidateExcludedPaths;
+    }
+
+    public void setStaleWhileRevalidateExcludedPaths(String[] staleWhileRevalidateExcludedPaths) {
+        this.staleWhileRevalidateExcludedPaths = staleWhileRevalidateExcludedPaths;
+    }
+
     public String getRestScriptsPath() {
         return restScriptsPath;
     }
@@ -325,6 +452,49 @@ public class SiteContext {
 
     public void setConfig(HierarchicalConfiguration config) {
         this.config = config;
+        this.settings = compileSettings(config);
+    }
+
+    /**
+     * Returns the immutable settings compiled from the site configuration. The settings are compiled when the
+     * configuration is set, and swapped with a new compilation when the configuration changes.
+     */
+    public SiteSettings getSettings() {
+        HierarchicalConfiguration config = getConfig();
+        if (config == null) {
+            return SiteSettings.DEFAULTS;
+        }
+
+        SiteSettings current = settings;
+        if (current == null || !current.isCompiledFrom(config, configVersion.get())) {
+            current = compileSettings(config);
+            settings = current;
+        }
+
+        return current;
+    }
+
+    protected SiteSettings compileSettings(HierarchicalConfiguration config) {
+        if (config == null) {
+            return SiteSettings.DEFAULTS;
+        }
+
+        listenForChanges(config);
+
+        // The version is read before compiling, so a change made during the compilation triggers a new one
+        return SiteSettings.compile(config, configVersion.get());
+    }
+
+    protected void listenForChanges(HierarchicalConfiguration config) {
+        if (config != listenedConfig && config instanceof EventSource) {
+            ((EventSource) config).addEventListener(ConfigurationEvent.ANY, event -> {
+                if (!event.isBeforeUpdate()) {
+                    configVersion.incrementAndGet();
+                }
+            });
+
+            listenedConfig = config;
+        }
     }
 
     public void setServletContext(ServletContext servletContext) {
@@ -371,6 +541,33 @@ public class SiteContext {
         this.scheduler = scheduler;
     }
 
+    /**
+     * Starts the scheduler of the jobs of the site (if the site has jobs). The scheduler is not started when the
+     * context is created, so that a rebuilt context doesn't run jobs while the previous context still runs them.
+     */
+    public void startScheduler() throws CrafterException {
+        if (scheduler != null) {
+            try {
+                scheduler.start();
+            } catch (SchedulerException e) {
+                throw new CrafterException("Unable to start scheduler", e);
+            }
+        }
+    }
+
+    /**
+     * Shuts down the scheduler of the jobs of the site (if the site has jobs), waiting for the running jobs to finish.
+     */
+    public void shutdownScheduler() throws CrafterException {
+        if (scheduler != null) {
+            try {
+                scheduler.shutdown(true);
+            } catch (SchedulerException e) {
+                throw new CrafterException("Unable to shutdown scheduler", e);
+            }
+        }
+    }
+
     public GraphQLFactory getGraphQLFactory() {
         return graphQLFactory;
     }
@@ -387,6 +584,54 @@ public class SiteContext {
         this.cacheWarmer = cacheWarmer;
     }
 
+    public SiteCacheInvalidator getCacheInvalidator() {
+        return cacheInvalidator;
+    }
+
+    public void setCacheInvalidator(SiteCacheInvalidator cacheInvalidator) {
+        this.cacheInvalidator = cacheInvalidator;
+    }
+
+    public ContentDependencyGraph getDependencyGraph() {
+        return dependencyGraph;
+    }
+
+    public void setDependencyGraph(ContentDependencyGraph dependencyGraph) {
+        this.dependencyGraph = dependencyGraph;
+    }
+
+    /**
+     * Registers the paths the cached output with the specified key was rendered from in the dependency graph, so
+     * that the output is evicted when any of them changes (outputs without paths are registered too, so that they
+     * can be found by key pattern). If the graph is full, the outputs of the keys dropped from it are evicted from
+     * the cache.
+     */
+    public void registerCacheDependencies(String key, Collection<String> paths) {
+        if (!dependencyGraph.isEnabled()) {
+            return;
+        }
+
+        CacheService cacheService = getCacheTemplate().getCacheService();
+        Context context = getContext();
+        List<String> droppedKeys = dependencyGraph.register(key, paths != null? paths : Collections.emptySet(),
+                                                            k -> cacheService.get(context, k) != null);
+
+        for (String droppedKey : droppedKeys) {
+            cacheService.remove(context, droppedKey);
+        }
+    }
+
+    /**
+     * Returns the stats of the latest (or current) cache warm up, or null if the cache hasn't been warmed up.
+     */
+    public CacheWarmUpStats getCacheWarmUpStats() {
+        return cacheWarmUpStats;
+    }
+
+    public void setCacheWarmUpStats(CacheWarmUpStats cacheWarmUpStats) {
+        this.cacheWarmUpStats = cacheWarmUpStats;
+    }
+
     public void setInitTimeout(final long initTimeout) {
         this.initTimeout = initTimeout;
     }
@@ -514,6 +759,27 @@ public class SiteContext {
         });
     }
 
+    /**
+     * Starts an invalidation of only the cache entries affected by the specified deployment changes. If there's no
+     * {@link SiteCacheInvalidator}, or it can't invalidate the changes incrementally, the whole cache is cleared
+     * instead.
+     */
+    public void startCacheInvalidation(DeploymentChanges changes, Runnable callback) {
+        maintenanceTaskExecutor.execute(() -> {
+            SiteContext.setCurrent(this);
+            try {
+                if (cacheInvalidator == null || !cacheInvalidation(changes)) {
+                    cacheClear();
+                }
+                if (callback != null) {
+                    callback.run();
+                }
+            } finally {
+                SiteContext.clear();
+            }
+        });
+    }
+
     public void startGraphQLSchemaBuild() throws GraphQLBuildException {
         startGraphQLSchemaBuild(null);
     }
@@ -591,20 +857,58 @@ public class SiteContext {
     }
 
     protected void cacheClear() {
+        refreshStoreIndex(null);
+
         // If there's a cache warmer, do a content cache switch instead of aclear
         if (cacheWarmer != null) {
             cacheWarmer.warmUpCache(this, true);
             // Clear Freemarker cache
             freeMarkerConfig.getConfiguration().clearTemplateCache();
         } else {
-            cacheTemplate.getCacheService().clearScope(context);
+            if (staleWhileRevalidateEnabled && cacheTemplate instanceof StaleWhileRevalidateCacheTemplate) {
+                // Keep serving the current entries for a while, and reload them in the background
+                ((StaleWhileRevalidateCacheTemplate) cacheTemplate).markStale(context,
+                                                                              staleWhileRevalidateMaxStaleness,
+                                                                              staleWhileRevalidateExcludedPaths);
+            } else {
+                cacheTemplate.getCacheService().clearScope(context);
+            }
             // Clear Freemarker cache
             freeMarkerConfig.getConfiguration().clearTemplateCache();
         }
 
+        dependencyGraph.clear();
+
         publishEvent(new CacheClearedEvent(this));
     }
 
+    protected boolean cacheInvalidation(DeploymentChanges changes) {
+        refreshStoreIndex(changes);
+
+        if (!cacheInvalidator.invalidateCache(this, changes)) {
+            return false;
+        }
+
+        publishEvent(new CacheClearedEvent(this));
+
+        return true;
+    }
+
+    /**
+     * Refreshes the in-memory index of the store adapter (if it keeps one), so that the cache is not repopulated
+     * with stale lookups.
+     */
+    protected void refreshStoreIndex(DeploymentChanges changes) {
+        Context actualContext = DecoratedStoreAdapterContext.unwrap(context);
+        if (actualContext.getStoreAdapter() instanceof IndexedContentStoreAdapter) {
+            try {
+                ((IndexedContentStoreAdapter) actualContext.getStoreAdapter()).refreshIndex(actualContext, changes);
+            } catch (Exception e) {
+                logger.error("Error refreshing the store index of site '{}'", siteName, e);
+            }
+        }
+    }
+
     protected void buildGraphQLSchema() {
         logger.info("Starting GraphQL schema build for site '{}'", siteName);
 
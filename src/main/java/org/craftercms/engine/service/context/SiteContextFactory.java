@@ -29,6 +29,8 @@ import org.craftercms.core.service.ContentStoreService;
 import org.craftercms.core.service.Context;
 import org.craftercms.core.url.UrlTransformationEngine;
 import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.cache.ContentDependencyGraph;
+import org.craftercms.engine.cache.SiteCacheInvalidator;
 import org.craftercms.engine.cache.SiteCacheWarmer;
 import org.craftercms.engine.exception.SiteContextCreationException;
 import org.craftercms.engine.graphql.GraphQLFactory;
@@ -99,6 +101,12 @@ public class SiteContextFactory implements ApplicationContextAware, ServletConte
     public static final long DEFAULT_SHUTDOWN_TIMEOUT = 5;
     public static final String DEFAULT_PUBLISHING_TARGET_MACRO_NAME = "publishingTarget";
     public static final String CONFIG_KEY_ALLOWED_TEMPLATE_PATHS = "templates.allowed";
+    public static final String CONFIG_KEY_CACHE_MAX_SIZE = "cache.maxSize";
+    public static final String CONFIG_KEY_STALE_WHILE_REVALIDATE_ENABLED = "cache.staleWhileRevalidate.enabled";
+    public static final String CONFIG_KEY_STALE_WHILE_REVALIDATE_MAX_STALENESS =
+        "cache.staleWhileRevalidate.maxStaleness";
+    public static final String CONFIG_KEY_STALE_WHILE_REVALIDATE_EXCLUDED_PATHS =
+        "cache.staleWhileRevalidate.excludedPaths.path";
 
     private static final Log logger = LogFactory.getLog(SiteContextFactory.class);
 
@@ -133,6 +141,8 @@ public class SiteContextFactory implements ApplicationContextAware, ServletConte
     protected GraphQLFactory graphQLFactory;
     protected boolean cacheWarmUpEnabled;
     protected SiteCacheWarmer cacheWarmer;
+    protected SiteCacheInvalidator cacheInvalidator;
+    protected int dependencyGraphMaxKeys;
     protected long initTimeout;
     protected EncryptionAwareConfigurationReader configurationReader;
     protected boolean disableVariableRestrictions;
@@ -302,6 +312,19 @@ public class SiteContextFactory implements ApplicationContextAware, ServletConte
         this.cacheWarmer = cacheWarmer;
     }
 
+    public void setCacheInvalidator(SiteCacheInvalidator cacheInvalidator) {
+        this.cacheInvalidator = cacheInvalidator;
+    }
+
+    /**
+     * Sets the max number of cached outputs (pages and component fragments) tracked by the dependency graph of each
+     * site, or 0 or less to disable the graph
+     */
+    @Required
+    public void setDependencyGraphMaxKeys(int dependencyGraphMaxKeys) {
+        this.dependencyGraphMaxKeys = dependencyGraphMaxKeys;
+    }
+
     public void setInitTimeout(final long initTimeout) {
         this.initTimeout = initTimeout;
     }
@@ -391,6 +414,9 @@ public class SiteContextFactory implements ApplicationContextAware, ServletConte
                 siteContext.setCacheWarmer(cacheWarmer);
             }
 
+            siteContext.setCacheInvalidator(cacheInvalidator);
+            siteContext.setDependencyGraph(new ContentDependencyGraph(dependencyGraphMaxKeys));
+
             String[] resolvedConfigPaths = new String[configPaths.length];
             for (int i = 0; i < configPaths.length; i++) {
                 resolvedConfigPaths[i] = macroResolver.resolveMacros(configPaths[i], macroValues);
@@ -438,6 +464,13 @@ public class SiteContextFactory implements ApplicationContextAware, ServletConte
             siteContext.setLocaleResolver(buildLocaleResolver(translationConfig));
             if (config != null) {
                 siteContext.setAllowedTemplatePaths(config.getStringArray(CONFIG_KEY_ALLOWED_TEMPLATE_PATHS));
+                siteContext.setCacheMaxSize(config.getLong(CONFIG_KEY_CACHE_MAX_SIZE, 0));
+                siteContext.setStaleWhileRevalidateEnabled(
+                    config.getBoolean(CONFIG_KEY_STALE_WHILE_REVALIDATE_ENABLED, false));
+                siteContext.setStaleWhileRevalidateMaxStaleness(
+                    config.getLong(CONFIG_KEY_STALE_WHILE_REVALIDATE_MAX_STALENESS, 0));
+                siteContext.setStaleWhileRevalidateExcludedPaths(
+                    config.getStringArray(CONFIG_KEY_STALE_WHILE_REVALIDATE_EXCLUDED_PATHS));
             }
 
             Scheduler scheduler = scheduleJobs(siteContext);
@@ -736,8 +769,7 @@ public class SiteContextFactory implements ApplicationContextAware, ServletConte
                     logger.info("Scheduled job: " + jobContext + " for site '" + siteName + "'");
                 }
 
-                scheduler.start();
-
+                // The scheduler is started by the context manager once the context is the one serving the site
                 return scheduler;
             }
         } catch (Exception e) {
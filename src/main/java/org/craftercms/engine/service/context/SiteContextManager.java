@@ -25,14 +25,22 @@ import org.craftercms.commons.entitlements.model.EntitlementType;
 import org.craftercms.commons.entitlements.validator.EntitlementValidator;
 import org.craftercms.commons.validation.annotations.param.ValidSiteId;
 import org.craftercms.engine.event.SiteContextPurgedEvent;
+import org.craftercms.engine.exception.SiteContextInitializationException;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.validation.annotation.Validated;
 
 import java.io.IOException;
@@ -54,12 +62,13 @@ import static java.lang.String.format;
  * @author Alfonso Vásquez
  */
 @Validated
-public class SiteContextManager implements ApplicationContextAware, DisposableBean {
+public class SiteContextManager implements ApplicationContextAware, InitializingBean, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(SiteContextManager.class);
 
     protected ApplicationContext applicationContext;
     protected KeyBasedLockFactory<ReentrantLock> siteLockFactory;
+    protected KeyBasedLockFactory<ReentrantLock> rebuildLockFactory;
     protected Map<String, SiteContext> contextRegistry;
     protected SiteContextFactory contextFactory;
     protected SiteContextFactory fallbackContextFactory;
@@ -129,13 +138,78 @@ public class SiteContextManager implements ApplicationContextAware, DisposableBe
      */
     protected boolean modePreview;
 
+    /**
+     * Max number of site contexts that are created concurrently on startup
+     */
+    protected int startupConcurrency;
+
+    /**
+     * Traffic stats used to decide the order in which site contexts are created on startup
+     */
+    protected SiteTrafficStats trafficStats;
+
+    /**
+     * Time in milliseconds after which a context that hasn't served any request is unloaded (0 or less to disable)
+     */
+    protected long idleTimeout;
+
+    /**
+     * Max number of contexts loaded at the same time, the least recently used are unloaded when it's exceeded (0 or
+     * less for no limit)
+     */
+    protected int maxLoadedContexts;
+
+    /**
+     * Interval in milliseconds of the check for idle contexts
+     */
+    protected long idleCheckInterval;
+
+    /**
+     * Time in milliseconds before the next job of an unloaded site that the context is loaded again
+     */
+    protected long jobWakeUpLeadTime;
+
+    /**
+     * Sites whose context has been unloaded, and that will be loaded again on the next request or job
+     */
+    protected Set<String> unloadedSites;
+
+    /**
+     * Pending wake ups for the scheduled jobs of unloaded sites
+     */
+    protected Map<String, ScheduledFuture<?>> jobWakeUps;
+
+    /**
+     * Scheduler shared by all sites for the idle contexts check and the job wake ups
+     */
+    protected ScheduledExecutorService sharedScheduler;
+
+    /**
+     * Pool of {@code startupConcurrency} threads where unloaded sites are loaded again for their jobs, so that the
+     * creation of a context doesn't delay the tasks of the shared scheduler
+     */
+    protected ScheduledThreadPoolExecutor wakeUpExecutor;
+
     public SiteContextManager() {
         siteLockFactory = new WeakKeyBasedReentrantLockFactory();
+        rebuildLockFactory = new WeakKeyBasedReentrantLockFactory();
         contextRegistry = new ConcurrentHashMap<>();
         directoryWatcherRegistry = new ConcurrentHashMap<>();
         directoryWatcherLastProcessedHash = new HashMap<>();
         directoryWatcherCounter = new ConcurrentHashMap<>();
         directoryWatcherExecutor = new ConcurrentHashMap<>();
+        unloadedSites = ConcurrentHashMap.newKeySet();
+        jobWakeUps = new ConcurrentHashMap<>();
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("site-context-scheduler-");
+        threadFactory.setDaemon(true);
+
+        sharedScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        CustomizableThreadFactory wakeUpThreadFactory = new CustomizableThreadFactory("site-context-wake-up-");
+        wakeUpThreadFactory.setDaemon(true);
+
+        wakeUpExecutor = new ScheduledThreadPoolExecutor(1, wakeUpThreadFactory);
     }
 
     @Override
@@ -218,7 +292,54 @@ public class SiteContextManager implements ApplicationContextAware, DisposableBe
         this.watcherIntervalPeriod = watcherIntervalPeriod;
     }
 
+    @Required
+    public void setStartupConcurrency(final int startupConcurrency) {
+        this.startupConcurrency = startupConcurrency;
+    }
+
+    public void setTrafficStats(final SiteTrafficStats trafficStats) {
+        this.trafficStats = trafficStats;
+    }
+
+    @Required
+    public void setIdleTimeout(final long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Required
+    public void setMaxLoadedContexts(final int maxLoadedContexts) {
+        this.maxLoadedContexts = maxLoadedContexts;
+    }
+
+    @Required
+    public void setIdleCheckInterval(final long idleCheckInterval) {
+        this.idleCheckInterval = idleCheckInterval;
+    }
+
+    @Required
+    public void setJobWakeUpLeadTime(final long jobWakeUpLeadTime) {
+        this.jobWakeUpLeadTime = jobWakeUpLeadTime;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        // Contexts are never unloaded in preview, since authors expect their changes to be picked up right away
+        if (!modePreview && (idleTimeout > 0 || maxLoadedContexts > 0)) {
+            wakeUpExecutor.setCorePoolSize(Math.max(1, startupConcurrency));
+            sharedScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    unloadIdleContexts();
+                } catch (Exception e) {
+                    logger.error("Error while unloading idle site contexts", e);
+                }
+            }, idleCheckInterval, idleCheckInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
     public void destroy() {
+        sharedScheduler.shutdownNow();
+        wakeUpExecutor.shutdownNow();
+
         destroyAllContexts();
     }
 
@@ -227,11 +348,26 @@ public class SiteContextManager implements ApplicationContextAware, DisposableBe
     }
 
     /**
-     * Creates all contexts (if not already created) from the site list resolver
+     * Creates all contexts (if not already created) from the site list resolver, and waits until all of them have
+     * been created
      *
      * @param concurrent if the context creation should be done concurrently
      */
     public void createContexts(boolean concurrent) {
+        createContexts(concurrent, 0);
+    }
+
+    /**
+     * Creates all contexts (if not already created) from the site list resolver. Sites are created in order of
+     * traffic (if {@link SiteTrafficStats} are available) by a dedicated pool of {@code startupConcurrency} threads
+     * (or a single thread if not concurrent), independent of the job thread pool. Failed creations are retried with
+     * exponential backoff through a scheduled task, so no thread is blocked while waiting for a retry.
+     *
+     * @param concurrent    if the context creation should be done concurrently
+     * @param priorityCount the number of sites (in priority order) to wait for before returning, the rest of the
+     *                      contexts are created in the background. If 0 or less, waits for all sites
+     */
+    public void createContexts(boolean concurrent, int priorityCount) {
         Collection<String> siteNames = siteListResolver.getSiteList();
 
         logger.info("==================================================");
@@ -239,30 +375,48 @@ public class SiteContextManager implements ApplicationContextAware, DisposableBe
         logger.info("==================================================");
 
         if (CollectionUtils.isNotEmpty(siteNames)) {
-            if (concurrent) {
-                CompletionService<SiteContext> cs = new ExecutorCompletionService<>(jobThreadPoolExecutor);
-                for (String siteName : siteNames) {
-                    cs.submit(() -> getContextWithRetries(siteName));
-                }
+            List<String> sortedSiteNames = trafficStats != null?
+                trafficStats.sortByTraffic(siteNames) : new ArrayList<>(siteNames);
+            int waitCount = priorityCount > 0? Math.min(priorityCount, sortedSiteNames.size()) :
+                sortedSiteNames.size();
+            int threadCount = concurrent? Math.max(1, Math.min(startupConcurrency, sortedSiteNames.size())) : 1;
 
-                for (int i = 0; i < siteNames.size(); i++) {
-                    try {
-                        cs.take();
-                    } catch (InterruptedException e) {
-                        logger.error("Stopping creation of site contexts, thread interrupted", e);
-                        return;
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("site-context-startup-");
+            threadFactory.setDaemon(true);
+
+            ScheduledExecutorService startupExecutor = Executors.newScheduledThreadPool(threadCount, threadFactory);
+            CountDownLatch priorityLatch = new CountDownLatch(waitCount);
+            AtomicInteger pendingCount = new AtomicInteger(sortedSiteNames.size());
+
+            for (int i = 0; i < sortedSiteNames.size(); i++) {
+                boolean priority = i < waitCount;
+
+                startupExecutor.execute(new ContextCreationTask(sortedSiteNames.get(i), startupExecutor, () -> {
+                    if (priority) {
+                        priorityLatch.countDown();
                     }
-                }
-            } else {
-                for (String siteName : siteNames) {
-                    try {
-                        getContextWithRetries(siteName);
-                    } catch (InterruptedException e) {
-                        logger.error("Stopping creation of site contexts, thread interrupted", e);
-                        return;
+                    if (pendingCount.decrementAndGet() == 0) {
+                        startupExecutor.shutdown();
+
+                        logger.info("All site contexts have been created");
                     }
+                }));
+            }
 
-                }
+            try {
+                priorityLatch.await();
+            } catch (InterruptedException e) {
+                logger.error("Stopping creation of site contexts, thread interrupted", e);
+
+                startupExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+
+                return;
+            }
+
+            if (waitCount < sortedSiteNames.size()) {
+                logger.info("The top {} site contexts have been created, the remaining {} will be created in the " +
+                            "background", waitCount, sortedSiteNames.size() - waitCount);
             }
         }
 
@@ -428,8 +582,21 @@ public class SiteContextManager implements ApplicationContextAware, DisposableBe
             }
         });
 
-        // create the contexts for new sites
+        // forget about the unloaded sites that are not present anymore
+        unloadedSites.removeIf(siteName -> {
+            if (!siteNames.contains(siteName)) {
+                cancelJobWakeUp(siteName);
+                return true;
+            } else {
+                return false;
+            }
+        });
+
+        // create the contexts for new sites (unloaded sites are loaded again on their next request or job)
         siteNames.forEach(siteName -> {
+            if (unloadedSites.contains(siteName)) {
+                return;
+            }
             try {
                 getContext(siteName, false);
             } catch (Exception e) {
@@ -563,49 +730,6 @@ public class SiteContextManager implements ApplicationContextAware, DisposableBe
         });
     }
 
-    /**
-     * Get a site context and initializing if it does not exist.
-     * If in preview mode, do not retry on failure and report the exception immediately.
-     * If in live mode, retry on failure. After the max retries count, report the exception.
-     * @param siteName the site name of the context
-     * @return the site context
-     * @throws InterruptedException if the current thread is interrupted while waiting
-     */
-    protected SiteContext getContextWithRetries(String siteName) throws InterruptedException {
-        if (modePreview) {
-            try {
-                // If the site context doesn't exist (it's new), it will be created
-                return getContext(siteName, false);
-            } catch (Exception e) {
-                logger.error(format("Error creating site context for site '%s'", siteName), e);
-            }
-
-            return null;
-        }
-
-        int attempt = 0;
-        long waitTime = contextBuildRetryWaitTimeBase;
-        while (attempt < contextBuildRetryMaxCount) {
-            try {
-                // If the site context doesn't exist (it's new), it will be created
-                return getContext(siteName, false);
-            } catch (Exception e) {
-                attempt++;
-                if (attempt == contextBuildRetryMaxCount) {
-                    logger.error(format("Maximum number of retries ('%s' times) has been reached. Error creating site context for site '%s'",
-                            contextBuildRetryMaxCount, siteName), e);
-                    return null;
-                }
-
-                logger.warn(format("Error creating site context for site '%s'. Retrying in '%d' seconds", siteName, waitTime / 1000), e);
-                Thread.sleep(waitTime);
-                waitTime = waitTime * contextBuildRetryWaitTimeMultiplier;
-            }
-        }
-
-        return null;
-    }
-
     /**
      * Determine if a site has valid context
      * @param siteId the site id
@@ -692,6 +816,27 @@ public class SiteContextManager implements ApplicationContextAware, DisposableBe
     }
 
     protected SiteContext createContext(String siteName, boolean fallback) {
+        if (unloadedSites.remove(siteName)) {
+            logger.info("Loading again unloaded site context '{}'", siteName);
+
+            cancelJobWakeUp(siteName);
+        }
+
+        SiteContext siteContext = buildContext(siteName, fallback, waitForContextInit);
+
+        contextRegistry.put(siteName, siteContext);
+
+        startScheduler(siteContext);
+
+        logger.info("Site context created: '{}'", siteContext);
+
+        return siteContext;
+    }
+
+    /**
+     * Creates and initializes a new context for the site, without adding it to the registry.
+     */
+    protected SiteContext buildContext(String siteName, boolean fallback, boolean waitForInit) {
         SiteContext siteContext;
 
         if (fallback) {
@@ -701,44 +846,276 @@ public class SiteContextManager implements ApplicationContextAware, DisposableBe
             siteContext = contextFactory.createContext(siteName);
         }
 
-        siteContext.init(waitForContextInit);
-
-        contextRegistry.put(siteName, siteContext);
-
-        logger.info("Site context created: '{}'", siteContext);
+        siteContext.init(waitForInit);
 
         return siteContext;
     }
 
+    /**
+     * Rebuilds the context of the site in a blue/green fashion: the current context keeps serving requests while the
+     * new one is built and initialized (cache warm up, GraphQL schema build, init script). Once the new context is
+     * {@link SiteContext.State#READY} it's swapped atomically in the registry, and then the old context is destroyed
+     * after all in-flight requests have released it. If the new context can't be built, the current context is kept.
+     *
+     * @param siteName the site name of the context
+     * @param fallback if the new context should be a fallback context
+     *
+     * @return the context that is serving requests after the rebuild
+     */
     protected SiteContext rebuildContext(String siteName, boolean fallback) {
-        Lock siteLock = siteLockFactory.getLock(siteName);
-        siteLock.lock();
+        // Only one rebuild per site at a time, without blocking other operations that need the site lock
+        Lock rebuildLock = rebuildLockFactory.getLock(siteName);
+        rebuildLock.lock();
         try {
             logger.info("==================================================");
             logger.info("<Rebuilding site context: '{}'>", siteName);
             logger.info("==================================================");
 
-            SiteContext oldSiteContext = contextRegistry.get(siteName);
-            SiteContext newContext = createContext(siteName, fallback);
+            SiteContext oldContext = contextRegistry.get(siteName);
+            SiteContext newContext;
 
-            oldSiteContext.destroy();
+            try {
+                // Always wait for the init, so that the new context is only published when it's ready
+                newContext = buildContext(siteName, fallback, true);
+            } catch (Exception e) {
+                logger.error("Error building new context for site '{}'. The current context will keep serving " +
+                             "requests", siteName, e);
+
+                return oldContext;
+            }
+
+            if (newContext.getState() != SiteContext.State.READY) {
+                logger.error("New context for site '{}' failed to initialize. The current context will keep " +
+                             "serving requests", siteName);
+
+                if (newContext.getState() != SiteContext.State.DESTROYED) {
+                    destroyContext(newContext);
+                }
+
+                return oldContext;
+            }
+
+            if (!swapContext(siteName, oldContext, newContext)) {
+                logger.warn("Context for site '{}' was changed while the new context was being built. The new " +
+                            "context will be discarded", siteName);
+
+                destroyContext(newContext);
+
+                return contextRegistry.get(siteName);
+            }
+
+            logger.info("Site context swapped: '{}'", newContext);
+
+            // The jobs of the old context need to stop before the ones of the new context start, so they never
+            // run twice at the same time
+            if (oldContext != null) {
+                try {
+                    oldContext.shutdownScheduler();
+                } catch (Exception e) {
+                    logger.error("Error shutting down the scheduler of previous site context '{}'", oldContext, e);
+                }
+            }
+
+            startScheduler(newContext);
+
+            if (oldContext != null) {
+                // Destroy waits for the requests still using the old context to finish (up to the shutdown timeout)
+                logger.info("Draining and destroying previous site context: '{}'", oldContext);
+
+                destroyContext(oldContext);
+            }
 
             logger.info("==================================================");
             logger.info("</Rebuilding site context: '{}'>", siteName);
             logger.info("==================================================");
 
             return newContext;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the old context of the site with the new one in the registry, but only if the old context is still the
+     * one registered (contexts are compared by identity since {@link SiteContext#equals(Object)} only checks the site
+     * name).
+     *
+     * @return true if the contexts were swapped, false otherwise
+     */
+    protected boolean swapContext(String siteName, SiteContext oldContext, SiteContext newContext) {
+        Lock siteLock = siteLockFactory.getLock(siteName);
+        siteLock.lock();
+        try {
+            if (contextRegistry.get(siteName) == oldContext) {
+                contextRegistry.put(siteName, newContext);
+
+                // If the site was unloaded, the new context replaces the one that would be loaded on the next request
+                if (unloadedSites.remove(siteName)) {
+                    cancelJobWakeUp(siteName);
+                }
+
+                return true;
+            } else {
+                return false;
+            }
         } finally {
             siteLock.unlock();
         }
     }
 
+    protected void startScheduler(SiteContext siteContext) {
+        try {
+            siteContext.startScheduler();
+        } catch (Exception e) {
+            logger.error("Unable to start the job scheduler of site context '{}'", siteContext, e);
+        }
+    }
+
     protected void destroyContext(SiteContext siteContext) {
         siteContext.destroy();
 
         logger.info("Site context destroyed: '{}'", siteContext);
     }
 
+    /**
+     * Unloads the contexts that haven't served a request in the idle timeout, and the least recently used contexts
+     * if there are more loaded contexts than the max. Fallback contexts, the context of the default site and
+     * contexts that are still initializing are never unloaded.
+     */
+    protected void unloadIdleContexts() {
+        long now = System.currentTimeMillis();
+        int excess = maxLoadedContexts > 0? contextRegistry.size() - maxLoadedContexts : 0;
+
+        List<SiteContext> candidates = contextRegistry.values().stream()
+                                                      .filter(this::isUnloadable)
+                                                      .sorted(Comparator.comparingLong(SiteContext::getLastAccessTime))
+                                                      .collect(Collectors.toList());
+
+        for (SiteContext siteContext : candidates) {
+            long lastAccessTime = siteContext.getLastAccessTime();
+            boolean idle = idleTimeout > 0 && now - lastAccessTime >= idleTimeout;
+            if ((idle || excess > 0) && unloadContext(siteContext, lastAccessTime)) {
+                excess--;
+            }
+        }
+    }
+
+    protected boolean isUnloadable(SiteContext siteContext) {
+        return !siteContext.isFallback() && !siteContext.getSiteName().equals(defaultSiteName) &&
+               siteContext.getState() == SiteContext.State.READY;
+    }
+
+    /**
+     * Destroys the context and removes it from the registry, but unlike a purge, the site is loaded again (with a new
+     * context) on its next request or scheduled job.
+     *
+     * @param siteContext       the context to unload
+     * @param lastAccessTime    the last access time of the context when it was chosen to be unloaded
+     *
+     * @return true if the context was unloaded, false if it was not the registered context of the site anymore, or
+     * if it has been accessed since it was chosen
+     */
+    protected boolean unloadContext(SiteContext siteContext, long lastAccessTime) {
+        String siteName = siteContext.getSiteName();
+        long idleTime = System.currentTimeMillis() - lastAccessTime;
+
+        Lock siteLock = siteLockFactory.getLock(siteName);
+        siteLock.lock();
+        try {
+            if (contextRegistry.get(siteName) != siteContext) {
+                return false;
+            }
+            // Requests that started after the context was chosen (or are still running) keep it loaded
+            if (siteContext.getLastAccessTime() != lastAccessTime || !siteContext.markUnloading()) {
+                logger.debug("Site context '{}' is being used, it won't be unloaded", siteName);
+                return false;
+            }
+
+            contextRegistry.remove(siteName);
+            unloadedSites.add(siteName);
+        } finally {
+            siteLock.unlock();
+        }
+
+        logger.info("Unloading site context '{}' (idle for {} secs)", siteName,
+                    TimeUnit.MILLISECONDS.toSeconds(idleTime));
+
+        // The wake up needs the triggers of the scheduler, so it has to be done before the destroy
+        scheduleJobWakeUp(siteName, siteContext.getScheduler());
+
+        try {
+            destroyContext(siteContext);
+        } catch (Exception e) {
+            logger.error("Error destroying unloaded site context '{}'", siteName, e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Schedules the load of the unloaded site a little before the next fire time of its jobs, so that the jobs keep
+     * running while the site is not receiving requests.
+     */
+    protected void scheduleJobWakeUp(String siteName, Scheduler scheduler) {
+        Date nextFireTime = getNextFireTime(siteName, scheduler);
+        if (nextFireTime == null) {
+            return;
+        }
+
+        long delay = Math.max(0, nextFireTime.getTime() - System.currentTimeMillis() - jobWakeUpLeadTime);
+        try {
+            ScheduledFuture<?> wakeUp = sharedScheduler.schedule(() -> {
+                jobWakeUps.remove(siteName);
+
+                if (unloadedSites.contains(siteName)) {
+                    logger.info("Loading again unloaded site context '{}' for its next scheduled job", siteName);
+                    try {
+                        wakeUpExecutor.execute(new ContextCreationTask(siteName, wakeUpExecutor, () -> {}));
+                    } catch (RejectedExecutionException e) {
+                        logger.error("Unable to load site context '{}' for its next scheduled job", siteName, e);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+
+            ScheduledFuture<?> previous = jobWakeUps.put(siteName, wakeUp);
+            if (previous != null) {
+                previous.cancel(false);
+            }
+
+            logger.debug("Site context '{}' will be loaded again at {} for its next scheduled job", siteName,
+                         new Date(System.currentTimeMillis() + delay));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Unable to schedule the wake up for the jobs of site '{}'", siteName, e);
+        }
+    }
+
+    protected Date getNextFireTime(String siteName, Scheduler scheduler) {
+        Date nextFireTime = null;
+        if (scheduler != null) {
+            try {
+                for (TriggerKey triggerKey : scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup())) {
+                    Trigger trigger = scheduler.getTrigger(triggerKey);
+                    Date triggerNextFireTime = trigger != null? trigger.getNextFireTime() : null;
+                    if (triggerNextFireTime != null &&
+                        (nextFireTime == null || triggerNextFireTime.before(nextFireTime))) {
+                        nextFireTime = triggerNextFireTime;
+                    }
+                }
+            } catch (SchedulerException e) {
+                logger.error("Unable to get the next fire time of the jobs of site '{}'", siteName, e);
+            }
+        }
+
+        return nextFireTime;
+    }
+
+    protected void cancelJobWakeUp(String siteName) {
+        ScheduledFuture<?> wakeUp = jobWakeUps.remove(siteName);
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+    }
+
     protected boolean validateSiteCreationEntitlement() {
         try {
             entitlementValidator.validateEntitlement(EntitlementType.SITE, 1);
@@ -756,4 +1133,66 @@ public class SiteContextManager implements ApplicationContextAware, DisposableBe
                 startContextRebuild(siteContext.getSiteName(), siteContext.isFallback())
         );
     }
+
+    /**
+     * Startup task that creates the context of a site and waits for it to be initialized. If the creation fails, the
+     * task reschedules itself in the startup executor with exponential backoff (except in preview), until
+     * {@code contextBuildRetryMaxCount} attempts have been made.
+     */
+    protected class ContextCreationTask implements Runnable {
+
+        protected final String siteName;
+        protected final ScheduledExecutorService executor;
+        protected final Runnable onFinish;
+        protected int attempt;
+        protected long waitTime;
+
+        public ContextCreationTask(String siteName, ScheduledExecutorService executor, Runnable onFinish) {
+            this.siteName = siteName;
+            this.executor = executor;
+            this.onFinish = onFinish;
+            this.waitTime = contextBuildRetryWaitTimeBase;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // If the site context doesn't exist (it's new), it will be created
+                SiteContext siteContext = getContext(siteName, false);
+                // Wait for the context to finish its initialization, so that the startup concurrency is respected
+                if (siteContext != null && !siteContext.isValid()) {
+                    throw new SiteContextInitializationException("Site context for '" + siteName +
+                                                                 "' failed to initialize", null);
+                }
+            } catch (Exception e) {
+                attempt++;
+                if (modePreview) {
+                    logger.error(format("Error creating site context for site '%s'", siteName), e);
+                } else if (attempt >= contextBuildRetryMaxCount) {
+                    logger.error(format("Maximum number of retries ('%s' times) has been reached. Error creating site context for site '%s'",
+                            contextBuildRetryMaxCount, siteName), e);
+                } else {
+                    logger.warn(format("Error creating site context for site '%s'. Retrying in '%d' seconds", siteName, waitTime / 1000), e);
+
+                    // Remove the failed context (if it was registered) so that the retry creates a new one
+                    if (contextRegistry.containsKey(siteName)) {
+                        destroyContext(siteName);
+                    }
+
+                    try {
+                        executor.schedule(this, waitTime, TimeUnit.MILLISECONDS);
+                        waitTime = waitTime * contextBuildRetryWaitTimeMultiplier;
+
+                        return;
+                    } catch (RejectedExecutionException ree) {
+                        logger.error(format("Unable to schedule retry of site context creation for site '%s'", siteName), ree);
+                    }
+                }
+            }
+
+            onFinish.run();
+        }
+
+    }
+
 }
@@ -33,6 +33,7 @@ public class SiteContextsBootstrap implements ApplicationListener<ContextRefresh
     protected ApplicationContext applicationContext;
     protected boolean createContextsOnStartup;
     protected boolean createConcurrently;
+    protected int bootstrappedEventSiteCount;
     protected SiteContextManager siteContextManager;
 
     protected boolean triggered;
@@ -55,6 +56,15 @@ public class SiteContextsBootstrap implements ApplicationListener<ContextRefresh
         this.createConcurrently = createConcurrently;
     }
 
+    /**
+     * Sets the number of sites (the ones with the most traffic) that need to be created before publishing the
+     * {@link SiteContextsBootstrappedEvent}. The rest of the sites are created in the background. If 0 or less, the
+     * event is published after all sites have been created.
+     */
+    public void setBootstrappedEventSiteCount(int bootstrappedEventSiteCount) {
+        this.bootstrappedEventSiteCount = bootstrappedEventSiteCount;
+    }
+
     @Required
     public void setSiteContextManager(SiteContextManager siteContextManager) {
         this.siteContextManager = siteContextManager;
@@ -65,7 +75,7 @@ public class SiteContextsBootstrap implements ApplicationListener<ContextRefresh
         if (!triggered && createContextsOnStartup) {
             triggered = true;
 
-            siteContextManager.createContexts(createConcurrently);
+            siteContextManager.createContexts(createConcurrently, bootstrappedEventSiteCount);
 
             applicationContext.publishEvent(new SiteContextsBootstrappedEvent(this));
         }
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.service.context;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a count of the requests received by each site and persists it in a properties file, so that on the next
+ * startup the site contexts can be created in order of traffic (the sites that received the most requests first).
+ * Counts from previous runs are halved every time they're carried over, so that recent traffic weighs more.
+ * <p>
+ * Persistence is off by default, since there's no default stats file: until a file is configured, the counts are
+ * only kept in memory for the current run, so the first startup after a restart creates the sites in their regular
+ * order.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class SiteTrafficStats implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SiteTrafficStats.class);
+
+    protected boolean enabled;
+    protected String statsFilePath;
+    protected int saveInterval;
+
+    protected Map<String, Long> previousCounts;
+    protected Map<String, LongAdder> currentCounts;
+    protected ScheduledExecutorService saveExecutor;
+
+    public SiteTrafficStats() {
+        previousCounts = new HashMap<>();
+        currentCounts = new ConcurrentHashMap<>();
+    }
+
+    @Required
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the path of the file where the stats are persisted. If blank the stats are not persisted.
+     */
+    public void setStatsFilePath(String statsFilePath) {
+        this.statsFilePath = statsFilePath;
+    }
+
+    /**
+     * Sets the interval in minutes between saves of the stats file. If 0 or less the file is only saved on shutdown.
+     */
+    public void setSaveInterval(int saveInterval) {
+        this.saveInterval = saveInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (isPersistent()) {
+            load();
+
+            if (saveInterval > 0) {
+                CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("site-traffic-stats-");
+                threadFactory.setDaemon(true);
+
+                saveExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+                saveExecutor.scheduleWithFixedDelay(this::save, saveInterval, saveInterval, TimeUnit.MINUTES);
+            }
+        } else if (enabled) {
+            logger.info("No site traffic stats file configured, only the traffic of the current run will be used to " +
+                        "order the creation of the site contexts");
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (saveExecutor != null) {
+            saveExecutor.shutdownNow();
+        }
+        if (isPersistent()) {
+            save();
+        }
+    }
+
+    /**
+     * Records a request for the specified site.
+     */
+    public void recordRequest(String siteName) {
+        if (enabled) {
+            currentCounts.computeIfAbsent(siteName, key -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Returns the traffic count of the site: the decayed count of previous runs plus the requests of this run.
+     */
+    public long getCount(String siteName) {
+        long count = previousCounts.getOrDefault(siteName, 0L);
+
+        LongAdder current = currentCounts.get(siteName);
+        if (current != null) {
+            count += current.sum();
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the specified site names sorted by traffic, from most to least requested. Sites with the same traffic
+     * keep their original order.
+     */
+    public List<String> sortByTraffic(Collection<String> siteNames) {
+        List<String> sorted = new ArrayList<>(siteNames);
+        if (enabled) {
+            sorted.sort(Comparator.comparingLong(this::getCount).reversed());
+        }
+
+        return sorted;
+    }
+
+    protected boolean isPersistent() {
+        return enabled && StringUtils.isNotBlank(statsFilePath);
+    }
+
+    protected void load() {
+        Path file = Paths.get(statsFilePath);
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                logger.warn("Unable to load site traffic stats from {}", file, e);
+                return;
+            }
+
+            for (String siteName : properties.stringPropertyNames()) {
+                long count = NumberUtils.toLong(properties.getProperty(siteName)) / 2;
+                if (count > 0) {
+                    previousCounts.put(siteName, count);
+                }
+            }
+
+            logger.debug("Site traffic stats loaded from {}: {}", file, previousCounts);
+        }
+    }
+
+    protected synchronized void save() {
+        Properties properties = new Properties();
+        for (String siteName : previousCounts.keySet()) {
+            properties.setProperty(siteName, Long.toString(getCount(siteName)));
+        }
+        for (String siteName : currentCounts.keySet()) {
+            properties.setProperty(siteName, Long.toString(getCount(siteName)));
+        }
+
+        Path file = Paths.get(statsFilePath);
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+
+            // Write to a temp file first so that a crash while saving doesn't leave a corrupt file
+            Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmpFile)) {
+                properties.store(out, null);
+            }
+
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Unable to save site traffic stats to {}", file, e);
+        }
+    }
+
+}
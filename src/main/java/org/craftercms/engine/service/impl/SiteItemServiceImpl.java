@@ -21,6 +21,8 @@ import org.apache.commons.collections4.Predicate;
 import org.apache.commons.collections4.PredicateUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.craftercms.commons.converters.Converter;
 import org.craftercms.core.processors.ItemProcessor;
 import org.craftercms.core.processors.impl.ItemProcessorPipeline;
@@ -30,6 +32,8 @@ import org.craftercms.core.service.Item;
 import org.craftercms.core.service.ItemFilter;
 import org.craftercms.core.service.Tree;
 import org.craftercms.core.service.impl.CompositeItemFilter;
+import org.craftercms.engine.cache.ContentDependencyTracker;
+import org.craftercms.engine.cache.HotPathTracker;
 import org.craftercms.engine.model.DefaultSiteItem;
 import org.craftercms.engine.model.EmbeddedSiteItem;
 import org.craftercms.engine.model.SiteItem;
@@ -38,14 +42,27 @@ import org.craftercms.engine.service.context.SiteContext;
 import org.craftercms.engine.service.filter.ExcludeByNameItemFilter;
 import org.craftercms.engine.service.filter.ExpectedNodeValueItemFilter;
 import org.craftercms.engine.service.filter.IncludeByNameItemFilter;
+import org.craftercms.engine.util.concurrent.SiteAwareThreadPoolExecutor;
 import org.dom4j.Element;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.context.i18n.SimpleLocaleContext;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.craftercms.engine.util.LocaleUtils.resolveLocalePath;
 
@@ -56,12 +73,17 @@ import static org.craftercms.engine.util.LocaleUtils.resolveLocalePath;
  */
 public class SiteItemServiceImpl implements SiteItemService {
 
+    private static final Log logger = LogFactory.getLog(SiteItemServiceImpl.class);
+
     protected ContentStoreService storeService;
     protected List<Predicate<Item>> defaultPredicates;
     protected List<ItemFilter> defaultFilters;
     protected List<ItemProcessor> defaultProcessors;
     protected Converter<Element, Object> modelFieldConverter;
     protected Comparator<SiteItem> sortComparator;
+    protected HotPathTracker hotPathTracker;
+    protected ExecutorService batchExecutor;
+    protected int batchParallelism;
 
     @Required
     public void setStoreService(ContentStoreService storeService) {
@@ -89,9 +111,39 @@ public class SiteItemServiceImpl implements SiteItemService {
         this.sortComparator = sortComparator;
     }
 
+    public void setHotPathTracker(HotPathTracker hotPathTracker) {
+        this.hotPathTracker = hotPathTracker;
+    }
+
+    /**
+     * Sets the executor used to load the items of a batch concurrently (if not set, the items are loaded by the
+     * current thread)
+     */
+    public void setBatchExecutor(ExecutorService batchExecutor) {
+        this.batchExecutor = batchExecutor;
+    }
+
+    /**
+     * Sets the max number of threads, besides the current one, that load the items of a batch
+     */
+    public void setBatchParallelism(int batchParallelism) {
+        this.batchParallelism = batchParallelism;
+    }
+
     @Override
     public Content getRawContent(String url) {
-        return storeService.findContent(getSiteContext().getContext(), url);
+        SiteContext context = getSiteContext();
+
+        // Also recorded when the content doesn't exist yet
+        ContentDependencyTracker.addDependency(url);
+
+        Content content = storeService.findContent(context.getContext(), url);
+
+        if (content != null && hotPathTracker != null) {
+            hotPathTracker.recordContent(context.getSiteName(), url);
+        }
+
+        return content;
     }
 
     @Override
@@ -111,13 +163,78 @@ public class SiteItemServiceImpl implements SiteItemService {
 
     @Override
     public SiteItem getSiteItem(String url, ItemProcessor processor, Predicate<Item> predicate) {
+        return loadSiteItem(getSiteContext(), url, getFullProcessor(processor), getFullPredicate(predicate));
+    }
+
+    @Override
+    public List<SiteItem> getSiteItems(Collection<String> urls) {
+        return getSiteItems(urls, null, null);
+    }
+
+    @Override
+    public List<SiteItem> getSiteItems(Collection<String> urls, ItemProcessor processor, Predicate<Item> predicate) {
+        if (CollectionUtils.isEmpty(urls)) {
+            return new ArrayList<>();
+        }
+
         SiteContext context = getSiteContext();
+        List<String> uniqueUrls = new ArrayList<>(new LinkedHashSet<>(urls));
+        uniqueUrls.removeIf(StringUtils::isBlank);
+
+        BatchLoad batchLoad = new BatchLoad(context, uniqueUrls, getFullProcessor(processor),
+                                            getFullPredicate(predicate));
+        List<CompletableFuture<Void>> helpers = new ArrayList<>();
+
+        // The current thread loads items too, so the helpers only make a difference when there are cache misses
+        if (batchExecutor != null && uniqueUrls.size() > 1) {
+            Executor executor = new SiteAwareThreadPoolExecutor(context, batchExecutor);
+            int helperCount = Math.min(uniqueUrls.size() - 1, batchParallelism);
+
+            for (int i = 0; i < helperCount; i++) {
+                try {
+                    helpers.add(CompletableFuture.runAsync(batchLoad::helpLoad, executor));
+                } catch (RejectedExecutionException e) {
+                    logger.debug("No threads available for the batch load, the current thread will load the rest");
+                    break;
+                }
+            }
+        }
+
+        batchLoad.load();
+
+        for (CompletableFuture<Void> helper : helpers) {
+            helper.join();
+        }
+
+        return batchLoad.getItems();
+    }
+
+    protected SiteItem loadSiteItem(SiteContext context, String url, ItemProcessor processor,
+                                    Predicate<Item> predicate) {
         url = resolveLocalePath(url, u -> storeService.exists(context.getContext(), u));
 
+        // Recorded even if the item doesn't exist, so that outputs are evicted when it's created
+        ContentDependencyTracker.addDependency(url);
+
         if(!storeService.exists(context.getContext(), url)) {
             return null;
         }
+        if (hotPathTracker != null) {
+            hotPathTracker.recordItem(context.getSiteName(), url);
+        }
+
+        Item item = storeService.findItem(context.getContext(), null, url, processor);
+        if (item != null && (predicate == null || predicate.evaluate(item))) {
+            return createItemWrapper(new Item(item));
+        } else {
+            return null;
+        }
+    }
 
+    /**
+     * Returns the predicate that combines the default predicates with the specified one (if any).
+     */
+    protected Predicate<Item> getFullPredicate(Predicate<Item> predicate) {
         if (CollectionUtils.isNotEmpty(defaultPredicates)) {
             List<Predicate<Item>> predicates = new ArrayList<>(defaultPredicates);
 
@@ -125,8 +242,16 @@ public class SiteItemServiceImpl implements SiteItemService {
                 predicates.add(predicate);
             }
 
-            predicate = PredicateUtils.allPredicate(predicates);
+            return PredicateUtils.allPredicate(predicates);
+        } else {
+            return predicate;
         }
+    }
+
+    /**
+     * Returns the processor that runs the default processors and then the specified one (if any).
+     */
+    protected ItemProcessor getFullProcessor(ItemProcessor processor) {
         if (CollectionUtils.isNotEmpty(defaultProcessors)) {
             ItemProcessorPipeline processorPipeline = new ItemProcessorPipeline(new ArrayList<>(defaultProcessors));
 
@@ -134,14 +259,9 @@ public class SiteItemServiceImpl implements SiteItemService {
                 processorPipeline.addProcessor(processor);
             }
 
-            processor = processorPipeline;
-        }
-
-        Item item = storeService.findItem(context.getContext(), null, url, processor);
-        if (item != null && (predicate == null || predicate.evaluate(item))) {
-            return createItemWrapper(new Item(item));
+            return processorPipeline;
         } else {
-            return null;
+            return processor;
         }
     }
 
@@ -172,6 +292,9 @@ public class SiteItemServiceImpl implements SiteItemService {
             processor = processorPipeline;
         }
 
+        // Changes to any descendant also affect the tree, since the parent folders of changed paths are matched too
+        ContentDependencyTracker.addDependency(url);
+
         Tree tree = storeService.findTree(getSiteContext().getContext(), null, url, depth, filter, processor);
         if (tree != null) {
             return createItemWrapper(new Tree(tree));
@@ -231,6 +354,8 @@ public class SiteItemServiceImpl implements SiteItemService {
             }
         }
 
+        ContentDependencyTracker.addDependency(url);
+
         Tree tree = storeService.findTree(getSiteContext().getContext(), null, url, depth, compositeFilter, null);
         if (tree != null) {
             return createItemWrapper(new Tree(tree));
@@ -252,4 +377,89 @@ public class SiteItemServiceImpl implements SiteItemService {
         return new DefaultSiteItem(item, modelFieldConverter, sortComparator);
     }
 
+    /**
+     * Load of a batch of items, shared by the current thread and the helper threads. Each thread takes the next URL
+     * not loaded yet until there are no more, so cache hits are resolved quickly by whichever thread is free while
+     * the misses are loaded concurrently.
+     */
+    protected class BatchLoad {
+
+        protected final SiteContext context;
+        protected final List<String> urls;
+        protected final ItemProcessor processor;
+        protected final Predicate<Item> predicate;
+        protected final SiteItem[] items;
+        protected final AtomicInteger nextIndex;
+        protected final Set<String> helperDependencies;
+        protected final LocaleContext localeContext;
+        protected volatile RuntimeException error;
+
+        protected BatchLoad(SiteContext context, List<String> urls, ItemProcessor processor,
+                            Predicate<Item> predicate) {
+            this.context = context;
+            this.urls = urls;
+            this.processor = processor;
+            this.predicate = predicate;
+            this.items = new SiteItem[urls.size()];
+            this.nextIndex = new AtomicInteger();
+            this.helperDependencies = ConcurrentHashMap.newKeySet();
+            // Resolved now, since the locale context of the request might resolve the locale lazily from the request
+            this.localeContext = new SimpleLocaleContext(LocaleContextHolder.getLocale());
+        }
+
+        /**
+         * Loads items in the current thread.
+         */
+        protected void load() {
+            try {
+                int index;
+                while (error == null && (index = nextIndex.getAndIncrement()) < urls.size()) {
+                    items[index] = loadSiteItem(context, urls.get(index), processor, predicate);
+                }
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+
+        /**
+         * Loads items in a helper thread, with the locale of the current thread (so that the locale is resolved the
+         * same way). The request is never shared with the helpers.
+         */
+        protected void helpLoad() {
+            LocaleContextHolder.setLocaleContext(localeContext);
+
+            ContentDependencyTracker.beginCapture();
+            try {
+                load();
+            } finally {
+                helperDependencies.addAll(ContentDependencyTracker.endCapture());
+                LocaleContextHolder.resetLocaleContext();
+            }
+        }
+
+        /**
+         * Returns the loaded items, in the order of the URLs, once all threads are done. The paths loaded by the
+         * helpers are recorded as dependencies of the current thread.
+         */
+        protected List<SiteItem> getItems() {
+            if (error != null) {
+                throw error;
+            }
+
+            ContentDependencyTracker.addDependencies(helperDependencies);
+
+            List<SiteItem> result = new ArrayList<>(items.length);
+            for (SiteItem item : items) {
+                if (item != null) {
+                    result.add(item);
+                }
+            }
+
+            return result;
+        }
+
+    }
+
 }
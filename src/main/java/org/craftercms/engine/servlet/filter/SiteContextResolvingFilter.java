@@ -33,6 +33,7 @@ import freemarker.template.Template;
 import org.craftercms.core.exception.RootFolderNotFoundException;
 import org.craftercms.engine.service.context.SiteContext;
 import org.craftercms.engine.service.context.SiteContextResolver;
+import org.craftercms.engine.service.context.SiteTrafficStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.ObjectFactory;
@@ -49,12 +50,19 @@ public class SiteContextResolvingFilter implements Filter {
 
     private static final Logger logger = LoggerFactory.getLogger(SiteContextResolvingFilter.class);
 
+    /**
+     * Max number of times the context is resolved when the resolved one is being unloaded
+     */
+    private static final int MAX_RESOLVE_ATTEMPTS = 5;
+
     protected String errorTemplate;
 
     protected SiteContextResolver contextResolver;
 
     protected ObjectFactory<FreeMarkerConfig> freeMarkerConfigFactory;
 
+    protected SiteTrafficStats trafficStats;
+
     @Required
     public void setErrorTemplate(final String errorTemplate) {
         this.errorTemplate = errorTemplate;
@@ -70,6 +78,10 @@ public class SiteContextResolvingFilter implements Filter {
         this.freeMarkerConfigFactory = freeMarkerConfigFactory;
     }
 
+    public void setTrafficStats(final SiteTrafficStats trafficStats) {
+        this.trafficStats = trafficStats;
+    }
+
     @Override
     public void init(FilterConfig filterConfig) {
     }
@@ -78,14 +90,30 @@ public class SiteContextResolvingFilter implements Filter {
     public void doFilter(ServletRequest request, ServletResponse response,
                          FilterChain chain) throws IOException, ServletException {
         SiteContext siteContext = getContext((HttpServletRequest) request, (HttpServletResponse) response);
+        // If the context is being unloaded, resolve it again (a new context will be created)
+        int attempts = 1;
+        while (siteContext != null && !siteContext.requestStarted()) {
+            if (attempts++ >= MAX_RESOLVE_ATTEMPTS) {
+                logger.error("Unable to resolve a site context that is not being unloaded for site '{}' after {} " +
+                             "attempts", siteContext.getSiteName(), MAX_RESOLVE_ATTEMPTS);
+                renderError((HttpServletResponse) response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+
+            siteContext = getContext((HttpServletRequest) request, (HttpServletResponse) response);
+        }
         if (siteContext == null) {
             return;
         }
+        if (trafficStats != null && !siteContext.isFallback()) {
+            trafficStats.recordRequest(siteContext.getSiteName());
+        }
         SiteContext.setCurrent(siteContext);
         try {
             chain.doFilter(request, response);
         } finally {
             SiteContext.clear();
+            siteContext.requestFinished();
         }
     }
 
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.servlet.filter;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.craftercms.engine.cache.ContentDependencyTracker;
+import org.craftercms.engine.cache.SurrogateKeyGenerator;
+import org.craftercms.engine.service.context.SiteContext;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.beans.ConstructorProperties;
+import java.io.IOException;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpMethod.HEAD;
+
+/**
+ * Filter that adds a surrogate key header (like Fastly's {@code Surrogate-Key} or Cloudflare's {@code Cache-Tag}) to
+ * successful responses, listing the keys of the content the response was built from (as recorded by the
+ * {@link ContentDependencyTracker} while pages, components and REST scripts are executed), so that a CDN can purge
+ * them by tag. The response is buffered so that the header can be added after it has been generated (so URLs that
+ * don't need the header, like static assets that could be served through sendfile, should be excluded).
+ *
+ * <p>If the header would be longer than the max length, only the site key is included.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class SurrogateKeyFilter extends OncePerRequestFilter {
+
+    private static final Log logger = LogFactory.getLog(SurrogateKeyFilter.class);
+
+    /**
+     * Indicates if the filter is enabled
+     */
+    protected boolean enabled;
+
+    /**
+     * The list of url patterns that should be processed
+     */
+    protected String[] includedUrls;
+
+    /**
+     * The list of url patterns that should not be processed, even if included
+     */
+    protected String[] excludedUrls;
+
+    /**
+     * The name of the header
+     */
+    protected String headerName;
+
+    /**
+     * The separator of the keys in the header (a space if empty)
+     */
+    protected String separator;
+
+    /**
+     * The max length of the header value
+     */
+    protected int maxLength;
+
+    /**
+     * The generator of the keys
+     */
+    protected SurrogateKeyGenerator keyGenerator;
+
+    /**
+     * The {@link PathMatcher} used to compare urls
+     */
+    protected PathMatcher pathMatcher;
+
+    @ConstructorProperties({"enabled", "includedUrls", "excludedUrls", "headerName", "separator", "maxLength",
+                            "keyGenerator"})
+    public SurrogateKeyFilter(boolean enabled, String[] includedUrls, String[] excludedUrls, String headerName,
+                              String separator, int maxLength, SurrogateKeyGenerator keyGenerator) {
+        this.enabled = enabled;
+        this.includedUrls = includedUrls;
+        this.excludedUrls = ArrayUtils.nullToEmpty(excludedUrls);
+        this.headerName = headerName;
+        this.separator = StringUtils.defaultIfEmpty(separator, " ");
+        this.maxLength = maxLength;
+        this.keyGenerator = keyGenerator;
+        pathMatcher = new AntPathMatcher();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !(GET.matches(request.getMethod()) || HEAD.matches(request.getMethod())) ||
+               Stream.of(includedUrls).noneMatch(url -> pathMatcher.match(url, request.getPathInfo())) ||
+               Stream.of(excludedUrls).anyMatch(url -> pathMatcher.match(url, request.getPathInfo()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+        SiteContext siteContext = SiteContext.getCurrent();
+        if (siteContext == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        // Reuse the buffer of other filters (like the ETag one) if possible
+        ContentCachingResponseWrapper responseWrapper =
+            WebUtils.getNativeResponse(response, ContentCachingResponseWrapper.class);
+        boolean wrapped = responseWrapper == null;
+        if (wrapped) {
+            responseWrapper = new ContentCachingResponseWrapper(response);
+        }
+
+        Set<String> dependencyPaths;
+
+        ContentDependencyTracker.beginCapture();
+        try {
+            filterChain.doFilter(request, wrapped? responseWrapper : response);
+        } finally {
+            dependencyPaths = ContentDependencyTracker.endCapture();
+        }
+
+        int status = responseWrapper.getStatus();
+        if (!responseWrapper.isCommitted() && status >= 200 && status < 300 && !dependencyPaths.isEmpty() &&
+            !responseWrapper.containsHeader(headerName)) {
+            responseWrapper.setHeader(headerName, getHeaderValue(siteContext.getSiteName(), dependencyPaths));
+        }
+
+        if (wrapped) {
+            responseWrapper.copyBodyToResponse();
+        }
+    }
+
+    protected String getHeaderValue(String siteName, Set<String> dependencyPaths) {
+        String value = String.join(separator, keyGenerator.getKeys(siteName, dependencyPaths));
+        if (value.length() > maxLength) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("The " + headerName + " header for " + dependencyPaths.size() + " paths is longer " +
+                             "than " + maxLength + " chars. Only the site key will be included");
+            }
+
+            return keyGenerator.getSiteKey(siteName);
+        } else {
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store;
+
+import org.craftercms.core.exception.StoreException;
+import org.craftercms.core.service.Context;
+import org.craftercms.engine.util.deployment.DeploymentChanges;
+
+/**
+ * {@link org.craftercms.core.store.ContentStoreAdapter} that keeps an in-memory index of the content of each context,
+ * which needs to be refreshed when the content changes (before the cache is cleared or invalidated).
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public interface IndexedContentStoreAdapter {
+
+    /**
+     * Refreshes the index of the specified context.
+     *
+     * @param context the context (created by this adapter)
+     * @param changes the changes of the deployment, or null if the whole index should be rebuilt
+     */
+    void refreshIndex(Context context, DeploymentChanges changes) throws StoreException;
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store;
+
+/**
+ * {@link org.craftercms.core.store.ContentStoreAdapter} that keeps statistics of its access to the underlying store
+ * (e.g. requests to a remote service), which are included in the site cache statistics.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public interface MonitoredContentStoreAdapter {
+
+    /**
+     * Returns the statistics of the store, as an object that can be serialized to JSON.
+     */
+    Object getStoreStatistics();
+
+}
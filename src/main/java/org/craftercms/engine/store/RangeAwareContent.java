@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store;
+
+import org.craftercms.core.service.Content;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link Content} that can return a region of its bytes without reading the whole content, like content from a
+ * remote store that supports ranged reads.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public interface RangeAwareContent extends Content {
+
+    /**
+     * Returns an input stream for the bytes between {@code start} and {@code end} (both inclusive).
+     *
+     * @param start the position of the first byte
+     * @param end   the position of the last byte
+     */
+    InputStream getInputStream(long start, long end) throws IOException;
+
+}
@@ -15,28 +15,38 @@
  */
 package org.craftercms.engine.store.s3;
 
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import org.apache.commons.io.IOUtils;
-import org.bouncycastle.util.StoreException;
-import org.craftercms.core.service.Content;
+import org.craftercms.core.exception.StoreException;
+import org.craftercms.engine.store.RangeAwareContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.function.Supplier;
 
 import static java.lang.String.format;
 
 /**
- * Represents the content of an S3 object.
+ * Represents the content of an S3 object. The content is either kept in memory (when it's small enough and its path
+ * is allowed to be cached), read from the {@link S3DiskCache} or streamed from S3 on every read, using ranged GETs
+ * when only a region is requested.
  *
  * @author jross
  * @author avasquez
  * @since 3.1.4
  */
-public class S3Content implements Content {
+public class S3Content implements RangeAwareContent {
 
-    private final Supplier<S3Object> objectSupplier;
+    private static final Logger logger = LoggerFactory.getLogger(S3Content.class);
+
+    protected final AmazonS3 client;
+    protected final String bucket;
+    protected final String key;
 
     /**
      * When the file was last modified.
@@ -49,35 +59,125 @@ public class S3Content implements Content {
     protected long length;
 
     /**
-     * The content of the file.
+     * The ETag of the object.
+     */
+    protected String eTag;
+
+    /**
+     * The content of the file, if it's kept in memory.
      */
     protected byte[] content;
 
     /**
+     * The disk cache where the content is stored, if any.
+     */
+    protected S3DiskCache diskCache;
+
+    /**
+     * The disk cache entry of the content, if any.
+     */
+    protected S3DiskCache.Entry diskEntry;
+
+    /**
+     * Creates the content from the metadata of the object. The content will be streamed from S3 on every read.
+     *
+     * @param client         the S3 client
+     * @param bucket         the bucket of the object
+     * @param key            the key of the object
      * @param objectMetadata S3 Object metadata
-     * @param shouldCache indicates if the object content should be loaded and cached in memory.
-     * @param supplier S3Object Supplier to get the actual content
      */
-    public S3Content(ObjectMetadata objectMetadata, boolean shouldCache, Supplier<S3Object> supplier) {
-        this.lastModified = objectMetadata.getLastModified().getTime();
-        this.length = objectMetadata.getContentLength();
-        this.objectSupplier = supplier;
-        if (shouldCache) {
-            cacheContent();
+    public S3Content(AmazonS3 client, String bucket, String key, ObjectMetadata objectMetadata) {
+        this.client = client;
+        this.bucket = bucket;
+        this.key = key;
+
+        setMetadata(objectMetadata);
+    }
+
+    /**
+     * Creates the content from the response of a ranged GET of the first bytes of the object, so that only one request
+     * is needed to get both the metadata and the content of small objects. The (bounded) body of the response is
+     * always read, so that the connection can be reused, but it's only kept in memory if it's the whole object. The
+     * total length of the object is taken from the {@code Content-Range} of the response.
+     *
+     * @param client      the S3 client
+     * @param bucket      the bucket of the object
+     * @param key         the key of the object
+     * @param object      the S3 object returned by the ranged GET
+     * @param loadContent indicates if the object content should be kept in memory (if it's complete)
+     */
+    public S3Content(AmazonS3 client, String bucket, String key, S3Object object, boolean loadContent) {
+        this.client = client;
+        this.bucket = bucket;
+        this.key = key;
+
+        ObjectMetadata objectMetadata = object.getObjectMetadata();
+        setMetadata(objectMetadata);
+        // The content length is the one of the returned range
+        this.length = objectMetadata.getInstanceLength();
+
+        try (InputStream in = object.getObjectContent()) {
+            byte[] bytes = IOUtils.toByteArray(in);
+            if (loadContent && bytes.length == length) {
+                content = bytes;
+            }
+        } catch (IOException e) {
+            throw new StoreException(format("Error reading S3 item %s", key), e);
         }
     }
 
-    private void cacheContent() {
-        S3Object s3Object = this.objectSupplier.get();
-        content = new byte[(int) length];
+    /**
+     * Creates the content from an object stored in the disk cache.
+     *
+     * @param client      the S3 client
+     * @param bucket      the bucket of the object
+     * @param key         the key of the object
+     * @param diskCache   the disk cache
+     * @param diskEntry   the disk cache entry of the object
+     * @param loadContent indicates if the object content should be loaded and kept in memory.
+     */
+    public S3Content(AmazonS3 client, String bucket, String key, S3DiskCache diskCache, S3DiskCache.Entry diskEntry,
+                     boolean loadContent) {
+        this.client = client;
+        this.bucket = bucket;
+        this.key = key;
+        this.lastModified = diskEntry.getLastModified();
+        this.length = diskEntry.getLength();
+        this.eTag = diskEntry.getETag();
+        this.diskCache = diskCache;
+        this.diskEntry = diskEntry;
 
-        try (InputStream is = s3Object.getObjectContent()) {
-            IOUtils.readFully(is, content);
-        } catch (Exception e) {
-            throw new StoreException(format("Error reading S3 item %s", s3Object), e);
+        if (loadContent) {
+            try (InputStream in = getInputStream()) {
+                content = new byte[(int) length];
+                IOUtils.readFully(in, content);
+            } catch (IOException e) {
+                throw new StoreException(format("Error reading S3 item %s", key), e);
+            }
         }
     }
 
+    private void setMetadata(ObjectMetadata objectMetadata) {
+        this.lastModified = objectMetadata.getLastModified().getTime();
+        this.length = objectMetadata.getContentLength();
+        this.eTag = objectMetadata.getETag();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Returns true if the content is kept in memory.
+     */
+    public boolean isInMemory() {
+        return content != null;
+    }
+
     @Override
     public long getLastModified() {
         return lastModified;
@@ -93,8 +193,42 @@ public class S3Content implements Content {
         if (content != null) {
             return new ByteArrayInputStream(content);
         }
-        S3Object s3Object = this.objectSupplier.get();
-        return s3Object.getObjectContent();
+
+        InputStream in = openFromDiskCache(0, length - 1);
+        if (in != null) {
+            return in;
+        }
+
+        return client.getObject(bucket, key).getObjectContent();
+    }
+
+    @Override
+    public InputStream getInputStream(long start, long end) {
+        end = Math.min(end, length - 1);
+
+        if (content != null) {
+            return new ByteArrayInputStream(content, (int) start, (int) (end - start + 1));
+        }
+
+        InputStream in = openFromDiskCache(start, end);
+        if (in != null) {
+            return in;
+        }
+
+        return client.getObject(new GetObjectRequest(bucket, key).withRange(start, end)).getObjectContent();
+    }
+
+    private InputStream openFromDiskCache(long start, long end) {
+        if (diskEntry != null) {
+            try {
+                return diskCache.open(diskEntry, start, end);
+            } catch (IOException e) {
+                // The file was probably evicted, so fallback to S3
+                logger.debug("Unable to read S3 item {} from the disk cache", key, e);
+            }
+        }
+
+        return null;
     }
 
 }
@@ -19,9 +19,11 @@ package org.craftercms.engine.store.s3;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3URI;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsV2Request;
 import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpStatus;
@@ -36,31 +38,62 @@ import org.craftercms.core.service.Context;
 import org.craftercms.core.store.impl.File;
 import org.craftercms.core.util.cache.impl.CachingAwareList;
 import org.craftercms.engine.store.AbstractCachedFileBasedContentStoreAdapter;
+import org.craftercms.engine.store.IndexedContentStoreAdapter;
+import org.craftercms.engine.store.MonitoredContentStoreAdapter;
 import org.craftercms.engine.store.s3.util.S3ClientBuilder;
+import org.craftercms.engine.util.deployment.DeploymentChanges;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.beans.ConstructorProperties;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.apache.commons.lang3.StringUtils.removeStart;
 
 /**
  * Implementation of {@link org.craftercms.core.store.ContentStoreAdapter} to read files from AWS S3.
+ *
+ * <p>Optionally, all the keys of each site can be listed when the context is created and kept in an
+ * {@link S3KeyIndex}, so that file lookups and folder listings don't need to call S3.</p>
+ *
+ * <p>Optionally too, content can be stored in a local {@link S3DiskCache}, so that content evicted from the
+ * in-memory cache (or too big to be cached in memory) is not downloaded again while it hasn't changed.</p>
+ *
+ * <p>Requests that return values (listings, lookups and content metadata) go through a {@link S3RequestExecutor},
+ * so identical requests in flight are only sent once to S3.</p>
+ *
  * @author joseross
  */
-public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAdapter implements InitializingBean, DisposableBean {
+public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAdapter
+        implements IndexedContentStoreAdapter, MonitoredContentStoreAdapter, InitializingBean, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(S3ContentStoreAdapter.class);
 
     public static final String DELIMITER = "/";
 
+    public static final String LIST_OBJECTS_OPERATION = "listObjects";
+    public static final String OBJECT_EXISTS_OPERATION = "doesObjectExist";
+    public static final String GET_CONTENT_OPERATION = "getContent";
+
     protected final S3ClientBuilder clientBuilder;
     protected AmazonS3 client;
     protected final int contentMaxLength;
     protected final String[] cacheAllowedPaths;
+    protected boolean keyIndexEnabled;
+    protected int keyIndexParallelism;
+    protected ExecutorService keyIndexExecutor;
+    protected S3DiskCache diskCache;
+    protected S3RequestExecutor requestExecutor;
+    protected boolean descriptorPrefetchEnabled;
 
     @ConstructorProperties({"clientBuilder", "contentMaxLength", "cacheAllowedPaths"})
     public S3ContentStoreAdapter(final S3ClientBuilder clientBuilder, final int contentMaxLength, final String[] cacheAllowedPaths) {
@@ -69,15 +102,77 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
         this.cacheAllowedPaths = cacheAllowedPaths;
     }
 
+    /**
+     * Sets if the keys of each site should be listed when the context is created and kept in memory
+     */
+    public void setKeyIndexEnabled(boolean keyIndexEnabled) {
+        this.keyIndexEnabled = keyIndexEnabled;
+    }
+
+    /**
+     * Sets the number of top-level prefixes that are listed in parallel when building the key index
+     */
+    public void setKeyIndexParallelism(int keyIndexParallelism) {
+        this.keyIndexParallelism = keyIndexParallelism;
+    }
+
+    /**
+     * Sets the local disk cache tier for content (optional)
+     */
+    public void setDiskCache(S3DiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    @Required
+    public void setRequestExecutor(S3RequestExecutor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
+    /**
+     * Sets if the descriptors of a folder should be fetched in parallel in the background when the folder is listed
+     */
+    public void setDescriptorPrefetchEnabled(boolean descriptorPrefetchEnabled) {
+        this.descriptorPrefetchEnabled = descriptorPrefetchEnabled;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getStoreStatistics() {
+        return requestExecutor.getStats();
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         client = clientBuilder.getClient();
+
+        if (keyIndexEnabled) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("s3-key-index-");
+            threadFactory.setDaemon(true);
+
+            keyIndexExecutor = Executors.newFixedThreadPool(Math.max(1, keyIndexParallelism), threadFactory);
+        }
     }
 
     public void destroy() {
+        if (keyIndexExecutor != null) {
+            keyIndexExecutor.shutdownNow();
+        }
+
         client.shutdown();
     }
 
+    /**
+     * Lists the objects, coalescing identical listings that are in flight
+     */
+    protected ListObjectsV2Result listObjects(ListObjectsV2Request request) {
+        String target = request.getBucketName() + DELIMITER + request.getPrefix() + "?delimiter=" +
+                        request.getDelimiter() + "&token=" + request.getContinuationToken();
+
+        return requestExecutor.execute(LIST_OBJECTS_OPERATION, target, () -> client.listObjectsV2(request));
+    }
+
     protected boolean isResultEmpty(ListObjectsV2Result result) {
         return (result.getCommonPrefixes() == null || result.getCommonPrefixes().isEmpty())
             && (result.getObjectSummaries() == null || result.getObjectSummaries().isEmpty());
@@ -98,14 +193,42 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
                                             .withBucketName(uri.getBucket())
                                             .withPrefix(uri.getKey())
                                             .withDelimiter(DELIMITER);
-        ListObjectsV2Result result = client.listObjectsV2(request);
+        ListObjectsV2Result result = listObjects(request);
 
         if(isResultEmpty(result)) {
             throw new RootFolderNotFoundException("Root folder " + rootFolderPath + " not found");
         }
 
-        return new S3Context(id, this, rootFolderPath, mergingOn, cacheOn, maxAllowedItemsInCache,
-                             ignoreHiddenFiles, uri);
+        S3Context context = new S3Context(id, this, rootFolderPath, mergingOn, cacheOn, maxAllowedItemsInCache,
+                                          ignoreHiddenFiles, uri);
+        if (keyIndexEnabled) {
+            S3KeyIndex keyIndex = new S3KeyIndex(client, uri.getBucket(), uri.getKey(), keyIndexExecutor);
+            keyIndex.rebuild();
+
+            context.setKeyIndex(keyIndex);
+        }
+
+        return context;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void refreshIndex(Context context, DeploymentChanges changes) throws StoreException {
+        S3Context s3Context = (S3Context) context;
+
+        // Prefetched content could be older than the deployment
+        requestExecutor.clearPrefetchedResults(s3Context.getBucket() + DELIMITER + s3Context.getKey());
+
+        S3KeyIndex keyIndex = s3Context.getKeyIndex();
+        if (keyIndex != null) {
+            if (changes != null) {
+                keyIndex.applyChanges(changes);
+            } else {
+                keyIndex.rebuild();
+            }
+        }
     }
 
     @Override
@@ -114,32 +237,122 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
         S3Context s3Context = (S3Context) context;
         String key = ((S3File) file).getKey();
 
+        return requestExecutor.execute(GET_CONTENT_OPERATION, s3Context.getBucket() + DELIMITER + key,
+                                       () -> loadContent(s3Context, key));
+    }
+
+    protected Content loadContent(S3Context s3Context, String key) throws StoreException {
         logger.debug("Getting content for key {}", key);
 
         try {
-            ObjectMetadata objectMetadata = client.getObjectMetadata(s3Context.getBucket(), key);
-            return new S3Content(objectMetadata, shouldCache(removeStart(key, s3Context.getKey()), objectMetadata), () -> client.getObject(s3Context.getBucket(), key));
+            if (diskCache != null && diskCache.isEnabled()) {
+                return getContentWithDiskCache(s3Context.getBucket(), key,
+                                               isCacheAllowed(removeStart(key, s3Context.getKey())));
+            } else if (isCacheAllowed(removeStart(key, s3Context.getKey()))) {
+                // A single ranged GET returns both the metadata and the content of small objects, without
+                // downloading more than contentMaxLength bytes of the big ones
+                S3Object object = getObjectStart(new GetObjectRequest(s3Context.getBucket(), key));
+
+                return new S3Content(client, s3Context.getBucket(), key, object, true);
+            } else {
+                // The content is never kept in memory, so only the metadata is needed now
+                ObjectMetadata objectMetadata = client.getObjectMetadata(s3Context.getBucket(), key);
+
+                return new S3Content(client, s3Context.getBucket(), key, objectMetadata);
+            }
         } catch (AmazonS3Exception e) {
             if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
                 throw new StoreException("No item found for key " + key);
             }
             throw new StoreException("Error getting item for key " + key, e);
+        } catch (IOException e) {
+            throw new StoreException("Error getting item for key " + key, e);
+        }
+    }
+
+    /**
+     * Gets the content going through the disk cache. If the object is already in the disk cache, a conditional GET
+     * with the stored ETag is used, so the object is only downloaded again if it changed. Otherwise, the object is
+     * downloaded to the disk cache if it's not too big. Only the first bytes of the object are requested at first, so
+     * that objects that are too big for the disk cache are never downloaded just to be discarded.
+     */
+    protected Content getContentWithDiskCache(String bucket, String key, boolean cacheAllowed) throws IOException {
+        S3DiskCache.Entry diskEntry = diskCache.get(bucket, key);
+        GetObjectRequest request = new GetObjectRequest(bucket, key);
+        if (diskEntry != null) {
+            request.withNonmatchingETagConstraint(diskEntry.getETag());
+        }
+
+        S3Object object = getObjectStart(request);
+        if (object == null) {
+            // Not modified since it was stored in the disk cache
+            logger.debug("Content for key {} found in disk cache", key);
+
+            return new S3Content(client, bucket, key, diskCache, diskEntry,
+                                 cacheAllowed && diskEntry.getLength() <= contentMaxLength);
+        }
+
+        S3Content content = new S3Content(client, bucket, key, object, true);
+        if (content.isInMemory()) {
+            // The whole object was returned by the ranged GET
+            try (InputStream in = content.getInputStream()) {
+                diskEntry = diskCache.put(bucket, key, object.getObjectMetadata(), in);
+            }
+
+            if (cacheAllowed || diskEntry == null) {
+                return content;
+            } else {
+                return new S3Content(client, bucket, key, diskCache, diskEntry, false);
+            }
+        } else if (content.getLength() <= diskCache.getMaxFileSize()) {
+            // Worth downloading the whole object, since it will be served from disk from now on
+            S3Object wholeObject = client.getObject(bucket, key);
+            try (InputStream in = wholeObject.getObjectContent()) {
+                diskEntry = diskCache.put(bucket, key, wholeObject.getObjectMetadata(), in);
+            }
+
+            if (diskEntry != null) {
+                return new S3Content(client, bucket, key, diskCache, diskEntry, false);
+            }
         }
+
+        // Too big for the disk cache, it will be streamed from S3 on every read
+        return content;
     }
 
     /**
-     * Indicates if the content should be cached in memory.
-     * Content is cached if path matches the 'cacheAllowedPaths` and
-     * the content length is not greater than contentMaxLength
-     * @param key the S3 object key
-     * @param objectMetadata the S3 {@link ObjectMetadata}
-     * @return true if the content should be cached in memory, false otherwise
+     * Executes the request as a ranged GET of the first {@code contentMaxLength} bytes of the object. The total length
+     * of the object is returned in the {@code Content-Range} of the response. Empty objects can't satisfy the range,
+     * so their metadata is retrieved with a HEAD instead.
+     *
+     * @return the object with the first bytes, or null if the request has an ETag constraint that wasn't met
      */
-    private boolean shouldCache(String key, ObjectMetadata objectMetadata) {
-        if (!RegexUtils.matchesAny(key, cacheAllowedPaths)) {
-            return false;
+    protected S3Object getObjectStart(GetObjectRequest request) {
+        try {
+            return client.getObject(request.withRange(0, Math.max(contentMaxLength, 1) - 1));
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                throw e;
+            }
+
+            S3Object object = new S3Object();
+            object.setBucketName(request.getBucketName());
+            object.setKey(request.getKey());
+            object.setObjectMetadata(client.getObjectMetadata(request.getBucketName(), request.getKey()));
+            object.setObjectContent(new ByteArrayInputStream(new byte[0]));
+
+            return object;
         }
-        return objectMetadata.getContentLength() <= contentMaxLength;
+    }
+
+    /**
+     * Indicates if the content at the specified path can be cached in memory (if it's not greater than
+     * contentMaxLength), which is the case if the path matches the 'cacheAllowedPaths'
+     * @param path the path of the content, relative to the site
+     * @return true if the content can be cached in memory, false otherwise
+     */
+    private boolean isCacheAllowed(String path) {
+        return RegexUtils.matchesAny(path, cacheAllowedPaths);
     }
 
     /**
@@ -156,6 +369,11 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
 
         logger.debug("Getting file for key {}", key);
 
+        S3KeyIndex keyIndex = s3Context.getKeyIndex();
+        if (keyIndex != null) {
+            return findFileInIndex(keyIndex, key);
+        }
+
         if (StringUtils.isEmpty(FilenameUtils.getExtension(key))) {
             // If it is a folder, check if there are objects with the prefix
             try {
@@ -163,7 +381,7 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
                                                     .withBucketName(s3Context.getBucket())
                                                     .withPrefix(key)
                                                     .withDelimiter(DELIMITER);
-                ListObjectsV2Result result = client.listObjectsV2(request);
+                ListObjectsV2Result result = listObjects(request);
                 if (!isResultEmpty(result)) {
                     return new S3Prefix(key);
                 }
@@ -177,7 +395,10 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
         } else {
             // If it is a file, check if the key exist
             try {
-                if (client.doesObjectExist(s3Context.getBucket(), key)) {
+                String bucket = s3Context.getBucket();
+                boolean exists = requestExecutor.execute(OBJECT_EXISTS_OPERATION, bucket + DELIMITER + key,
+                                                         () -> client.doesObjectExist(bucket, key));
+                if (exists) {
                     return new S3File(key);
                 } else {
                     logger.debug("No object found for key {}", key);
@@ -205,6 +426,14 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
 
         logger.debug("Getting children for key {}", s3Prefix.getPrefix());
 
+        S3KeyIndex keyIndex = s3Context.getKeyIndex();
+        if (keyIndex != null) {
+            List<File> children = getChildrenFromIndex(context, keyIndex, s3Prefix);
+            prefetchDescriptors(s3Context, children);
+
+            return children;
+        }
+
         List<File> children = new CachingAwareList<>();
         ListObjectsV2Request request = new ListObjectsV2Request()
                                             .withBucketName(s3Context.getBucket())
@@ -213,7 +442,7 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
         ListObjectsV2Result result;
 
         do {
-            result = client.listObjectsV2(request);
+            result = listObjects(request);
             if (isResultEmpty(result)) {
                 return null;
             } else {
@@ -229,9 +458,58 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
             request.setContinuationToken(result.getNextContinuationToken());
         } while (result.isTruncated());
 
+        prefetchDescriptors(s3Context, children);
+
         return children;
     }
 
+    /**
+     * Starts fetching the descriptors of the children in the background, since they're usually loaded right after
+     * the folder is listed. The actual content requests will use the prefetched results, or wait for the ones in
+     * flight.
+     */
+    protected void prefetchDescriptors(S3Context s3Context, List<File> children) {
+        if (descriptorPrefetchEnabled && children != null) {
+            for (File child : children) {
+                if (child instanceof S3File && child.getName().endsWith(descriptorFileExtension)) {
+                    String key = ((S3File) child).getKey();
+                    requestExecutor.prefetch(GET_CONTENT_OPERATION, s3Context.getBucket() + DELIMITER + key,
+                                             () -> loadContent(s3Context, key));
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the file in the key index. Like the lookup in S3, paths without extension are considered folders.
+     */
+    protected File findFileInIndex(S3KeyIndex keyIndex, String key) {
+        if (StringUtils.isEmpty(FilenameUtils.getExtension(key))) {
+            if (keyIndex.containsPrefix(StringUtils.appendIfMissing(key, DELIMITER))) {
+                return new S3Prefix(key);
+            }
+        } else if (keyIndex.containsFile(key)) {
+            return new S3File(key);
+        }
+
+        logger.debug("No object found in key index for key {}", key);
+
+        return null;
+    }
+
+    /**
+     * Gets the children of the prefix from the key index. Hidden files are filtered by the same keys as in the S3
+     * listing (the full prefix, including the trailing delimiter, or the object key), so the results are the same.
+     */
+    protected List<File> getChildrenFromIndex(Context context, S3KeyIndex keyIndex, S3Prefix prefix) {
+        List<File> children = new CachingAwareList<>();
+        keyIndex.getChildren(prefix.getPrefix()).stream()
+                .filter(child -> !context.ignoreHiddenFiles() || !isHidden(getListingKey(child)))
+                .forEach(children::add);
+
+        return !children.isEmpty()? children : null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -242,7 +520,7 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
                                             .withBucketName(s3Context.getBucket())
                                             .withPrefix(s3Context.getKey())
                                             .withDelimiter(DELIMITER);
-        ListObjectsV2Result result = client.listObjectsV2(request);
+        ListObjectsV2Result result = listObjects(request);
 
         return !isResultEmpty(result);
     }
@@ -255,6 +533,10 @@ public class S3ContentStoreAdapter extends AbstractCachedFileBasedContentStoreAd
         // Nothing to do ...
     }
 
+    private String getListingKey(final File file) {
+        return file instanceof S3Prefix? ((S3Prefix) file).getPrefix() : ((S3File) file).getKey();
+    }
+
     private boolean isHidden(final String path) {
         return FilenameUtils.getName(path).startsWith(".");
     }
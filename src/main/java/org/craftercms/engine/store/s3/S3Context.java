@@ -32,6 +32,11 @@ public class S3Context extends ContextImpl {
      */
     protected AmazonS3URI rootFolderUri;
 
+    /**
+     * Index of the keys of the site, or null if the keys are not indexed.
+     */
+    protected S3KeyIndex keyIndex;
+
     public S3Context(final String id, final ContentStoreAdapter storeAdapter, final String rootFolderPath,
                      final boolean mergingOn, final boolean cacheOn, final int maxAllowedItemsInCache,
                      final boolean ignoreHiddenFiles, final AmazonS3URI rootFolderUri) {
@@ -53,4 +58,15 @@ public class S3Context extends ContextImpl {
         return rootFolderUri.getKey();
     }
 
+    /**
+     * Returns the index of the keys of the site, or null if the keys are not indexed.
+     */
+    public S3KeyIndex getKeyIndex() {
+        return keyIndex;
+    }
+
+    public void setKeyIndex(S3KeyIndex keyIndex) {
+        this.keyIndex = keyIndex;
+    }
+
 }
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.util.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Local disk tier for S3 content, between the in-memory cache and S3. Objects are stored in a local folder, one file
+ * per bucket/key/ETag, and evicted in LRU order when the total size goes over the max size. Files are read using
+ * memory-mapped buffers. Since the stored ETag is sent with an {@code If-None-Match} when the content is requested
+ * again (for example, when a new context cache is warmed up and switched), the objects are revalidated against S3
+ * without downloading them again if they haven't changed.
+ *
+ * <p>Files from previous executions are not indexed, so they're deleted on startup. The files are stored in a
+ * dedicated subfolder of the configured folder, so that only the files created by the cache are deleted (even if the
+ * configured folder is shared with other files).</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class S3DiskCache implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3DiskCache.class);
+
+    /**
+     * Name of the subfolder (of the configured folder) where the files are stored
+     */
+    public static final String FILES_FOLDER_NAME = "s3-disk-cache-files";
+
+    protected boolean enabled;
+    protected String folderPath;
+    protected long maxSize;
+    protected long maxFileSize;
+
+    protected Path folder;
+    protected final LinkedHashMap<String, Entry> entries;
+    protected long size;
+
+    public S3DiskCache() {
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Required
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Required
+    public void setFolderPath(String folderPath) {
+        this.folderPath = folderPath;
+    }
+
+    /**
+     * Sets the max number of bytes of all the files in the cache
+     */
+    @Required
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Sets the max number of bytes of an object to be stored in the cache
+     */
+    @Required
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getMaxFileSize() {
+        return Math.min(maxFileSize, maxSize);
+    }
+
+    /**
+     * Returns the number of bytes of all the files in the cache.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (enabled) {
+            folder = Paths.get(folderPath).resolve(FILES_FOLDER_NAME);
+
+            Files.createDirectories(folder);
+            FileUtils.cleanDirectory(folder.toFile());
+
+            logger.info("S3 disk cache enabled at {} with max size of {} bytes", folder, maxSize);
+        }
+    }
+
+    /**
+     * Returns the last stored entry of the specified object, or null if the object is not in the cache.
+     */
+    public synchronized Entry get(String bucket, String key) {
+        return entries.get(getEntryKey(bucket, key));
+    }
+
+    /**
+     * Stores the object content in the cache, replacing any previous version of the object, and evicts the least
+     * recently used entries if the cache is over its max size. The input stream is not closed.
+     *
+     * @param bucket   the bucket of the object
+     * @param key      the key of the object
+     * @param metadata the metadata of the object
+     * @param in       the content of the object
+     *
+     * @return the new entry, or null if the object is too big or it couldn't be stored
+     */
+    public Entry put(String bucket, String key, ObjectMetadata metadata, InputStream in) {
+        long length = metadata.getContentLength();
+        if (length > getMaxFileSize()) {
+            return null;
+        }
+
+        String entryKey = getEntryKey(bucket, key);
+        String eTag = metadata.getETag();
+        String fileName = DigestUtils.md5DigestAsHex((entryKey + "/" + eTag).getBytes(StandardCharsets.UTF_8));
+        Path file = folder.resolve(fileName);
+        Path tmpFile = null;
+
+        try {
+            // Write to a temp file first so that readers never see a partial file
+            tmpFile = Files.createTempFile(folder, fileName, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmpFile)) {
+                IOUtils.copyLarge(in, out);
+            }
+
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to store S3 object {}/{} in the disk cache", bucket, key, e);
+
+            deleteQuietly(tmpFile);
+
+            return null;
+        }
+
+        Entry entry = new Entry(entryKey, eTag, file, length, metadata.getLastModified().getTime());
+        List<Path> evictedFiles = new ArrayList<>();
+
+        synchronized (this) {
+            Entry previous = entries.put(entryKey, entry);
+            size += length;
+
+            if (previous != null) {
+                size -= previous.getLength();
+                if (!previous.getFile().equals(file)) {
+                    evictedFiles.add(previous.getFile());
+                }
+            }
+
+            Iterator<Entry> iter = entries.values().iterator();
+            while (size > maxSize && iter.hasNext()) {
+                Entry eldest = iter.next();
+                if (eldest == entry) {
+                    break;
+                }
+
+                iter.remove();
+                size -= eldest.getLength();
+                evictedFiles.add(eldest.getFile());
+            }
+        }
+
+        // Readers that fail to open an evicted file go to S3 instead
+        evictedFiles.forEach(this::deleteQuietly);
+
+        logger.debug("S3 object {}/{} stored in the disk cache at {}", bucket, key, file);
+
+        return entry;
+    }
+
+    /**
+     * Opens an input stream for the bytes of the entry between {@code start} and {@code end} (both inclusive), using
+     * a memory-mapped buffer.
+     *
+     * @throws IOException if the file of the entry can't be read (e.g. if it was just evicted)
+     */
+    public InputStream open(Entry entry, long start, long end) throws IOException {
+        // Mark the entry as recently used
+        synchronized (this) {
+            entries.get(entry.getEntryKey());
+        }
+
+        long count = Math.min(end, entry.getLength() - 1) - start + 1;
+        FileChannel channel = FileChannel.open(entry.getFile(), StandardOpenOption.READ);
+
+        if (count > Integer.MAX_VALUE) {
+            // Too big for a single buffer, read from the channel instead
+            channel.position(start);
+
+            return new BoundedInputStream(Channels.newInputStream(channel), count);
+        }
+
+        try {
+            // The mapping stays valid after the channel is closed
+            return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(count, 0)));
+        } finally {
+            channel.close();
+        }
+    }
+
+    protected String getEntryKey(String bucket, String key) {
+        return bucket + "/" + key;
+    }
+
+    protected void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.debug("Unable to delete S3 disk cache file {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * A version (ETag) of an S3 object stored in the disk cache.
+     */
+    public static class Entry {
+
+        private final String entryKey;
+        private final String eTag;
+        private final Path file;
+        private final long length;
+        private final long lastModified;
+
+        public Entry(String entryKey, String eTag, Path file, long length, long lastModified) {
+            this.entryKey = entryKey;
+            this.eTag = eTag;
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        public String getEntryKey() {
+            return entryKey;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+    }
+
+    /**
+     * {@link InputStream} that reads from a {@link ByteBuffer}.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining()? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(Math.max(n, 0), buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.StopWatch;
+import org.craftercms.core.exception.StoreException;
+import org.craftercms.core.store.impl.File;
+import org.craftercms.engine.util.deployment.DeploymentChanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+
+import static org.craftercms.engine.store.s3.S3ContentStoreAdapter.DELIMITER;
+
+/**
+ * In-memory index of all the object keys of a site in S3, so that file lookups and folder listings can be answered
+ * without calling S3. The index is built with a full listing of the site, done in parallel by top-level prefix, and
+ * can be updated with the changes of a deployment or rebuilt completely.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class S3KeyIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3KeyIndex.class);
+
+    private static final char MAX_CHAR = Character.MAX_VALUE;
+
+    private final AmazonS3 client;
+    private final String bucket;
+    private final String rootKey;
+    private final Executor executor;
+
+    private volatile NavigableSet<String> keys;
+
+    /**
+     * @param client   the S3 client
+     * @param bucket   the bucket of the site
+     * @param rootKey  the key of the root folder of the site
+     * @param executor the executor used to list the top-level prefixes in parallel
+     */
+    public S3KeyIndex(AmazonS3 client, String bucket, String rootKey, Executor executor) {
+        this.client = client;
+        this.bucket = bucket;
+        this.rootKey = StringUtils.defaultString(rootKey);
+        this.executor = executor;
+        this.keys = new ConcurrentSkipListSet<>();
+    }
+
+    /**
+     * Lists all the keys of the site and replaces the current keys with them.
+     */
+    public void rebuild() throws StoreException {
+        StopWatch stopWatch = StopWatch.createStarted();
+        String rootPrefix = getRootPrefix();
+        NavigableSet<String> newKeys = new ConcurrentSkipListSet<>();
+        List<String> topLevelPrefixes = new ArrayList<>();
+
+        // List the root folder first, to find the top-level prefixes
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                                            .withBucketName(bucket)
+                                            .withPrefix(rootPrefix)
+                                            .withDelimiter(DELIMITER);
+        ListObjectsV2Result result;
+        do {
+            result = client.listObjectsV2(request);
+            result.getObjectSummaries().forEach(summary -> newKeys.add(summary.getKey()));
+            topLevelPrefixes.addAll(result.getCommonPrefixes());
+
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+
+        List<CompletableFuture<Void>> listings = new ArrayList<>(topLevelPrefixes.size());
+        for (String prefix : topLevelPrefixes) {
+            listings.add(CompletableFuture.runAsync(() -> listAll(prefix, newKeys), executor));
+        }
+
+        try {
+            CompletableFuture.allOf(listings.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw new StoreException("Error listing keys of s3://" + bucket + "/" + rootPrefix, e.getCause());
+        }
+
+        keys = newKeys;
+
+        stopWatch.stop();
+
+        logger.info("Key index of s3://{}/{} built with {} keys in {} ms", bucket, rootPrefix, newKeys.size(),
+                    stopWatch.getTime());
+    }
+
+    /**
+     * Updates the index with the created and deleted paths of a deployment.
+     */
+    public void applyChanges(DeploymentChanges changes) {
+        for (String path : changes.getDeletedPaths()) {
+            String key = getKey(path);
+            keys.remove(key);
+            // The path could have been a folder
+            keys.subSet(key + DELIMITER, key + DELIMITER + MAX_CHAR).clear();
+        }
+        for (String path : changes.getCreatedPaths()) {
+            keys.add(getKey(path));
+        }
+
+        logger.debug("Key index of s3://{}/{} updated with {}", bucket, rootKey, changes);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Returns true if there's an object with the specified key.
+     */
+    public boolean containsFile(String key) {
+        return keys.contains(key);
+    }
+
+    /**
+     * Returns true if there's at least one object under the specified prefix.
+     */
+    public boolean containsPrefix(String prefix) {
+        String key = keys.ceiling(prefix);
+        return key != null && key.startsWith(prefix);
+    }
+
+    /**
+     * Returns the direct children of the specified prefix (first the prefixes and then the objects, like a listing
+     * with delimiter), or an empty list if there are none.
+     */
+    public List<File> getChildren(String prefix) {
+        List<File> prefixes = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        String key = keys.ceiling(prefix);
+
+        while (key != null && key.startsWith(prefix)) {
+            int delimiterIdx = key.indexOf(DELIMITER, prefix.length());
+            if (delimiterIdx >= 0) {
+                String childPrefix = key.substring(0, delimiterIdx + 1);
+                prefixes.add(new S3Prefix(childPrefix));
+                // Skip all the keys under the child prefix
+                key = keys.higher(childPrefix + MAX_CHAR);
+            } else {
+                if (key.length() > prefix.length()) {
+                    files.add(new S3File(key));
+                }
+
+                key = keys.higher(key);
+            }
+        }
+
+        prefixes.addAll(files);
+
+        return prefixes;
+    }
+
+    protected void listAll(String prefix, NavigableSet<String> allKeys) {
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                                            .withBucketName(bucket)
+                                            .withPrefix(prefix);
+        ListObjectsV2Result result;
+        do {
+            result = client.listObjectsV2(request);
+            for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                allKeys.add(summary.getKey());
+            }
+
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+    }
+
+    protected String getRootPrefix() {
+        return StringUtils.isNotEmpty(rootKey)? StringUtils.appendIfMissing(rootKey, DELIMITER) : rootKey;
+    }
+
+    protected String getKey(String path) {
+        return StringUtils.appendIfMissing(rootKey, path);
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store.s3;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Executes the requests to S3, coalescing identical requests that are in flight at the same time: the first caller
+ * executes the request and the others wait for its result (single-flight). Requests that can be anticipated (like
+ * the descriptors of a folder that was just listed) can also be prefetched in a bounded pool of threads, and the
+ * prefetched results are used by the next identical request within a short time. If the prefetch hasn't started yet
+ * when that request arrives, it's cancelled and the request is executed directly, so that callers never wait for the
+ * queue. Metrics of all requests are kept in a {@link S3RequestStats}.
+ *
+ * <p>Only requests that return values that can be shared between callers should be executed here (e.g. object
+ * streams shouldn't).</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class S3RequestExecutor implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3RequestExecutor.class);
+
+    private static final int QUEUED = 0;
+    private static final int STARTED = 1;
+    private static final int CANCELLED = 2;
+
+    protected int poolSize;
+    protected int queueSize;
+    protected long prefetchTtl;
+    protected int maxPrefetchedResults;
+
+    protected final ConcurrentMap<String, CompletableFuture<Object>> inFlightRequests;
+    protected final ConcurrentMap<String, PrefetchedResult> prefetchedResults;
+    protected final S3RequestStats stats;
+    protected ThreadPoolExecutor executor;
+
+    public S3RequestExecutor() {
+        inFlightRequests = new ConcurrentHashMap<>();
+        prefetchedResults = new ConcurrentHashMap<>();
+        stats = new S3RequestStats();
+    }
+
+    /**
+     * Sets the number of threads used for async requests (like prefetches)
+     */
+    @Required
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Sets the max number of async requests waiting for a thread. Prefetches are skipped when the queue is full
+     */
+    @Required
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Sets the time in milliseconds a prefetched result can be used
+     */
+    @Required
+    public void setPrefetchTtl(long prefetchTtl) {
+        this.prefetchTtl = prefetchTtl;
+    }
+
+    /**
+     * Sets the max number of prefetched results that haven't been used yet
+     */
+    @Required
+    public void setMaxPrefetchedResults(int maxPrefetchedResults) {
+        this.maxPrefetchedResults = maxPrefetchedResults;
+    }
+
+    public S3RequestStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("s3-requests-");
+        threadFactory.setDaemon(true);
+
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<>(Math.max(1, queueSize)), threadFactory);
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Executes the request, or waits for the result of an identical request already in flight.
+     *
+     * @param operation the name of the S3 operation (used for metrics)
+     * @param target    the target of the request (bucket, key, etc). Requests with the same operation and target
+     *                  are considered identical
+     * @param request   the actual request
+     *
+     * @return the result of the request
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String operation, String target, Supplier<T> request) {
+        String requestKey = operation + ":" + target;
+
+        PrefetchedResult prefetched = prefetchedResults.remove(requestKey);
+        if (prefetched != null && prefetched.cancel()) {
+            logger.debug("Prefetch of {} still queued, executing the request directly", requestKey);
+        } else if (prefetched != null && !prefetched.isExpired()) {
+            // Let identical requests wait for the prefetch too
+            inFlightRequests.putIfAbsent(requestKey, prefetched.future);
+            try {
+                T result = (T) join(prefetched.future);
+                stats.addPrefetchHit();
+
+                return result;
+            } catch (RuntimeException e) {
+                logger.debug("Prefetch of {} failed, executing the request again", requestKey, e);
+            } finally {
+                inFlightRequests.remove(requestKey, prefetched.future);
+            }
+        }
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightRequests.putIfAbsent(requestKey, future);
+        if (inFlight != null) {
+            stats.addCoalescedHit();
+
+            return (T) join(inFlight);
+        }
+
+        try {
+            T result = executeTimed(operation, request);
+            future.complete(result);
+
+            return result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRequests.remove(requestKey, future);
+        }
+    }
+
+    /**
+     * Executes the request in the background, so that its result can be used by the next identical
+     * {@link #execute(String, String, Supplier)} (only once). The prefetch is skipped if there are too many prefetched
+     * results or async requests waiting.
+     */
+    public void prefetch(String operation, String target, Supplier<?> request) {
+        String requestKey = operation + ":" + target;
+        if (prefetchedResults.size() >= maxPrefetchedResults || inFlightRequests.containsKey(requestKey)) {
+            return;
+        }
+
+        PrefetchedResult prefetched = new PrefetchedResult();
+        if (prefetchedResults.putIfAbsent(requestKey, prefetched) != null) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                if (!prefetched.start()) {
+                    return;
+                }
+
+                try {
+                    prefetched.future.complete(executeTimed(operation, request));
+                } catch (Exception e) {
+                    prefetched.future.completeExceptionally(e);
+                }
+            });
+
+            stats.addPrefetch();
+        } catch (RejectedExecutionException e) {
+            prefetchedResults.remove(requestKey, prefetched);
+
+            logger.debug("Prefetch of {} skipped, too many requests queued", requestKey);
+        }
+
+        evictExpiredPrefetchedResults();
+    }
+
+    /**
+     * Discards the prefetched results of the requests whose target starts with the specified prefix, so that
+     * they're not used after the content changes (e.g. after a deployment).
+     */
+    public void clearPrefetchedResults(String targetPrefix) {
+        prefetchedResults.entrySet().removeIf(entry -> {
+            String target = StringUtils.substringAfter(entry.getKey(), ":");
+            if (target.startsWith(targetPrefix)) {
+                entry.getValue().cancel();
+                return true;
+            } else {
+                return false;
+            }
+        });
+    }
+
+    protected <T> T executeTimed(String operation, Supplier<T> request) {
+        boolean error = false;
+        long start = System.nanoTime();
+
+        stats.requestStarted();
+        try {
+            return request.get();
+        } catch (RuntimeException e) {
+            error = true;
+            throw e;
+        } finally {
+            stats.requestFinished(operation, System.nanoTime() - start, error);
+        }
+    }
+
+    protected Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    protected void evictExpiredPrefetchedResults() {
+        prefetchedResults.values().removeIf(PrefetchedResult::isExpired);
+    }
+
+    protected class PrefetchedResult {
+
+        private final CompletableFuture<Object> future;
+        private final long timestamp;
+        private final AtomicInteger state;
+
+        PrefetchedResult() {
+            this.future = new CompletableFuture<>();
+            this.timestamp = System.currentTimeMillis();
+            this.state = new AtomicInteger(QUEUED);
+        }
+
+        /**
+         * Marks the prefetch as started, returns false if it was cancelled while queued.
+         */
+        boolean start() {
+            return state.compareAndSet(QUEUED, STARTED);
+        }
+
+        /**
+         * Cancels the prefetch if it's still queued, returns false if it already started.
+         */
+        boolean cancel() {
+            return state.compareAndSet(QUEUED, CANCELLED);
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - timestamp > prefetchTtl;
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store.s3;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the requests sent to S3 through a {@link S3RequestExecutor}: number of requests, errors and latency per
+ * operation, current and peak concurrency, and how many requests were avoided by coalescing or prefetching.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class S3RequestStats {
+
+    private final Map<String, OperationStats> operations;
+    private final AtomicInteger concurrency;
+    private final LongAccumulator peakConcurrency;
+    private final LongAdder coalescedHits;
+    private final LongAdder prefetches;
+    private final LongAdder prefetchHits;
+
+    public S3RequestStats() {
+        operations = new ConcurrentHashMap<>();
+        concurrency = new AtomicInteger();
+        peakConcurrency = new LongAccumulator(Math::max, 0);
+        coalescedHits = new LongAdder();
+        prefetches = new LongAdder();
+        prefetchHits = new LongAdder();
+    }
+
+    public void requestStarted() {
+        peakConcurrency.accumulate(concurrency.incrementAndGet());
+    }
+
+    public void requestFinished(String operation, long nanos, boolean error) {
+        concurrency.decrementAndGet();
+        operations.computeIfAbsent(operation, op -> new OperationStats()).add(nanos, error);
+    }
+
+    public void addCoalescedHit() {
+        coalescedHits.increment();
+    }
+
+    public void addPrefetch() {
+        prefetches.increment();
+    }
+
+    public void addPrefetchHit() {
+        prefetchHits.increment();
+    }
+
+    /**
+     * Returns the number of requests currently being executed.
+     */
+    public int getConcurrency() {
+        return concurrency.get();
+    }
+
+    public long getPeakConcurrency() {
+        return peakConcurrency.get();
+    }
+
+    /**
+     * Returns the number of requests that waited for an identical request already in flight instead of calling S3.
+     */
+    public long getCoalescedHits() {
+        return coalescedHits.sum();
+    }
+
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    /**
+     * Returns the number of requests that were answered with a prefetched result.
+     */
+    public long getPrefetchHits() {
+        return prefetchHits.sum();
+    }
+
+    /**
+     * Returns the stats per operation, sorted by operation name.
+     */
+    public Map<String, OperationStats> getOperations() {
+        return new TreeMap<>(operations);
+    }
+
+    /**
+     * Metrics of a single S3 operation.
+     */
+    public static class OperationStats {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void add(long nanos, boolean error) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+
+            if (error) {
+                errors.increment();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * Returns the average latency in milliseconds.
+         */
+        public double getAverageLatency() {
+            long n = count.sum();
+            return n > 0? totalNanos.sum() / (double) n / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+        }
+
+        /**
+         * Returns the max latency in milliseconds.
+         */
+        public double getMaxLatency() {
+            return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+    }
+
+}
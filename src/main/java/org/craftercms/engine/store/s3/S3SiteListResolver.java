@@ -45,6 +45,7 @@ public class S3SiteListResolver implements SiteListResolver {
     protected String siteNameMacroPlaceholder;
     protected AmazonS3URI s3Uri;
     protected S3ClientBuilder clientBuilder;
+    protected S3RequestExecutor requestExecutor;
 
     public S3SiteListResolver() {
         setSiteNameMacroName(SiteContextFactory.DEFAULT_SITE_NAME_MACRO_NAME);
@@ -64,6 +65,11 @@ public class S3SiteListResolver implements SiteListResolver {
         this.clientBuilder = clientBuilder;
     }
 
+    @Required
+    public void setRequestExecutor(S3RequestExecutor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
     @Override
     public Collection<String> getSiteList() {
         String bucketName = s3Uri.getBucket();
@@ -80,7 +86,7 @@ public class S3SiteListResolver implements SiteListResolver {
         List<String> siteNames = new ArrayList<>();
         AmazonS3 client = clientBuilder.getClient();
 
-        List<Bucket> buckets = client.listBuckets();
+        List<Bucket> buckets = requestExecutor.execute("listBuckets", "", client::listBuckets);
         if (CollectionUtils.isNotEmpty(buckets)) {
             for (Bucket bucket : buckets) {
                 Matcher bucketNameMatcher = Pattern.compile(bucketNameRegex).matcher(bucket.getName());
@@ -102,7 +108,10 @@ public class S3SiteListResolver implements SiteListResolver {
                 .withPrefix(rootPrefix)
                 .withDelimiter(DELIMITER);
 
-        ListObjectsV2Result result = client.listObjectsV2(request);
+        ListObjectsV2Result result = requestExecutor.execute(S3ContentStoreAdapter.LIST_OBJECTS_OPERATION,
+                                                             bucketName + DELIMITER + rootPrefix + "?delimiter=" +
+                                                             DELIMITER + "&token=null",
+                                                             () -> client.listObjectsV2(request));
         if(CollectionUtils.isNotEmpty(result.getCommonPrefixes())) {
             result.getCommonPrefixes()
                   .stream()
@@ -94,6 +94,24 @@ public class SecurityUtils {
         }
     }
 
+    /**
+     * Returns the roles of the current user, sorted and separated by commas, or an empty string if there's no
+     * current user.
+     */
+    public static String getCurrentRoles() {
+        SecurityContext context = SecurityContextHolder.getContext();
+        Authentication auth = context != null? context.getAuthentication() : null;
+
+        if (auth != null && auth.getAuthorities() != null) {
+            return auth.getAuthorities().stream()
+                    .map(GrantedAuthority::getAuthority)
+                    .sorted()
+                    .collect(joining(","));
+        } else {
+            return EMPTY;
+        }
+    }
+
     protected static boolean containsRole(String role, Collection<String> roles) {
         return roles.stream()
                 .map(r -> removeStart(r, ROLE_PREFIX))
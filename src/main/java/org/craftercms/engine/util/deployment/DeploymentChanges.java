@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.util.deployment;
+
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.core.util.ContentStoreUtils;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The paths changed by a deployment, as listed in the changed paths manifest that the Deployer writes next to the
+ * deployment events file (by default {@code deployment-changes.properties}). The manifest has the following format
+ * (paths are comma separated):
+ *
+ * <pre>
+ * timestamp=2023-01-01T10:00:00Z
+ * previousTimestamp=2023-01-01T09:00:00Z
+ * created=/site/website/new-page/index.xml
+ * updated=/site/website/index.xml,/templates/web/page.ftl
+ * deleted=/static-assets/images/old.png
+ * </pre>
+ *
+ * The {@code timestamp} must be the same as the clear cache event of the deployment, and {@code previousTimestamp}
+ * the one of the previous deployment, so that the Engine can tell if it missed any changes.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class DeploymentChanges {
+
+    public static final String TIMESTAMP_KEY = "timestamp";
+    public static final String PREVIOUS_TIMESTAMP_KEY = "previousTimestamp";
+    public static final String CREATED_KEY = "created";
+    public static final String UPDATED_KEY = "updated";
+    public static final String DELETED_KEY = "deleted";
+
+    private final long timestamp;
+    private final long previousTimestamp;
+    private final Set<String> createdPaths;
+    private final Set<String> updatedPaths;
+    private final Set<String> deletedPaths;
+
+    public DeploymentChanges(long timestamp, long previousTimestamp, Set<String> createdPaths,
+                             Set<String> updatedPaths, Set<String> deletedPaths) {
+        this.timestamp = timestamp;
+        this.previousTimestamp = previousTimestamp;
+        this.createdPaths = Collections.unmodifiableSet(createdPaths);
+        this.updatedPaths = Collections.unmodifiableSet(updatedPaths);
+        this.deletedPaths = Collections.unmodifiableSet(deletedPaths);
+    }
+
+    /**
+     * Creates the changes from the properties of a manifest.
+     *
+     * @throws java.time.format.DateTimeParseException if the timestamps are not valid ISO instants
+     */
+    public static DeploymentChanges fromProperties(Properties properties) {
+        return new DeploymentChanges(parseTimestamp(properties.getProperty(TIMESTAMP_KEY)),
+                                     parseTimestamp(properties.getProperty(PREVIOUS_TIMESTAMP_KEY)),
+                                     parsePaths(properties.getProperty(CREATED_KEY)),
+                                     parsePaths(properties.getProperty(UPDATED_KEY)),
+                                     parsePaths(properties.getProperty(DELETED_KEY)));
+    }
+
+    /**
+     * Creates the changes from lists of paths (like the ones sent to the cache invalidation REST API), without
+     * timestamps.
+     */
+    public static DeploymentChanges fromPaths(Collection<String> createdPaths, Collection<String> updatedPaths,
+                                              Collection<String> deletedPaths) {
+        return new DeploymentChanges(-1, -1, normalizePaths(createdPaths), normalizePaths(updatedPaths),
+                                     normalizePaths(deletedPaths));
+    }
+
+    /**
+     * Returns the timestamp of the deployment in millis, or -1 if not specified.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the timestamp of the previous deployment in millis, or -1 if not specified.
+     */
+    public long getPreviousTimestamp() {
+        return previousTimestamp;
+    }
+
+    public Set<String> getCreatedPaths() {
+        return createdPaths;
+    }
+
+    public Set<String> getUpdatedPaths() {
+        return updatedPaths;
+    }
+
+    public Set<String> getDeletedPaths() {
+        return deletedPaths;
+    }
+
+    /**
+     * Returns all the changed paths (created, updated and deleted).
+     */
+    public Set<String> getAllPaths() {
+        Set<String> paths = new LinkedHashSet<>(createdPaths);
+        paths.addAll(updatedPaths);
+        paths.addAll(deletedPaths);
+
+        return paths;
+    }
+
+    /**
+     * Returns true if the deployment created or deleted paths (which means folder listings changed).
+     */
+    public boolean hasStructuralChanges() {
+        return !createdPaths.isEmpty() || !deletedPaths.isEmpty();
+    }
+
+    private static long parseTimestamp(String timestamp) {
+        if (StringUtils.isNotBlank(timestamp)) {
+            return Instant.parse(timestamp.trim()).toEpochMilli();
+        } else {
+            return -1;
+        }
+    }
+
+    private static Set<String> parsePaths(String paths) {
+        return normalizePaths(Arrays.asList(StringUtils.split(StringUtils.defaultString(paths), ',')));
+    }
+
+    private static Set<String> normalizePaths(Collection<String> paths) {
+        Set<String> normalizedPaths = new LinkedHashSet<>();
+        if (paths != null) {
+            for (String path : paths) {
+                if (StringUtils.isNotBlank(path)) {
+                    normalizedPaths.add(ContentStoreUtils.normalizePath(path.trim()));
+                }
+            }
+        }
+
+        return normalizedPaths;
+    }
+
+    @Override
+    public String toString() {
+        return "DeploymentChanges{" +
+               "timestamp=" + timestamp +
+               ", previousTimestamp=" + previousTimestamp +
+               ", created=" + createdPaths.size() +
+               ", updated=" + updatedPaths.size() +
+               ", deleted=" + deletedPaths.size() +
+               '}';
+    }
+
+}
@@ -19,6 +19,7 @@ import org.craftercms.core.service.CachingOptions;
 import org.craftercms.core.service.Content;
 import org.craftercms.core.service.ContentStoreService;
 import org.craftercms.core.service.Context;
+import org.craftercms.engine.cache.SiteCacheInvalidator;
 import org.craftercms.engine.event.*;
 import org.craftercms.engine.service.context.SiteContext;
 import org.craftercms.engine.service.context.SiteContextManager;
@@ -42,6 +43,12 @@ import java.util.concurrent.ConcurrentHashMap;
  * events file (by default {@code deployment-events.properties}, which should contain timestamps sent by the
  * Deployer indicating requests for clearing the site cache and/or rebuilding the context.
  *
+ * <p>When incremental invalidation is enabled and the Deployer also writes a changed paths manifest for the
+ * deployment (see {@link DeploymentChanges}), a clear cache event only evicts the cache entries affected by the
+ * changed paths. The whole cache is still cleared if the manifest is missing or doesn't belong to the event, if
+ * changes of a previous deployment could have been missed, or if the {@link SiteCacheInvalidator} of the site can't
+ * invalidate the changes incrementally.</p>
+ *
  * @author avasquez
  */
 public class DeploymentEventsWatcher implements ApplicationListener<ApplicationEvent> {
@@ -49,6 +56,7 @@ public class DeploymentEventsWatcher implements ApplicationListener<ApplicationE
     private static final Logger logger = LoggerFactory.getLogger(DeploymentEventsWatcher.class);
 
     public static final String DEFAULT_DEPLOYMENT_EVENTS_FILE_URL = "deployment-events.properties";
+    public static final String DEFAULT_DEPLOYMENT_CHANGES_FILE_URL = "deployment-changes.properties";
 
     private static final String LATEST_EVENT_KEY_FORMAT = "siteName=%s, eventType=%s";
 
@@ -57,6 +65,8 @@ public class DeploymentEventsWatcher implements ApplicationListener<ApplicationE
     private static final String REBUILD_GRAPHQL_EVENT_KEY = "events.deployment.rebuildGraphQL";
 
     private String deploymentEventsFileUrl;
+    private String deploymentChangesFileUrl;
+    private boolean incrementalInvalidationEnabled;
     private SiteContextManager siteContextManager;
 
     private volatile boolean startupCompleted;
@@ -65,6 +75,7 @@ public class DeploymentEventsWatcher implements ApplicationListener<ApplicationE
 
     public DeploymentEventsWatcher() {
         this.deploymentEventsFileUrl = DEFAULT_DEPLOYMENT_EVENTS_FILE_URL;
+        this.deploymentChangesFileUrl = DEFAULT_DEPLOYMENT_CHANGES_FILE_URL;
         this.startupCompleted = false;
         this.latestDeploymentEvents = new ConcurrentHashMap<>();
         this.latestSiteContextEvents = new ConcurrentHashMap<>();
@@ -74,6 +85,17 @@ public class DeploymentEventsWatcher implements ApplicationListener<ApplicationE
         this.deploymentEventsFileUrl = deploymentEventsFileUrl;
     }
 
+    public void setDeploymentChangesFileUrl(String deploymentChangesFileUrl) {
+        this.deploymentChangesFileUrl = deploymentChangesFileUrl;
+    }
+
+    /**
+     * Sets if clear cache events should only evict the entries affected by the changed paths of the deployment
+     */
+    public void setIncrementalInvalidationEnabled(boolean incrementalInvalidationEnabled) {
+        this.incrementalInvalidationEnabled = incrementalInvalidationEnabled;
+    }
+
     @Required
     public void setSiteContextManager(SiteContextManager siteContextManager) {
         this.siteContextManager = siteContextManager;
@@ -135,10 +157,22 @@ public class DeploymentEventsWatcher implements ApplicationListener<ApplicationE
                 long lastCacheClearEvent = getLatestEventTimestamp(siteName, CacheClearedEvent.class);
 
                 if (lastContextBuildEvent < clearCacheEvent && lastCacheClearEvent < clearCacheEvent) {
-                    logger.info("Clear cache deployment event received. Clearing cache for site {}...", siteName);
-
-                    siteContext.startCacheClear(
-                            () -> logger.info("Clear cache for site {} completed", siteName));
+                    DeploymentChanges changes = getIncrementalChanges(siteContext, clearCacheEvent,
+                                                                      Math.max(lastContextBuildEvent,
+                                                                               lastCacheClearEvent));
+                    if (changes != null) {
+                        logger.info("Clear cache deployment event received with {} changed paths. Invalidating " +
+                                    "cache for site {}...", changes.getAllPaths().size(), siteName);
+
+                        siteContext.startCacheInvalidation(changes,
+                                () -> logger.info("Cache invalidation for site {} completed", siteName));
+                    } else {
+                        logger.info("Clear cache deployment event received. Clearing cache for site {}...",
+                                    siteName);
+
+                        siteContext.startCacheClear(
+                                () -> logger.info("Clear cache for site {} completed", siteName));
+                    }
                 }
             }
 
@@ -206,6 +240,65 @@ public class DeploymentEventsWatcher implements ApplicationListener<ApplicationE
         return events;
     }
 
+    /**
+     * Returns the changes of the deployment if they can be used to invalidate the cache incrementally, or null if
+     * the whole cache should be cleared.
+     *
+     * @param siteContext           the context of the site
+     * @param clearCacheEvent       the timestamp of the clear cache event
+     * @param latestProcessedEvent  the timestamp of the latest cache clear or context build
+     */
+    private DeploymentChanges getIncrementalChanges(SiteContext siteContext, long clearCacheEvent,
+                                                    long latestProcessedEvent) {
+        if (!incrementalInvalidationEnabled || siteContext.getCacheInvalidator() == null) {
+            return null;
+        }
+
+        String siteName = siteContext.getSiteName();
+        DeploymentChanges changes;
+
+        try {
+            changes = loadDeploymentChanges(siteContext);
+        } catch (Exception e) {
+            logger.warn("Unable to load deployment changes for site '{}'", siteName, e);
+            return null;
+        }
+
+        if (changes == null) {
+            logger.debug("No deployment changes found for site '{}'", siteName);
+            return null;
+        }
+        if (changes.getTimestamp() != clearCacheEvent) {
+            logger.debug("Deployment changes of site '{}' don't belong to the latest clear cache event", siteName);
+            return null;
+        }
+        // If the previous deployment happened after the latest cache clear, its changes were missed
+        if (changes.getPreviousTimestamp() < 0 || changes.getPreviousTimestamp() > latestProcessedEvent) {
+            logger.debug("Changes of previous deployments of site '{}' could have been missed", siteName);
+            return null;
+        }
+
+        return changes;
+    }
+
+    private DeploymentChanges loadDeploymentChanges(SiteContext siteContext) throws IOException {
+        ContentStoreService contentStoreService = siteContext.getStoreService();
+        Context context = siteContext.getContext();
+        CachingOptions cachingOptions = CachingOptions.CACHE_OFF_CACHING_OPTIONS;
+        Content content = contentStoreService.findContent(context, cachingOptions, deploymentChangesFileUrl);
+
+        if (content != null) {
+            Properties changes = new Properties();
+            try (InputStreamReader reader = new InputStreamReader(content.getInputStream(), StandardCharsets.UTF_8)) {
+                changes.load(reader);
+            }
+
+            return DeploymentChanges.fromProperties(changes);
+        } else {
+            return null;
+        }
+    }
+
     private long getEventProperty(Properties deploymentEvents, String name) {
         return Instant.parse(deploymentEvents.getProperty(name)).toEpochMilli();
     }
@@ -19,47 +19,173 @@ package org.craftercms.engine.util.freemarker;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.Version;
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.engine.cache.ContentDependencyTracker;
 import org.craftercms.engine.service.context.SiteContext;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Collection;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Extension of Freemarker's {@code Configuration} that caches the result of {@code getTemplate()} in Crafter's own
  * cache, which handles key-based smart locking so that the same template is not compiled several times by concurrent
  * threads.
  *
+ * <p>The lookups of each template store path (including the paths of missing localized variants) are recorded, so
+ * that only the templates affected by a change can be removed from Freemarker's own cache.</p>
+ *
  * @author avasquez
  * @since 3.1.5
  */
 public class CrafterCacheAwareConfiguration extends Configuration {
 
     protected boolean cacheTemplates;
+    protected final Map<String, Set<TemplateLookup>> templateLookups;
 
     public CrafterCacheAwareConfiguration(Version incompatibleImprovements, boolean cacheTemplates) {
         super(incompatibleImprovements);
         this.cacheTemplates = cacheTemplates;
+        this.templateLookups = new ConcurrentHashMap<>();
     }
 
     @Override
     public Template getTemplate(String name, Locale locale, Object customLookupCondition, String encoding,
                                 boolean parseAsFTL, boolean ignoreMissing) throws IOException {
+        Template template;
+
         if (cacheTemplates) {
             try {
-                return SiteContext.getFromCurrentCache(() -> {
+                template = SiteContext.getFromCurrentCache(() -> {
+                    TemplateLookup lookup = new TemplateLookup(name, locale, customLookupCondition, encoding,
+                                                               parseAsFTL);
+                    Template loadedTemplate;
+                    Set<String> paths;
+
+                    ContentDependencyTracker.beginCapture();
                     try {
-                        return super.getTemplate(name, locale, customLookupCondition, encoding, parseAsFTL, ignoreMissing);
+                        loadedTemplate = super.getTemplate(name, locale, customLookupCondition, encoding, parseAsFTL,
+                                                           ignoreMissing);
+                        if (loadedTemplate != null) {
+                            addTemplateDependency(loadedTemplate);
+                        }
                     } catch (IOException e) {
                         throw new UncheckedIOException(e);
+                    } finally {
+                        paths = ContentDependencyTracker.endCapture();
+                    }
+
+                    for (String path : paths) {
+                        templateLookups.computeIfAbsent(path, p -> ConcurrentHashMap.newKeySet()).add(lookup);
                     }
+
+                    return loadedTemplate;
                 }, name, locale, customLookupCondition, encoding, parseAsFTL);
             } catch (UncheckedIOException e) {
                 throw e.getCause();
             }
         } else {
-            return super.getTemplate(name, locale, customLookupCondition, encoding, parseAsFTL, ignoreMissing);
+            template = super.getTemplate(name, locale, customLookupCondition, encoding, parseAsFTL, ignoreMissing);
+        }
+
+        if (template != null) {
+            addTemplateDependency(template);
         }
+
+        return template;
+    }
+
+    /**
+     * Removes the templates loaded from any of the store paths from Freemarker's cache (if templates are not cached
+     * by Crafter, the whole Freemarker cache is cleared).
+     */
+    public void removeTemplatesFromCache(Collection<String> paths) throws IOException {
+        if (!cacheTemplates) {
+            clearTemplateCache();
+            return;
+        }
+
+        for (String path : paths) {
+            Set<TemplateLookup> lookups = templateLookups.remove(path);
+            if (lookups != null) {
+                for (TemplateLookup lookup : lookups) {
+                    removeTemplateFromCache(lookup.name, lookup.locale, lookup.customLookupCondition,
+                                            lookup.encoding, lookup.parseAsFTL);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clearTemplateCache() {
+        super.clearTemplateCache();
+
+        if (templateLookups != null) {
+            templateLookups.clear();
+        }
+    }
+
+    /**
+     * Records the store path of the template as a dependency of the output being rendered. This needs to be done on
+     * every lookup (and not in the template loader) since the loader is not called when the template is cached.
+     */
+    protected void addTemplateDependency(Template template) {
+        SiteContext siteContext = SiteContext.getCurrent();
+        if (siteContext != null && ContentDependencyTracker.isCapturing()) {
+            String sourceName = template.getSourceName();
+            String path = siteContext.getDependencyGraph().getTemplatePath(sourceName);
+
+            ContentDependencyTracker.addDependency(path != null? path : StringUtils.prependIfMissing(sourceName, "/"));
+        }
+    }
+
+    /**
+     * The arguments of a template lookup, needed to remove the template from Freemarker's cache.
+     */
+    protected static final class TemplateLookup {
+
+        private final String name;
+        private final Locale locale;
+        private final Object customLookupCondition;
+        private final String encoding;
+        private final boolean parseAsFTL;
+
+        public TemplateLookup(String name, Locale locale, Object customLookupCondition, String encoding,
+                              boolean parseAsFTL) {
+            this.name = name;
+            this.locale = locale;
+            this.customLookupCondition = customLookupCondition;
+            this.encoding = encoding;
+            this.parseAsFTL = parseAsFTL;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TemplateLookup)) {
+                return false;
+            }
+
+            TemplateLookup that = (TemplateLookup) o;
+            return parseAsFTL == that.parseAsFTL &&
+                   Objects.equals(name, that.name) &&
+                   Objects.equals(locale, that.locale) &&
+                   Objects.equals(customLookupCondition, that.customLookupCondition) &&
+                   Objects.equals(encoding, that.encoding);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, locale, customLookupCondition, encoding, parseAsFTL);
+        }
+
     }
 
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.util.spring.resources;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Extension of {@link ResourceHttpMessageConverter} that writes resources backed by a file in the filesystem using
+ * sendfile or {@link java.nio.channels.FileChannel#transferTo}, instead of copying the resource
+ * {@code InputStream}. Any other resource is written like the parent class does.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class FileChannelResourceHttpMessageConverter extends ResourceHttpMessageConverter {
+
+    @Override
+    protected void writeContent(Resource resource, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        File file = FileTransferUtils.getFile(resource);
+        if (file != null) {
+            long length = resource.contentLength();
+
+            if (!FileTransferUtils.sendfile(file, 0, length)) {
+                FileTransferUtils.transfer(file, 0, length, outputMessage.getBody());
+            }
+        } else {
+            super.writeContent(resource, outputMessage);
+        }
+    }
+
+}
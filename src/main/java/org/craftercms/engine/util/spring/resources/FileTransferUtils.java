@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.util.spring.resources;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.craftercms.commons.http.RequestContext;
+import org.springframework.core.io.Resource;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Utility methods for writing file backed resources without copying them through an {@code InputStream}: the
+ * container's sendfile support is used when available and allowed for the current request, and if not the file is
+ * written with {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class FileTransferUtils {
+
+    private static final Log logger = LogFactory.getLog(FileTransferUtils.class);
+
+    /**
+     * Request attribute that needs to be set to true so that sendfile can be used for the current request. Sendfile
+     * bypasses any response wrapper, so it should only be allowed when no filter needs to inspect the response body.
+     */
+    public static final String SENDFILE_ALLOWED_ATTRIBUTE = FileTransferUtils.class.getName() + ".sendfileAllowed";
+
+    /*
+     * Sendfile request attributes supported by Tomcat
+     */
+    public static final String SENDFILE_SUPPORTED_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    public static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    public static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    public static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private FileTransferUtils() {
+    }
+
+    /**
+     * Returns the file of the resource, or null if the resource is not backed by a file in the filesystem.
+     */
+    public static File getFile(Resource resource) {
+        if (resource != null && resource.isFile()) {
+            try {
+                return resource.getFile();
+            } catch (IOException e) {
+                logger.debug("Unable to resolve file for " + resource, e);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Tries to delegate the writing of the file range to the container's sendfile support.
+     *
+     * @param file  the file to write
+     * @param start the start position of the range (inclusive)
+     * @param end   the end position of the range (exclusive)
+     *
+     * @return true if the container will write the range, false if it needs to be written by the caller
+     */
+    public static boolean sendfile(File file, long start, long end) {
+        RequestContext context = RequestContext.getCurrent();
+        if (context == null) {
+            return false;
+        }
+
+        HttpServletRequest request = context.getRequest();
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_ALLOWED_ATTRIBUTE)) &&
+            Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTRIBUTE))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, end);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes the specified range of the file to the output stream using {@link FileChannel#transferTo}.
+     *
+     * @param file  the file to write
+     * @param start the start position of the range (inclusive)
+     * @param count the number of bytes to write
+     * @param out   the output stream (which is not closed)
+     */
+    public static void transfer(File file, long start, long count, OutputStream out) throws IOException {
+        // The channel wraps the response stream, so it shouldn't be closed
+        WritableByteChannel target = Channels.newChannel(out);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = start;
+            long remaining = Math.min(count, channel.size() - start);
+
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, target);
+                if (transferred <= 0) {
+                    break;
+                }
+
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+}
@@ -28,6 +28,7 @@ import org.springframework.util.Assert;
 import org.springframework.util.MimeTypeUtils;
 import org.springframework.util.StreamUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -38,7 +39,8 @@ import java.util.Collection;
 /**
  * Extension of {@link ResourceRegionHttpMessageConverter} that checks if the resource implement
  * {@link RangeAwareResource}. If it does, it calls {@link RangeAwareResource#getInputStream(long, long)} to get
- * the region(s) to write.
+ * the region(s) to write. Resources backed by a file in the filesystem are written using sendfile or
+ * {@link java.nio.channels.FileChannel#transferTo} instead.
  *
  * @author avasquez
  */
@@ -73,9 +75,18 @@ public class RangeAwareResourceRegionHttpMessageConverter extends ResourceRegion
         responseHeaders.add("Content-Range", "bytes " + start + '-' + end + '/' + resourceLength);
         responseHeaders.setContentLength(rangeLength);
 
+        Resource resource = region.getResource();
+        File file = FileTransferUtils.getFile(resource);
+        if (file != null) {
+            if (!FileTransferUtils.sendfile(file, start, end + 1)) {
+                FileTransferUtils.transfer(file, start, rangeLength, outputMessage.getBody());
+            }
+
+            return;
+        }
+
         InputStream in = null;
         try {
-            Resource resource = region.getResource();
             if (resource instanceof RangeAwareResource) {
                 in = ((RangeAwareResource) resource).getInputStream(start, end);
                 StreamUtils.copy(in, outputMessage.getBody());
@@ -119,7 +130,10 @@ public class RangeAwareResourceRegionHttpMessageConverter extends ResourceRegion
 
                 // Printing content
                 Resource resource = region.getResource();
-                if (resource instanceof RangeAwareResource) {
+                File file = FileTransferUtils.getFile(resource);
+                if (file != null) {
+                    FileTransferUtils.transfer(file, start, end - start + 1, out);
+                } else if (resource instanceof RangeAwareResource) {
                     in = ((RangeAwareResource) resource).getInputStream(start, end);
                     StreamUtils.copy(in, out);
                 } else {
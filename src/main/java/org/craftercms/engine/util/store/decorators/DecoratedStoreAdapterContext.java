@@ -38,6 +38,17 @@ public class DecoratedStoreAdapterContext implements Context {
         return actualContext;
     }
 
+    /**
+     * Returns the innermost context of the specified context chain (the one created by the actual store adapter).
+     */
+    public static Context unwrap(Context context) {
+        while (context instanceof DecoratedStoreAdapterContext) {
+            context = ((DecoratedStoreAdapterContext) context).getActualContext();
+        }
+
+        return context;
+    }
+
     @Override
     public String getId() {
         return actualContext.getId();
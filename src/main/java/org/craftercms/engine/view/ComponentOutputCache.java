@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.view;
+
+import org.apache.commons.collections4.MapUtils;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.craftercms.commons.lang.RegexUtils;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.model.EmbeddedSiteItem;
+import org.craftercms.engine.model.SiteItem;
+import org.craftercms.engine.properties.SiteProperties;
+import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.targeting.TargetIdManager;
+import org.craftercms.engine.util.SecurityUtils;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the rendered output of components (the fragments generated by the {@code renderComponent} directive) in the
+ * site cache, so that components embedded in many pages, like headers and footers, don't need to execute their
+ * scripts and templates on every render. Caching is opt-in per content type through the site configuration
+ * ({@code componentCache.enabled} and {@code componentCache.contentTypes}), and each component can override the
+ * configured TTL or disable caching completely through its descriptor. Entries are keyed by component path,
+ * template, locale, current target ID, current user roles and the additional model passed to the directive, so the
+ * same fragment is shared by all pages. Components whose output depends on the page or on request parameters need to
+ * opt in through their descriptor to have the page and/or a whitelist of parameters added to the key. Components
+ * that execute scripts (their own, or the ones of the components rendered inside them) are never cached, since the
+ * side effects of the scripts would be skipped on cache hits.
+ *
+ * <p>Each fragment keeps the paths it was rendered from (the component descriptor, template and scripts, and the ones
+ * of the components rendered inside it), so that it's evicted by the incremental cache invalidation when any of them
+ * changes. Content loaded by the component scripts in other ways is not tracked, so the TTL should be used for
+ * components that depend on it.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class ComponentOutputCache {
+
+    private static final Log logger = LogFactory.getLog(ComponentOutputCache.class);
+
+    public static final String CACHE_KEY_PREFIX = "componentOutputCache:";
+
+    protected boolean enabled;
+    protected int maxEntrySize;
+    protected String contentTypeXPathQuery;
+    protected String ttlXPathQuery;
+    protected String disabledXPathQuery;
+    protected String varyByPageXPathQuery;
+    protected String varyByParamsXPathQuery;
+    protected CacheTemplate cacheTemplate;
+    protected TargetIdManager targetIdManager;
+
+    @Required
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the max size in chars of the output of a component that can be cached
+     */
+    @Required
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    @Required
+    public void setContentTypeXPathQuery(String contentTypeXPathQuery) {
+        this.contentTypeXPathQuery = contentTypeXPathQuery;
+    }
+
+    @Required
+    public void setTtlXPathQuery(String ttlXPathQuery) {
+        this.ttlXPathQuery = ttlXPathQuery;
+    }
+
+    @Required
+    public void setDisabledXPathQuery(String disabledXPathQuery) {
+        this.disabledXPathQuery = disabledXPathQuery;
+    }
+
+    @Required
+    public void setVaryByPageXPathQuery(String varyByPageXPathQuery) {
+        this.varyByPageXPathQuery = varyByPageXPathQuery;
+    }
+
+    @Required
+    public void setVaryByParamsXPathQuery(String varyByParamsXPathQuery) {
+        this.varyByParamsXPathQuery = varyByParamsXPathQuery;
+    }
+
+    @Required
+    public void setCacheTemplate(CacheTemplate cacheTemplate) {
+        this.cacheTemplate = cacheTemplate;
+    }
+
+    @Required
+    public void setTargetIdManager(TargetIdManager targetIdManager) {
+        this.targetIdManager = targetIdManager;
+    }
+
+    /**
+     * Returns true if the output of the specified component can be cached: component caching must be enabled
+     * globally and for the site, the component must have its own descriptor, its content type must match one of the
+     * configured content types, it must not have caching disabled in its descriptor and the additional model must
+     * only contain simple values (that can be part of the key).
+     */
+    public boolean isCacheable(SiteItem component, Map<String, Object> additionalModel) {
+        // Embedded components share the store URL of their parent, so they can't be keyed by it
+        if (!enabled || !SiteProperties.isComponentCacheEnabled() || component instanceof EmbeddedSiteItem ||
+            StringUtils.isEmpty(component.getStoreUrl())) {
+            return false;
+        }
+
+        String[] contentTypes = SiteProperties.getComponentCacheContentTypes();
+        String contentType = component.queryValue(contentTypeXPathQuery);
+
+        if (ArrayUtils.isEmpty(contentTypes) || StringUtils.isEmpty(contentType) ||
+            !RegexUtils.matchesAny(contentType, contentTypes)) {
+            return false;
+        }
+        if (Boolean.parseBoolean(component.queryValue(disabledXPathQuery))) {
+            return false;
+        }
+        if (MapUtils.isNotEmpty(additionalModel) && !additionalModel.values().stream().allMatch(this::isSimpleValue)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Output of component " + component.getStoreUrl() + " won't be cached because the " +
+                             "additional model has complex values");
+            }
+
+            return false;
+        }
+
+        return getTtl(component) != 0;
+    }
+
+    /**
+     * Creates the cache key of the output of the component for the current request. The page URL and the request
+     * params are only added to the key if the component descriptor says its output varies by them (and only the
+     * params whitelisted by the descriptor).
+     *
+     * @param component         the component
+     * @param templateName      the name of the component template
+     * @param locale            the current locale
+     * @param additionalModel   the additional model passed to the directive (can be null)
+     * @param pageUrl           the store URL of the page being rendered (can be null)
+     * @param requestParams     the parameters of the current request (can be null)
+     */
+    public String createKey(SiteItem component, String templateName, Locale locale,
+                            Map<String, Object> additionalModel, String pageUrl,
+                            Map<String, String[]> requestParams) {
+        StringBuilder key = new StringBuilder(CACHE_KEY_PREFIX);
+        key.append(component.getStoreUrl()).append('|').append(templateName).append('|').append(locale);
+
+        if (SiteProperties.isTargetingEnabled()) {
+            key.append('|').append(targetIdManager.getCurrentTargetId());
+        }
+
+        key.append('|').append(SecurityUtils.getCurrentRoles());
+
+        if (Boolean.parseBoolean(component.queryValue(varyByPageXPathQuery))) {
+            key.append("|page=").append(StringUtils.defaultString(pageUrl));
+        }
+
+        String[] paramNames = StringUtils.split(component.queryValue(varyByParamsXPathQuery), ", ");
+        if (ArrayUtils.isNotEmpty(paramNames)) {
+            key.append("|params=");
+            // Sorted so that the same params in different order generate the same key
+            for (String paramName : new TreeSet<>(Arrays.asList(paramNames))) {
+                String[] values = requestParams != null? requestParams.get(paramName) : null;
+                key.append(paramName).append('=').append(Arrays.toString(values)).append('&');
+            }
+        }
+
+        if (MapUtils.isNotEmpty(additionalModel)) {
+            // Sorted so that the same params in different order generate the same key
+            key.append('|').append(new TreeMap<>(additionalModel));
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached fragment for the key, or null if there's no cached fragment or it has already expired.
+     */
+    public CachedFragment get(String key) {
+        Context context = getCurrentContext();
+        if (context != null) {
+            Object cached = cacheTemplate.getCacheService().get(context, key);
+            if (cached instanceof CachedFragment) {
+                CachedFragment fragment = (CachedFragment) cached;
+                if (!fragment.isExpired()) {
+                    return fragment;
+                } else if (logger.isDebugEnabled()) {
+                    logger.debug("Cached fragment for " + key + " has expired");
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Puts the rendered output of the component in the site cache, using the TTL of the component or the site
+     * default TTL.
+     *
+     * @return the fragment, even if it was not cached because of its size
+     */
+    public CachedFragment put(String key, SiteItem component, String output, Set<String> dependencyPaths) {
+        long ttl = getTtl(component);
+        long expiresAt = ttl > 0? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl) : -1;
+        CachedFragment fragment = new CachedFragment(output, dependencyPaths, expiresAt);
+
+        Context context = getCurrentContext();
+        if (context != null) {
+            if (output.length() > maxEntrySize) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Output for " + key + " is bigger than the max entry size (" + output.length() +
+                                 " > " + maxEntrySize + "). It won't be cached");
+                }
+            } else {
+                cacheTemplate.getCacheService().put(context, key, fragment);
+                SiteContext.getCurrent().registerCacheDependencies(key, dependencyPaths);
+            }
+        }
+
+        return fragment;
+    }
+
+    /**
+     * Returns the TTL in seconds of the component: the one specified in the descriptor, or the site default if none
+     * was specified. A negative TTL means the output never expires (until the next cache clear or invalidation).
+     */
+    protected long getTtl(SiteItem component) {
+        String ttl = component.queryValue(ttlXPathQuery);
+        if (StringUtils.isNotBlank(ttl)) {
+            try {
+                return Long.parseLong(ttl.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid component cache TTL '" + ttl + "' in " + component.getStoreUrl() +
+                            ". Using site default");
+            }
+        }
+
+        return SiteProperties.getComponentCacheDefaultTtl();
+    }
+
+    protected boolean isSimpleValue(Object value) {
+        return value == null || value instanceof CharSequence || value instanceof Number ||
+               value instanceof Boolean || value instanceof Character || value instanceof Enum ||
+               value instanceof Date || value instanceof TemporalAccessor;
+    }
+
+    protected Context getCurrentContext() {
+        SiteContext siteContext = SiteContext.getCurrent();
+        return siteContext != null? siteContext.getContext() : null;
+    }
+
+    /**
+     * The cached output of a component.
+     */
+    public static class CachedFragment {
+
+        private final String output;
+        private final Set<String> dependencyPaths;
+        private final long expiresAt;
+
+        public CachedFragment(String output, Set<String> dependencyPaths, long expiresAt) {
+            this.output = output;
+            this.dependencyPaths = dependencyPaths != null?
+                Collections.unmodifiableSet(dependencyPaths) : Collections.emptySet();
+            this.expiresAt = expiresAt;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        /**
+         * Returns the store paths the fragment was rendered from.
+         */
+        public Set<String> getDependencyPaths() {
+            return dependencyPaths;
+        }
+
+        public boolean isExpired() {
+            return expiresAt >= 0 && System.currentTimeMillis() > expiresAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.view;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.craftercms.engine.model.SiteItem;
+import org.craftercms.engine.service.SiteItemService;
+import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.util.concurrent.SiteAwareThreadPoolExecutor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.context.i18n.SimpleLocaleContext;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads in parallel the descriptors of the components included by a page before the page is rendered, so that
+ * {@code renderComponent} finds them in the cache instead of loading them one by one from the store (which is slow
+ * with remote stores like S3 or when the cache is cold). Included components are scanned up to a max depth (1 means
+ * only the components included by the page). Embedded components are part of the page descriptor, so only the
+ * components they include are loaded.
+ *
+ * <p>Prefetching is best effort: components that fail to load are ignored (the error is reported again when the
+ * component is rendered), components are not prefetched when all the threads of the pool are busy, and rendering
+ * doesn't wait for the prefetch (concurrent loads of the same descriptor are collapsed by the cache). The loads only
+ * get an immutable copy of the locale of the request, never the request itself, and the ones that haven't started
+ * when the page has been rendered are skipped.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class ComponentPrefetcher implements InitializingBean, DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(ComponentPrefetcher.class);
+
+    protected boolean enabled;
+    protected int maxDepth;
+    protected int poolSize;
+    protected String includeElementName;
+    protected SiteItemService siteItemService;
+
+    protected ThreadPoolExecutor executor;
+
+    @Required
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Required
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    @Required
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    @Required
+    public void setIncludeElementName(String includeElementName) {
+        this.includeElementName = includeElementName;
+    }
+
+    @Required
+    public void setSiteItemService(SiteItemService siteItemService) {
+        this.siteItemService = siteItemService;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("component-prefetch-");
+            threadFactory.setDaemon(true);
+
+            // Loads are rejected when all threads are busy, instead of waiting in a queue until they're useless
+            executor = new ThreadPoolExecutor(0, poolSize, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                                              threadFactory);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && maxDepth > 0;
+    }
+
+    /**
+     * Starts loading the components included by the page in the background.
+     *
+     * @return the future that completes when all the components have been loaded. Cancelling it skips the loads
+     * that haven't started yet
+     */
+    public CompletableFuture<Void> prefetch(SiteItem page) {
+        SiteContext siteContext = SiteContext.getCurrent();
+        if (!isEnabled() || siteContext == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Resolved now, since the locale context of the request might resolve the locale lazily from the request
+        LocaleContext localeContext = new SimpleLocaleContext(LocaleContextHolder.getLocale());
+        PrefetchContext context = new PrefetchContext(new SiteAwareThreadPoolExecutor(siteContext, executor),
+                                                      localeContext);
+        context.visitedPaths.add(page.getStoreUrl());
+
+        prefetchIncludedComponents(page, 1, context).whenComplete((result, error) -> context.result.complete(null));
+
+        return context.result;
+    }
+
+    protected CompletableFuture<Void> prefetchIncludedComponents(SiteItem item, int depth, PrefetchContext context) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (String path : getIncludedPaths(item)) {
+            if (context.result.isDone()) {
+                break;
+            } else if (context.visitedPaths.add(path)) {
+                futures.add(loadComponent(path, context).thenCompose(component -> {
+                    if (component != null && depth < maxDepth) {
+                        return prefetchIncludedComponents(component, depth + 1, context);
+                    } else {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                }));
+            }
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    protected CompletableFuture<SiteItem> loadComponent(String path, PrefetchContext context) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                if (context.result.isDone()) {
+                    return null;
+                }
+
+                LocaleContextHolder.setLocaleContext(context.localeContext);
+                try {
+                    return siteItemService.getSiteItem(path);
+                } catch (Exception e) {
+                    logger.debug("Unable to prefetch component " + path, e);
+
+                    return null;
+                } finally {
+                    LocaleContextHolder.resetLocaleContext();
+                }
+            }, context.executor);
+        } catch (RejectedExecutionException e) {
+            logger.debug("All prefetch threads are busy, component " + path + " will be loaded when rendered");
+
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    protected List<String> getIncludedPaths(SiteItem item) {
+        List<String> paths = new ArrayList<>();
+        List<String> includes = item.queryValues("//" + includeElementName);
+
+        if (CollectionUtils.isNotEmpty(includes)) {
+            for (String include : includes) {
+                if (StringUtils.isNotBlank(include)) {
+                    paths.add(include.trim());
+                }
+            }
+        }
+
+        return paths;
+    }
+
+    /**
+     * State shared by all the loads of a page prefetch.
+     */
+    protected static class PrefetchContext {
+
+        protected final Executor executor;
+        protected final LocaleContext localeContext;
+        protected final Set<String> visitedPaths;
+        protected final CompletableFuture<Void> result;
+
+        protected PrefetchContext(Executor executor, LocaleContext localeContext) {
+            this.executor = executor;
+            this.localeContext = localeContext;
+            this.visitedPaths = ConcurrentHashMap.newKeySet();
+            this.result = new CompletableFuture<>();
+        }
+
+    }
+
+}
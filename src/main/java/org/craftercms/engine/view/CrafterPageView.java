@@ -21,23 +21,31 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.craftercms.core.util.ExceptionUtils;
 import org.craftercms.core.util.cache.CachingAwareObject;
+import org.craftercms.engine.cache.ContentDependencyTracker;
 import org.craftercms.engine.exception.HttpStatusCodeAwareException;
 import org.craftercms.engine.exception.RenderingException;
 import org.craftercms.engine.model.SiteItem;
 import org.craftercms.engine.scripting.Script;
+import org.craftercms.engine.service.context.SiteContext;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.web.servlet.View;
 import org.springframework.web.servlet.ViewResolver;
 import org.springframework.web.servlet.view.AbstractView;
+import org.springframework.web.util.ContentCachingResponseWrapper;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 import static org.craftercms.engine.util.GroovyScriptUtils.addSiteItemScriptVariables;
@@ -69,6 +77,8 @@ public class CrafterPageView extends AbstractView implements CachingAwareObject,
     protected List<Script> scripts;
     protected ViewResolver delegatedViewResolver;
     protected boolean disableVariableRestrictions;
+    protected PageOutputCache pageOutputCache;
+    protected ComponentPrefetcher componentPrefetcher;
 
     public SiteItem getPage() {
         return page;
@@ -138,6 +148,14 @@ public class CrafterPageView extends AbstractView implements CachingAwareObject,
         this.disableVariableRestrictions = disableVariableRestrictions;
     }
 
+    public void setPageOutputCache(PageOutputCache pageOutputCache) {
+        this.pageOutputCache = pageOutputCache;
+    }
+
+    public void setComponentPrefetcher(ComponentPrefetcher componentPrefetcher) {
+        this.componentPrefetcher = componentPrefetcher;
+    }
+
     @Override
     public String toString() {
         return "CrafterPageView[" +
@@ -161,25 +179,139 @@ public class CrafterPageView extends AbstractView implements CachingAwareObject,
                                            HttpServletResponse response) throws Exception {
         request.setAttribute(PAGE_URL_ATTRIBUTE_NAME, page.getStoreUrl());
 
-        Map<String, Object> scriptVariables = createScriptVariables(request, response, model);
+        if (pageOutputCache != null && pageOutputCache.isCacheable(page, request)) {
+            renderCachedPage(model, request, response);
+        } else {
+            addPageDependencies();
+            renderPage(model, request, response);
+        }
+    }
+
+    protected void renderCachedPage(Map<String, Object> model, HttpServletRequest request,
+                                    HttpServletResponse response) throws Exception {
+        String key = getOutputCacheKey(request);
+        PageOutputCache.CachedOutput output = pageOutputCache.get(key);
+
+        if (output != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Serving cached output of page " + page.getStoreUrl());
+            }
+
+            // Let any enclosing capture (like the one for the surrogate keys) know what the cached output depends on
+            if (ContentDependencyTracker.isCapturing()) {
+                Set<String> dependencyPaths = SiteContext.getCurrent().getDependencyGraph().getDependencies(key);
+                if (dependencyPaths.isEmpty()) {
+                    // The graph is disabled or dropped the key, so use the paths recorded with the output
+                    dependencyPaths = output.getDependencyPaths();
+                }
+
+                ContentDependencyTracker.addDependencies(dependencyPaths);
+                addPageDependencies();
+            }
+
+            writeCachedOutput(output, response);
+
+            return;
+        }
+
+        Set<String> existingHeaders = new HashSet<>(response.getHeaderNames());
+        ContentCachingResponseWrapper responseWrapper = new ContentCachingResponseWrapper(response);
 
+        Set<String> dependencyPaths;
+
+        ContentDependencyTracker.beginCapture();
+        try {
+            addPageDependencies();
+            renderPage(model, request, responseWrapper);
+        } finally {
+            dependencyPaths = ContentDependencyTracker.endCapture();
+        }
+
+        // Only cache successful responses that haven't been committed by scripts and don't set cookies
+        if (!response.isCommitted() && responseWrapper.getStatus() == HttpServletResponse.SC_OK &&
+            !responseWrapper.containsHeader(HttpHeaders.SET_COOKIE)) {
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (String headerName : responseWrapper.getHeaderNames()) {
+                if (!existingHeaders.contains(headerName) &&
+                    !HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(headerName) &&
+                    !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(headerName)) {
+                    headers.put(headerName, responseWrapper.getHeader(headerName));
+                }
+            }
+
+            pageOutputCache.put(key, page, responseWrapper.getContentAsByteArray(), responseWrapper.getContentType(),
+                                headers, dependencyPaths);
+        }
+
+        responseWrapper.copyBodyToResponse();
+    }
+
+    /**
+     * Records the page descriptor and the page scripts as dependencies of the outputs being captured (the page is
+     * loaded once per view, so it might not be recorded by the {@link org.craftercms.engine.service.SiteItemService}).
+     */
+    protected void addPageDependencies() {
+        ContentDependencyTracker.addDependency(page.getStoreUrl());
         if (CollectionUtils.isNotEmpty(scripts)) {
             for (Script script : scripts) {
-                executeScript(script, scriptVariables);
+                ContentDependencyTracker.addDependency(script.getUrl());
+            }
+        }
+    }
+
+    protected String getOutputCacheKey(HttpServletRequest request) throws Exception {
+        return pageOutputCache.createKey(request, locale);
+    }
+
+    protected void writeCachedOutput(PageOutputCache.CachedOutput output,
+                                     HttpServletResponse response) throws Exception {
+        if (isNotEmpty(output.getContentType())) {
+            response.setContentType(output.getContentType());
+        } else {
+            response.setContentType(getContentType());
+        }
 
-                // If the response has been already committed by one of the scripts, stop and don't render the view
-                if (response.isCommitted()) {
-                    logger.debug("Response already committed by script");
+        output.getHeaders().forEach(response::setHeader);
 
-                    return;
+        response.setContentLength(output.getContent().length);
+        response.getOutputStream().write(output.getContent());
+    }
+
+    protected void renderPage(Map<String, Object> model, HttpServletRequest request,
+                              HttpServletResponse response) throws Exception {
+        Map<String, Object> scriptVariables = createScriptVariables(request, response, model);
+
+        // Load the included components while the scripts are executed and the page is rendered
+        CompletableFuture<Void> prefetch = null;
+        if (componentPrefetcher != null && componentPrefetcher.isEnabled()) {
+            prefetch = componentPrefetcher.prefetch(page);
+        }
+
+        try {
+            if (CollectionUtils.isNotEmpty(scripts)) {
+                for (Script script : scripts) {
+                    executeScript(script, scriptVariables);
+
+                    // If the response has been already committed by one of the scripts, stop and don't render the
+                    // view
+                    if (response.isCommitted()) {
+                        logger.debug("Response already committed by script");
+
+                        return;
+                    }
                 }
             }
-        }
 
-        model.put(KEY_MODEL, page);
-        model.put(KEY_CONTENT_MODEL, page);
+            model.put(KEY_MODEL, page);
+            model.put(KEY_CONTENT_MODEL, page);
 
-        renderActualView(getPageViewName(), model, request, response);
+            renderActualView(getPageViewName(), model, request, response);
+        } finally {
+            // Components that haven't started loading yet are not needed anymore
+            if (prefetch != null) {
+                prefetch.cancel(false);
+            }
+        }
     }
 
     protected void executeScript(Script script, Map<String, Object> scriptVariables) throws Exception {
@@ -80,6 +80,8 @@ public class CrafterPageViewResolver extends WebApplicationObjectSupport impleme
     protected UserAgentTemplateDetector userAgentTemplateDetector;
     protected CrafterPageAccessManager accessManager;
     protected boolean disableVariableRestrictions;
+    protected PageOutputCache pageOutputCache;
+    protected ComponentPrefetcher componentPrefetcher;
 
     public CrafterPageViewResolver() {
         order = 10;
@@ -192,6 +194,14 @@ public class CrafterPageViewResolver extends WebApplicationObjectSupport impleme
         this.disableVariableRestrictions = disableVariableRestrictions;
     }
 
+    public void setPageOutputCache(PageOutputCache pageOutputCache) {
+        this.pageOutputCache = pageOutputCache;
+    }
+
+    public void setComponentPrefetcher(ComponentPrefetcher componentPrefetcher) {
+        this.componentPrefetcher = componentPrefetcher;
+    }
+
     @Override
     public View resolveViewName(String renderUrl, Locale locale)  {
         String storeUrl = urlTransformationService.transform(renderUrlToStoreUrlTransformerName, renderUrl, cacheUrlTransformations);
@@ -278,6 +288,8 @@ public class CrafterPageViewResolver extends WebApplicationObjectSupport impleme
                         view.setMimeTypeXPathQuery(mimeTypeXPathQuery);
                         view.setDelegatedViewResolver(delegatedViewResolver);
                         view.setUserAgentTemplateDetector(userAgentTemplateDetector);
+                        view.setPageOutputCache(pageOutputCache);
+                        view.setComponentPrefetcher(componentPrefetcher);
 
                         loadScripts(siteContext.getScriptFactory(), page, view);
 
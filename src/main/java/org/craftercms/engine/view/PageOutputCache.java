@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.view;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.craftercms.commons.lang.RegexUtils;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.model.SiteItem;
+import org.craftercms.engine.properties.SiteProperties;
+import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.targeting.TargetIdManager;
+import org.craftercms.engine.util.SecurityUtils;
+import org.springframework.beans.factory.annotation.Required;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.http.HttpMethod.GET;
+
+/**
+ * Stores the fully rendered output of Crafter pages in the site cache, so that pages that don't change per request
+ * can be served without executing their scripts or templates. Caching is opt-in per content type through the site
+ * configuration ({@code pageCache.enabled} and {@code pageCache.contentTypes}), and each page can override the
+ * configured TTL or disable caching completely through its descriptor. Entries are keyed by URL (including the query
+ * string), locale, current target ID and the current user roles.
+ *
+ * <p>Since entries live in the site cache scope, they're dropped automatically when the site cache is cleared or
+ * switched by the cache warm up.</p>
+ *
+ * @author avasquez
+ * @since 4.2.0
+ */
+public class PageOutputCache {
+
+    private static final Log logger = LogFactory.getLog(PageOutputCache.class);
+
+    public static final String CACHE_KEY_PREFIX = "pageOutputCache:";
+
+    protected boolean enabled;
+    protected int maxEntrySize;
+    protected String contentTypeXPathQuery;
+    protected String ttlXPathQuery;
+    protected String disabledXPathQuery;
+    protected CacheTemplate cacheTemplate;
+    protected TargetIdManager targetIdManager;
+
+    @Required
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Required
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    @Required
+    public void setContentTypeXPathQuery(String contentTypeXPathQuery) {
+        this.contentTypeXPathQuery = contentTypeXPathQuery;
+    }
+
+    @Required
+    public void setTtlXPathQuery(String ttlXPathQuery) {
+        this.ttlXPathQuery = ttlXPathQuery;
+    }
+
+    @Required
+    public void setDisabledXPathQuery(String disabledXPathQuery) {
+        this.disabledXPathQuery = disabledXPathQuery;
+    }
+
+    @Required
+    public void setCacheTemplate(CacheTemplate cacheTemplate) {
+        this.cacheTemplate = cacheTemplate;
+    }
+
+    @Required
+    public void setTargetIdManager(TargetIdManager targetIdManager) {
+        this.targetIdManager = targetIdManager;
+    }
+
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Returns true if the output of the specified page can be cached for the current request: page caching must be
+     * enabled globally and for the site, the request must be a GET, the page content type must match one of the
+     * configured content types and the page must not have caching disabled in its descriptor.
+     */
+    public boolean isCacheable(SiteItem page, HttpServletRequest request) {
+        if (!enabled || !SiteProperties.isPageCacheEnabled() || !GET.matches(request.getMethod())) {
+            return false;
+        }
+
+        String[] contentTypes = SiteProperties.getPageCacheContentTypes();
+        String contentType = page.queryValue(contentTypeXPathQuery);
+
+        if (ArrayUtils.isEmpty(contentTypes) || StringUtils.isEmpty(contentType) ||
+            !RegexUtils.matchesAny(contentType, contentTypes)) {
+            return false;
+        }
+        if (Boolean.parseBoolean(page.queryValue(disabledXPathQuery))) {
+            return false;
+        }
+
+        return getTtl(page) != 0;
+    }
+
+    /**
+     * Returns the cached output for the key, or null if there's no cached output or it has already expired. Expired
+     * output is removed from the cache, so it doesn't take up space until the next cache clear.
+     */
+    public CachedOutput get(String key) {
+        Context context = getCurrentContext();
+        if (context != null) {
+            Object cached = cacheTemplate.getCacheService().get(context, key);
+            if (cached instanceof CachedOutput) {
+                CachedOutput output = (CachedOutput) cached;
+                if (!output.isExpired()) {
+                    return output;
+                }
+
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Cached output for " + key + " has expired");
+                }
+
+                cacheTemplate.getCacheService().remove(context, key);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Puts the rendered output of the page in the site cache, using the TTL of the page or the site default TTL. The
+     * output is registered in the dependency graph without dependency paths, so it's only evicted when it expires,
+     * when the cache is cleared, or when a key pattern that's always evicted matches it.
+     */
+    public void put(String key, SiteItem page, byte[] content, String contentType, Map<String, String> headers) {
+        put(key, page, content, contentType, headers, null);
+    }
+
+    /**
+     * Puts the rendered output of the page in the site cache, using the TTL of the page or the site default TTL, and
+     * registers the paths it was rendered from in the dependency graph of the site.
+     */
+    public void put(String key, SiteItem page, byte[] content, String contentType, Map<String, String> headers,
+                    Collection<String> dependencyPaths) {
+        Context context = getCurrentContext();
+        if (context != null) {
+            if (content.length > maxEntrySize) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Output for " + key + " is bigger than the max entry size (" + content.length +
+                                 " > " + maxEntrySize + "). It won't be cached");
+                }
+
+                return;
+            }
+
+            long ttl = getTtl(page);
+            long expiresAt = ttl > 0? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl) : -1;
+
+            cacheTemplate.getCacheService().put(context, key, new CachedOutput(content, contentType, headers,
+                                                                               dependencyPaths, expiresAt));
+            SiteContext.getCurrent().registerCacheDependencies(key, dependencyPaths);
+        }
+    }
+
+    /**
+     * Creates the cache key of the page output for the current request.
+     */
+    public String createKey(HttpServletRequest request, Locale locale) {
+        StringBuilder key = new StringBuilder(CACHE_KEY_PREFIX);
+        key.append(request.getRequestURI());
+
+        if (StringUtils.isNotEmpty(request.getQueryString())) {
+            key.append('?').append(request.getQueryString());
+        }
+
+        key.append('|').append(locale);
+
+        if (SiteProperties.isTargetingEnabled()) {
+            key.append('|').append(targetIdManager.getCurrentTargetId());
+        }
+
+        key.append('|').append(getCurrentRoles());
+
+        return key.toString();
+    }
+
+    /**
+     * Returns the TTL in seconds of the page: the one specified in the descriptor, or the site default if none was
+     * specified. A negative TTL means the output never expires (until the next cache clear).
+     */
+    protected long getTtl(SiteItem page) {
+        String ttl = page.queryValue(ttlXPathQuery);
+        if (StringUtils.isNotBlank(ttl)) {
+            try {
+                return Long.parseLong(ttl.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid page cache TTL '" + ttl + "' in " + page.getStoreUrl() +
+                            ". Using site default");
+            }
+        }
+
+        return SiteProperties.getPageCacheDefaultTtl();
+    }
+
+    protected String getCurrentRoles() {
+        return SecurityUtils.getCurrentRoles();
+    }
+
+    protected Context getCurrentContext() {
+        SiteContext siteContext = SiteContext.getCurrent();
+        return siteContext != null? siteContext.getContext() : null;
+    }
+
+    /**
+     * The cached output of a page.
+     */
+    public static class CachedOutput {
+
+        private final byte[] content;
+        private final String contentType;
+        private final Map<String, String> headers;
+        private final Set<String> dependencyPaths;
+        private final long expiresAt;
+
+        public CachedOutput(byte[] content, String contentType, Map<String, String> headers, long expiresAt) {
+            this(content, contentType, headers, null, expiresAt);
+        }
+
+        public CachedOutput(byte[] content, String contentType, Map<String, String> headers,
+                            Collection<String> dependencyPaths, long expiresAt) {
+            this.content = content;
+            this.contentType = contentType;
+            this.headers = headers != null? Collections.unmodifiableMap(headers) : Collections.emptyMap();
+            this.dependencyPaths = dependencyPaths != null?
+                Collections.unmodifiableSet(new HashSet<>(dependencyPaths)) : Collections.emptySet();
+            this.expiresAt = expiresAt;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Returns the store paths the page was rendered from.
+         */
+        public Set<String> getDependencyPaths() {
+            return dependencyPaths;
+        }
+
+        public boolean isExpired() {
+            return expiresAt >= 0 && System.currentTimeMillis() > expiresAt;
+        }
+
+    }
+
+}
@@ -34,6 +34,13 @@ public class UserAgentAwareCrafterPageView extends CrafterPageView {
         this.userAgentTemplateDetector = userAgentTemplateDetector;
     }
 
+    @Override
+    protected String getOutputCacheKey(HttpServletRequest request) throws Exception {
+        // The template can change depending on the user agent, so it needs to be part of the key
+        return super.getOutputCacheKey(request) + "|" +
+               userAgentTemplateDetector.resolveAgentTemplate(request, getPageViewName());
+    }
+
     @Override
     protected void renderActualView(String pageViewName, Map<String, Object> model, HttpServletRequest request,
                                     HttpServletResponse response) throws Exception {
@@ -33,6 +33,7 @@ import org.craftercms.engine.util.freemarker.HttpRequestHashModel;
 import org.craftercms.engine.util.freemarker.SiteContextHashModel;
 import org.craftercms.engine.util.spring.ApplicationContextAccessor;
 import org.craftercms.engine.util.spring.security.profile.ProfileUser;
+import org.craftercms.engine.view.ComponentOutputCache;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.annotation.Required;
@@ -98,6 +99,7 @@ public class CrafterFreeMarkerView extends FreeMarkerView {
     protected String componentIncludeElementName;
     protected String componentEmbeddedElementName;
     protected SiteItemScriptResolver componentScriptResolver;
+    protected ComponentOutputCache componentOutputCache;
     protected PluginService pluginService;
 
     // Needed because the field in the superclass is private
@@ -164,6 +166,10 @@ public class CrafterFreeMarkerView extends FreeMarkerView {
         this.componentScriptResolver = componentScriptResolver;
     }
 
+    public void setComponentOutputCache(ComponentOutputCache componentOutputCache) {
+        this.componentOutputCache = componentOutputCache;
+    }
+
     public void setPluginService(PluginService pluginService) {
         this.pluginService = pluginService;
     }
@@ -266,6 +272,7 @@ public class CrafterFreeMarkerView extends FreeMarkerView {
         renderComponentDirective.setIncludeElementName(componentIncludeElementName);
         renderComponentDirective.setComponentElementName(componentEmbeddedElementName);
         renderComponentDirective.setScriptResolver(componentScriptResolver);
+        renderComponentDirective.setComponentOutputCache(componentOutputCache);
         renderComponentDirective.setServletContext(getServletContext());
 
         ExecuteControllerDirective executeControllerDirective = new ExecuteControllerDirective();
@@ -18,6 +18,7 @@ package org.craftercms.engine.view.freemarker;
 import org.craftercms.engine.plugin.PluginService;
 import org.craftercms.engine.scripting.SiteItemScriptResolver;
 import org.craftercms.engine.service.SiteItemService;
+import org.craftercms.engine.view.ComponentOutputCache;
 import org.springframework.lang.NonNull;
 import org.springframework.web.servlet.view.AbstractUrlBasedView;
 import org.springframework.web.servlet.view.freemarker.FreeMarkerViewResolver;
@@ -34,6 +35,7 @@ public class CrafterFreeMarkerViewResolver extends FreeMarkerViewResolver {
     protected String componentIncludeElementName;
     protected String componentEmbeddedElementName;
     protected SiteItemScriptResolver componentScriptResolver;
+    protected ComponentOutputCache componentOutputCache;
     protected PluginService pluginService;
 
     /**
@@ -61,6 +63,10 @@ public class CrafterFreeMarkerViewResolver extends FreeMarkerViewResolver {
         this.componentScriptResolver = componentScriptResolver;
     }
 
+    public void setComponentOutputCache(ComponentOutputCache componentOutputCache) {
+        this.componentOutputCache = componentOutputCache;
+    }
+
     public void setEnableStatics(boolean enableStatics) {
         this.enableStatics = enableStatics;
     }
@@ -86,6 +92,7 @@ public class CrafterFreeMarkerViewResolver extends FreeMarkerViewResolver {
         view.setComponentIncludeElementName(componentIncludeElementName);
         view.setComponentEmbeddedElementName(componentEmbeddedElementName);
         view.setComponentScriptResolver(componentScriptResolver);
+        view.setComponentOutputCache(componentOutputCache);
         view.setEnableStatics(enableStatics);
         view.setPluginService(pluginService);
 
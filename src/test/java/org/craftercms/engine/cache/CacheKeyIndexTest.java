@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link CacheKeyIndex}.
+ *
+ * @author avasquez
+ */
+public class CacheKeyIndexTest {
+
+    private static final String INDEX_URL = "/site/website/index.xml";
+    private static final String ABOUT_URL = "/site/website/about/index.xml";
+
+    private CacheKeyIndex index;
+
+    @Before
+    public void setUp() {
+        index = new CacheKeyIndex(10);
+    }
+
+    @Test
+    public void testInvalidate() {
+        Object value = new Object();
+
+        index.register("index", Collections.singleton(INDEX_URL), value, 0);
+        index.register("about", Collections.singleton(ABOUT_URL), value, 0);
+        index.register("nav", Collections.emptySet(), value, 0);
+
+        assertEquals(Collections.singleton("index"), index.invalidate(Collections.singleton(INDEX_URL)));
+        assertEquals(1, index.getGeneration("index"));
+        assertEquals(0, index.getGeneration("about"));
+        assertEquals(2, index.getKeyCount());
+
+        assertEquals(Collections.singleton("nav"), index.invalidateMatching(new String[] { "na.*" }));
+        assertEquals(1, index.getGeneration("nav"));
+
+        // Values loaded before the invalidation are not registered
+        index.register("index", Collections.singleton(INDEX_URL), value, 0);
+        assertTrue(index.invalidate(Collections.singleton(INDEX_URL)).isEmpty());
+
+        index.register("index", Collections.singleton(INDEX_URL), value, 1);
+        assertEquals(Collections.singleton("index"), index.invalidate(Collections.singleton(INDEX_URL)));
+        assertEquals(2, index.getGeneration("index"));
+    }
+
+    @Test
+    public void testDrain() {
+        Object value = new Object();
+
+        index.register("index", Collections.singleton(INDEX_URL), value, 0);
+        index.register("about", Collections.singleton(ABOUT_URL), null, 0);
+        index.invalidate(Collections.singleton(ABOUT_URL));
+
+        assertEquals(Collections.singletonMap("index", value), index.drain());
+        assertEquals(0, index.getKeyCount());
+        assertEquals(0, index.getPathCount());
+        // Generations are kept, so that entries from before the drain can't be reached again
+        assertEquals(1, index.getGeneration("about"));
+    }
+
+    @Test
+    public void testPrune() {
+        Object value = new Object();
+
+        for (int i = 0; i < 11; i++) {
+            index.register("key" + i, Arrays.asList("/page" + i, "/"), value, 0);
+        }
+
+        // The oldest keys are dropped and invalidated, since their paths are not tracked anymore
+        assertEquals(9, index.getKeyCount());
+        assertEquals(1, index.getGeneration("key0"));
+        assertEquals(1, index.getGeneration("key1"));
+        assertEquals(0, index.getGeneration("key2"));
+        assertEquals(0, index.getGeneration("key10"));
+
+        assertEquals(Collections.singleton("key2"), index.invalidate(Collections.singleton("/page2")));
+        assertTrue(index.invalidate(Collections.singleton("/page0")).isEmpty());
+    }
+
+}
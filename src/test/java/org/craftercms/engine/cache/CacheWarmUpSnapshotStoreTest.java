@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.core.service.Item;
+import org.dom4j.DocumentHelper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link CacheWarmUpSnapshotStore} and {@link CacheWarmUpSnapshot}.
+ *
+ * @author avasquez
+ */
+public class CacheWarmUpSnapshotStoreTest {
+
+    private static final String SITE_NAME = "test";
+    private static final String VERSION = "v1";
+    private static final String FOLDER_URL = "/site/website";
+    private static final String INDEX_URL = "/site/website/index.xml";
+    private static final String XML = "<page><title>Home</title></page>";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private CacheWarmUpSnapshotStore snapshotStore;
+
+    @Before
+    public void setUp() throws Exception {
+        snapshotStore = new CacheWarmUpSnapshotStore();
+        snapshotStore.setEnabled(true);
+        snapshotStore.setSnapshotFolderPath(new File(tmpFolder.getRoot(), "snapshots").getAbsolutePath());
+        snapshotStore.setVersionFileUrl("deployment-events.properties");
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        snapshotStore.save(SITE_NAME, createSnapshot(VERSION));
+
+        CacheWarmUpSnapshot snapshot = snapshotStore.load(SITE_NAME, VERSION);
+
+        assertNotNull(snapshot);
+        assertEquals(1, snapshot.getPreloadedFolders().size());
+        assertEquals(Boolean.TRUE, snapshot.getPreloadedFolders().get(0).exists(INDEX_URL));
+
+        List<Item> children = snapshot.getChildren(FOLDER_URL);
+
+        assertNotNull(children);
+        assertEquals(1, children.size());
+        assertEquals(INDEX_URL, children.get(0).getUrl());
+
+        Item index = snapshot.getItem(INDEX_URL);
+
+        assertNotNull(index);
+        assertEquals("index.xml", index.getName());
+        assertEquals(XML, index.getDescriptorDom().getRootElement().asXML());
+        assertNotSame(children.get(0).getDescriptorDom(), index.getDescriptorDom());
+    }
+
+    @Test
+    public void testItemsReturnedOnlyOnce() throws Exception {
+        CacheWarmUpSnapshot snapshot = createSnapshot(VERSION);
+
+        assertNotNull(snapshot.getChildren(FOLDER_URL));
+        assertNull(snapshot.getChildren(FOLDER_URL));
+        assertNotNull(snapshot.getItem(INDEX_URL));
+        assertNull(snapshot.getItem(INDEX_URL));
+    }
+
+    @Test
+    public void testItemsWithNonStringPropertiesNotAdded() throws Exception {
+        Item item = createItem();
+        item.setProperties(Collections.singletonMap("date", new Object()));
+
+        CacheWarmUpSnapshot snapshot = new CacheWarmUpSnapshot(VERSION);
+        snapshot.addItem(item);
+
+        assertEquals(0, snapshot.getItemCount());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        snapshotStore.save(SITE_NAME, createSnapshot(VERSION));
+        snapshotStore.delete(SITE_NAME);
+
+        assertNull(snapshotStore.load(SITE_NAME, VERSION));
+    }
+
+    @Test
+    public void testDisabledWithoutFolder() {
+        snapshotStore.setSnapshotFolderPath("");
+
+        assertFalse(snapshotStore.isEnabled());
+    }
+
+    @Test
+    public void testLoadOutdatedSnapshot() throws Exception {
+        snapshotStore.save(SITE_NAME, createSnapshot(VERSION));
+
+        assertNull(snapshotStore.load(SITE_NAME, "v2"));
+    }
+
+    @Test
+    public void testLoadIncompleteSnapshot() throws Exception {
+        CacheWarmUpSnapshot snapshot = createSnapshot(VERSION);
+        snapshot.setPreloadedFolders(null);
+
+        snapshotStore.save(SITE_NAME, snapshot);
+
+        assertNull(snapshotStore.load(SITE_NAME, VERSION));
+    }
+
+    @Test
+    public void testLoadMissingSnapshot() {
+        assertNull(snapshotStore.load(SITE_NAME, VERSION));
+    }
+
+    @Test
+    public void testChildrenNotInSnapshot() throws Exception {
+        CacheWarmUpSnapshot snapshot = createSnapshot(VERSION);
+
+        Item other = new Item();
+        other.setUrl(FOLDER_URL + "/other.xml");
+
+        snapshot.addChildren(FOLDER_URL, Arrays.asList(createItem(), other));
+
+        // One of the children is not in the snapshot, so the listing can't be served from it
+        assertNull(snapshot.getChildren(FOLDER_URL));
+        assertNull(snapshot.getChildren("/site/components"));
+    }
+
+    private CacheWarmUpSnapshot createSnapshot(String version) throws Exception {
+        Item index = createItem();
+
+        CacheWarmUpSnapshot snapshot = new CacheWarmUpSnapshot(version);
+        snapshot.addItem(index);
+        snapshot.addChildren(FOLDER_URL, Collections.singletonList(index));
+        snapshot.setPreloadedFolders(Collections.singletonList(
+            new PreloadedFolder(FOLDER_URL, 1, new TreeSet<>(Collections.singleton(INDEX_URL)))));
+
+        return snapshot;
+    }
+
+    private Item createItem() throws Exception {
+        Item item = new Item();
+        item.setName("index.xml");
+        item.setUrl(INDEX_URL);
+        item.setDescriptorUrl(INDEX_URL);
+        item.setDescriptorDom(DocumentHelper.parseText(XML));
+        item.setFolder(false);
+
+        return item;
+    }
+
+}
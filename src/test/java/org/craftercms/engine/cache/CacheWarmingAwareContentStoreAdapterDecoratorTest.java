@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.service.Item;
+import org.craftercms.core.store.ContentStoreAdapter;
+import org.dom4j.DocumentHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CacheWarmingAwareContentStoreAdapterDecorator}.
+ *
+ * @author avasquez
+ */
+public class CacheWarmingAwareContentStoreAdapterDecoratorTest {
+
+    private static final String INDEX_URL = "/site/website/index.xml";
+
+    private ContentStoreAdapter actualStoreAdapter;
+    private PreloadedFoldersAwareContext context;
+    private CacheWarmUpSnapshot snapshot;
+    private CacheWarmingAwareContentStoreAdapterDecorator decorator;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Object, Object> cache = new ConcurrentHashMap<>();
+
+        CacheService cacheService = mock(CacheService.class);
+        when(cacheService.get(any(Context.class), any())).then(invocation -> cache.get(invocation.getArgument(1)));
+        doAnswer(invocation -> cache.put(invocation.getArgument(1), invocation.getArgument(2)))
+            .when(cacheService).put(any(Context.class), any(), any());
+
+        actualStoreAdapter = mock(ContentStoreAdapter.class);
+
+        Context actualContext = mock(Context.class);
+        when(actualContext.isCacheOn()).thenReturn(true);
+
+        context = new PreloadedFoldersAwareContext(actualContext, actualStoreAdapter, cacheService);
+
+        Item index = new Item();
+        index.setName("index.xml");
+        index.setUrl(INDEX_URL);
+        index.setDescriptorUrl(INDEX_URL);
+        index.setDescriptorDom(DocumentHelper.parseText("<page><title>Home</title></page>"));
+
+        snapshot = new CacheWarmUpSnapshot("v1");
+        snapshot.addItem(index);
+
+        context.setSnapshot(snapshot);
+
+        decorator = new CacheWarmingAwareContentStoreAdapterDecorator();
+        decorator.setWarmUpEnabled(true);
+        decorator.setActualStoreAdapter(actualStoreAdapter);
+        decorator.setCacheService(cacheService);
+    }
+
+    @Test
+    public void testExistsThenFindItemServedFromSnapshot() throws Exception {
+        assertTrue(decorator.exists(context, null, INDEX_URL));
+        assertTrue(snapshot.containsItem(INDEX_URL));
+
+        Item item = decorator.findItem(context, null, INDEX_URL, true);
+
+        assertNotNull(item);
+        assertEquals(INDEX_URL, item.getUrl());
+        assertNotNull(item.getDescriptorDom());
+        // The item with descriptor is cached after this, so the snapshot copy is dropped
+        assertFalse(snapshot.containsItem(INDEX_URL));
+
+        verify(actualStoreAdapter, never()).exists(any(Context.class), any(), anyString());
+        verify(actualStoreAdapter, never()).findItem(any(Context.class), any(), anyString(), anyBoolean());
+    }
+
+    @Test
+    public void testExistsAnsweredByPathIndex() throws Exception {
+        context.setPreloadedFolders(Collections.singletonList(
+            new PreloadedFolder("/site/website", 1, new TreeSet<>(Collections.singleton(INDEX_URL)))));
+
+        assertTrue(decorator.exists(context, null, INDEX_URL));
+        assertTrue(decorator.exists(context, null, "/site/website"));
+        assertFalse(decorator.exists(context, null, "/site/website/missing.xml"));
+
+        verify(actualStoreAdapter, never()).exists(any(Context.class), any(), anyString());
+    }
+
+    @Test
+    public void testFindItemWithoutDescriptorKeepsSnapshotItem() throws Exception {
+        assertNotNull(decorator.findItem(context, null, INDEX_URL, false));
+        assertTrue(snapshot.containsItem(INDEX_URL));
+
+        assertNotNull(decorator.findItem(context, null, INDEX_URL, true));
+
+        verify(actualStoreAdapter, never()).findItem(any(Context.class), any(), anyString(), anyBoolean());
+    }
+
+}
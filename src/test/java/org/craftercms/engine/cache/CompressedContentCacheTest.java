@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link CompressedContentCache}.
+ *
+ * @author avasquez
+ */
+public class CompressedContentCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        CompressedContentCache cache = new CompressedContentCache(100);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+
+        // Access a so that b becomes the least recently used
+        assertNotNull(cache.get("a"));
+
+        cache.put("c", new byte[40]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(80, cache.getSize());
+        assertEquals(2, cache.getCount());
+    }
+
+    @Test
+    public void testReplaceEntry() {
+        CompressedContentCache cache = new CompressedContentCache(100);
+        cache.put("a", new byte[40]);
+        cache.put("a", new byte[10]);
+
+        assertEquals(10, cache.getSize());
+        assertEquals(1, cache.getCount());
+    }
+
+    @Test
+    public void testIgnoresContentBiggerThanMaxSize() {
+        CompressedContentCache cache = new CompressedContentCache(100);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[101]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(40, cache.getSize());
+    }
+
+}
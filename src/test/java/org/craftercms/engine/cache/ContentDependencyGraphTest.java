@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ContentDependencyGraph}.
+ *
+ * @author avasquez
+ */
+public class ContentDependencyGraphTest {
+
+    private static final String HEADER_PATH = "/site/components/header.xml";
+    private static final String FOOTER_PATH = "/site/components/footer.xml";
+    private static final String PAGE_PATH = "/site/website/index.xml";
+
+    @Test
+    public void testDependentKeys() {
+        ContentDependencyGraph graph = new ContentDependencyGraph(10);
+        graph.register("page", Arrays.asList(PAGE_PATH, HEADER_PATH, FOOTER_PATH), key -> true);
+        graph.register("header", Collections.singleton(HEADER_PATH), key -> true);
+
+        assertEquals(new HashSet<>(Arrays.asList("page", "header")),
+                     graph.getDependentKeys(Collections.singleton(HEADER_PATH)));
+        assertEquals(Collections.singleton("page"), graph.getDependentKeys(Collections.singleton(FOOTER_PATH)));
+        assertTrue(graph.getDependentKeys(Collections.singleton("/site/components/menu.xml")).isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList(PAGE_PATH, HEADER_PATH, FOOTER_PATH)), graph.getDependencies("page"));
+    }
+
+    @Test
+    public void testRegisterReplacesDependencies() {
+        ContentDependencyGraph graph = new ContentDependencyGraph(10);
+        graph.register("page", Arrays.asList(PAGE_PATH, HEADER_PATH), key -> true);
+        graph.register("page", Arrays.asList(PAGE_PATH, FOOTER_PATH), key -> true);
+
+        assertTrue(graph.getDependentKeys(Collections.singleton(HEADER_PATH)).isEmpty());
+        assertEquals(Collections.singleton("page"), graph.getDependentKeys(Collections.singleton(FOOTER_PATH)));
+        assertEquals(2, graph.getPathCount());
+    }
+
+    @Test
+    public void testRemoveKeys() {
+        ContentDependencyGraph graph = new ContentDependencyGraph(10);
+        graph.register("page", Arrays.asList(PAGE_PATH, HEADER_PATH), key -> true);
+        graph.register("header", Collections.singleton(HEADER_PATH), key -> true);
+
+        graph.removeKeys(Collections.singleton("page"));
+
+        assertEquals(1, graph.getKeyCount());
+        assertEquals(1, graph.getPathCount());
+        assertEquals(Collections.singleton("header"), graph.getDependentKeys(Collections.singleton(HEADER_PATH)));
+    }
+
+    @Test
+    public void testPruneDeadKeysFirst() {
+        ContentDependencyGraph graph = new ContentDependencyGraph(10);
+        for (int i = 0; i < 10; i++) {
+            graph.register("page" + i, Collections.singleton("/site/website/page" + i + ".xml"), key -> true);
+        }
+
+        // Only the even keys are still in the cache
+        List<String> droppedKeys = graph.register("page10", Collections.singleton(PAGE_PATH),
+                                                  key -> Integer.parseInt(key.substring(4)) % 2 == 0);
+
+        assertTrue(droppedKeys.isEmpty());
+        assertEquals(6, graph.getKeyCount());
+        assertTrue(graph.getDependencies("page1").isEmpty());
+        assertFalse(graph.getDependencies("page2").isEmpty());
+    }
+
+    @Test
+    public void testDropOldestKeys() {
+        ContentDependencyGraph graph = new ContentDependencyGraph(10);
+        for (int i = 0; i < 10; i++) {
+            graph.register("page" + i, Collections.singleton("/site/website/page" + i + ".xml"), key -> true);
+        }
+
+        List<String> droppedKeys = graph.register("page10", Collections.singleton(PAGE_PATH), key -> true);
+
+        assertEquals(Arrays.asList("page0", "page1"), droppedKeys);
+        assertEquals(9, graph.getKeyCount());
+        assertFalse(graph.getDependencies("page10").isEmpty());
+    }
+
+    @Test
+    public void testClearKeepsTemplatePaths() {
+        ContentDependencyGraph graph = new ContentDependencyGraph(10);
+        graph.register("page", Collections.singleton(PAGE_PATH), key -> true);
+        graph.putTemplatePath("templates/web/page.ftl", "/templates/web/page.ftl");
+
+        graph.clear();
+
+        assertEquals(0, graph.getKeyCount());
+        assertEquals(0, graph.getPathCount());
+        assertEquals("/templates/web/page.ftl", graph.getTemplatePath("templates/web/page.ftl"));
+    }
+
+    @Test
+    public void testDisabled() {
+        ContentDependencyGraph graph = new ContentDependencyGraph(0);
+
+        assertFalse(graph.isEnabled());
+        assertTrue(graph.register("page", Collections.singleton(PAGE_PATH), key -> true).isEmpty());
+        assertEquals(0, graph.getKeyCount());
+    }
+
+}
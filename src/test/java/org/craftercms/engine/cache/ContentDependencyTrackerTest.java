@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ContentDependencyTracker}.
+ *
+ * @author avasquez
+ */
+public class ContentDependencyTrackerTest {
+
+    private static final String HEADER_PATH = "/site/components/header.xml";
+    private static final String MENU_PATH = "/site/components/menu.xml";
+
+    @Test
+    public void testNestedCaptures() {
+        ContentDependencyTracker.addDependency("/site/components/ignored.xml");
+        assertFalse(ContentDependencyTracker.isCapturing());
+
+        ContentDependencyTracker.beginCapture();
+        ContentDependencyTracker.addDependency(HEADER_PATH);
+
+        ContentDependencyTracker.beginCapture();
+        ContentDependencyTracker.addDependencies(Collections.singleton(MENU_PATH));
+
+        Set<String> innerDependencies = ContentDependencyTracker.endCapture();
+        Set<String> outerDependencies = ContentDependencyTracker.endCapture();
+
+        assertEquals(Collections.singleton(MENU_PATH), innerDependencies);
+        assertEquals(new HashSet<>(Arrays.asList(HEADER_PATH, MENU_PATH)), outerDependencies);
+        assertFalse(ContentDependencyTracker.isCapturing());
+    }
+
+    @Test
+    public void testIsCapturing() {
+        ContentDependencyTracker.beginCapture();
+        try {
+            assertTrue(ContentDependencyTracker.isCapturing());
+        } finally {
+            ContentDependencyTracker.endCapture();
+        }
+
+        assertFalse(ContentDependencyTracker.isCapturing());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEndWithoutCapture() {
+        ContentDependencyTracker.endCapture();
+    }
+
+}
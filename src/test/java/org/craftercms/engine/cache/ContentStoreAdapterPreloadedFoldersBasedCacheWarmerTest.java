@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.ContentStoreService;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.service.Item;
+import org.craftercms.core.store.ContentStoreAdapter;
+import org.craftercms.engine.service.context.SiteContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ContentStoreAdapterPreloadedFoldersBasedCacheWarmer}.
+ *
+ * @author avasquez
+ */
+public class ContentStoreAdapterPreloadedFoldersBasedCacheWarmerTest {
+
+    private ContentStoreAdapterPreloadedFoldersBasedCacheWarmer cacheWarmer;
+    private PreloadedFoldersAwareContext context;
+    private List<SiteContext> siteContextsSeen;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Object, Object> cache = new ConcurrentHashMap<>();
+        siteContextsSeen = Collections.synchronizedList(new ArrayList<>());
+
+        CacheService cacheService = mock(CacheService.class);
+        when(cacheService.get(any(Context.class), any())).then(invocation -> cache.get(invocation.getArgument(1)));
+        doAnswer(invocation -> cache.put(invocation.getArgument(1), invocation.getArgument(2)))
+            .when(cacheService).put(any(Context.class), any(), any());
+
+        ContentStoreAdapter storeAdapter = mock(ContentStoreAdapter.class);
+        Context actualContext = mock(Context.class);
+        when(actualContext.getStoreAdapter()).thenReturn(storeAdapter);
+
+        when(storeAdapter.findItem(eq(actualContext), isNull(), anyString(), eq(true))).then(invocation -> {
+            String path = invocation.getArgument(2);
+            siteContextsSeen.add(SiteContext.getCurrent());
+
+            return createItem(path, !path.endsWith(".xml"));
+        });
+        when(storeAdapter.findItems(actualContext, null, "/site")).thenReturn(Arrays.asList(
+            createItem("/site/folder", true), createItem("/site/index.xml", false)));
+        when(storeAdapter.findItems(actualContext, null, "/site/folder")).thenReturn(Arrays.asList(
+            createItem("/site/folder/page1.xml", false), createItem("/site/folder/page2.xml", false)));
+        when(storeAdapter.findItems(actualContext, null, "/static-assets")).thenReturn(Collections.singletonList(
+            createItem("/static-assets/main.css", false)));
+
+        context = new PreloadedFoldersAwareContext(actualContext, storeAdapter, cacheService);
+
+        cacheWarmer = new ContentStoreAdapterPreloadedFoldersBasedCacheWarmer();
+        cacheWarmer.setWarmUpEnabled(true);
+        cacheWarmer.setDescriptorPreloadFolders(new String[] { "/site" });
+        cacheWarmer.setContentPreloadFolders(new String[0]);
+        cacheWarmer.setParallelism(4);
+    }
+
+    @Test
+    public void testWarmUpCache() {
+        cacheWarmer.setMaxPendingTasks(100);
+
+        assertWarmUp();
+    }
+
+    @Test
+    public void testWarmUpCacheWithBackpressure() {
+        // Only one forked task at a time, the rest of the children are preloaded by the current thread
+        cacheWarmer.setMaxPendingTasks(1);
+
+        assertWarmUp();
+    }
+
+    @Test
+    public void testWarmUpCacheWithSiteContext() {
+        cacheWarmer.setMaxPendingTasks(100);
+
+        SiteContext siteContext = new SiteContext();
+        SiteContext.setCurrent(siteContext);
+        try {
+            assertWarmUp();
+        } finally {
+            SiteContext.clear();
+        }
+
+        assertFalse(siteContextsSeen.isEmpty());
+        assertTrue(siteContextsSeen.stream().allMatch(seen -> seen == siteContext));
+    }
+
+    @Test
+    public void testWarmUpCacheRecordsSnapshot() {
+        cacheWarmer.setMaxPendingTasks(100);
+
+        CacheWarmUpSnapshot snapshot = new CacheWarmUpSnapshot("v1");
+        context.setSnapshot(snapshot);
+
+        cacheWarmer.warmUpCache(context, new CacheWarmUpStats());
+
+        assertTrue(snapshot.isComplete());
+        assertEquals(5, snapshot.getItemCount());
+        assertEquals(2, snapshot.getChildren("/site/folder").size());
+    }
+
+    @Test
+    public void testWarmUpCacheFromSnapshotPreloadsContentFolders() {
+        cacheWarmer.setMaxPendingTasks(100);
+        cacheWarmer.setContentPreloadFolders(new String[] { "/static-assets" });
+
+        CacheWarmUpSnapshot snapshot = new CacheWarmUpSnapshot("v1");
+        snapshot.setPreloadedFolders(Collections.singletonList(
+            new PreloadedFolder("/site", ContentStoreService.UNLIMITED_TREE_DEPTH,
+                                new TreeSet<>(Collections.singleton("/site/index.xml")))));
+        context.setSnapshot(snapshot);
+
+        CacheWarmUpStats stats = new CacheWarmUpStats();
+
+        cacheWarmer.warmUpCache(context, stats);
+
+        List<PreloadedFolder> preloadedFolders = context.getPreloadedFolders();
+
+        assertEquals(2, preloadedFolders.size());
+        assertEquals(Boolean.TRUE, context.getPathIndex().exists("/static-assets/main.css"));
+        assertEquals(Boolean.TRUE, context.getPathIndex().exists("/site/index.xml"));
+        assertEquals(Boolean.FALSE, context.getPathIndex().exists("/site/folder/page1.xml"));
+        assertTrue(stats.isFromSnapshot());
+    }
+
+    private void assertWarmUp() {
+        CacheWarmUpStats stats = new CacheWarmUpStats();
+
+        cacheWarmer.warmUpCache(context, stats);
+        stats.finish();
+
+        List<PreloadedFolder> preloadedFolders = context.getPreloadedFolders();
+
+        assertEquals(1, preloadedFolders.size());
+        assertEquals(Boolean.TRUE, preloadedFolders.get(0).exists("/site/index.xml"));
+        assertEquals(Boolean.TRUE, preloadedFolders.get(0).exists("/site/folder/page2.xml"));
+        assertEquals(Boolean.FALSE, preloadedFolders.get(0).exists("/site/folder/page3.xml"));
+        assertEquals(4, stats.getItems());
+        assertEquals(0, stats.getErrors());
+        assertFalse(stats.isRunning());
+    }
+
+    private Item createItem(String url, boolean folder) {
+        Item item = new Item();
+        item.setUrl(url);
+        item.setFolder(folder);
+
+        return item;
+    }
+
+}
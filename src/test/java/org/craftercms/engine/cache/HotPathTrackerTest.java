@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link HotPathTracker}.
+ *
+ * @author avasquez
+ */
+public class HotPathTrackerTest {
+
+    private static final String SITE_NAME = "test";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testHotPathsSortedByCount() {
+        HotPathTracker tracker = createTracker(10);
+
+        recordItem(tracker, "/site/website/index.xml", 2);
+        recordContent(tracker, "/static-assets/css/main.css", 5);
+        recordItem(tracker, "/site/website/about/index.xml", 1);
+
+        List<HotPathTracker.HotPath> hotPaths = tracker.getHotPaths(SITE_NAME);
+
+        assertEquals(3, hotPaths.size());
+        assertEquals("/static-assets/css/main.css", hotPaths.get(0).getPath());
+        assertTrue(hotPaths.get(0).isContent());
+        assertEquals(5, hotPaths.get(0).getCount());
+        assertEquals("/site/website/index.xml", hotPaths.get(1).getPath());
+        assertFalse(hotPaths.get(1).isContent());
+        assertEquals("/site/website/about/index.xml", hotPaths.get(2).getPath());
+    }
+
+    @Test
+    public void testTrackedPathsBounded() {
+        HotPathTracker tracker = createTracker(2);
+
+        recordItem(tracker, "/site/website/index.xml", 100);
+        recordItem(tracker, "/site/website/about/index.xml", 50);
+
+        for (int i = 0; i < 10; i++) {
+            recordItem(tracker, "/site/website/page" + i + "/index.xml", 1);
+        }
+
+        assertTrue(tracker.getCounts(SITE_NAME).size() <= 4);
+
+        List<HotPathTracker.HotPath> hotPaths = tracker.getHotPaths(SITE_NAME);
+
+        assertEquals(2, hotPaths.size());
+        assertEquals("/site/website/index.xml", hotPaths.get(0).getPath());
+        assertEquals("/site/website/about/index.xml", hotPaths.get(1).getPath());
+    }
+
+    @Test
+    public void testOldCountsDecay() {
+        HotPathTracker tracker = createTracker(2);
+
+        recordItem(tracker, "/site/website/old/index.xml", 1000);
+
+        // Each round triggers a trim, which halves the counts
+        for (int i = 0; i < 10; i++) {
+            recordItem(tracker, "/site/website/new/index.xml", 8);
+
+            for (int j = 0; j < 3; j++) {
+                recordItem(tracker, "/site/website/page" + i + "-" + j + "/index.xml", 1);
+            }
+        }
+
+        List<HotPathTracker.HotPath> hotPaths = tracker.getHotPaths(SITE_NAME);
+
+        assertEquals("/site/website/new/index.xml", hotPaths.get(0).getPath());
+        assertFalse(tracker.getCounts(SITE_NAME).containsKey("item:/site/website/old/index.xml"));
+    }
+
+    @Test
+    public void testHotPathsPersistedBetweenRuns() {
+        HotPathTracker tracker = createTracker(10);
+        recordItem(tracker, "/site/website/index.xml", 10);
+        recordContent(tracker, "/static-assets/css/main.css", 4);
+        tracker.destroy();
+
+        tracker = createTracker(10);
+        recordContent(tracker, "/static-assets/css/main.css", 4);
+
+        // Previous counts are halved on load
+        List<HotPathTracker.HotPath> hotPaths = tracker.getHotPaths(SITE_NAME);
+
+        assertEquals(2, hotPaths.size());
+        assertEquals("/static-assets/css/main.css", hotPaths.get(0).getPath());
+        assertEquals(6, hotPaths.get(0).getCount());
+        assertEquals("/site/website/index.xml", hotPaths.get(1).getPath());
+        assertEquals(5, hotPaths.get(1).getCount());
+    }
+
+    @Test
+    public void testPersistedCountsNotLoadedWhileRecording() {
+        HotPathTracker tracker = createTracker(10);
+        recordItem(tracker, "/site/website/index.xml", 10);
+        tracker.destroy();
+
+        tracker = createTracker(10);
+        recordItem(tracker, "/site/website/index.xml", 1);
+
+        assertEquals(1, tracker.getCounts(SITE_NAME).get("item:/site/website/index.xml").sum());
+        assertEquals(6, tracker.getHotPaths(SITE_NAME).get(0).getCount());
+    }
+
+    @Test
+    public void testNotPersistedWithoutFolder() {
+        HotPathTracker tracker = createTracker(10);
+        tracker.setStoreFolderPath("");
+        recordItem(tracker, "/site/website/index.xml", 10);
+        tracker.destroy();
+
+        tracker = createTracker(10);
+        tracker.setStoreFolderPath("");
+
+        assertTrue(tracker.getHotPaths(SITE_NAME).isEmpty());
+        assertEquals(0, tmpFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testDisabled() {
+        HotPathTracker tracker = createTracker(10);
+        tracker.setEnabled(false);
+
+        recordItem(tracker, "/site/website/index.xml", 3);
+
+        assertTrue(tracker.getHotPaths(SITE_NAME).isEmpty());
+    }
+
+    private HotPathTracker createTracker(int maxPaths) {
+        HotPathTracker tracker = new HotPathTracker();
+        tracker.setWarmUpEnabled(true);
+        tracker.setEnabled(true);
+        tracker.setSampleRate(1);
+        tracker.setMaxPaths(maxPaths);
+        tracker.setStoreFolderPath(tmpFolder.getRoot().getAbsolutePath());
+
+        return tracker;
+    }
+
+    private void recordItem(HotPathTracker tracker, String path, int count) {
+        for (int i = 0; i < count; i++) {
+            tracker.recordItem(SITE_NAME, path);
+        }
+    }
+
+    private void recordContent(HotPathTracker tracker, String path, int count) {
+        for (int i = 0; i < count; i++) {
+            tracker.recordContent(SITE_NAME, path);
+        }
+    }
+
+}
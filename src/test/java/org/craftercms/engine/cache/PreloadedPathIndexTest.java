@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.core.service.ContentStoreService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link PreloadedPathIndex}.
+ *
+ * @author avasquez
+ */
+public class PreloadedPathIndexTest {
+
+    private PreloadedPathIndex index;
+
+    @Before
+    public void setUp() {
+        PreloadedFolder websiteFolder = new PreloadedFolder("/site/website", 2, new TreeSet<>(Arrays.asList(
+            "/site/website/index.xml",
+            "/site/website/about",
+            "/site/website/about/index.xml",
+            "/site/website/about/team")));
+        PreloadedFolder scriptsFolder = new PreloadedFolder("/scripts", ContentStoreService.UNLIMITED_TREE_DEPTH,
+                                                            new TreeSet<>(Arrays.asList(
+            "/scripts/pages",
+            "/scripts/pages/home.groovy")));
+
+        index = new PreloadedPathIndex(Arrays.asList(websiteFolder, scriptsFolder));
+    }
+
+    @Test
+    public void testExists() {
+        assertEquals(6, index.getSize());
+
+        assertEquals(Boolean.TRUE, index.exists("/site/website"));
+        assertEquals(Boolean.TRUE, index.exists("/site/website/index.xml"));
+        assertEquals(Boolean.TRUE, index.exists("/site/website/about/index.xml"));
+        assertEquals(Boolean.TRUE, index.exists("/scripts/pages/home.groovy"));
+        assertEquals(Boolean.TRUE, index.exists("/site"));
+
+        // Missing paths under preloaded folders
+        assertEquals(Boolean.FALSE, index.exists("/site/website/index_en.xml"));
+        assertEquals(Boolean.FALSE, index.exists("/site/website/contact/index.xml"));
+        assertEquals(Boolean.FALSE, index.exists("/site/website/about/team.xml"));
+        assertEquals(Boolean.FALSE, index.exists("/site/website/careers/team/index.xml"));
+        assertEquals(Boolean.FALSE, index.exists("/scripts/pages/about.groovy"));
+        assertEquals(Boolean.FALSE, index.exists("/scripts/pages/about/index.groovy"));
+
+        // Paths deeper than the preload depth or outside the preloaded folders
+        assertNull(index.exists("/site/website/about/team/index.xml"));
+        assertNull(index.exists("/site/components/header.xml"));
+        assertNull(index.exists("/static-assets/css/main.css"));
+    }
+
+}
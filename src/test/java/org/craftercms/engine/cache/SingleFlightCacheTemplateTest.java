@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.commons.lang.Callback;
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.CachingOptions;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.exception.CacheLoadTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SingleFlightCacheTemplate}.
+ *
+ * @author avasquez
+ */
+public class SingleFlightCacheTemplateTest {
+
+    private static final int THREADS = 5;
+
+    private Context context;
+    private SingleFlightCacheTemplate cacheTemplate;
+    private ExecutorService callers;
+
+    @Before
+    public void setUp() {
+        context = mock(Context.class);
+        when(context.getId()).thenReturn("test");
+
+        cacheTemplate = new SingleFlightCacheTemplate();
+        cacheTemplate.setActualCacheTemplate(new AlwaysMissingCacheTemplate());
+        cacheTemplate.setEnabled(true);
+        cacheTemplate.setWaitTimeout(TimeUnit.SECONDS.toMillis(10));
+        cacheTemplate.setLoadOnTimeout(true);
+        cacheTemplate.setPropagateFailures(true);
+
+        callers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentMissesAreLoadedOnce() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = submitAll(() -> {
+            loads.incrementAndGet();
+            await(release);
+            return "value";
+        });
+
+        waitForWaitingThreads(loads);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("value", result.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cacheTemplate.getLoads());
+        assertEquals(THREADS - 1, cacheTemplate.getDeduplicatedLoads());
+    }
+
+    @Test
+    public void testFailuresArePropagated() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = submitAll(() -> {
+            loads.incrementAndGet();
+            await(release);
+            throw new IllegalStateException("Load failed");
+        });
+
+        waitForWaitingThreads(loads);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("Expected IllegalStateException");
+            } catch (Exception e) {
+                assertEquals(IllegalStateException.class, e.getCause().getClass());
+            }
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cacheTemplate.getFailures());
+    }
+
+    @Test
+    public void testWaitingThreadsLoadAfterFailureIfNotPropagated() throws Exception {
+        cacheTemplate.setPropagateFailures(false);
+
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = submitAll(() -> {
+            if (loads.incrementAndGet() == 1) {
+                await(release);
+                throw new IllegalStateException("Load failed");
+            }
+            return "value";
+        });
+
+        waitForWaitingThreads(loads);
+        release.countDown();
+
+        int failed = 0;
+        for (Future<String> result : results) {
+            try {
+                assertEquals("value", result.get(10, TimeUnit.SECONDS));
+            } catch (Exception e) {
+                failed++;
+            }
+        }
+
+        assertEquals(1, failed);
+        assertEquals(THREADS, loads.get());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        cacheTemplate.setWaitTimeout(50);
+        cacheTemplate.setLoadOnTimeout(false);
+
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> slowLoad = callers.submit(() -> getObject(() -> {
+            await(release);
+            return "slow";
+        }));
+
+        // Wait till the slow load is in flight
+        while (cacheTemplate.inFlightLoads.isEmpty()) {
+            Thread.sleep(10);
+        }
+
+        try {
+            getObject(() -> "fast");
+            fail("Expected CacheLoadTimeoutException");
+        } catch (CacheLoadTimeoutException e) {
+            // Expected
+        }
+
+        cacheTemplate.setLoadOnTimeout(true);
+
+        assertEquals("fast", getObject(() -> "fast"));
+
+        release.countDown();
+
+        assertEquals("slow", slowLoad.get(10, TimeUnit.SECONDS));
+        assertEquals(2, cacheTemplate.getTimeouts());
+    }
+
+    @Test
+    public void testLoaderCanRequestItsOwnKey() {
+        String value = getObject(() -> "outer-" + getObject(() -> "inner"));
+
+        assertEquals("outer-inner", value);
+    }
+
+    private String getObject(Callback<String> callback) {
+        return cacheTemplate.getObject(context, callback, "key");
+    }
+
+    private List<Future<String>> submitAll(Callback<String> callback) {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(callers.submit(() -> getObject(callback)));
+        }
+
+        return results;
+    }
+
+    private void waitForWaitingThreads(AtomicInteger loads) throws InterruptedException {
+        // The first thread is loading and the rest should be waiting for it
+        while (loads.get() == 0 || countWaitingThreads() < THREADS - 1) {
+            Thread.sleep(10);
+        }
+    }
+
+    private long countWaitingThreads() {
+        return cacheTemplate.inFlightLoads.values().stream()
+                                          .mapToLong(CompletableFuture::getNumberOfDependents)
+                                          .sum();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cache template that never has the entries, so the loader is always called.
+     */
+    private static class AlwaysMissingCacheTemplate implements CacheTemplate {
+
+        @Override
+        public CacheService getCacheService() {
+            return null;
+        }
+
+        @Override
+        public <T> T getObject(Context context, Callback<T> callback, Object... keyElements) {
+            return callback.execute();
+        }
+
+        @Override
+        public <T> T getObject(Context context, CachingOptions cachingOptions, Callback<T> callback,
+                               Object... keyElements) {
+            return callback.execute();
+        }
+
+    }
+
+}
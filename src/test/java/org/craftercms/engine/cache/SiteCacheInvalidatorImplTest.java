@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+import org.apache.commons.configuration2.BaseConfiguration;
+import org.craftercms.commons.lang.Callback;
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.CachingOptions;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.service.Item;
+import org.craftercms.core.store.ContentStoreAdapter;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.properties.SiteProperties;
+import org.craftercms.engine.properties.SiteSettings;
+import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.util.deployment.DeploymentChanges;
+import org.craftercms.engine.util.freemarker.CrafterCacheAwareConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.servlet.view.freemarker.FreeMarkerConfig;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SiteCacheInvalidatorImpl}.
+ *
+ * @author avasquez
+ */
+public class SiteCacheInvalidatorImplTest {
+
+    private static final String INDEX_URL = "/site/website/index.xml";
+    private static final String ABOUT_URL = "/site/website/about/index.xml";
+    private static final String NEW_PAGE_URL = "/site/website/new/index.xml";
+    private static final String PAGE_TEMPLATE_URL = "/templates/web/page.ftl";
+
+    private Map<Object, Object> cache;
+    private Map<String, AtomicInteger> loads;
+    private PreloadedFoldersAwareContext context;
+    private SiteContext siteContext;
+    private KeyIndexingCacheTemplate cacheTemplate;
+    private SiteCacheInvalidatorImpl invalidator;
+
+    @Before
+    public void setUp() {
+        cache = new ConcurrentHashMap<>();
+        loads = new ConcurrentHashMap<>();
+
+        CacheService cacheService = mock(CacheService.class);
+        when(cacheService.get(any(Context.class), any())).then(invocation -> cache.get(invocation.getArgument(1)));
+        doAnswer(invocation -> cache.put(invocation.getArgument(1), invocation.getArgument(2)))
+            .when(cacheService).put(any(Context.class), any(), any());
+        doAnswer(invocation -> cache.remove(invocation.getArgument(1)) != null)
+            .when(cacheService).remove(any(Context.class), any());
+        doAnswer(invocation -> cache.keySet()).when(cacheService).getKeys(any(Context.class));
+
+        Context actualContext = mock(Context.class);
+        when(actualContext.getId()).thenReturn("test");
+
+        context = new PreloadedFoldersAwareContext(actualContext, mock(ContentStoreAdapter.class), cacheService);
+
+        cacheTemplate = new KeyIndexingCacheTemplate();
+        cacheTemplate.setActualCacheTemplate(new MapCacheTemplate(cacheService));
+        cacheTemplate.setMaxKeys(100);
+
+        siteContext = mock(SiteContext.class);
+        when(siteContext.getSiteName()).thenReturn("test");
+        when(siteContext.getContext()).thenReturn(context);
+        when(siteContext.getCacheTemplate()).thenReturn(cacheTemplate);
+        when(siteContext.getDependencyGraph()).thenReturn(new ContentDependencyGraph(10));
+        when(siteContext.getSettings()).thenReturn(SiteSettings.DEFAULTS);
+
+        invalidator = new SiteCacheInvalidatorImpl();
+        invalidator.setKeyIndexingCacheTemplate(cacheTemplate);
+        invalidator.setAlwaysEvictKeyPatterns(new String[] { "pageOutputCache:.*", ".*breadcrumb.*" });
+        invalidator.setMaxChangedPaths(10);
+        invalidator.setFullClearPathPatterns(new String[] { "/config/.*" });
+    }
+
+    @Test
+    public void testInvalidateCache() {
+        load("findItem", INDEX_URL, true);
+        load("findItem", ABOUT_URL, true);
+        load("findItem", INDEX_URL + ".bak", true);
+        load("findChildren", "/site/website", null);
+        load("view", "about");
+        load("view", "home", INDEX_URL);
+        load("breadcrumb", "home");
+
+        assertTrue(invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(),
+                                                                          Collections.singleton(INDEX_URL))));
+
+        // The changed item, the listing of its folder, the entries loaded from it and the always evicted entries are
+        // loaded again
+        assertEquals(2, load("findItem", INDEX_URL, true));
+        assertEquals(2, load("findChildren", "/site/website", null));
+        assertEquals(2, load("view", "home", INDEX_URL));
+        assertEquals(2, load("breadcrumb", "home"));
+
+        assertEquals(1, load("findItem", ABOUT_URL, true));
+        assertEquals(1, load("findItem", INDEX_URL + ".bak", true));
+        assertEquals(1, load("view", "about"));
+
+        // The entries are invalidated again on the next change
+        assertTrue(invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(),
+                                                                          Collections.singleton(INDEX_URL))));
+
+        assertEquals(3, load("findItem", INDEX_URL, true));
+        assertEquals(3, load("view", "home", INDEX_URL));
+        assertEquals(1, load("findItem", ABOUT_URL, true));
+    }
+
+    @Test
+    public void testInvalidateCacheWithTooManyChanges() {
+        load("findItem", INDEX_URL, true);
+
+        Set<String> changedPaths = new HashSet<>();
+        for (int i = 0; i < 11; i++) {
+            changedPaths.add("/site/website/page" + i + "/index.xml");
+        }
+        changedPaths.add(INDEX_URL);
+
+        assertFalse(invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(), changedPaths)));
+        assertFalse(invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(), new HashSet<>(
+            Arrays.asList(INDEX_URL, "/config/engine/site-config.xml")))));
+
+        assertEquals(1, load("findItem", INDEX_URL, true));
+    }
+
+    @Test
+    public void testInvalidateCacheEvictsComponentFragments() {
+        String headerScriptUrl = "/scripts/components/header.groovy";
+        String headerKey = "componentOutputCache:/site/components/header.xml|/templates/web/header.ftl|en|";
+        String footerKey = "componentOutputCache:/site/components/footer.xml|/templates/web/footer.ftl|en|";
+
+        ContentDependencyGraph dependencyGraph = siteContext.getDependencyGraph();
+        dependencyGraph.register(headerKey, Arrays.asList("/site/components/header.xml", "/templates/web/header.ftl",
+                                                          headerScriptUrl, "/site/components/menu.xml"), key -> true);
+        dependencyGraph.register(footerKey, Arrays.asList("/site/components/footer.xml", "/templates/web/footer.ftl"),
+                                 key -> true);
+
+        cache.put(headerKey, "<header/>");
+        cache.put(footerKey, "<footer/>");
+
+        invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(),
+                                                               Collections.singleton(headerScriptUrl)));
+
+        assertFalse(cache.containsKey(headerKey));
+        assertTrue(cache.containsKey(footerKey));
+
+        cache.put(headerKey, "<header/>");
+        dependencyGraph.register(headerKey, Collections.singleton("/site/components/menu.xml"), key -> true);
+
+        // Changes in nested components evict the enclosing fragment too
+        invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(),
+                                                               Collections.singleton("/site/components/menu.xml")));
+
+        assertFalse(cache.containsKey(headerKey));
+        assertTrue(cache.containsKey(footerKey));
+    }
+
+    @Test
+    public void testInvalidateCacheEvictsDependentPages() {
+        String headerUrl = "/site/components/header.xml";
+        String aboutPageKey = "pageOutputCache:/about|en|";
+        String articlesPageKey = "pageOutputCache:/articles|en|";
+        String contactPageKey = "pageOutputCache:/contact|en|";
+
+        ContentDependencyGraph dependencyGraph = siteContext.getDependencyGraph();
+        dependencyGraph.register(contactPageKey, Collections.singleton("/site/website/contact/index.xml"), key -> true);
+        dependencyGraph.register(aboutPageKey, Arrays.asList(ABOUT_URL, headerUrl), key -> true);
+        dependencyGraph.register(articlesPageKey, Collections.singleton("/site/website/articles"), key -> true);
+
+        cache.put(aboutPageKey, new Object());
+        cache.put(articlesPageKey, new Object());
+        cache.put(contactPageKey, new Object());
+        invalidator.setAlwaysEvictKeyPatterns(null);
+
+        invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(),
+                                                               Collections.singleton(headerUrl)));
+
+        assertFalse(cache.containsKey(aboutPageKey));
+        assertTrue(cache.containsKey(contactPageKey));
+        assertTrue(cache.containsKey(articlesPageKey));
+        assertTrue(dependencyGraph.getDependencies(aboutPageKey).isEmpty());
+
+        // Pages that list a folder are evicted when a page is created under it
+        invalidator.invalidateCache(siteContext, createChanges(
+            Collections.singleton("/site/website/articles/new/index.xml"), Collections.emptySet()));
+
+        assertFalse(cache.containsKey(articlesPageKey));
+        assertTrue(cache.containsKey(contactPageKey));
+
+        // Pages without dependencies are evicted when they match a pattern
+        invalidator.setAlwaysEvictKeyPatterns(new String[] { "pageOutputCache:.*" });
+        dependencyGraph.register(articlesPageKey, Collections.emptySet(), key -> true);
+        cache.put(articlesPageKey, new Object());
+
+        invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(),
+                                                               Collections.singleton(headerUrl)));
+
+        assertFalse(cache.containsKey(articlesPageKey));
+        assertFalse(cache.containsKey(contactPageKey));
+    }
+
+    @Test
+    public void testSitePatternsOverrideTheGlobalOnes() {
+        String pageKey = "pageOutputCache:/about|en|";
+        BaseConfiguration config = new BaseConfiguration();
+        config.addProperty(SiteProperties.CACHE_ALWAYS_EVICT_KEY_PATTERNS_CONFIG_KEY, ".*breadcrumb.*");
+
+        when(siteContext.getSettings()).thenReturn(SiteSettings.compile(config, 0));
+
+        siteContext.getDependencyGraph().register(pageKey, Collections.emptySet(), key -> true);
+        cache.put(pageKey, new Object());
+        load("breadcrumb", "home");
+
+        invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(),
+                                                               Collections.singleton(INDEX_URL)));
+
+        assertTrue(cache.containsKey(pageKey));
+        assertEquals(2, load("breadcrumb", "home"));
+    }
+
+    @Test
+    public void testInvalidateCacheWithoutDependencyGraph() {
+        String pageKey = "pageOutputCache:/about|en|";
+        String fragmentKey = "componentOutputCache:/site/components/footer.xml|/templates/web/footer.ftl|en|";
+
+        when(siteContext.getDependencyGraph()).thenReturn(new ContentDependencyGraph(0));
+
+        cache.put(pageKey, new Object());
+        cache.put(fragmentKey, "<footer/>");
+        load("findItem", ABOUT_URL, true);
+
+        invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(),
+                                                               Collections.singleton(INDEX_URL)));
+
+        // The outputs are not tracked, so all of them are evicted
+        assertFalse(cache.containsKey(pageKey));
+        assertFalse(cache.containsKey(fragmentKey));
+        assertEquals(1, load("findItem", ABOUT_URL, true));
+    }
+
+    @Test
+    public void testInvalidateCacheRemovesChangedTemplates() throws Exception {
+        CrafterCacheAwareConfiguration configuration = mock(CrafterCacheAwareConfiguration.class);
+        FreeMarkerConfig freeMarkerConfig = mock(FreeMarkerConfig.class);
+        when(freeMarkerConfig.getConfiguration()).thenReturn(configuration);
+        when(siteContext.getFreeMarkerConfig()).thenReturn(freeMarkerConfig);
+
+        invalidator.invalidateCache(siteContext, createChanges(Collections.emptySet(),
+                                                               new HashSet<>(Arrays.asList(INDEX_URL,
+                                                                                           PAGE_TEMPLATE_URL))));
+
+        verify(configuration).removeTemplatesFromCache(Collections.singleton(PAGE_TEMPLATE_URL));
+        verify(configuration, never()).clearTemplateCache();
+    }
+
+    @Test
+    public void testInvalidateCacheUpdatesWarmUpState() {
+        context.setPreloadedFolders(Collections.singletonList(new PreloadedFolder(
+            "/site/website", -1, new TreeSet<>(Arrays.asList(INDEX_URL, "/site/website/about", ABOUT_URL)))));
+
+        CacheWarmUpSnapshot snapshot = new CacheWarmUpSnapshot("v1");
+        snapshot.addItem(createItem(INDEX_URL));
+        snapshot.addItem(createItem(ABOUT_URL));
+        context.setSnapshot(snapshot);
+
+        assertEquals(Boolean.FALSE, context.getPathIndex().exists(NEW_PAGE_URL));
+
+        invalidator.invalidateCache(siteContext, createChanges(Collections.singleton(NEW_PAGE_URL),
+                                                               Collections.singleton(ABOUT_URL)));
+
+        assertEquals(Boolean.TRUE, context.getPathIndex().exists(NEW_PAGE_URL));
+        assertEquals(Boolean.TRUE, context.getPathIndex().exists("/site/website/new"));
+        assertNull(snapshot.getItem(ABOUT_URL));
+        assertEquals(INDEX_URL, snapshot.getItem(INDEX_URL).getUrl());
+    }
+
+    /**
+     * Gets the entry with the specified key elements through the cache template, returning the number of times it
+     * has been loaded. If a dependency path is specified, it's recorded while the entry is loaded.
+     */
+    private int load(Object... keyElements) {
+        String name = Arrays.deepToString(keyElements);
+        Object value = cacheTemplate.getObject(context, (Callback<Object>) () -> {
+            if (keyElements.length == 3 && keyElements[0].equals("view")) {
+                ContentDependencyTracker.addDependency((String) keyElements[2]);
+            }
+
+            loads.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+
+            return new Object();
+        }, keyElements);
+
+        assertSame(value, cacheTemplate.getObject(context, () -> null, keyElements));
+
+        return loads.get(name).get();
+    }
+
+    private DeploymentChanges createChanges(Set<String> created, Set<String> updated) {
+        return new DeploymentChanges(1000, 500, new LinkedHashSet<>(created), new LinkedHashSet<>(updated),
+                                     new LinkedHashSet<>());
+    }
+
+    private Item createItem(String url) {
+        Item item = new Item();
+        item.setUrl(url);
+        item.setDescriptorUrl(url);
+
+        return item;
+    }
+
+    private static class MapCacheTemplate implements CacheTemplate {
+
+        private final CacheService cacheService;
+
+        MapCacheTemplate(CacheService cacheService) {
+            this.cacheService = cacheService;
+        }
+
+        @Override
+        public CacheService getCacheService() {
+            return cacheService;
+        }
+
+        @Override
+        public <T> T getObject(Context context, Callback<T> callback, Object... keyElements) {
+            return getObject(context, null, callback, keyElements);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getObject(Context context, CachingOptions cachingOptions, Callback<T> callback,
+                               Object... keyElements) {
+            String key = Arrays.deepToString(keyElements);
+            T value = (T) cacheService.get(context, key);
+            if (value == null) {
+                value = callback.execute();
+                cacheService.put(context, key, value);
+            }
+
+            return value;
+        }
+
+    }
+
+}
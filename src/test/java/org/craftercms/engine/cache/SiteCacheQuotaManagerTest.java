@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.Context;
+import org.craftercms.engine.event.SiteContextCreatedEvent;
+import org.craftercms.engine.event.SiteContextDestroyedEvent;
+import org.craftercms.engine.service.context.SiteContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SiteCacheQuotaManager}.
+ *
+ * @author avasquez
+ */
+public class SiteCacheQuotaManagerTest {
+
+    private Context context;
+    private Map<Object, Object> entries;
+    private SiteCacheQuotaManager quotaManager;
+
+    @Before
+    public void setUp() {
+        context = mock(Context.class);
+        when(context.getId()).thenReturn("test");
+
+        entries = new ConcurrentHashMap<>();
+
+        CacheService cacheService = mock(CacheService.class);
+        doAnswer(invocation -> new ArrayList<>(entries.keySet())).when(cacheService).getKeys(any());
+        doAnswer(invocation -> entries.get(invocation.getArgument(1))).when(cacheService).get(any(), any());
+        doAnswer(invocation -> entries.remove(invocation.getArgument(1)) != null)
+            .when(cacheService).remove(any(), any());
+
+        quotaManager = new SiteCacheQuotaManager();
+        quotaManager.setCacheService(cacheService);
+        quotaManager.setSizeEstimator(new FixedSizeEstimator());
+        quotaManager.setDefaultMaxSize(100);
+        quotaManager.setLowWatermark(0.9);
+        quotaManager.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        quotaManager.destroy();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        access("a", new Value(40));
+        access("b", new Value(40));
+        access("a", entries.get("a"));
+        // Goes over the max size, so b (the least recently used) should be evicted
+        access("c", new Value(40));
+
+        waitForEnforcements(1);
+
+        assertTrue(entries.containsKey("a"));
+        assertFalse(entries.containsKey("b"));
+        assertTrue(entries.containsKey("c"));
+
+        CacheQuotaStats stats = quotaManager.getStatistics(context);
+        assertEquals(100, stats.getMaxSize());
+        assertEquals(80, stats.getUsage());
+        assertEquals(1, stats.getEvictions());
+    }
+
+    @Test
+    public void testValuesNotAccessedThroughTheTemplateAreNotEvicted() {
+        entries.put("internal", new Value(200));
+        access("a", new Value(40));
+
+        quotaManager.enforceQuota(context, quotaManager.getState(context));
+
+        assertTrue(entries.containsKey("internal"));
+        assertFalse(entries.containsKey("a"));
+        assertEquals(200, quotaManager.getStatistics(context).getUsage());
+    }
+
+    @Test
+    public void testSharedValuesAreCountedOnce() {
+        Value value = new Value(60);
+        access("a", value);
+        access("b", value);
+
+        quotaManager.enforceQuota(context, quotaManager.getState(context));
+
+        assertEquals(60, quotaManager.getStatistics(context).getUsage());
+        assertEquals(0, quotaManager.getStatistics(context).getEvictions());
+    }
+
+    @Test
+    public void testSiteMaxSizeIsResolvedWhenTheContextIsCreated() {
+        SiteContext siteContext = mock(SiteContext.class);
+        when(siteContext.getContext()).thenReturn(context);
+        when(siteContext.getCacheMaxSize()).thenReturn(500L);
+
+        quotaManager.onApplicationEvent(new SiteContextCreatedEvent(siteContext));
+
+        access("a", new Value(200));
+
+        quotaManager.enforceQuota(context, quotaManager.getState(context));
+
+        assertTrue(entries.containsKey("a"));
+        assertEquals(500, quotaManager.getStatistics(context).getMaxSize());
+
+        quotaManager.onApplicationEvent(new SiteContextDestroyedEvent(siteContext));
+
+        assertEquals(100, quotaManager.getStatistics(context).getMaxSize());
+        assertEquals(0, quotaManager.getStatistics(context).getUsage());
+    }
+
+    @Test
+    public void testCollectedValuesAreSubtractedFromTheUsage() {
+        access("a", new Value(40));
+        access("b", new Value(30));
+
+        assertEquals(70, quotaManager.getStatistics(context).getUsage());
+
+        // Simulate the garbage collection of the values
+        quotaManager.getState(context).entries.keySet().forEach(Reference::enqueue);
+
+        assertEquals(0, quotaManager.getStatistics(context).getUsage());
+        assertEquals(0, quotaManager.getStatistics(context).getEntries());
+    }
+
+    @Test
+    public void testCollectedValuesAreNotPurgedOnHits() {
+        Value a = new Value(40);
+        access("a", a);
+        access("b", new Value(30));
+
+        SiteCacheQuotaManager.QuotaState state = quotaManager.getState(context);
+
+        // Simulate the garbage collection of b
+        state.entries.keySet().stream().filter(key -> key.get() != a).forEach(Reference::enqueue);
+
+        quotaManager.recordAccess(context, a);
+
+        assertEquals(70, state.usage.get());
+
+        // Recording a new value drains the queue
+        access("c", new Value(20));
+
+        assertEquals(60, state.usage.get());
+        assertEquals(2, state.entries.size());
+    }
+
+    private void access(String key, Object value) {
+        entries.put(key, value);
+        quotaManager.recordAccess(context, value);
+    }
+
+    private void waitForEnforcements(long count) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (quotaManager.getStatistics(context).getEnforcements() < count &&
+               System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static class Value {
+
+        private final long size;
+
+        Value(long size) {
+            this.size = size;
+        }
+
+    }
+
+    private static class FixedSizeEstimator extends CacheObjectSizeEstimator {
+
+        @Override
+        public long estimate(Object obj) {
+            return ((Value) obj).size;
+        }
+
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.craftercms.commons.lang.Callback;
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.CachingOptions;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link StaleWhileRevalidateCacheTemplate}.
+ *
+ * @author avasquez
+ */
+public class StaleWhileRevalidateCacheTemplateTest {
+
+    private Context context;
+    private MapCacheTemplate actualCacheTemplate;
+    private StaleWhileRevalidateCacheTemplate cacheTemplate;
+
+    @Before
+    public void setUp() {
+        context = mock(Context.class);
+        when(context.getId()).thenReturn("test");
+
+        actualCacheTemplate = new MapCacheTemplate();
+
+        KeyIndexingCacheTemplate keyIndexingCacheTemplate = new KeyIndexingCacheTemplate();
+        keyIndexingCacheTemplate.setActualCacheTemplate(actualCacheTemplate);
+        keyIndexingCacheTemplate.setMaxKeys(100);
+
+        cacheTemplate = new StaleWhileRevalidateCacheTemplate();
+        cacheTemplate.setActualCacheTemplate(keyIndexingCacheTemplate);
+        cacheTemplate.setKeyIndexingCacheTemplate(keyIndexingCacheTemplate);
+        cacheTemplate.setEnabled(true);
+        cacheTemplate.setWaitTimeout(TimeUnit.SECONDS.toMillis(10));
+        cacheTemplate.setLoadOnTimeout(true);
+        cacheTemplate.setPropagateFailures(true);
+        cacheTemplate.setMaxStaleness(60);
+        cacheTemplate.setRefreshPoolSize(1);
+        cacheTemplate.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        cacheTemplate.destroy();
+    }
+
+    @Test
+    public void testStaleValueIsServedWhileRefreshed() throws Exception {
+        Value oldValue = new Value("old");
+        Value newValue = new Value("new");
+
+        assertSame(oldValue, getObject("/page.xml", () -> oldValue));
+
+        cacheTemplate.markStale(context, 0, null);
+
+        assertSame(oldValue, getObject("/page.xml", () -> newValue));
+
+        waitForRefreshes(1);
+
+        assertSame(newValue, getObject("/page.xml", () -> new Value("other")));
+        assertEquals(1, cacheTemplate.getStaleHits());
+        assertEquals(0, cacheTemplate.getStaleValueCount(context));
+    }
+
+    @Test
+    public void testExcludedPathsAreNeverStale() {
+        getObject("/prices/item.xml", () -> new Value("old"));
+
+        cacheTemplate.markStale(context, 0, new String[] { "/prices/.*" });
+
+        assertEquals("new", getObject("/prices/item.xml", () -> new Value("new")).name);
+        assertEquals(0, cacheTemplate.getStaleHits());
+    }
+
+    @Test
+    public void testExcludedPathsAreMatchedAgainstKeyElements() {
+        cacheTemplate.getObject(context, () -> new Value("old"), "findItem", "/prices/item.xml", true);
+
+        cacheTemplate.markStale(context, 0, new String[] { "/prices/.*" });
+
+        assertEquals("new", cacheTemplate.getObject(context, () -> new Value("new"), "findItem", "/prices/item.xml",
+                                                    true).name);
+        assertEquals(0, cacheTemplate.getStaleHits());
+    }
+
+    @Test
+    public void testDirectEntriesAreCleared() {
+        getObject("/page.xml", () -> new Value("old"));
+        actualCacheTemplate.entries.put("pageOutputCache:/page", "<html/>");
+
+        cacheTemplate.markStale(context, 0, null);
+
+        assertFalse(actualCacheTemplate.entries.containsKey("pageOutputCache:/page"));
+        assertEquals(1, cacheTemplate.getStaleValueCount(context));
+    }
+
+    @Test
+    public void testStaleEntriesExpire() {
+        getObject("/page.xml", () -> new Value("old"));
+
+        cacheTemplate.markStale(context, 0, null);
+        // A new clear expires the entries that are still stale
+        cacheTemplate.markStale(context, 0, null);
+
+        assertEquals("new", getObject("/page.xml", () -> new Value("new")).name);
+        assertEquals(1, cacheTemplate.getExpiredEntries());
+    }
+
+    @Test
+    public void testLoadersNeverGetStaleValues() {
+        getObject("/component.xml", () -> new Value("old"));
+
+        cacheTemplate.markStale(context, 0, null);
+
+        Value page = getObject("/page.xml", () -> {
+            Value component = getObject("/component.xml", () -> new Value("new"));
+            return new Value("page with " + component.name);
+        });
+
+        assertEquals("page with new", page.name);
+        assertEquals(0, cacheTemplate.getStaleHits());
+    }
+
+    private Value getObject(String path, Callback<Value> callback) {
+        return cacheTemplate.getObject(context, callback, path);
+    }
+
+    private void waitForRefreshes(long count) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (cacheTemplate.getRefreshes() < count && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static class Value {
+
+        private final String name;
+
+        Value(String name) {
+            this.name = name;
+        }
+
+    }
+
+    /**
+     * Simple cache template backed by a map, with a mock {@link CacheService} that accesses the same map.
+     */
+    private static class MapCacheTemplate implements CacheTemplate {
+
+        private final Map<Object, Object> entries = new ConcurrentHashMap<>();
+        private final CacheService cacheService = mock(CacheService.class);
+
+        MapCacheTemplate() {
+            doAnswer(invocation -> new ArrayList<>(entries.keySet())).when(cacheService).getKeys(any());
+            doAnswer(invocation -> entries.get(invocation.getArgument(1))).when(cacheService).get(any(), any());
+            doAnswer(invocation -> entries.remove(invocation.getArgument(1)) != null)
+                .when(cacheService).remove(any(), any());
+            doAnswer(invocation -> {
+                entries.clear();
+                return null;
+            }).when(cacheService).clearScope(any());
+        }
+
+        @Override
+        public CacheService getCacheService() {
+            return cacheService;
+        }
+
+        @Override
+        public <T> T getObject(Context context, Callback<T> callback, Object... keyElements) {
+            return getObject(context, null, callback, keyElements);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getObject(Context context, CachingOptions cachingOptions, Callback<T> callback,
+                               Object... keyElements) {
+            String key = Arrays.deepToString(keyElements);
+            T value = (T) entries.get(key);
+            if (value == null) {
+                value = callback.execute();
+                entries.put(key, value);
+            }
+
+            return value;
+        }
+
+    }
+
+}
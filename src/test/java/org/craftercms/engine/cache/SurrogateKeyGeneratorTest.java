@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link SurrogateKeyGenerator}.
+ *
+ * @author avasquez
+ */
+public class SurrogateKeyGeneratorTest {
+
+    private static final String SITE_NAME = "test";
+
+    @Test
+    public void testGetKeys() {
+        SurrogateKeyGenerator keyGenerator = new SurrogateKeyGenerator();
+        keyGenerator.setHashKeys(false);
+
+        Set<String> keys = keyGenerator.getKeys(SITE_NAME, Arrays.asList("/templates/web/page.ftl",
+                                                                         "/site/website/index.xml"));
+
+        assertEquals(Arrays.asList("test", "test:/site/website/index.xml", "test:/templates/web/page.ftl"),
+                     Arrays.asList(keys.toArray()));
+    }
+
+    @Test
+    public void testGetPurgeKeys() {
+        SurrogateKeyGenerator keyGenerator = new SurrogateKeyGenerator();
+        keyGenerator.setHashKeys(false);
+
+        Set<String> keys = keyGenerator.getPurgeKeys(SITE_NAME,
+                                                     Collections.singleton("/site/website/articles/index.xml"));
+
+        assertEquals(4, keys.size());
+        assertTrue(keys.contains("test:/site/website/articles/index.xml"));
+        assertTrue(keys.contains("test:/site/website/articles"));
+        assertTrue(keys.contains("test:/site/website"));
+        assertTrue(keys.contains("test:/site"));
+    }
+
+    @Test
+    public void testHashedKeys() {
+        SurrogateKeyGenerator keyGenerator = new SurrogateKeyGenerator();
+        keyGenerator.setHashKeys(true);
+
+        String key = keyGenerator.getKey(SITE_NAME, "/site/website/index.xml");
+
+        assertEquals(16, key.length());
+        assertEquals(key, keyGenerator.getKey(SITE_NAME, "/site/website/index.xml"));
+        assertNotEquals(key, keyGenerator.getKey("other", "/site/website/index.xml"));
+        assertTrue(keyGenerator.getPurgeKeys(SITE_NAME, Collections.singleton("/site/website/index.xml"))
+                               .contains(key));
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.controller;
+
+import org.craftercms.commons.lang.Callback;
+import org.craftercms.core.service.Content;
+import org.craftercms.core.service.ContentStoreService;
+import org.craftercms.engine.service.context.SiteContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.HttpRequestMethodNotSupportedException;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.resource.HttpResource;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the conditional request and compression support of {@link StaticAssetsRequestHandler}.
+ *
+ * @author avasquez
+ */
+public class StaticAssetsRequestHandlerTest {
+
+    private static final String PATH = "/static-assets/css/main.css";
+    private static final byte[] CONTENT = "body { color: black; }".getBytes(StandardCharsets.UTF_8);
+    private static final long LAST_MODIFIED = 1600000000000L;
+
+    private StaticAssetsRequestHandler handler;
+    private SiteContext siteContext;
+    private Content content;
+
+    @Before
+    public void setUp() throws Exception {
+        handler = new StaticAssetsRequestHandler();
+
+        siteContext = mock(SiteContext.class);
+        doAnswer(invocation -> ((Callback<?>) invocation.getArgument(0)).execute())
+            .when(siteContext).getFromCache(any(), any(), any(), any(), any());
+
+        content = mock(Content.class);
+        when(content.getLastModified()).thenReturn(LAST_MODIFIED);
+        when(content.getLength()).thenReturn((long) CONTENT.length);
+        when(content.getInputStream()).then(invocation -> new ByteArrayInputStream(CONTENT));
+    }
+
+    @Test
+    public void testIfNoneMatchMatches() {
+        String etag = getEtag();
+
+        MockHttpServletRequest request = createRequest();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(handler.checkNotModified(request, response, siteContext, PATH, content));
+        assertEquals(304, response.getStatus());
+        assertEquals(etag, response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testIfNoneMatchDoesNotMatch() {
+        MockHttpServletRequest request = createRequest();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(handler.checkNotModified(request, response, siteContext, PATH, content));
+        assertEquals(200, response.getStatus());
+        assertEquals(getEtag(), response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testEtagFromStoreMetadata() throws Exception {
+        String etag = getEtag();
+
+        when(content.getLastModified()).thenReturn(LAST_MODIFIED + 1000);
+
+        assertNotEquals(etag, getEtag());
+        verify(content, never()).getInputStream();
+    }
+
+    @Test(expected = HttpRequestMethodNotSupportedException.class)
+    public void testRequestCheckedBeforeNotModified() throws Exception {
+        ContentStoreService contentStoreService = mock(ContentStoreService.class);
+        when(contentStoreService.findContent(any(), any())).thenReturn(content);
+
+        handler.setContentStoreService(contentStoreService);
+        handler.setStaticAssetsPath("/static-assets");
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", PATH);
+        request.setAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, "css/main.css");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, getEtag());
+
+        SiteContext.setCurrent(siteContext);
+        try {
+            handler.handleRequest(request, new MockHttpServletResponse());
+        } finally {
+            SiteContext.clear();
+        }
+    }
+
+    @Test
+    public void testIfModifiedSince() {
+        MockHttpServletRequest request = createRequest();
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(handler.checkNotModified(request, response, siteContext, PATH, content));
+        assertEquals(304, response.getStatus());
+
+        request = createRequest();
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED - 60000);
+        response = new MockHttpServletResponse();
+
+        assertFalse(handler.checkNotModified(request, response, siteContext, PATH, content));
+        assertEquals(200, response.getStatus());
+        assertNotNull(response.getHeader(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Test
+    public void testNotModifiedKeepsVaryAndEtag() {
+        handler.setCompressionEnabled(true);
+        handler.setCompressibleMediaTypes(new String[] { "text/*" });
+
+        String etag = getEtag();
+
+        MockHttpServletRequest request = createRequest();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(handler.checkNotModified(request, response, siteContext, PATH, content));
+        assertEquals(304, response.getStatus());
+        assertEquals(etag, response.getHeader(HttpHeaders.ETAG));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeader(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void testGzipEtagOnlyWhenCompressedAvailable() {
+        ContentStoreService contentStoreService = mock(ContentStoreService.class);
+
+        handler.setContentStoreService(contentStoreService);
+        handler.setCompressionEnabled(true);
+        handler.setCompressibleMediaTypes(new String[] { "text/*" });
+        handler.setMaxCompressibleSize(CONTENT.length);
+
+        String etag = getEtag();
+        String gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+
+        MockHttpServletRequest request = createRequest();
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(handler.checkNotModified(request, response, siteContext, PATH, content));
+        assertEquals(gzipEtag, response.getHeader(HttpHeaders.ETAG));
+        assertEquals(Boolean.TRUE, request.getAttribute(StaticAssetsRequestHandler.GZIP_ATTRIBUTE_NAME));
+
+        // Too big to be compressed on the fly and no .gz sibling, so the uncompressed body is sent
+        handler.setMaxCompressibleSize(CONTENT.length - 1);
+
+        request = createRequest();
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        response = new MockHttpServletResponse();
+
+        assertFalse(handler.checkNotModified(request, response, siteContext, PATH, content));
+        assertEquals(etag, response.getHeader(HttpHeaders.ETAG));
+        assertEquals(Boolean.FALSE, request.getAttribute(StaticAssetsRequestHandler.GZIP_ATTRIBUTE_NAME));
+
+        // With a .gz sibling the compressed body is sent again, with the validators of the sibling
+        Content precompressed = mockPrecompressed(contentStoreService, LAST_MODIFIED + 1000);
+
+        request = createRequest();
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        response = new MockHttpServletResponse();
+
+        assertFalse(handler.checkNotModified(request, response, siteContext, PATH, content));
+        assertEquals(handler.getEtag(precompressed), response.getHeader(HttpHeaders.ETAG));
+        assertEquals(LAST_MODIFIED + 1000, response.getDateHeader(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Test
+    public void testStalePrecompressedNotServed() {
+        ContentStoreService contentStoreService = mock(ContentStoreService.class);
+
+        handler.setContentStoreService(contentStoreService);
+        handler.setCompressionEnabled(true);
+        handler.setCompressibleMediaTypes(new String[] { "text/*" });
+        handler.setMaxCompressibleSize(CONTENT.length - 1);
+
+        // The sibling was generated before the last update of the asset
+        mockPrecompressed(contentStoreService, LAST_MODIFIED - 1000);
+
+        MockHttpServletRequest request = createRequest();
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(handler.checkNotModified(request, response, siteContext, PATH, content));
+        assertEquals(getEtag(), response.getHeader(HttpHeaders.ETAG));
+        assertEquals(Boolean.FALSE, request.getAttribute(StaticAssetsRequestHandler.GZIP_ATTRIBUTE_NAME));
+        assertNull(handler.getCompressedResource(siteContext, PATH, content));
+    }
+
+    @Test
+    public void testPrecompressedResource() throws Exception {
+        ContentStoreService contentStoreService = mock(ContentStoreService.class);
+
+        handler.setContentStoreService(contentStoreService);
+
+        Content precompressed = mockPrecompressed(contentStoreService, LAST_MODIFIED + 1000);
+        Resource resource = handler.getCompressedResource(siteContext, PATH, content);
+
+        assertNotNull(resource);
+        assertEquals(LAST_MODIFIED + 1000, resource.lastModified());
+        assertEquals(precompressed.getLength(), resource.contentLength());
+
+        HttpHeaders headers = ((HttpResource) resource).getResponseHeaders();
+
+        assertEquals(StaticAssetsRequestHandler.GZIP_ENCODING, headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, headers.getFirst(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(StaticAssetsRequestHandler.acceptsGzip("gzip"));
+        assertTrue(StaticAssetsRequestHandler.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(StaticAssetsRequestHandler.acceptsGzip("x-gzip"));
+        assertTrue(StaticAssetsRequestHandler.acceptsGzip("*"));
+        assertFalse(StaticAssetsRequestHandler.acceptsGzip(null));
+        assertFalse(StaticAssetsRequestHandler.acceptsGzip("deflate, br"));
+        assertFalse(StaticAssetsRequestHandler.acceptsGzip("gzip;q=0"));
+        assertFalse(StaticAssetsRequestHandler.acceptsGzip("gzip; q=0.0, *"));
+        assertFalse(StaticAssetsRequestHandler.acceptsGzip("*;q=0"));
+    }
+
+    private MockHttpServletRequest createRequest() {
+        return new MockHttpServletRequest("GET", PATH);
+    }
+
+    private Content mockPrecompressed(ContentStoreService contentStoreService, long lastModified) {
+        Content precompressed = mock(Content.class);
+        when(precompressed.getLastModified()).thenReturn(lastModified);
+        when(precompressed.getLength()).thenReturn(10L);
+
+        when(contentStoreService.findContent(any(), eq(PATH + StaticAssetsRequestHandler.GZIP_EXTENSION)))
+            .thenReturn(precompressed);
+
+        return precompressed;
+    }
+
+    private String getEtag() {
+        return handler.getEtag(content);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.properties;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.craftercms.engine.service.context.SiteContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.craftercms.engine.properties.SiteProperties.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author avasquez
+ */
+public class SiteSettingsTest {
+
+    private XMLConfiguration config;
+    private SiteContext siteContext;
+
+    @Before
+    public void setUp() {
+        config = new XMLConfiguration();
+        config.setProperty(TARGETING_ENABLED_CONFIG_KEY, true);
+        config.setProperty(ROOT_FOLDERS_CONFIG_KEY, "/site/website");
+        config.setProperty(CACHE_WARMUP_DESCRIPTOR_FOLDERS_CONFIG_KEY, "/site/website:2");
+
+        siteContext = new SiteContext();
+        siteContext.setConfig(config);
+
+        SiteContext.setCurrent(siteContext);
+    }
+
+    @After
+    public void tearDown() {
+        SiteContext.clear();
+    }
+
+    @Test
+    public void testSettingsAreCompiledOnce() {
+        SiteSettings settings = siteContext.getSettings();
+
+        assertSame(settings, siteContext.getSettings());
+        assertTrue(SiteProperties.isTargetingEnabled());
+        assertArrayEquals(new String[] { "/site/website" }, SiteProperties.getRootFolders());
+        assertEquals(Integer.valueOf(2), SiteProperties.getDescriptorPreloadFolders().get("/site/website"));
+        assertEquals(DEFAULT_INDEX_FILE_NAME, SiteProperties.getIndexFileName());
+        assertEquals(0, SiteProperties.getNavigationAdditionalFields().length);
+        assertEquals(DEFAULT_PAGE_CACHE_TTL, SiteProperties.getPageCacheDefaultTtl());
+    }
+
+    @Test
+    public void testSettingsAreImmutable() {
+        SiteProperties.getRootFolders()[0] = "/site/components";
+
+        assertArrayEquals(new String[] { "/site/website" }, SiteProperties.getRootFolders());
+    }
+
+    @Test
+    public void testSettingsAreSwappedOnConfigChange() {
+        SiteSettings settings = siteContext.getSettings();
+
+        config.setProperty(TARGETING_ENABLED_CONFIG_KEY, false);
+
+        assertNotSame(settings, siteContext.getSettings());
+        assertTrue(settings.isTargetingEnabled());
+        assertFalse(SiteProperties.isTargetingEnabled());
+
+        XMLConfiguration newConfig = new XMLConfiguration();
+        newConfig.setProperty(INDEX_FILE_NAME_CONFIG_KEY, "default.xml");
+
+        siteContext.setConfig(newConfig);
+
+        assertEquals("default.xml", SiteProperties.getIndexFileName());
+        assertFalse(SiteProperties.isTargetingEnabled());
+    }
+
+    @Test
+    public void testDefaultsWithoutSiteContext() {
+        SiteContext.clear();
+
+        assertSame(SiteSettings.DEFAULTS, SiteProperties.getCurrentSettings());
+        assertFalse(SiteProperties.isTargetingEnabled());
+        assertNull(SiteProperties.getRootFolders());
+        assertEquals(DEFAULT_INDEX_FILE_NAME, SiteProperties.getIndexFileName());
+        assertTrue(SiteProperties.getContentPreloadFolders().isEmpty());
+    }
+
+}
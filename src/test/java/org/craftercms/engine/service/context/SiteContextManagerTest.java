@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.service.context;
+
+import org.craftercms.commons.entitlements.validator.EntitlementValidator;
+import org.craftercms.engine.exception.SiteContextInitializationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.quartz.Scheduler;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link SiteContextManager}.
+ *
+ * @author avasquez
+ */
+public class SiteContextManagerTest {
+
+    private static final String SITE_NAME = "test";
+    private static final String NEW_SITE_NAME = "test2";
+
+    private SiteContextManager contextManager;
+    private SiteContextFactory contextFactory;
+    private SiteContext currentContext;
+
+    @Before
+    public void setUp() throws Exception {
+        contextFactory = mock(SiteContextFactory.class);
+        currentContext = createSiteContext();
+
+        when(contextFactory.createContext(SITE_NAME)).thenReturn(currentContext);
+
+        contextManager = new SiteContextManager();
+        contextManager.setContextFactory(contextFactory);
+        contextManager.setFallbackContextFactory(mock(SiteContextFactory.class));
+        contextManager.setEntitlementValidator(mock(EntitlementValidator.class));
+        contextManager.setWaitForContextInit(false);
+        contextManager.setDefaultSiteName("default");
+
+        assertSame(currentContext, contextManager.getContext(SITE_NAME, false));
+    }
+
+    @Test
+    public void testRebuildSwapsContextWhenReady() throws Exception {
+        SiteContext newContext = createSiteContext();
+        when(contextFactory.createContext(SITE_NAME)).thenReturn(newContext);
+
+        assertSame(newContext, contextManager.rebuildContext(SITE_NAME, false));
+        assertSame(newContext, contextManager.getContext(SITE_NAME, false));
+
+        // The new context is always fully initialized before the swap
+        verify(newContext).init(true);
+        verify(currentContext).destroy();
+        verify(newContext, never()).destroy();
+    }
+
+    @Test
+    public void testRebuildStopsOldJobsBeforeStartingNewOnes() throws Exception {
+        SiteContext newContext = createSiteContext();
+        when(contextFactory.createContext(SITE_NAME)).thenReturn(newContext);
+
+        contextManager.rebuildContext(SITE_NAME, false);
+
+        InOrder inOrder = inOrder(currentContext, newContext);
+        inOrder.verify(currentContext).shutdownScheduler();
+        inOrder.verify(newContext).startScheduler();
+    }
+
+    @Test
+    public void testRebuildOfUnloadedSite() throws Exception {
+        contextManager.setIdleTimeout(1000);
+        contextManager.unloadIdleContexts();
+
+        SiteContext newContext = createSiteContext();
+        when(contextFactory.createContext(SITE_NAME)).thenReturn(newContext);
+
+        assertSame(newContext, contextManager.rebuildContext(SITE_NAME, false));
+        assertFalse(contextManager.unloadedSites.contains(SITE_NAME));
+
+        // The rebuilt context is used, instead of loading the site again
+        assertSame(newContext, contextManager.getContext(SITE_NAME, false));
+        verify(contextFactory, times(2)).createContext(SITE_NAME);
+    }
+
+    @Test
+    public void testFailedRebuildKeepsCurrentContext() throws Exception {
+        SiteContext newContext = createSiteContext();
+        doThrow(new SiteContextInitializationException("Init failed", null)).when(newContext).init(true);
+        when(contextFactory.createContext(SITE_NAME)).thenReturn(newContext);
+
+        assertSame(currentContext, contextManager.rebuildContext(SITE_NAME, false));
+        assertSame(currentContext, contextManager.getContext(SITE_NAME, false));
+
+        verify(currentContext, never()).destroy();
+    }
+
+    @Test
+    public void testNotReadyRebuildKeepsCurrentContext() throws Exception {
+        SiteContext newContext = createSiteContext();
+        when(newContext.getState()).thenReturn(SiteContext.State.INITIALIZING);
+        when(contextFactory.createContext(SITE_NAME)).thenReturn(newContext);
+
+        assertSame(currentContext, contextManager.rebuildContext(SITE_NAME, false));
+        assertSame(currentContext, contextManager.getContext(SITE_NAME, false));
+
+        verify(newContext).destroy();
+        verify(currentContext, never()).destroy();
+    }
+
+    @Test
+    public void testCreateContextsRetriesFailedSites() throws Exception {
+        SiteContext newContext = createSiteContext(NEW_SITE_NAME);
+        when(contextFactory.createContext(NEW_SITE_NAME))
+            .thenThrow(new IllegalStateException("Store not available"))
+            .thenReturn(newContext);
+
+        SiteListResolver siteListResolver = mock(SiteListResolver.class);
+        when(siteListResolver.getSiteList()).thenReturn(Collections.singletonList(NEW_SITE_NAME));
+
+        contextManager.setSiteListResolver(siteListResolver);
+        contextManager.setStartupConcurrency(2);
+        contextManager.setContextBuildRetryMaxCount(3);
+        contextManager.setContextBuildRetryWaitTimeBase(10);
+        contextManager.setContextBuildRetryWaitTimeMultiplier(2);
+        contextManager.createContexts(true);
+
+        assertSame(newContext, contextManager.getContext(NEW_SITE_NAME, false));
+
+        verify(contextFactory, times(2)).createContext(NEW_SITE_NAME);
+    }
+
+    @Test
+    public void testIdleContextsAreUnloadedAndLoadedAgain() throws Exception {
+        contextManager.setIdleTimeout(1000);
+        contextManager.unloadIdleContexts();
+
+        verify(currentContext).destroy();
+        assertFalse(contextManager.hasValidContext(SITE_NAME));
+
+        // Unloaded sites are not loaded again by the sync, only by a request or a job
+        SiteListResolver siteListResolver = mock(SiteListResolver.class);
+        when(siteListResolver.getSiteList()).thenReturn(Collections.singletonList(SITE_NAME));
+
+        contextManager.setSiteListResolver(siteListResolver);
+        contextManager.syncContexts();
+
+        verify(contextFactory, times(1)).createContext(SITE_NAME);
+
+        SiteContext newContext = createSiteContext();
+        when(contextFactory.createContext(SITE_NAME)).thenReturn(newContext);
+
+        assertSame(newContext, contextManager.getContext(SITE_NAME, false));
+    }
+
+    @Test
+    public void testRecentlyUsedContextsAreNotUnloaded() throws Exception {
+        when(currentContext.getLastAccessTime()).thenReturn(System.currentTimeMillis());
+
+        contextManager.setIdleTimeout(60000);
+        contextManager.unloadIdleContexts();
+
+        verify(currentContext, never()).destroy();
+        assertTrue(contextManager.hasValidContext(SITE_NAME));
+    }
+
+    @Test
+    public void testContextsServingRequestsAreNotUnloaded() throws Exception {
+        when(currentContext.markUnloading()).thenReturn(false);
+
+        contextManager.setIdleTimeout(1000);
+        contextManager.unloadIdleContexts();
+
+        verify(currentContext, never()).destroy();
+        assertTrue(contextManager.hasValidContext(SITE_NAME));
+    }
+
+    @Test
+    public void testContextsAccessedWhileCheckedAreNotUnloaded() throws Exception {
+        long now = System.currentTimeMillis();
+        when(currentContext.getLastAccessTime()).thenReturn(now - 5000, now);
+
+        contextManager.setIdleTimeout(1000);
+        contextManager.unloadIdleContexts();
+
+        verify(currentContext, never()).markUnloading();
+        verify(currentContext, never()).destroy();
+        assertTrue(contextManager.hasValidContext(SITE_NAME));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedContextsAreUnloaded() throws Exception {
+        when(currentContext.getLastAccessTime()).thenReturn(System.currentTimeMillis() - 1000);
+
+        SiteContext newContext = createSiteContext(NEW_SITE_NAME);
+        when(newContext.getLastAccessTime()).thenReturn(System.currentTimeMillis());
+        when(contextFactory.createContext(NEW_SITE_NAME)).thenReturn(newContext);
+
+        contextManager.getContext(NEW_SITE_NAME, false);
+        contextManager.setMaxLoadedContexts(1);
+        contextManager.unloadIdleContexts();
+
+        verify(currentContext).destroy();
+        verify(newContext, never()).destroy();
+        assertTrue(contextManager.hasValidContext(NEW_SITE_NAME));
+    }
+
+    @Test
+    public void testUnloadedContextsAreLoadedAgainForTheirJobs() throws Exception {
+        TriggerKey triggerKey = new TriggerKey("test");
+        Trigger trigger = mock(Trigger.class);
+        when(trigger.getNextFireTime()).thenReturn(new Date(System.currentTimeMillis() + 1000));
+
+        Scheduler scheduler = mock(Scheduler.class);
+        when(scheduler.getTriggerKeys(any())).thenReturn(Collections.singleton(triggerKey));
+        when(scheduler.getTrigger(triggerKey)).thenReturn(trigger);
+        when(currentContext.getScheduler()).thenReturn(scheduler);
+
+        SiteContext newContext = createSiteContext();
+        when(contextFactory.createContext(SITE_NAME)).thenReturn(newContext);
+
+        contextManager.setIdleTimeout(1000);
+        contextManager.setJobWakeUpLeadTime(1000);
+        contextManager.unloadIdleContexts();
+
+        verify(currentContext).destroy();
+        verify(contextFactory, timeout(5000).times(2)).createContext(SITE_NAME);
+    }
+
+    private SiteContext createSiteContext() {
+        return createSiteContext(SITE_NAME);
+    }
+
+    private SiteContext createSiteContext(String siteName) {
+        SiteContext siteContext = mock(SiteContext.class);
+        when(siteContext.getSiteName()).thenReturn(siteName);
+        when(siteContext.getState()).thenReturn(SiteContext.State.READY);
+        when(siteContext.isValid()).thenReturn(true);
+        when(siteContext.markUnloading()).thenReturn(true);
+
+        return siteContext;
+    }
+
+}
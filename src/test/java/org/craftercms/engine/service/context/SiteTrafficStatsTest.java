@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.service.context;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link SiteTrafficStats}.
+ *
+ * @author avasquez
+ */
+public class SiteTrafficStatsTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testSortByTraffic() {
+        SiteTrafficStats stats = createStats(new File(tmpFolder.getRoot(), "stats.properties"));
+
+        recordRequests(stats, "site2", 3);
+        recordRequests(stats, "site3", 5);
+
+        assertEquals(Arrays.asList("site3", "site2", "site1", "site4"),
+                     stats.sortByTraffic(Arrays.asList("site1", "site2", "site3", "site4")));
+    }
+
+    @Test
+    public void testCountsPersistedBetweenRuns() {
+        File statsFile = new File(tmpFolder.getRoot(), "stats/stats.properties");
+
+        SiteTrafficStats stats = createStats(statsFile);
+        recordRequests(stats, "site1", 10);
+        recordRequests(stats, "site2", 4);
+        stats.destroy();
+
+        stats = createStats(statsFile);
+        recordRequests(stats, "site2", 4);
+
+        // Previous counts are halved on load
+        assertEquals(5, stats.getCount("site1"));
+        assertEquals(6, stats.getCount("site2"));
+        assertEquals(Arrays.asList("site2", "site1"), stats.sortByTraffic(Arrays.asList("site1", "site2")));
+    }
+
+    @Test
+    public void testDisabled() {
+        SiteTrafficStats stats = new SiteTrafficStats();
+        stats.setEnabled(false);
+        stats.setStatsFilePath(new File(tmpFolder.getRoot(), "stats.properties").getAbsolutePath());
+        stats.afterPropertiesSet();
+
+        recordRequests(stats, "site2", 3);
+
+        assertEquals(0, stats.getCount("site2"));
+        assertEquals(Arrays.asList("site1", "site2"), stats.sortByTraffic(Arrays.asList("site1", "site2")));
+    }
+
+    @Test
+    public void testNotPersistedWithoutFile() {
+        SiteTrafficStats stats = new SiteTrafficStats();
+        stats.setEnabled(true);
+        stats.setStatsFilePath("");
+        stats.afterPropertiesSet();
+
+        recordRequests(stats, "site2", 3);
+        stats.destroy();
+
+        assertEquals(3, stats.getCount("site2"));
+        assertEquals(Arrays.asList("site2", "site1"), stats.sortByTraffic(Arrays.asList("site1", "site2")));
+    }
+
+    private SiteTrafficStats createStats(File statsFile) {
+        SiteTrafficStats stats = new SiteTrafficStats();
+        stats.setEnabled(true);
+        stats.setStatsFilePath(statsFile.getAbsolutePath());
+        stats.afterPropertiesSet();
+
+        return stats;
+    }
+
+    private void recordRequests(SiteTrafficStats stats, String siteName, int count) {
+        for (int i = 0; i < count; i++) {
+            stats.recordRequest(siteName);
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.service.impl;
+
+import org.craftercms.commons.converters.Converter;
+import org.craftercms.core.service.ContentStoreService;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.service.Item;
+import org.craftercms.engine.cache.ContentDependencyTracker;
+import org.craftercms.engine.model.SiteItem;
+import org.craftercms.engine.test.utils.ConfigAwareTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SiteItemServiceImpl}.
+ *
+ * @author avasquez
+ */
+public class SiteItemServiceImplTest extends ConfigAwareTestBase {
+
+    private static final String INDEX_URL = "/site/website/index.xml";
+    private static final String ABOUT_URL = "/site/website/about/index.xml";
+    private static final String CONTACT_URL = "/site/website/contact/index.xml";
+    private static final String MISSING_URL = "/site/website/missing/index.xml";
+
+    private ContentStoreService storeService;
+    private ExecutorService batchExecutor;
+    private SiteItemServiceImpl siteItemService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        super.setUp();
+
+        Set<String> existingUrls = new HashSet<>(Arrays.asList(INDEX_URL, ABOUT_URL, CONTACT_URL));
+
+        storeService = mock(ContentStoreService.class);
+        when(storeService.exists(any(Context.class), anyString()))
+            .then(invocation -> existingUrls.contains((String) invocation.getArgument(1)));
+        when(storeService.findItem(any(Context.class), isNull(), anyString(), any()))
+            .then(invocation -> createItem(invocation.getArgument(2)));
+
+        batchExecutor = Executors.newCachedThreadPool();
+
+        siteItemService = new SiteItemServiceImpl();
+        siteItemService.setStoreService(storeService);
+        siteItemService.setModelFieldConverter(mock(Converter.class));
+        siteItemService.setBatchExecutor(batchExecutor);
+        siteItemService.setBatchParallelism(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        batchExecutor.shutdownNow();
+
+        super.tearDown();
+    }
+
+    @Test
+    public void testGetSiteItems() {
+        List<SiteItem> items = siteItemService.getSiteItems(Arrays.asList(CONTACT_URL, INDEX_URL, MISSING_URL,
+                                                                          CONTACT_URL, ABOUT_URL));
+
+        assertEquals(Arrays.asList(CONTACT_URL, INDEX_URL, ABOUT_URL), getUrls(items));
+
+        // Duplicated URLs are only loaded once
+        verify(storeService, times(1)).findItem(any(Context.class), isNull(), eq(CONTACT_URL), any());
+    }
+
+    @Test
+    public void testGetSiteItemsWithoutExecutor() {
+        siteItemService.setBatchExecutor(null);
+
+        List<SiteItem> items = siteItemService.getSiteItems(Arrays.asList(INDEX_URL, ABOUT_URL, MISSING_URL));
+
+        assertEquals(Arrays.asList(INDEX_URL, ABOUT_URL), getUrls(items));
+    }
+
+    @Test
+    public void testGetSiteItemsWithPredicate() {
+        List<SiteItem> items = siteItemService.getSiteItems(Arrays.asList(INDEX_URL, ABOUT_URL, CONTACT_URL), null,
+                                                            item -> !item.getUrl().equals(ABOUT_URL));
+
+        assertEquals(Arrays.asList(INDEX_URL, CONTACT_URL), getUrls(items));
+    }
+
+    @Test
+    public void testGetSiteItemsRecordsDependencies() {
+        Set<String> dependencies;
+
+        ContentDependencyTracker.beginCapture();
+        try {
+            siteItemService.getSiteItems(Arrays.asList(INDEX_URL, ABOUT_URL, CONTACT_URL, MISSING_URL));
+        } finally {
+            dependencies = ContentDependencyTracker.endCapture();
+        }
+
+        // Missing items are dependencies too, since their creation affects the output
+        assertEquals(new HashSet<>(Arrays.asList(INDEX_URL, ABOUT_URL, CONTACT_URL, MISSING_URL)), dependencies);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testGetRawContentAndSiteTreeRecordDependencies() {
+        String folderUrl = "/site/website/articles";
+        Set<String> dependencies;
+
+        ContentDependencyTracker.beginCapture();
+        try {
+            siteItemService.getRawContent(MISSING_URL);
+            siteItemService.getSiteTree(folderUrl, 1, ".*\\.xml", null);
+        } finally {
+            dependencies = ContentDependencyTracker.endCapture();
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(MISSING_URL, folderUrl)), dependencies);
+    }
+
+    @Test
+    public void testGetSiteItemsEmpty() {
+        assertTrue(siteItemService.getSiteItems(null).isEmpty());
+    }
+
+    private Item createItem(String url) {
+        Item item = new Item();
+        item.setUrl(url);
+
+        return item;
+    }
+
+    private List<String> getUrls(List<SiteItem> items) {
+        return items.stream().map(SiteItem::getStoreUrl).collect(Collectors.toList());
+    }
+
+}
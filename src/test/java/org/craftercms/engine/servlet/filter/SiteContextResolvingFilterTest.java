@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.servlet.filter;
+
+import org.craftercms.engine.service.context.SiteContext;
+import org.craftercms.engine.service.context.SiteContextResolver;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SiteContextResolvingFilter}.
+ *
+ * @author avasquez
+ */
+public class SiteContextResolvingFilterTest {
+
+    private SiteContextResolver contextResolver;
+    private SiteContextResolvingFilter filter;
+
+    @Before
+    public void setUp() {
+        contextResolver = mock(SiteContextResolver.class);
+
+        filter = new SiteContextResolvingFilter();
+        filter.setContextResolver(contextResolver);
+        filter.setErrorTemplate("error");
+        filter.setFreeMarkerConfigFactory(() -> null);
+    }
+
+    @Test
+    public void testRequestServedByContext() throws Exception {
+        SiteContext siteContext = mock(SiteContext.class);
+        when(siteContext.requestStarted()).thenReturn(true);
+        when(contextResolver.getContext(any(HttpServletRequest.class))).thenReturn(siteContext);
+
+        FilterChain chain = (request, response) -> assertSame(siteContext, SiteContext.getCurrent());
+
+        filter.doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), chain);
+
+        verify(siteContext).requestFinished();
+        assertNull(SiteContext.getCurrent());
+    }
+
+    @Test
+    public void testContextAlwaysUnloading() throws Exception {
+        SiteContext siteContext = mock(SiteContext.class);
+        when(siteContext.getSiteName()).thenReturn("test");
+        when(siteContext.requestStarted()).thenReturn(false);
+        when(contextResolver.getContext(any(HttpServletRequest.class))).thenReturn(siteContext);
+
+        FilterChain chain = mock(FilterChain.class);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest(), response, chain);
+
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+        verify(contextResolver, times(5)).getContext(any(HttpServletRequest.class));
+        verify(chain, never()).doFilter(any(), any());
+        verify(siteContext, never()).requestFinished();
+    }
+
+}
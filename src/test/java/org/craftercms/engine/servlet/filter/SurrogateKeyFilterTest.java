@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.servlet.filter;
+
+import org.craftercms.engine.cache.ContentDependencyTracker;
+import org.craftercms.engine.cache.SurrogateKeyGenerator;
+import org.craftercms.engine.test.utils.ConfigAwareTestBase;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link SurrogateKeyFilter}.
+ *
+ * @author avasquez
+ */
+public class SurrogateKeyFilterTest extends ConfigAwareTestBase {
+
+    private static final String HEADER_NAME = "Surrogate-Key";
+    private static final String[] EXCLUDED_URLS = { "/static-assets/**" };
+
+    private SurrogateKeyGenerator keyGenerator;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        keyGenerator = new SurrogateKeyGenerator();
+        keyGenerator.setHashKeys(false);
+    }
+
+    @Test
+    public void testHeader() throws Exception {
+        SurrogateKeyFilter filter = new SurrogateKeyFilter(true, new String[] { "/**" }, EXCLUDED_URLS, HEADER_NAME,
+                                                           "", 1024, keyGenerator);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(createRequest("GET"), response, createChain(HttpServletResponse.SC_OK));
+
+        assertEquals("test test:/site/components/header.xml test:/site/website/index.xml",
+                     response.getHeader(HEADER_NAME));
+        assertEquals("<html/>", response.getContentAsString());
+        assertFalse(ContentDependencyTracker.isCapturing());
+    }
+
+    @Test
+    public void testHeaderTooLong() throws Exception {
+        SurrogateKeyFilter filter = new SurrogateKeyFilter(true, new String[] { "/**" }, EXCLUDED_URLS, "Cache-Tag",
+                                                           ",", 20, keyGenerator);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(createRequest("GET"), response, createChain(HttpServletResponse.SC_OK));
+
+        assertEquals("test", response.getHeader("Cache-Tag"));
+    }
+
+    @Test
+    public void testNoHeader() throws Exception {
+        SurrogateKeyFilter filter = new SurrogateKeyFilter(true, new String[] { "/**" }, EXCLUDED_URLS, HEADER_NAME,
+                                                           "", 1024, keyGenerator);
+
+        // Error responses are not tagged
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(createRequest("GET"), response, createChain(HttpServletResponse.SC_NOT_FOUND));
+
+        assertNull(response.getHeader(HEADER_NAME));
+
+        // Neither are responses to POST requests
+        response = new MockHttpServletResponse();
+        filter.doFilter(createRequest("POST"), response, createChain(HttpServletResponse.SC_OK));
+
+        assertNull(response.getHeader(HEADER_NAME));
+    }
+
+    @Test
+    public void testExcludedUrls() throws Exception {
+        SurrogateKeyFilter filter = new SurrogateKeyFilter(true, new String[] { "/**" }, EXCLUDED_URLS, HEADER_NAME,
+                                                           "", 1024, keyGenerator);
+        MockHttpServletRequest request = createRequest("GET", "/static-assets/css/main.css");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, (req, resp) -> {
+            // The response is not buffered
+            assertSame(response, resp);
+
+            createChain(HttpServletResponse.SC_OK).doFilter(req, resp);
+        });
+
+        assertNull(response.getHeader(HEADER_NAME));
+        assertEquals("<html/>", response.getContentAsString());
+    }
+
+    private MockHttpServletRequest createRequest(String method) {
+        return createRequest(method, "/");
+    }
+
+    private MockHttpServletRequest createRequest(String method, String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        request.setPathInfo(path);
+
+        return request;
+    }
+
+    private FilterChain createChain(int status) {
+        return (request, response) -> {
+            ContentDependencyTracker.addDependency("/site/website/index.xml");
+            ContentDependencyTracker.addDependency("/site/components/header.xml");
+
+            ((HttpServletResponse) response).setStatus(status);
+            response.getWriter().write("<html/>");
+        };
+    }
+
+}
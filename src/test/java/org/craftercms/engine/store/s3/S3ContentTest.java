@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link S3Content}.
+ *
+ * @author avasquez
+ */
+public class S3ContentTest {
+
+    private static final String BUCKET = "bucket";
+    private static final String KEY = "sites/test/static-assets/css/main.css";
+    private static final byte[] BYTES = "body { color: black; }".getBytes(StandardCharsets.UTF_8);
+    private static final long LAST_MODIFIED = 1000000L;
+    private static final String ETAG = "etag";
+
+    private AmazonS3 client;
+
+    @Before
+    public void setUp() {
+        client = mock(AmazonS3.class);
+        when(client.getObject(anyString(), anyString())).then(invocation -> createObject(null));
+        when(client.getObject(any(GetObjectRequest.class))).then(invocation -> {
+            long[] range = ((GetObjectRequest) invocation.getArgument(0)).getRange();
+            return createObject(range);
+        });
+    }
+
+    @Test
+    public void testLoadedContent() throws Exception {
+        S3Content content = new S3Content(client, BUCKET, KEY, createObject(null), true);
+
+        assertTrue(content.isInMemory());
+        assertEquals(LAST_MODIFIED, content.getLastModified());
+        assertEquals(BYTES.length, content.getLength());
+        assertEquals(ETAG, content.getETag());
+        assertArrayEquals(BYTES, IOUtils.toByteArray(content.getInputStream()));
+        assertEquals("color", IOUtils.toString(content.getInputStream(7, 11), StandardCharsets.UTF_8));
+
+        // Everything is served from memory, no more S3 requests
+        verify(client, never()).getObject(anyString(), anyString());
+        verify(client, never()).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void testLoadedContentFromRangedGet() throws Exception {
+        // The range is bigger than the object, so the whole object is returned
+        S3Content content = new S3Content(client, BUCKET, KEY, createObject(new long[] { 0, 1023 }), true);
+
+        assertTrue(content.isInMemory());
+        assertEquals(BYTES.length, content.getLength());
+        assertArrayEquals(BYTES, IOUtils.toByteArray(content.getInputStream()));
+    }
+
+    @Test
+    public void testStreamedContent() throws Exception {
+        S3Content content = new S3Content(client, BUCKET, KEY, createObject(new long[] { 0, 9 }), true);
+
+        // The metadata comes from the ranged GET, and the partial content is not kept
+        assertFalse(content.isInMemory());
+        assertEquals(LAST_MODIFIED, content.getLastModified());
+        assertEquals(BYTES.length, content.getLength());
+
+        assertArrayEquals(BYTES, IOUtils.toByteArray(content.getInputStream()));
+        assertEquals("color", IOUtils.toString(content.getInputStream(7, 11), StandardCharsets.UTF_8));
+
+        ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(client).getObject(request.capture());
+
+        assertEquals(KEY, request.getValue().getKey());
+        assertArrayEquals(new long[] { 7, 11 }, request.getValue().getRange());
+    }
+
+    @Test
+    public void testRangeEndIsLimitedToLength() throws Exception {
+        S3Content content = new S3Content(client, BUCKET, KEY, createMetadata());
+
+        try (InputStream in = content.getInputStream(14, Long.MAX_VALUE)) {
+            assertEquals("black; }", IOUtils.toString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    private S3Object createObject(long[] range) {
+        byte[] bytes = BYTES;
+        ObjectMetadata metadata = createMetadata();
+        if (range != null) {
+            long end = Math.min(range[1], BYTES.length - 1);
+            bytes = new byte[(int) (end - range[0] + 1)];
+            System.arraycopy(BYTES, (int) range[0], bytes, 0, bytes.length);
+
+            metadata.setContentLength(bytes.length);
+            metadata.setHeader("Content-Range", "bytes " + range[0] + "-" + end + "/" + BYTES.length);
+        }
+
+        S3Object object = new S3Object();
+        object.setBucketName(BUCKET);
+        object.setKey(KEY);
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(bytes), null));
+
+        return object;
+    }
+
+    private ObjectMetadata createMetadata() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setLastModified(new Date(LAST_MODIFIED));
+        metadata.setContentLength(BYTES.length);
+        metadata.setHeader("ETag", ETAG);
+
+        return metadata;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link S3DiskCache}.
+ *
+ * @author avasquez
+ */
+public class S3DiskCacheTest {
+
+    private static final String BUCKET = "bucket";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private S3DiskCache diskCache;
+
+    @Before
+    public void setUp() throws Exception {
+        diskCache = new S3DiskCache();
+        diskCache.setEnabled(true);
+        diskCache.setFolderPath(tempFolder.getRoot().getAbsolutePath());
+        diskCache.setMaxSize(20);
+        diskCache.setMaxFileSize(10);
+        diskCache.afterPropertiesSet();
+    }
+
+    @Test
+    public void testPutAndOpen() throws Exception {
+        S3DiskCache.Entry entry = put("a.txt", "etag1", "0123456789");
+
+        assertNotNull(entry);
+        assertEquals("etag1", entry.getETag());
+        assertEquals(10, entry.getLength());
+        assertEquals(1000, entry.getLastModified());
+        assertEquals(entry.getFile(), diskCache.get(BUCKET, "a.txt").getFile());
+
+        assertEquals("0123456789", read(diskCache.open(entry, 0, 9)));
+        assertEquals("345", read(diskCache.open(entry, 3, 5)));
+        assertEquals("789", read(diskCache.open(entry, 7, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testTooBigObjectsAreNotStored() {
+        assertNull(put("big.txt", "etag1", "0123456789A"));
+        assertNull(diskCache.get(BUCKET, "big.txt"));
+        assertEquals(0, diskCache.getSize());
+    }
+
+    @Test
+    public void testNewVersionReplacesPrevious() {
+        S3DiskCache.Entry first = put("a.txt", "etag1", "01234");
+        S3DiskCache.Entry second = put("a.txt", "etag2", "012");
+
+        assertEquals("etag2", diskCache.get(BUCKET, "a.txt").getETag());
+        assertFalse(Files.exists(first.getFile()));
+        assertTrue(Files.exists(second.getFile()));
+        assertEquals(3, diskCache.getSize());
+        assertEquals(1, diskCache.getEntryCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        S3DiskCache.Entry a = put("a.txt", "etag", "0123456789");
+        S3DiskCache.Entry b = put("b.txt", "etag", "0123456789");
+
+        // Use a, so b becomes the least recently used
+        read(diskCache.open(a, 0, 9));
+
+        put("c.txt", "etag", "01234");
+
+        assertNotNull(diskCache.get(BUCKET, "a.txt"));
+        assertNull(diskCache.get(BUCKET, "b.txt"));
+        assertNotNull(diskCache.get(BUCKET, "c.txt"));
+        assertFalse(Files.exists(b.getFile()));
+        assertEquals(15, diskCache.getSize());
+    }
+
+    @Test
+    public void testOnlyCacheFilesAreDeletedOnStartup() throws Exception {
+        S3DiskCache.Entry entry = put("a.txt", "etag", "0123456789");
+        Path otherFile = tempFolder.newFile("other.txt").toPath();
+
+        S3DiskCache newDiskCache = new S3DiskCache();
+        newDiskCache.setEnabled(true);
+        newDiskCache.setFolderPath(tempFolder.getRoot().getAbsolutePath());
+        newDiskCache.setMaxSize(20);
+        newDiskCache.setMaxFileSize(10);
+        newDiskCache.afterPropertiesSet();
+
+        assertFalse(Files.exists(entry.getFile()));
+        assertTrue(Files.exists(otherFile));
+    }
+
+    private S3DiskCache.Entry put(String key, String eTag, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(bytes.length);
+        metadata.setLastModified(new Date(1000));
+        metadata.setHeader("ETag", eTag);
+
+        return diskCache.put(BUCKET, key, metadata, new ByteArrayInputStream(bytes));
+    }
+
+    private String read(InputStream in) throws Exception {
+        try (InputStream is = in) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+}
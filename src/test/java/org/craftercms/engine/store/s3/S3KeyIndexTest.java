@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.store.impl.File;
+import org.craftercms.engine.util.deployment.DeploymentChanges;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link S3KeyIndex}.
+ *
+ * @author avasquez
+ */
+public class S3KeyIndexTest {
+
+    private static final String BUCKET = "bucket";
+    private static final String ROOT_KEY = "sites/test";
+    private static final int PAGE_SIZE = 2;
+
+    private NavigableSet<String> bucketKeys;
+    private AtomicInteger listCalls;
+    private ExecutorService executor;
+    private S3KeyIndex keyIndex;
+
+    @Before
+    public void setUp() {
+        bucketKeys = new TreeSet<>(Arrays.asList(
+            "sites/test/deployment-events.properties",
+            "sites/test/site/website/index.xml",
+            "sites/test/site/website/about/index.xml",
+            "sites/test/site/components/header.xml",
+            "sites/test/static-assets/css/main.css",
+            "sites/test/static-assets/images/logo.png",
+            "sites/test/static-assets/images/banner.png",
+            "sites/other/site/website/index.xml"));
+        listCalls = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(2);
+
+        // In-memory stand-in of S3 listings (with pagination)
+        AmazonS3 client = mock(AmazonS3.class);
+        when(client.listObjectsV2(any(ListObjectsV2Request.class))).then(invocation -> {
+            listCalls.incrementAndGet();
+            return list(invocation.getArgument(0));
+        });
+
+        keyIndex = new S3KeyIndex(client, BUCKET, ROOT_KEY, executor);
+        keyIndex.rebuild();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRebuild() {
+        assertEquals(7, keyIndex.size());
+        assertTrue(keyIndex.containsFile("sites/test/site/website/about/index.xml"));
+        assertTrue(keyIndex.containsPrefix("sites/test/static-assets/images/"));
+        assertFalse(keyIndex.containsFile("sites/other/site/website/index.xml"));
+        assertFalse(keyIndex.containsFile("sites/test/site/website/contact/index.xml"));
+        assertFalse(keyIndex.containsPrefix("sites/test/site/web/"));
+    }
+
+    @Test
+    public void testGetChildren() {
+        int calls = listCalls.get();
+
+        assertEquals(Arrays.asList("sites/test/site/", "sites/test/static-assets/",
+                                   "sites/test/deployment-events.properties"),
+                     getKeys(keyIndex.getChildren("sites/test/")));
+        assertEquals(Arrays.asList("sites/test/site/website/about/", "sites/test/site/website/index.xml"),
+                     getKeys(keyIndex.getChildren("sites/test/site/website/")));
+        assertEquals(Collections.emptyList(), getKeys(keyIndex.getChildren("sites/test/scripts/")));
+
+        // Everything is answered from memory
+        assertEquals(calls, listCalls.get());
+    }
+
+    @Test
+    public void testApplyChanges() {
+        keyIndex.applyChanges(new DeploymentChanges(
+            1000, 500,
+            new LinkedHashSet<>(Collections.singletonList("/site/website/contact/index.xml")),
+            new LinkedHashSet<>(Collections.singletonList("/site/website/index.xml")),
+            new LinkedHashSet<>(Collections.singletonList("/static-assets/images"))));
+
+        assertTrue(keyIndex.containsFile("sites/test/site/website/contact/index.xml"));
+        assertTrue(keyIndex.containsFile("sites/test/site/website/index.xml"));
+        assertFalse(keyIndex.containsPrefix("sites/test/static-assets/images/"));
+        assertTrue(keyIndex.containsFile("sites/test/static-assets/css/main.css"));
+    }
+
+    @Test
+    public void testGetChildrenWithHiddenFiles() {
+        keyIndex.applyChanges(new DeploymentChanges(
+            1000, 500,
+            new LinkedHashSet<>(Arrays.asList("/site/website/.draft.xml", "/site/.work/index.xml")),
+            new LinkedHashSet<>(), new LinkedHashSet<>()));
+
+        Context context = mock(Context.class);
+        when(context.ignoreHiddenFiles()).thenReturn(true);
+
+        S3ContentStoreAdapter storeAdapter = new S3ContentStoreAdapter(null, 0, null);
+
+        // Same as the S3 listing: hidden objects are filtered, but not hidden prefixes
+        assertEquals(Arrays.asList("sites/test/site/website/about/", "sites/test/site/website/index.xml"),
+                     getKeys(storeAdapter.getChildrenFromIndex(context, keyIndex,
+                                                               new S3Prefix("sites/test/site/website/"))));
+        assertEquals(Arrays.asList("sites/test/site/.work/", "sites/test/site/components/",
+                                   "sites/test/site/website/"),
+                     getKeys(storeAdapter.getChildrenFromIndex(context, keyIndex, new S3Prefix("sites/test/site/"))));
+    }
+
+    private ListObjectsV2Result list(ListObjectsV2Request request) {
+        String prefix = request.getPrefix();
+        String delimiter = request.getDelimiter();
+        int start = request.getContinuationToken() != null? Integer.parseInt(request.getContinuationToken()) : 0;
+
+        List<String> entries = bucketKeys.stream()
+                                         .filter(key -> key.startsWith(prefix))
+                                         .map(key -> {
+                                             int idx = delimiter != null? key.indexOf(delimiter, prefix.length())
+                                                                        : -1;
+                                             return idx >= 0? key.substring(0, idx + 1) : key;
+                                         })
+                                         .distinct()
+                                         .collect(Collectors.toList());
+
+        ListObjectsV2Result result = new ListObjectsV2Result();
+        for (String entry : entries.subList(start, Math.min(start + PAGE_SIZE, entries.size()))) {
+            if (delimiter != null && entry.endsWith(delimiter)) {
+                result.getCommonPrefixes().add(entry);
+            } else {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setKey(entry);
+
+                result.getObjectSummaries().add(summary);
+            }
+        }
+
+        if (start + PAGE_SIZE < entries.size()) {
+            result.setTruncated(true);
+            result.setNextContinuationToken(Integer.toString(start + PAGE_SIZE));
+        }
+
+        return result;
+    }
+
+    private List<String> getKeys(List<File> files) {
+        return files.stream()
+                    .map(file -> file instanceof S3Prefix? ((S3Prefix) file).getPrefix() : ((S3File) file).getKey())
+                    .collect(Collectors.toList());
+    }
+
+}
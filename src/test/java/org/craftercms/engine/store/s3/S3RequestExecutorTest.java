@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.store.s3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link S3RequestExecutor}.
+ *
+ * @author avasquez
+ */
+public class S3RequestExecutorTest {
+
+    private static final int THREADS = 5;
+
+    private S3RequestExecutor requestExecutor;
+    private ExecutorService callers;
+
+    @Before
+    public void setUp() {
+        requestExecutor = new S3RequestExecutor();
+        requestExecutor.setPoolSize(2);
+        requestExecutor.setQueueSize(10);
+        requestExecutor.setPrefetchTtl(TimeUnit.MINUTES.toMillis(1));
+        requestExecutor.setMaxPrefetchedResults(10);
+        requestExecutor.afterPropertiesSet();
+
+        callers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        requestExecutor.destroy();
+    }
+
+    @Test
+    public void testIdenticalRequestsAreCoalesced() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(callers.submit(() -> requestExecutor.execute("getContent", "bucket/key", () -> {
+                calls.incrementAndGet();
+                await(release);
+                return "content";
+            })));
+        }
+
+        // Wait till the first request is in flight and the rest are waiting for it
+        while (calls.get() == 0 || requestExecutor.getStats().getCoalescedHits() < THREADS - 1) {
+            Thread.sleep(10);
+        }
+
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("content", result.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(THREADS - 1, requestExecutor.getStats().getCoalescedHits());
+        assertEquals(1, requestExecutor.getStats().getOperations().get("getContent").getCount());
+        assertEquals(0, requestExecutor.getStats().getConcurrency());
+        assertEquals(1, requestExecutor.getStats().getPeakConcurrency());
+    }
+
+    @Test
+    public void testDifferentRequestsAreNotCoalesced() {
+        AtomicInteger calls = new AtomicInteger();
+
+        requestExecutor.execute("getContent", "bucket/key1", calls::incrementAndGet);
+        requestExecutor.execute("getContent", "bucket/key2", calls::incrementAndGet);
+        requestExecutor.execute("listObjects", "bucket/key1", calls::incrementAndGet);
+        // Requests that are not in flight anymore are executed again
+        requestExecutor.execute("getContent", "bucket/key1", calls::incrementAndGet);
+
+        assertEquals(4, calls.get());
+        assertEquals(0, requestExecutor.getStats().getCoalescedHits());
+    }
+
+    @Test
+    public void testErrorsArePropagated() {
+        try {
+            requestExecutor.execute("getContent", "bucket/key", () -> {
+                throw new IllegalStateException("S3 error");
+            });
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("S3 error", e.getMessage());
+        }
+
+        assertEquals(1, requestExecutor.getStats().getOperations().get("getContent").getErrors());
+    }
+
+    @Test
+    public void testPrefetchedResultIsUsedOnce() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+
+        requestExecutor.prefetch("getContent", "bucket/key", () -> {
+            started.countDown();
+            return "prefetched-" + calls.incrementAndGet();
+        });
+
+        await(started);
+
+        assertEquals("prefetched-1", requestExecutor.execute("getContent", "bucket/key",
+                                                             () -> "actual-" + calls.incrementAndGet()));
+        assertEquals("actual-2", requestExecutor.execute("getContent", "bucket/key",
+                                                         () -> "actual-" + calls.incrementAndGet()));
+        assertEquals(1, requestExecutor.getStats().getPrefetches());
+        assertEquals(1, requestExecutor.getStats().getPrefetchHits());
+    }
+
+    @Test
+    public void testFailedPrefetchIsExecutedAgain() {
+        requestExecutor.prefetch("getContent", "bucket/key", () -> {
+            throw new IllegalStateException("S3 error");
+        });
+
+        assertEquals("actual", requestExecutor.execute("getContent", "bucket/key", () -> "actual"));
+        assertEquals(0, requestExecutor.getStats().getPrefetchHits());
+    }
+
+    @Test
+    public void testQueuedPrefetchIsNotWaitedFor() {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger prefetchCalls = new AtomicInteger();
+
+        try {
+            // Keep all the threads of the pool busy
+            requestExecutor.prefetch("getContent", "bucket/key1", () -> await(release));
+            requestExecutor.prefetch("getContent", "bucket/key2", () -> await(release));
+            requestExecutor.prefetch("getContent", "bucket/key3", prefetchCalls::incrementAndGet);
+
+            assertEquals("actual", requestExecutor.execute("getContent", "bucket/key3", () -> "actual"));
+            assertEquals(0, requestExecutor.getStats().getPrefetchHits());
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(0, prefetchCalls.get());
+    }
+
+    @Test
+    public void testClearPrefetchedResults() {
+        CountDownLatch started = new CountDownLatch(2);
+
+        requestExecutor.prefetch("getContent", "bucket/site1/key", () -> {
+            started.countDown();
+            return "prefetched";
+        });
+        requestExecutor.prefetch("getContent", "bucket/site2/key", () -> {
+            started.countDown();
+            return "prefetched";
+        });
+
+        await(started);
+
+        requestExecutor.clearPrefetchedResults("bucket/site1");
+
+        assertEquals("actual", requestExecutor.execute("getContent", "bucket/site1/key", () -> "actual"));
+        assertEquals("prefetched", requestExecutor.execute("getContent", "bucket/site2/key", () -> "actual"));
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.util.spring.resources;
+
+import org.craftercms.commons.http.RequestContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link FileTransferUtils}.
+ *
+ * @author avasquez
+ */
+public class FileTransferUtilsTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File file;
+    private MockHttpServletRequest request;
+
+    @Before
+    public void setUp() throws Exception {
+        file = tmpFolder.newFile("test.txt");
+        Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        request = new MockHttpServletRequest("GET", "/static-assets/test.txt");
+
+        RequestContext.setCurrent(new RequestContext(request, new MockHttpServletResponse(), null));
+    }
+
+    @After
+    public void tearDown() {
+        RequestContext.clear();
+    }
+
+    @Test
+    public void testGetFile() {
+        assertEquals(file, FileTransferUtils.getFile(new FileSystemResource(file)));
+        assertNull(FileTransferUtils.getFile(new ByteArrayResource(new byte[0])));
+        assertNull(FileTransferUtils.getFile(null));
+    }
+
+    @Test
+    public void testTransfer() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileTransferUtils.transfer(file, 0, CONTENT.length(), out);
+
+        assertEquals(CONTENT, out.toString(StandardCharsets.UTF_8.name()));
+
+        out = new ByteArrayOutputStream();
+        FileTransferUtils.transfer(file, 5, 5, out);
+
+        assertEquals("56789", out.toString(StandardCharsets.UTF_8.name()));
+
+        // Counts past the end of the file are truncated
+        out = new ByteArrayOutputStream();
+        FileTransferUtils.transfer(file, 15, 100, out);
+
+        assertEquals("fghij", out.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    @Test
+    public void testSendfile() {
+        // Not supported by the container
+        assertFalse(FileTransferUtils.sendfile(file, 0, CONTENT.length()));
+
+        // Supported by the container but not allowed for the request
+        request.setAttribute(FileTransferUtils.SENDFILE_SUPPORTED_ATTRIBUTE, true);
+
+        assertFalse(FileTransferUtils.sendfile(file, 0, CONTENT.length()));
+
+        request.setAttribute(FileTransferUtils.SENDFILE_ALLOWED_ATTRIBUTE, true);
+
+        assertTrue(FileTransferUtils.sendfile(file, 5, 10));
+        assertEquals(file.getAbsolutePath(), request.getAttribute(FileTransferUtils.SENDFILE_FILENAME_ATTRIBUTE));
+        assertEquals(5L, request.getAttribute(FileTransferUtils.SENDFILE_START_ATTRIBUTE));
+        assertEquals(10L, request.getAttribute(FileTransferUtils.SENDFILE_END_ATTRIBUTE));
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.view;
+
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.model.SiteItem;
+import org.craftercms.engine.targeting.TargetIdManager;
+import org.craftercms.engine.test.utils.ConfigAwareTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ComponentOutputCache}.
+ *
+ * @author avasquez
+ */
+public class ComponentOutputCacheTest extends ConfigAwareTestBase {
+
+    private static final String CONTENT_TYPE_XPATH_QUERY = "content-type";
+    private static final String TTL_XPATH_QUERY = "componentCacheTtl_i";
+    private static final String DISABLED_XPATH_QUERY = "componentCacheDisabled_b";
+    private static final String VARY_BY_PAGE_XPATH_QUERY = "componentCacheVaryByPage_b";
+    private static final String VARY_BY_PARAMS_XPATH_QUERY = "componentCacheVaryByParams_s";
+    private static final String HEADER_PATH = "/site/components/header.xml";
+    private static final String HEADER_TEMPLATE = "/templates/web/components/header.ftl";
+    private static final String INDEX_PATH = "/site/website/index.xml";
+    private static final String ABOUT_PATH = "/site/website/about/index.xml";
+
+    private ComponentOutputCache componentOutputCache;
+    private Map<Object, Object> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        cache = new HashMap<>();
+
+        CacheService cacheService = mock(CacheService.class);
+        when(cacheService.get(any(Context.class), any())).then(invocation -> cache.get(invocation.getArgument(1)));
+        doAnswer(invocation -> cache.put(invocation.getArgument(1), invocation.getArgument(2)))
+            .when(cacheService).put(any(Context.class), any(), any());
+
+        CacheTemplate cacheTemplate = mock(CacheTemplate.class);
+        when(cacheTemplate.getCacheService()).thenReturn(cacheService);
+
+        componentOutputCache = new ComponentOutputCache();
+        componentOutputCache.setEnabled(true);
+        componentOutputCache.setMaxEntrySize(1024);
+        componentOutputCache.setContentTypeXPathQuery(CONTENT_TYPE_XPATH_QUERY);
+        componentOutputCache.setTtlXPathQuery(TTL_XPATH_QUERY);
+        componentOutputCache.setDisabledXPathQuery(DISABLED_XPATH_QUERY);
+        componentOutputCache.setVaryByPageXPathQuery(VARY_BY_PAGE_XPATH_QUERY);
+        componentOutputCache.setVaryByParamsXPathQuery(VARY_BY_PARAMS_XPATH_QUERY);
+        componentOutputCache.setCacheTemplate(cacheTemplate);
+        componentOutputCache.setTargetIdManager(mock(TargetIdManager.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SecurityContextHolder.clearContext();
+
+        super.tearDown();
+    }
+
+    @Test
+    public void testIsCacheable() {
+        assertTrue(componentOutputCache.isCacheable(createComponent("/component/header", null, null), null));
+        assertTrue(componentOutputCache.isCacheable(createComponent("/component/header", null, null),
+                                                    Collections.singletonMap("theme", "dark")));
+        assertFalse(componentOutputCache.isCacheable(createComponent("/component/header", null, null),
+                                                     Collections.singletonMap("item", new Object())));
+        assertFalse(componentOutputCache.isCacheable(createComponent("/component/promo", null, null), null));
+        assertFalse(componentOutputCache.isCacheable(createComponent("/component/header", null, "true"), null));
+        assertFalse(componentOutputCache.isCacheable(createComponent("/component/header", "0", null), null));
+    }
+
+    @Test
+    public void testIsCacheableWhenDisabled() {
+        componentOutputCache.setEnabled(false);
+
+        assertFalse(componentOutputCache.isCacheable(createComponent("/component/header", null, null), null));
+    }
+
+    @Test
+    public void testCreateKey() {
+        SiteItem component = createComponent("/component/header", null, null);
+        Map<String, Object> params1 = new LinkedHashMap<>();
+        params1.put("theme", "dark");
+        params1.put("size", 2);
+        Map<String, Object> params2 = new LinkedHashMap<>();
+        params2.put("size", 2);
+        params2.put("theme", "dark");
+
+        String anonymousKey = componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH, null,
+                                                             INDEX_PATH, createRequestParams("crafter", "1"));
+
+        assertEquals(ComponentOutputCache.CACHE_KEY_PREFIX + HEADER_PATH + "|" + HEADER_TEMPLATE + "|en|",
+                     anonymousKey);
+        assertEquals(componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH, params1, INDEX_PATH,
+                                                    null),
+                     componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH, params2, INDEX_PATH,
+                                                    null));
+        assertNotEquals(anonymousKey, componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.FRENCH,
+                                                                     null, INDEX_PATH, null));
+        assertNotEquals(anonymousKey, componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH,
+                                                                     params1, INDEX_PATH, null));
+
+        SecurityContextHolder.getContext().setAuthentication(
+            new TestingAuthenticationToken("john", "N/A", "ROLE_USER"));
+
+        assertNotEquals(anonymousKey, componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH,
+                                                                     null, INDEX_PATH, null));
+    }
+
+    @Test
+    public void testFragmentIsSharedByPages() {
+        SiteItem component = createComponent("/component/header", null, null);
+        String indexKey = componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH, null,
+                                                         INDEX_PATH, createRequestParams("crafter", "1"));
+        String aboutKey = componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH, null,
+                                                         ABOUT_PATH, createRequestParams("engine", "2"));
+
+        componentOutputCache.put(indexKey, component, "<header></header>", Collections.singleton(HEADER_PATH));
+
+        assertEquals(indexKey, aboutKey);
+        assertNotNull(componentOutputCache.get(aboutKey));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testCreateKeyWithPageAndParamsVariance() {
+        SiteItem component = createComponent("/component/header", null, null);
+        when(component.queryValue(VARY_BY_PAGE_XPATH_QUERY)).thenReturn("true");
+        when(component.queryValue(VARY_BY_PARAMS_XPATH_QUERY)).thenReturn("q, page");
+
+        String key = componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH, null, INDEX_PATH,
+                                                    createRequestParams("crafter", "1"));
+
+        assertEquals(ComponentOutputCache.CACHE_KEY_PREFIX + HEADER_PATH + "|" + HEADER_TEMPLATE + "|en||page=" +
+                     INDEX_PATH + "|params=page=[1]&q=[crafter]&", key);
+
+        // Params that are not whitelisted are ignored
+        Map<String, String[]> requestParams = createRequestParams("crafter", "1");
+        requestParams.put("utm_source", new String[] { "newsletter" });
+
+        assertEquals(key, componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH, null,
+                                                         INDEX_PATH, requestParams));
+        assertNotEquals(key, componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH, null,
+                                                            ABOUT_PATH, createRequestParams("crafter", "1")));
+        assertNotEquals(key, componentOutputCache.createKey(component, HEADER_TEMPLATE, Locale.ENGLISH, null,
+                                                            INDEX_PATH, createRequestParams("crafter", "2")));
+    }
+
+    @Test
+    public void testPutAndGet() {
+        SiteItem component = createComponent("/component/header", null, null);
+        Set<String> dependencyPaths = new HashSet<>(Arrays.asList(HEADER_PATH, HEADER_TEMPLATE));
+
+        componentOutputCache.put("key", component, "<header></header>", dependencyPaths);
+
+        ComponentOutputCache.CachedFragment fragment = componentOutputCache.get("key");
+
+        assertNotNull(fragment);
+        assertEquals("<header></header>", fragment.getOutput());
+        assertEquals(dependencyPaths, fragment.getDependencyPaths());
+        assertNull(componentOutputCache.get("otherKey"));
+    }
+
+    @Test
+    public void testPutTooBig() {
+        ComponentOutputCache.CachedFragment fragment = componentOutputCache.put(
+            "key", createComponent("/component/header", null, null), new String(new char[2048]), null);
+
+        assertNotNull(fragment);
+        assertNull(componentOutputCache.get("key"));
+    }
+
+    @Test
+    public void testExpiredFragment() {
+        cache.put("key", new ComponentOutputCache.CachedFragment("", null, System.currentTimeMillis() - 1000));
+
+        assertNull(componentOutputCache.get("key"));
+    }
+
+    private Map<String, String[]> createRequestParams(String query, String page) {
+        Map<String, String[]> requestParams = new HashMap<>();
+        requestParams.put("q", new String[] { query });
+        requestParams.put("page", new String[] { page });
+
+        return requestParams;
+    }
+
+    private SiteItem createComponent(String contentType, String ttl, String disabled) {
+        SiteItem component = mock(SiteItem.class);
+        when(component.getStoreUrl()).thenReturn(HEADER_PATH);
+        when(component.queryValue(CONTENT_TYPE_XPATH_QUERY)).thenReturn(contentType);
+        when(component.queryValue(TTL_XPATH_QUERY)).thenReturn(ttl);
+        when(component.queryValue(DISABLED_XPATH_QUERY)).thenReturn(disabled);
+
+        return component;
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2007-2022 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.view;
+
+import org.craftercms.commons.http.RequestContext;
+import org.craftercms.engine.model.SiteItem;
+import org.craftercms.engine.service.SiteItemService;
+import org.craftercms.engine.test.utils.ConfigAwareTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.i18n.LocaleContextHolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ComponentPrefetcher}.
+ *
+ * @author avasquez
+ */
+public class ComponentPrefetcherTest extends ConfigAwareTestBase {
+
+    private static final String PAGE_PATH = "/site/website/index.xml";
+    private static final String HEADER_PATH = "/site/components/header.xml";
+    private static final String FOOTER_PATH = "/site/components/footer.xml";
+    private static final String MENU_PATH = "/site/components/menu.xml";
+    private static final String INCLUDE_XPATH_QUERY = "//include";
+
+    private SiteItemService siteItemService;
+    private SiteItem page;
+    private ComponentPrefetcher prefetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        SiteItem header = createItem(HEADER_PATH, MENU_PATH);
+        SiteItem footer = createItem(FOOTER_PATH, HEADER_PATH);
+        SiteItem menu = createItem(MENU_PATH);
+        page = createItem(PAGE_PATH, HEADER_PATH, FOOTER_PATH, " ");
+
+        siteItemService = mock(SiteItemService.class);
+        when(siteItemService.getSiteItem(HEADER_PATH)).thenReturn(header);
+        when(siteItemService.getSiteItem(FOOTER_PATH)).thenReturn(footer);
+        when(siteItemService.getSiteItem(MENU_PATH)).thenReturn(menu);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        prefetcher.destroy();
+
+        super.tearDown();
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        prefetcher = createPrefetcher(2);
+        prefetcher.prefetch(page).get(5, TimeUnit.SECONDS);
+
+        // Each component is loaded only once, even if it's included several times
+        verify(siteItemService, times(1)).getSiteItem(HEADER_PATH);
+        verify(siteItemService, times(1)).getSiteItem(FOOTER_PATH);
+        verify(siteItemService, times(1)).getSiteItem(MENU_PATH);
+        verify(siteItemService, never()).getSiteItem(PAGE_PATH);
+    }
+
+    @Test
+    public void testMaxDepth() throws Exception {
+        prefetcher = createPrefetcher(1);
+        prefetcher.prefetch(page).get(5, TimeUnit.SECONDS);
+
+        verify(siteItemService).getSiteItem(HEADER_PATH);
+        verify(siteItemService).getSiteItem(FOOTER_PATH);
+        verify(siteItemService, never()).getSiteItem(MENU_PATH);
+    }
+
+    @Test
+    public void testFailedLoad() throws Exception {
+        when(siteItemService.getSiteItem(FOOTER_PATH)).thenThrow(new RuntimeException("Store unavailable"));
+
+        prefetcher = createPrefetcher(2);
+        prefetcher.prefetch(page).get(5, TimeUnit.SECONDS);
+
+        verify(siteItemService).getSiteItem(MENU_PATH);
+    }
+
+    @Test
+    public void testLoadsDontGetTheRequest() throws Exception {
+        AtomicReference<Locale> locale = new AtomicReference<>();
+        AtomicReference<RequestContext> requestContext = new AtomicReference<>();
+
+        when(siteItemService.getSiteItem(HEADER_PATH)).then(invocation -> {
+            locale.set(LocaleContextHolder.getLocale());
+            requestContext.set(RequestContext.getCurrent());
+
+            return null;
+        });
+
+        LocaleContextHolder.setLocale(Locale.FRENCH);
+        try {
+            prefetcher = createPrefetcher(2);
+            prefetcher.prefetch(page).get(5, TimeUnit.SECONDS);
+        } finally {
+            LocaleContextHolder.resetLocaleContext();
+        }
+
+        assertEquals(Locale.FRENCH, locale.get());
+        assertNull(requestContext.get());
+    }
+
+    @Test
+    public void testCancelledPrefetchSkipsPendingLoads() throws Exception {
+        CountDownLatch headerLoading = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        SiteItem header = siteItemService.getSiteItem(HEADER_PATH);
+
+        when(siteItemService.getSiteItem(HEADER_PATH)).then(invocation -> {
+            headerLoading.countDown();
+            cancelled.await(5, TimeUnit.SECONDS);
+
+            return header;
+        });
+
+        prefetcher = createPrefetcher(2);
+
+        CompletableFuture<Void> prefetch = prefetcher.prefetch(page);
+
+        assertTrue(headerLoading.await(5, TimeUnit.SECONDS));
+
+        prefetch.cancel(false);
+        cancelled.countDown();
+
+        prefetcher.executor.shutdown();
+        assertTrue(prefetcher.executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // The menu is included by the header, so its load would have started after the cancellation
+        verify(siteItemService, never()).getSiteItem(MENU_PATH);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        prefetcher = createPrefetcher(0);
+
+        assertTrue(prefetcher.prefetch(page).isDone());
+        verify(siteItemService, never()).getSiteItem(anyString());
+    }
+
+    private ComponentPrefetcher createPrefetcher(int maxDepth) {
+        ComponentPrefetcher prefetcher = new ComponentPrefetcher();
+        prefetcher.setEnabled(true);
+        prefetcher.setMaxDepth(maxDepth);
+        prefetcher.setPoolSize(4);
+        prefetcher.setIncludeElementName("include");
+        prefetcher.setSiteItemService(siteItemService);
+        prefetcher.afterPropertiesSet();
+
+        return prefetcher;
+    }
+
+    private SiteItem createItem(String path, String... includes) {
+        SiteItem item = mock(SiteItem.class);
+        when(item.getStoreUrl()).thenReturn(path);
+        when(item.queryValues(INCLUDE_XPATH_QUERY)).thenReturn(includes.length > 0?
+                                                                   Arrays.asList(includes) : Collections.emptyList());
+
+        return item;
+    }
+
+}
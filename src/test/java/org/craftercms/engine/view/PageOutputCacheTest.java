@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2007-2023 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.engine.view;
+
+import org.craftercms.core.service.CacheService;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.util.cache.CacheTemplate;
+import org.craftercms.engine.model.SiteItem;
+import org.craftercms.engine.targeting.TargetIdManager;
+import org.craftercms.engine.test.utils.ConfigAwareTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link PageOutputCache}.
+ *
+ * @author avasquez
+ */
+public class PageOutputCacheTest extends ConfigAwareTestBase {
+
+    private static final String CONTENT_TYPE_XPATH_QUERY = "content-type";
+    private static final String TTL_XPATH_QUERY = "pageCacheTtl_i";
+    private static final String DISABLED_XPATH_QUERY = "pageCacheDisabled_b";
+
+    private PageOutputCache pageOutputCache;
+    private Map<Object, Object> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        cache = new HashMap<>();
+
+        CacheService cacheService = mock(CacheService.class);
+        when(cacheService.get(any(Context.class), any())).then(invocation -> cache.get(invocation.getArgument(1)));
+        doAnswer(invocation -> cache.put(invocation.getArgument(1), invocation.getArgument(2)))
+            .when(cacheService).put(any(Context.class), any(), any());
+        doAnswer(invocation -> cache.remove(invocation.getArgument(1)) != null)
+            .when(cacheService).remove(any(Context.class), any());
+
+        CacheTemplate cacheTemplate = mock(CacheTemplate.class);
+        when(cacheTemplate.getCacheService()).thenReturn(cacheService);
+
+        pageOutputCache = new PageOutputCache();
+        pageOutputCache.setEnabled(true);
+        pageOutputCache.setMaxEntrySize(1024);
+        pageOutputCache.setContentTypeXPathQuery(CONTENT_TYPE_XPATH_QUERY);
+        pageOutputCache.setTtlXPathQuery(TTL_XPATH_QUERY);
+        pageOutputCache.setDisabledXPathQuery(DISABLED_XPATH_QUERY);
+        pageOutputCache.setCacheTemplate(cacheTemplate);
+        pageOutputCache.setTargetIdManager(mock(TargetIdManager.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SecurityContextHolder.clearContext();
+
+        super.tearDown();
+    }
+
+    @Test
+    public void testIsCacheable() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/articles/article1");
+
+        assertTrue(pageOutputCache.isCacheable(createPage("/page/article", null, null), request));
+        assertFalse(pageOutputCache.isCacheable(createPage("/page/search", null, null), request));
+        assertFalse(pageOutputCache.isCacheable(createPage("/page/article", null, "true"), request));
+        assertFalse(pageOutputCache.isCacheable(createPage("/page/article", "0", null), request));
+
+        request.setMethod("POST");
+
+        assertFalse(pageOutputCache.isCacheable(createPage("/page/article", null, null), request));
+    }
+
+    @Test
+    public void testIsCacheableWhenDisabled() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/articles/article1");
+
+        pageOutputCache.setEnabled(false);
+
+        assertFalse(pageOutputCache.isCacheable(createPage("/page/article", null, null), request));
+    }
+
+    @Test
+    public void testCreateKey() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/articles/article1");
+        request.setQueryString("page=2");
+
+        String anonymousKey = pageOutputCache.createKey(request, Locale.ENGLISH);
+
+        SecurityContextHolder.getContext().setAuthentication(
+            new TestingAuthenticationToken("john", "N/A", "ROLE_USER", "ROLE_ADMIN"));
+
+        String authenticatedKey = pageOutputCache.createKey(request, Locale.ENGLISH);
+
+        assertEquals(PageOutputCache.CACHE_KEY_PREFIX + "/articles/article1?page=2|en|", anonymousKey);
+        assertEquals(PageOutputCache.CACHE_KEY_PREFIX + "/articles/article1?page=2|en|ROLE_ADMIN,ROLE_USER",
+                     authenticatedKey);
+        assertNotEquals(anonymousKey, pageOutputCache.createKey(request, Locale.FRENCH));
+    }
+
+    @Test
+    public void testPutAndGet() {
+        SiteItem page = createPage("/page/article", null, null);
+        byte[] content = "<html></html>".getBytes(StandardCharsets.UTF_8);
+
+        pageOutputCache.put("key", page, content, "text/html;charset=UTF-8",
+                            Collections.singletonMap("Cache-Control", "max-age=60"));
+
+        PageOutputCache.CachedOutput output = pageOutputCache.get("key");
+
+        assertNotNull(output);
+        assertArrayEquals(content, output.getContent());
+        assertEquals("text/html;charset=UTF-8", output.getContentType());
+        assertEquals("max-age=60", output.getHeaders().get("Cache-Control"));
+        assertNull(pageOutputCache.get("otherKey"));
+    }
+
+    @Test
+    public void testPutWithDependencyPaths() {
+        SiteItem page = createPage("/page/article", null, null);
+        List<String> dependencyPaths = Arrays.asList("/site/website/index.xml", "/site/components/header.xml");
+
+        pageOutputCache.put("key", page, new byte[0], null, null, dependencyPaths);
+
+        // Kept with the output, in case the dependency graph drops the key
+        assertEquals(new HashSet<>(dependencyPaths), pageOutputCache.get("key").getDependencyPaths());
+    }
+
+    @Test
+    public void testPutTooBig() {
+        pageOutputCache.put("key", createPage("/page/article", null, null), new byte[2048], null, null);
+
+        assertNull(pageOutputCache.get("key"));
+    }
+
+    @Test
+    public void testExpiredOutput() {
+        cache.put("key", new PageOutputCache.CachedOutput(new byte[0], null, null,
+                                                          System.currentTimeMillis() - 1000));
+
+        assertNull(pageOutputCache.get("key"));
+        assertFalse(cache.containsKey("key"));
+    }
+
+    private SiteItem createPage(String contentType, String ttl, String disabled) {
+        SiteItem page = mock(SiteItem.class);
+        when(page.getStoreUrl()).thenReturn("/site/website/articles/article1/index.xml");
+        when(page.queryValue(CONTENT_TYPE_XPATH_QUERY)).thenReturn(contentType);
+        when(page.queryValue(TTL_XPATH_QUERY)).thenReturn(ttl);
+        when(page.queryValue(DISABLED_XPATH_QUERY)).thenReturn(disabled);
+
+        return page;
+    }
+
+}